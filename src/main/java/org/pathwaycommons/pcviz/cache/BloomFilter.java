@@ -0,0 +1,102 @@
+package org.pathwaycommons.pcviz.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compact set membership test for string keys: no false negatives, and about the given
+ * rate of false positives as long as no more than the expected number of keys are added.
+ * Keys cannot be removed (rebuild the filter instead). Thread-safe, without locking.
+ */
+public class BloomFilter {
+
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashCount;
+    private final int expectedKeys;
+    private final LongAdder insertions = new LongAdder();
+
+    /**
+     * @param expectedKeys about how many keys are to be added
+     * @param falsePositiveRate e.g. 0.01
+     */
+    public BloomFilter(int expectedKeys, double falsePositiveRate) {
+        this.expectedKeys = Math.max(1, expectedKeys);
+        long n = this.expectedKeys;
+        long m = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (m + 63) / 64));
+        bits = new AtomicLongArray(words);
+        bitCount = 64L * words;
+        hashCount = Math.max(1, (int) Math.round((double) bitCount / n * Math.log(2)));
+    }
+
+    public void put(String key) {
+        long hash = hash(key);
+        int h1 = (int) hash, h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long index = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+            long mask = 1L << index;
+            int word = (int) (index >>> 6);
+            long old;
+            do {
+                old = bits.get(word);
+                if ((old & mask) != 0)
+                    break;
+            } while (!bits.compareAndSet(word, old, old | mask));
+        }
+        insertions.increment();
+    }
+
+    /**
+     * @return false if the key has certainly not been added
+     */
+    public boolean mightContain(String key) {
+        long hash = hash(key);
+        int h1 = (int) hash, h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long index = ((h1 + i * h2) & Long.MAX_VALUE) % bitCount;
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return how many times a key has been added (incl. the same key again)
+     */
+    public long getInsertions() {
+        return insertions.sum();
+    }
+
+    /**
+     * @return the number of keys the filter was sized for
+     */
+    public int getExpectedKeys() {
+        return expectedKeys;
+    }
+
+    /**
+     * @return the filter's size in bytes
+     */
+    public long getBytes() {
+        return bitCount / 8;
+    }
+
+    /*
+     * 64-bit FNV-1a of the UTF-8 bytes, finished as in MurmurHash3, so that the halves are independent enough
+     */
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,65 @@
+package org.pathwaycommons.pcviz.cache;
+
+/**
+ * Size limits and expiry of a {@link TieredCache}.
+ */
+public class CacheBudget {
+
+    private final long heapBytes;
+    private final long offHeapBytes;
+    private final long maxHeapEntryBytes;
+    private final long ttlMillis;
+
+    /**
+     * @param heapBytes approx. heap memory for the deserialized values
+     * @param offHeapBytes direct memory for the serialized values; 0 disables the tier
+     * @param maxHeapEntryBytes larger values go straight to the off-heap tier
+     * @param ttlMillis time to live of a value; 0 - forever
+     */
+    public CacheBudget(long heapBytes, long offHeapBytes, long maxHeapEntryBytes, long ttlMillis) {
+        this.heapBytes = heapBytes;
+        this.offHeapBytes = offHeapBytes;
+        this.maxHeapEntryBytes = maxHeapEntryBytes;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public long getHeapBytes() {
+        return heapBytes;
+    }
+
+    public long getOffHeapBytes() {
+        return offHeapBytes;
+    }
+
+    public long getMaxHeapEntryBytes() {
+        return maxHeapEntryBytes;
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    /**
+     * Parses a size such as "512KB", "64MB", "1GB" or a plain number of bytes.
+     *
+     * @param size the size string
+     * @return number of bytes
+     * @throws NumberFormatException when the size cannot be parsed
+     */
+    public static long parseSize(String size) {
+        String s = size.trim().toUpperCase();
+        long unit = 1;
+        if (s.endsWith("KB")) {
+            unit = 1L << 10;
+        } else if (s.endsWith("MB")) {
+            unit = 1L << 20;
+        } else if (s.endsWith("GB")) {
+            unit = 1L << 30;
+        }
+        if (unit > 1)
+            s = s.substring(0, s.length() - 2).trim();
+        else if (s.endsWith("B"))
+            s = s.substring(0, s.length() - 1).trim();
+        return Long.parseLong(s) * unit;
+    }
+}
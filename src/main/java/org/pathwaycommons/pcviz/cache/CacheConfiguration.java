@@ -0,0 +1,105 @@
+package org.pathwaycommons.pcviz.cache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Defines the application caches (used via @Cacheable) and their memory budgets.
+ * The defaults can be overridden with properties, e.g.:
+ * <pre>
+ * cache.networkCache.heap=16MB
+ * cache.networkCache.offheap=256MB
+ * cache.networkCache.ttl.hours=168
+ * </pre>
+ * and the {@link NegativeCache} of the upstream lookups that gave nothing.
+ */
+@Configuration
+public class CacheConfiguration {
+    private static final Log log = LogFactory.getLog(CacheConfiguration.class);
+
+    // name -> default heap and off-heap budgets
+    private static final Map<String, String[]> CACHES = new LinkedHashMap<String, String[]>();
+    static {
+        CACHES.put("networkCache", new String[]{"16MB", "256MB"});
+        CACHES.put("sifCache", new String[]{"8MB", "128MB"});
+        CACHES.put("rankedEdgesCache", new String[]{"32MB", "128MB"});
+        CACHES.put("networkGenesCache", new String[]{"2MB", "16MB"});
+        CACHES.put("networkSummaryCache", new String[]{"4MB", "32MB"});
+        CACHES.put("bioGeneCache", new String[]{"8MB", "64MB"});
+        CACHES.put("metadataCache", new String[]{"1MB", "0"});
+        CACHES.put("uniprotCache", new String[]{"8MB", "0"});
+        CACHES.put("cancerContextStudiesCache", new String[]{"4MB", "0"});
+        CACHES.put("cancerContextDetailsCache", new String[]{"4MB", "16MB"});
+        CACHES.put("cancerContextAlterationsCache", new String[]{"16MB", "32MB"});
+    }
+
+    @Value("${cache.folder}")
+    private String cacheDir;
+
+    // the disk tier of each instance sharing the cache.folder is in a sub-directory of its own
+    @Value("${server.port:8080}")
+    private int port;
+
+    @Value("${cache.disk.size:1GB}")
+    private String diskSize;
+
+    @Value("${cache.heap.max-entry:64KB}")
+    private String maxHeapEntry;
+
+    // how long the upstream lookups that gave no data, or failed, are not repeated
+    @Value("${cache.negative.nodata.ttl.minutes:360}")
+    private long noDataTtlMinutes;
+
+    @Value("${cache.negative.error.ttl.seconds:60}")
+    private long errorTtlSeconds;
+
+    @Value("${cache.negative.max-entries:100000}")
+    private int maxNegativeEntries;
+
+    private final Environment environment;
+
+    public CacheConfiguration(Environment environment) {
+        this.environment = environment;
+    }
+
+    @Bean
+    public TieredCacheManager cacheManager() throws IOException {
+        String instance = (port > 0) ? String.valueOf(port) : UUID.randomUUID().toString(); // 0 - a random port
+        DiskStore diskStore = new DiskStore(Paths.get(cacheDir, "tiered", instance), CacheBudget.parseSize(diskSize));
+        TieredCacheManager cacheManager = new TieredCacheManager(diskStore, budget("default", "8MB", "0"));
+        for (Map.Entry<String, String[]> cache : CACHES.entrySet()) {
+            CacheBudget budget = budget(cache.getKey(), cache.getValue()[0], cache.getValue()[1]);
+            cacheManager.addCache(cache.getKey(), budget);
+            log.info("Cache " + cache.getKey() + ": heap " + budget.getHeapBytes()
+                + ", off-heap " + budget.getOffHeapBytes() + " bytes");
+        }
+        return cacheManager;
+    }
+
+    @Bean
+    public NegativeCache negativeCache() {
+        return new NegativeCache(TimeUnit.MINUTES.toMillis(noDataTtlMinutes),
+            TimeUnit.SECONDS.toMillis(errorTtlSeconds), maxNegativeEntries);
+    }
+
+    private CacheBudget budget(String name, String heap, String offHeap) {
+        String prefix = "cache." + name + ".";
+        return new CacheBudget(
+            CacheBudget.parseSize(environment.getProperty(prefix + "heap", heap)),
+            CacheBudget.parseSize(environment.getProperty(prefix + "offheap", offHeap)),
+            CacheBudget.parseSize(maxHeapEntry),
+            TimeUnit.HOURS.toMillis(Long.parseLong(environment.getProperty(prefix + "ttl.hours", "168")))
+        );
+    }
+}
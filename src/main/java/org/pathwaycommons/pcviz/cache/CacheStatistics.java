@@ -0,0 +1,112 @@
+package org.pathwaycommons.pcviz.cache;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of a {@link TieredCache}; updated without locking.
+ */
+public class CacheStatistics {
+
+    private final LongAdder heapHits = new LongAdder();
+    private final LongAdder offHeapHits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder puts = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    void heapHit() {
+        heapHits.increment();
+    }
+
+    void offHeapHit() {
+        offHeapHits.increment();
+    }
+
+    void diskHit() {
+        diskHits.increment();
+    }
+
+    void miss() {
+        misses.increment();
+    }
+
+    /*
+     * an expired value served while a new one is loaded
+     */
+    void staleHit() {
+        staleHits.increment();
+    }
+
+    void put() {
+        puts.increment();
+    }
+
+    /*
+     * a value that the admission policy kept out of the heap tier
+     */
+    void rejection() {
+        rejections.increment();
+    }
+
+    /*
+     * a value dropped from the last tier
+     */
+    void eviction() {
+        evictions.increment();
+    }
+
+    public long getHeapHits() {
+        return heapHits.sum();
+    }
+
+    public long getOffHeapHits() {
+        return offHeapHits.sum();
+    }
+
+    public long getDiskHits() {
+        return diskHits.sum();
+    }
+
+    public long getHits() {
+        return getHeapHits() + getOffHeapHits() + getDiskHits();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getStaleHits() {
+        return staleHits.sum();
+    }
+
+    public long getPuts() {
+        return puts.sum();
+    }
+
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public double getHitRatio() {
+        long hits = getHits();
+        long requests = hits + getMisses();
+        return (requests == 0) ? 0.0 : (double) hits / requests;
+    }
+
+    public void reset() {
+        heapHits.reset();
+        offHeapHits.reset();
+        diskHits.reset();
+        misses.reset();
+        staleHits.reset();
+        puts.reset();
+        rejections.reset();
+        evictions.reset();
+    }
+}
@@ -0,0 +1,256 @@
+package org.pathwaycommons.pcviz.cache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.biopax.paxtools.controller.ModelUtils;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * The last tier of all the {@link TieredCache}s: serialized values in files,
+ * one sub-directory per cache, under a single size budget.
+ * A file is named by the hash of its key's string form and hash code, and has the serialized key,
+ * so that distinct keys that print the same are told apart (at worst, they take turns in the file).
+ * It is not persistent: the directory is wiped on start and on {@link #close()};
+ * so each instance of the application needs a directory of its own.
+ */
+public class DiskStore {
+    private static final Log log = LogFactory.getLog(DiskStore.class);
+
+    private final Path dir;
+    private final long maxBytes;
+    private final Map<Path, Entry> index = new ConcurrentHashMap<Path, Entry>();
+    private final AtomicLong bytes = new AtomicLong();
+    private final Object evictionLock = new Object();
+
+    private static class Entry {
+        final String cacheName;
+        final String key; // the string form
+        final long size;
+        final long created;
+        final CacheStatistics statistics;
+        volatile long lastAccess;
+
+        Entry(String cacheName, String key, long size, long created, CacheStatistics statistics) {
+            this.cacheName = cacheName;
+            this.key = key;
+            this.size = size;
+            this.created = created;
+            this.statistics = statistics;
+            this.lastAccess = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * A value read from the disk.
+     */
+    static class Stored {
+        final byte[] value;
+        final long created;
+
+        Stored(byte[] value, long created) {
+            this.value = value;
+            this.created = created;
+        }
+    }
+
+    /**
+     * @param dir the directory of this instance (it is cleared)
+     * @param maxBytes size budget of all the files; 0 disables the tier
+     * @throws IOException when the directory cannot be created or cleared
+     */
+    public DiskStore(Path dir, long maxBytes) throws IOException {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        delete(dir);
+        Files.createDirectories(dir);
+    }
+
+    public Path getDir() {
+        return dir;
+    }
+
+    public boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Deletes the directory.
+     */
+    public void close() {
+        index.clear();
+        bytes.set(0);
+        try {
+            delete(dir);
+        } catch (IOException e) {
+            log.warn("Cannot delete the disk cache " + dir + "; " + e);
+        }
+    }
+
+    void put(String cacheName, Object key, byte[] value, long created, CacheStatistics statistics) {
+        byte[] keyBytes = ValueCodec.encode(key);
+        if (!isEnabled() || value.length > maxBytes || keyBytes == null) {
+            statistics.eviction();
+            return;
+        }
+
+        Path file = file(cacheName, key);
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmp = Files.createTempFile(file.getParent(), null, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(keyBytes.length);
+                out.write(keyBytes);
+                out.writeLong(created);
+                out.write(value);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Cannot write the disk cache file " + file + "; " + e);
+            statistics.eviction();
+            return;
+        }
+
+        Entry previous = index.put(file,
+            new Entry(cacheName, String.valueOf(key), 4 + keyBytes.length + 8 + value.length, created, statistics));
+        bytes.addAndGet(4 + keyBytes.length + 8 + value.length - ((previous == null) ? 0 : previous.size));
+
+        if (bytes.get() > maxBytes)
+            evict();
+    }
+
+    Stored get(String cacheName, Object key) {
+        Path file = file(cacheName, key);
+        Entry entry = index.get(file);
+        if (entry == null)
+            return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            byte[] keyBytes = new byte[in.readInt()];
+            in.readFully(keyBytes);
+            if (!key.equals(ValueCodec.decode(keyBytes)))
+                return null; // another key with the same name
+            long created = in.readLong();
+            byte[] value = new byte[(int) (entry.size - 12 - keyBytes.length)];
+            in.readFully(value);
+            entry.lastAccess = System.currentTimeMillis();
+            return new Stored(value, created);
+        } catch (NoSuchFileException e) {
+            // evicted or removed in the meantime
+            return null;
+        } catch (IOException e) {
+            log.warn("Cannot read the disk cache file " + file + "; " + e);
+            remove(file);
+            return null;
+        }
+    }
+
+    /**
+     * @return when the value was put, as far as the index knows (the file is not read); -1 if it is not there
+     */
+    long getCreated(String cacheName, Object key) {
+        Entry entry = index.get(file(cacheName, key));
+        return (entry == null) ? -1 : entry.created;
+    }
+
+    void remove(String cacheName, Object key) {
+        remove(file(cacheName, key));
+    }
+
+    /**
+     * @param predicate tests the key's string form
+     * @return number of the values removed
+     */
+    int removeIf(String cacheName, Predicate<String> predicate) {
+        int count = 0;
+        for (Map.Entry<Path, Entry> e : index.entrySet()) {
+            if (e.getValue().cacheName.equals(cacheName) && predicate.test(e.getValue().key) && remove(e.getKey()))
+                count++;
+        }
+        return count;
+    }
+
+    void clear(String cacheName) {
+        for (Map.Entry<Path, Entry> e : index.entrySet()) {
+            if (e.getValue().cacheName.equals(cacheName))
+                remove(e.getKey());
+        }
+    }
+
+    long getBytes(String cacheName) {
+        long sum = 0;
+        for (Entry entry : index.values())
+            if (entry.cacheName.equals(cacheName))
+                sum += entry.size;
+        return sum;
+    }
+
+    int size(String cacheName) {
+        int count = 0;
+        for (Entry entry : index.values())
+            if (entry.cacheName.equals(cacheName))
+                count++;
+        return count;
+    }
+
+    private boolean remove(Path file) {
+        Entry entry = index.remove(file);
+        if (entry == null)
+            return false;
+        bytes.addAndGet(-entry.size);
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Cannot delete the disk cache file " + file + "; " + e);
+        }
+        return true;
+    }
+
+    /*
+     * removes the least recently used files of all the caches, down to 90% of the budget
+     */
+    private void evict() {
+        synchronized (evictionLock) {
+            if (bytes.get() <= maxBytes)
+                return;
+            List<Map.Entry<Path, Entry>> entries = new ArrayList<Map.Entry<Path, Entry>>(index.entrySet());
+            entries.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+            long target = maxBytes / 10 * 9;
+            for (Map.Entry<Path, Entry> e : entries) {
+                if (bytes.get() <= target)
+                    break;
+                if (remove(e.getKey()))
+                    e.getValue().statistics.eviction();
+            }
+        }
+    }
+
+    private Path file(String cacheName, Object key) {
+        return dir.resolve(cacheName).resolve(ModelUtils.md5hex(key + "#" + key.hashCode()));
+    }
+
+    private static void delete(Path path) throws IOException {
+        if (!Files.exists(path))
+            return;
+        if (Files.isDirectory(path)) {
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(path)) {
+                for (Path child : children)
+                    delete(child);
+            }
+        }
+        Files.delete(path);
+    }
+}
@@ -0,0 +1,170 @@
+package org.pathwaycommons.pcviz.cache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * In-memory index of the files of a file-backed cache (a cache.folder sub-directory),
+ * so that a lookup of a file that is not there costs no I/O: the relative paths ('/'-separated)
+ * of the files are read once, and then kept up to date by the cache as it writes (see {@link #add}).
+ * A {@link BloomFilter} in front of the key set answers most misses.
+ * A file deleted behind the index's back (e.g. by hand) is dropped from the index when it fails to open
+ * (see {@link #read}); a file added so is not seen until the next start.
+ */
+public class FileIndex {
+    private static final Log log = LogFactory.getLog(FileIndex.class);
+
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private final Path dir;
+    private final Set<String> keys = ConcurrentHashMap.newKeySet();
+    private volatile BloomFilter filter;
+    // adds (concurrent) vs. a rebuild, which has to see the keys of all the adds before it
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Reads the file names of the directory (creating it if needed).
+     *
+     * @param dir the cache directory
+     * @param maxDepth 1 - the files in the directory only; more - in its sub-directories as well
+     * @throws IOException when the directory cannot be read
+     */
+    public FileIndex(Path dir, int maxDepth) throws IOException {
+        this.dir = dir;
+        if (!Files.exists(dir))
+            Files.createDirectories(dir);
+
+        long start = System.currentTimeMillis();
+        try (Stream<Path> files = Files.walk(dir, maxDepth)) {
+            files.filter(Files::isRegularFile)
+                .map(this::key)
+                .filter(key -> !key.endsWith(".tmp"))
+                .forEach(keys::add);
+        }
+        filter = newFilter(keys.size());
+        for (String key : keys)
+            filter.put(key);
+        log.info("Indexed " + keys.size() + " files in " + dir + " in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    public Path getDir() {
+        return dir;
+    }
+
+    /**
+     * @param key relative path, e.g. "TP53.json" or "brca_tcga_mutations/brca_tcga_all/TP53"
+     * @return true if the file is there (as far as the index knows)
+     */
+    public boolean contains(String key) {
+        return filter.mightContain(key) && keys.contains(key);
+    }
+
+    /**
+     * @return the file's path (whether it exists or not)
+     */
+    public Path resolve(String key) {
+        return dir.resolve(key);
+    }
+
+    /**
+     * Reads the file, unless the index does not have it.
+     *
+     * @return the file's content, or null if there is no such file
+     * @throws IOException when the file cannot be read
+     */
+    public byte[] read(String key) throws IOException {
+        if (!contains(key))
+            return null;
+        try {
+            return Files.readAllBytes(resolve(key));
+        } catch (NoSuchFileException e) {
+            remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Adds a file that the cache has written.
+     */
+    public void add(String key) {
+        if (contains(key))
+            return;
+        BloomFilter current;
+        lock.readLock().lock();
+        try {
+            current = filter;
+            current.put(key); // before the key set, so that contains() is never wrong for long
+            keys.add(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (current.getInsertions() >= current.getExpectedKeys())
+            rebuild();
+    }
+
+    /**
+     * Drops a file that the cache has deleted (the filter keeps it until rebuilt, which is harmless).
+     */
+    public void remove(String key) {
+        keys.remove(key);
+    }
+
+    /**
+     * Deletes the file and drops it.
+     *
+     * @return true if the file existed
+     * @throws IOException when it cannot be deleted
+     */
+    public boolean delete(String key) throws IOException {
+        remove(key);
+        return Files.deleteIfExists(resolve(key));
+    }
+
+    /**
+     * @return the number of the files indexed
+     */
+    public int size() {
+        return keys.size();
+    }
+
+    /**
+     * @return the indexed keys (a read-only live view)
+     */
+    public Set<String> keys() {
+        return Collections.unmodifiableSet(keys);
+    }
+
+    /*
+     * a filter with room for twice as many keys as there are
+     */
+    private void rebuild() {
+        lock.writeLock().lock();
+        try {
+            if (filter.getInsertions() < filter.getExpectedKeys())
+                return; // done by another thread
+            BloomFilter rebuilt = newFilter(keys.size());
+            for (String key : keys)
+                rebuilt.put(key);
+            filter = rebuilt;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static BloomFilter newFilter(int size) {
+        return new BloomFilter(2 * Math.max(1024, size), FALSE_POSITIVE_RATE);
+    }
+
+    private String key(Path file) {
+        return dir.relativize(file).toString().replace('\\', '/');
+    }
+}
@@ -0,0 +1,80 @@
+package org.pathwaycommons.pcviz.cache;
+
+/**
+ * Approximate, aging access frequency of the cache keys (a count-min sketch),
+ * which the admission policy uses to decide whether a new value is worth
+ * evicting an older one from the heap tier (as in TinyLFU).
+ * Not thread-safe; guarded by the owning cache.
+ */
+class FrequencySketch {
+
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final int[] SEEDS = {0x97cb3127, 0xb9f4a1d3, 0x5ac3a5d5, 0x7f4a7c15};
+
+    private final int[][] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * @param expectedEntries about how many keys are expected to be in the cache
+     */
+    FrequencySketch(int expectedEntries) {
+        int width = Integer.highestOneBit(Math.max(64, expectedEntries) * 2 - 1);
+        table = new int[DEPTH][width];
+        mask = width - 1;
+        sampleSize = 10 * width;
+    }
+
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = index(hash, i);
+            if (table[i][index] < MAX_COUNT) {
+                table[i][index]++;
+                added = true;
+            }
+        }
+        if (added && ++additions == sampleSize)
+            age();
+    }
+
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < DEPTH; i++)
+            frequency = Math.min(frequency, table[i][index(hash, i)]);
+        return frequency;
+    }
+
+    void clear() {
+        for (int[] row : table)
+            java.util.Arrays.fill(row, 0);
+        additions = 0;
+    }
+
+    /*
+     * halves all the counters, so that the keys that used to be popular
+     * do not stay in the cache forever
+     */
+    private void age() {
+        for (int[] row : table)
+            for (int j = 0; j < row.length; j++)
+                row[j] >>>= 1;
+        additions /= 2;
+    }
+
+    private int index(int hash, int i) {
+        int h = (hash ^ SEEDS[i]) * SEEDS[(i + 1) % DEPTH];
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private static int spread(int h) {
+        h ^= (h >>> 17);
+        h *= 0xed5ad4bb;
+        h ^= (h >>> 11);
+        return h;
+    }
+}
@@ -0,0 +1,147 @@
+package org.pathwaycommons.pcviz.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers for a while which upstream lookups gave nothing, so that they are not repeated
+ * on every request (e.g. a misspelled gene): {@link Kind#NO_DATA} - the upstream has no data for the key,
+ * kept for hours; {@link Kind#ERROR} - the lookup failed (e.g. the upstream rejected the query), kept
+ * for seconds to minutes. The keys are namespaced by the caller, e.g. "biogene:human:TP53".
+ * A {@link BloomFilter} in front answers the lookups of all the other keys (nearly all of them)
+ * without touching the map; it is rebuilt when the expired entries are purged.
+ */
+public class NegativeCache {
+
+    public enum Kind {NO_DATA, ERROR}
+
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private static class Entry {
+        final Kind kind;
+        final long expires;
+
+        Entry(Kind kind, long expires) {
+            this.kind = kind;
+            this.expires = expires;
+        }
+    }
+
+    private final long noDataTtlMillis;
+    private final long errorTtlMillis;
+    private final int maxEntries;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private volatile BloomFilter filter;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder filtered = new LongAdder();
+    private final LongAdder noData = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    /**
+     * @param noDataTtlMillis how long to remember that there is no data
+     * @param errorTtlMillis how long to remember a failed lookup
+     * @param maxEntries max. number of keys to remember
+     */
+    public NegativeCache(long noDataTtlMillis, long errorTtlMillis, int maxEntries) {
+        this.noDataTtlMillis = noDataTtlMillis;
+        this.errorTtlMillis = errorTtlMillis;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.filter = new BloomFilter(this.maxEntries, FALSE_POSITIVE_RATE);
+    }
+
+    /**
+     * @param key namespaced key
+     * @return why the key is remembered, or null if it is not (or no longer)
+     */
+    public Kind get(String key) {
+        if (!filter.mightContain(key)) {
+            filtered.increment();
+            return null;
+        }
+        Entry entry = entries.get(key);
+        if (entry == null)
+            return null;
+        if (System.currentTimeMillis() > entry.expires) {
+            entries.remove(key, entry);
+            return null;
+        }
+        hits.increment();
+        return entry.kind;
+    }
+
+    /**
+     * Remembers that the upstream had nothing for the key (for the kind's time to live).
+     */
+    public synchronized void put(String key, Kind kind) {
+        long ttl = (kind == Kind.NO_DATA) ? noDataTtlMillis : errorTtlMillis;
+        if (ttl <= 0)
+            return;
+        if (filter.getInsertions() >= maxEntries)
+            purge();
+        entries.put(key, new Entry(kind, System.currentTimeMillis() + ttl));
+        filter.put(key);
+        if (kind == Kind.NO_DATA)
+            noData.increment();
+        else
+            errors.increment();
+    }
+
+    /**
+     * Forgets the key, e.g. when a lookup has succeeded after all.
+     */
+    public void remove(String key) {
+        if (filter.mightContain(key))
+            entries.remove(key);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        filter = new BloomFilter(maxEntries, FALSE_POSITIVE_RATE);
+    }
+
+    /*
+     * drops the expired entries (and, if still nearly full, some others), and rebuilds the filter
+     */
+    private void purge() {
+        long now = System.currentTimeMillis();
+        entries.values().removeIf(e -> now > e.expires);
+        int keep = maxEntries * 3 / 4;
+        for (Iterator<String> it = entries.keySet().iterator(); entries.size() > keep && it.hasNext(); ) {
+            it.next();
+            it.remove();
+        }
+
+        BloomFilter rebuilt = new BloomFilter(maxEntries, FALSE_POSITIVE_RATE);
+        for (String key : entries.keySet())
+            rebuilt.put(key);
+        filter = rebuilt;
+    }
+
+    /**
+     * @return the number of keys remembered (incl. expired ones not yet purged)
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return keys remembered, lookups answered by the filter alone and by the map (hits),
+     * no-data and error entries added, and the filter size
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+        statistics.put("entries", entries.size());
+        statistics.put("maxEntries", maxEntries);
+        statistics.put("filtered", filtered.sum());
+        statistics.put("hits", hits.sum());
+        statistics.put("noData", noData.sum());
+        statistics.put("errors", errors.sum());
+        statistics.put("filterBytes", filter.getBytes());
+        return statistics;
+    }
+}
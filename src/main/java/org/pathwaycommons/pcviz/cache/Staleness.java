@@ -0,0 +1,32 @@
+package org.pathwaycommons.pcviz.cache;
+
+/**
+ * Notes, per thread, that a {@link TieredCache} has answered with an expired value
+ * (see {@link TieredCache#get(Object, java.util.concurrent.Callable)}), so that the response can say so.
+ */
+public final class Staleness {
+
+    private static final ThreadLocal<Long> AGE = new ThreadLocal<Long>();
+
+    private Staleness() {
+    }
+
+    static void record(long ageMillis) {
+        Long age = AGE.get();
+        if (age == null || ageMillis > age)
+            AGE.set(ageMillis);
+    }
+
+    /**
+     * @return the age (ms) of the oldest stale value served in this thread since the last call, or -1 if none
+     */
+    public static long take() {
+        Long age = AGE.get();
+        AGE.remove();
+        return (age == null) ? -1 : age;
+    }
+
+    public static void clear() {
+        AGE.remove();
+    }
+}
@@ -0,0 +1,523 @@
+package org.pathwaycommons.pcviz.cache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.SimpleValueWrapper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Predicate;
+
+/**
+ * Spring {@link Cache} with three tiers:
+ * <ul>
+ *     <li>heap - deserialized values, least recently used first out, limited by their approx. size in bytes;</li>
+ *     <li>off-heap - serialized values in direct buffers, for the large values (such as network JSON)
+ *     and for the ones evicted from the heap, so that multi-megabyte strings do not pile up in the old generation;</li>
+ *     <li>disk - the {@link DiskStore} shared by all the caches, for what is evicted from the off-heap tier.</li>
+ * </ul>
+ * A new value gets into a full heap tier only if it has been requested more often
+ * than the values it would evict (see {@link FrequencySketch}); otherwise it goes off-heap.
+ * Values that cannot be serialized stay on the heap.
+ * Expired values are not served by {@link #get(Object)}, but are kept (until evicted or replaced)
+ * to be served as stale ones while a new value is loaded (see {@link #get(Object, Callable)}).
+ */
+public class TieredCache implements Cache {
+    private static final Log log = LogFactory.getLog(TieredCache.class);
+
+    private final String name;
+    private final CacheBudget budget;
+    private final DiskStore diskStore;
+    private final CacheStatistics statistics = new CacheStatistics();
+
+    // guarded by this
+    private final FrequencySketch sketch;
+    private final LinkedHashMap<Object, HeapEntry> heap = new LinkedHashMap<Object, HeapEntry>(16, 0.75f, true);
+    private final LinkedHashMap<Object, OffHeapEntry> offHeap = new LinkedHashMap<Object, OffHeapEntry>(16, 0.75f, true);
+    private long heapBytes;
+    private long offHeapBytes;
+
+    // loads in progress (incl. the stale-while-revalidate ones), by key
+    private final ConcurrentMap<Object, Future<Object>> loading = new ConcurrentHashMap<Object, Future<Object>>();
+    private volatile Executor refresher;
+    private volatile long staleAfterMillis;
+
+    private static class HeapEntry {
+        final Object value;
+        final long weight;
+        final long created;
+
+        HeapEntry(Object value, long weight, long created) {
+            this.value = value;
+            this.weight = weight;
+            this.created = created;
+        }
+    }
+
+    private static class OffHeapEntry {
+        final ByteBuffer buffer;
+        final long created;
+
+        OffHeapEntry(ByteBuffer buffer, long created) {
+            this.buffer = buffer;
+            this.created = created;
+        }
+
+        byte[] bytes() {
+            byte[] bytes = new byte[buffer.capacity()];
+            buffer.duplicate().get(bytes);
+            return bytes;
+        }
+    }
+
+    /*
+     * a serialized value on its way to the disk
+     */
+    private static class Spilled {
+        final Object key;
+        final byte[] bytes;
+        final long created;
+
+        Spilled(Object key, byte[] bytes, long created) {
+            this.key = key;
+            this.bytes = bytes;
+            this.created = created;
+        }
+    }
+
+    public TieredCache(String name, CacheBudget budget, DiskStore diskStore) {
+        this.name = name;
+        this.budget = budget;
+        this.diskStore = diskStore;
+        // assuming a few KB per value on average
+        this.sketch = new FrequencySketch((int) Math.min(1 << 20, (budget.getHeapBytes() + budget.getOffHeapBytes()) / 4096));
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Object getNativeCache() {
+        return this;
+    }
+
+    public CacheBudget getBudget() {
+        return budget;
+    }
+
+    public CacheStatistics getStatistics() {
+        return statistics;
+    }
+
+    public synchronized long getHeapBytes() {
+        return heapBytes;
+    }
+
+    public synchronized long getOffHeapBytes() {
+        return offHeapBytes;
+    }
+
+    public long getDiskBytes() {
+        return diskStore.getBytes(name);
+    }
+
+    /**
+     * @return number of the values in all the tiers
+     */
+    public long size() {
+        int inMemory;
+        synchronized (this) {
+            inMemory = heap.size() + offHeap.size();
+        }
+        return inMemory + diskStore.size(name);
+    }
+
+    @Override
+    public ValueWrapper get(Object key) {
+        synchronized (this) {
+            sketch.increment(key);
+        }
+        Found found = find(key, false);
+        if (found == null) {
+            statistics.miss();
+            return null;
+        }
+
+        if (found.bytes == null) {
+            statistics.heapHit();
+        } else {
+            if (found.fromDisk)
+                statistics.diskHit();
+            else
+                statistics.offHeapHit();
+            promote(key, found.value, found.bytes, found.created, found.fromDisk);
+        }
+        return new SimpleValueWrapper(found.value);
+    }
+
+    /*
+     * a value found in one of the tiers; bytes - its serialized form, unless it is from the heap
+     */
+    private static class Found {
+        final Object value;
+        final byte[] bytes;
+        final long created;
+        final boolean fromDisk;
+
+        Found(Object value, byte[] bytes, long created, boolean fromDisk) {
+            this.value = value;
+            this.bytes = bytes;
+            this.created = created;
+            this.fromDisk = fromDisk;
+        }
+    }
+
+    /*
+     * looks the key up in the tiers in order (a key is in one tier at a time), neither counting nor promoting;
+     * an expired value is left in place (to serve as a stale one) but found only if asked for
+     */
+    private Found find(Object key, boolean expired) {
+        long now = System.currentTimeMillis();
+        byte[] bytes = null;
+        long created = 0;
+
+        synchronized (this) {
+            HeapEntry heapEntry = heap.get(key);
+            if (heapEntry != null)
+                return (expired || !isExpired(heapEntry.created, now))
+                    ? new Found(heapEntry.value, null, heapEntry.created, false) : null;
+
+            OffHeapEntry offHeapEntry = offHeap.get(key);
+            if (offHeapEntry != null) {
+                if (!expired && isExpired(offHeapEntry.created, now))
+                    return null;
+                bytes = offHeapEntry.bytes();
+                created = offHeapEntry.created;
+            }
+        }
+
+        if (bytes != null) {
+            Object value = decode(key, bytes);
+            return (value != NOT_DECODED) ? new Found(value, bytes, created, false) : null;
+        } else if (diskStore.isEnabled()) {
+            DiskStore.Stored stored = diskStore.get(name, key);
+            if (stored != null && (expired || !isExpired(stored.created, now))) {
+                Object value = decode(key, stored.value);
+                if (value != NOT_DECODED)
+                    return new Found(value, stored.value, stored.created, true);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Whether there is an unexpired value of the key, e.g. to decide where to get it from;
+     * not counted in the statistics, and the value is neither deserialized nor promoted.
+     */
+    public boolean containsKey(Object key) {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            HeapEntry heapEntry = heap.get(key);
+            if (heapEntry != null)
+                return !isExpired(heapEntry.created, now);
+            OffHeapEntry offHeapEntry = offHeap.get(key);
+            if (offHeapEntry != null)
+                return !isExpired(offHeapEntry.created, now);
+        }
+        long created = diskStore.getCreated(name, key);
+        return created >= 0 && !isExpired(created, now);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Class<T> type) {
+        ValueWrapper wrapper = get(key);
+        Object value = (wrapper == null) ? null : wrapper.get();
+        if (value != null && type != null && !type.isInstance(value))
+            throw new IllegalStateException("Cached value is not of required type [" + type.getName() + "]: " + value);
+        return (T) value;
+    }
+
+    /**
+     * Gets the value, or loads and puts it (as {@code @Cacheable(sync = true)} does); concurrent loads
+     * of the same key are shared. Stale-while-revalidate: if there is only an expired value, and a refresher is set
+     * (see {@link #setRefresher(Executor, long)}), the value is loaded by the refresher, and if it takes longer
+     * than the stale-after time, or fails, or gives null (not put), the expired value is returned instead
+     * (see {@link Staleness}); a slow load goes on in the background and puts the value when done.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+        ValueWrapper wrapper = get(key);
+        if (wrapper != null)
+            return (T) wrapper.get();
+
+        Executor refresher = this.refresher;
+        Found stale = (refresher != null) ? find(key, true) : null;
+
+        FutureTask<Object> task = new FutureTask<Object>(() -> {
+            try {
+                Found found = find(key, false); // loaded by another caller just now
+                if (found != null)
+                    return found.value;
+                Object value = valueLoader.call();
+                if (value != null) // a failure reported as null is not to be kept
+                    put(key, value);
+                return value;
+            } finally {
+                loading.remove(key);
+            }
+        });
+        Future<Object> load = loading.putIfAbsent(key, task);
+        if (load == null) {
+            load = task;
+            if (stale == null) {
+                task.run();
+            } else {
+                try {
+                    refresher.execute(task);
+                } catch (RejectedExecutionException e) { // shutting down
+                    task.run();
+                }
+            }
+        }
+
+        if (stale == null) {
+            try {
+                return (T) load.get();
+            } catch (ExecutionException e) {
+                throw new ValueRetrievalException(key, valueLoader, e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ValueRetrievalException(key, valueLoader, e);
+            }
+        }
+
+        try {
+            Object value = load.get(staleAfterMillis, TimeUnit.MILLISECONDS);
+            if (value != null)
+                return (T) value;
+        } catch (TimeoutException e) {
+            log.debug("Refreshing " + key + " in " + name + " is slow; serving the stale value");
+        } catch (ExecutionException e) {
+            log.warn("Failed refreshing " + key + " in " + name + "; serving the stale value; " + e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        statistics.staleHit();
+        Staleness.record(System.currentTimeMillis() - stale.created);
+        return (T) stale.value;
+    }
+
+    /**
+     * @param refresher executes the loads that may be answered with a stale value; null - no stale values
+     * @param staleAfterMillis how long to wait for such a load before answering with the stale value
+     */
+    public void setRefresher(Executor refresher, long staleAfterMillis) {
+        this.staleAfterMillis = staleAfterMillis;
+        this.refresher = refresher;
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+        statistics.put();
+        diskStore.remove(name, key);
+        byte[] bytes = ValueCodec.encode(value); // not holding the lock: a large network takes a while
+        List<Spilled> spilled = new ArrayList<Spilled>();
+        synchronized (this) {
+            removeFromHeap(key);
+            removeFromOffHeap(key);
+            insert(key, value, bytes, System.currentTimeMillis(), spilled);
+        }
+        spill(spilled);
+    }
+
+    @Override
+    public ValueWrapper putIfAbsent(Object key, Object value) {
+        ValueWrapper existing = get(key);
+        if (existing == null)
+            put(key, value);
+        return existing;
+    }
+
+    @Override
+    public void evict(Object key) {
+        synchronized (this) {
+            removeFromHeap(key);
+            removeFromOffHeap(key);
+        }
+        diskStore.remove(name, key);
+    }
+
+    @Override
+    public void clear() {
+        synchronized (this) {
+            heap.clear();
+            offHeap.clear();
+            heapBytes = 0;
+            offHeapBytes = 0;
+            sketch.clear();
+        }
+        diskStore.clear(name);
+    }
+
+    /**
+     * Removes the values whose keys match.
+     *
+     * @param predicate tests the key's string form, e.g. "SimpleKey [TP53,human]" for a multi-argument method
+     * @return number of the values removed
+     */
+    public int evictIf(Predicate<String> predicate) {
+        int count = 0;
+        synchronized (this) {
+            for (Object key : new ArrayList<Object>(heap.keySet())) {
+                if (predicate.test(keyName(key))) {
+                    removeFromHeap(key);
+                    count++;
+                }
+            }
+            for (Object key : new ArrayList<Object>(offHeap.keySet())) {
+                if (predicate.test(keyName(key))) {
+                    removeFromOffHeap(key);
+                    count++;
+                }
+            }
+        }
+        return count + diskStore.removeIf(name, predicate);
+    }
+
+    private boolean isExpired(long created, long now) {
+        return budget.getTtlMillis() > 0 && now - created > budget.getTtlMillis();
+    }
+
+    private static final Object NOT_DECODED = new Object();
+
+    private Object decode(Object key, byte[] bytes) {
+        try {
+            return ValueCodec.decode(bytes);
+        } catch (IOException e) {
+            log.warn("Cannot deserialize the cached value of " + key + " in " + name + "; " + e);
+            evict(key);
+            return NOT_DECODED;
+        }
+    }
+
+    /*
+     * moves a value found in a lower tier up, unless the key has got a new value in the meantime
+     */
+    private void promote(Object key, Object value, byte[] bytes, long created, boolean fromDisk) {
+        List<Spilled> spilled = new ArrayList<Spilled>();
+        synchronized (this) {
+            if (heap.containsKey(key))
+                return;
+            if (!fromDisk) {
+                if (!offHeap.containsKey(key) || ValueCodec.heapWeight(value, bytes) > budget.getMaxHeapEntryBytes())
+                    return; // removed meanwhile, or is to stay off-heap anyway
+                removeFromOffHeap(key);
+            } else if (offHeap.containsKey(key)) {
+                return;
+            }
+            insert(key, value, bytes, created, spilled);
+        }
+        if (fromDisk)
+            diskStore.remove(name, key);
+        spill(spilled);
+    }
+
+    private void insert(Object key, Object value, byte[] bytes, long created, List<Spilled> spilled) {
+        long weight = ValueCodec.heapWeight(value, bytes);
+        if (bytes == null) {
+            // cannot be serialized - heap only
+            insertIntoHeap(key, new HeapEntry(value, weight, created), true, spilled);
+        } else if (weight > budget.getMaxHeapEntryBytes() || weight > budget.getHeapBytes()) {
+            insertIntoOffHeap(key, bytes, created, spilled);
+        } else if (!insertIntoHeap(key, new HeapEntry(value, weight, created), false, spilled)) {
+            statistics.rejection();
+            insertIntoOffHeap(key, bytes, created, spilled);
+        }
+    }
+
+    /*
+     * returns false if the admission policy keeps the value out
+     */
+    private boolean insertIntoHeap(Object key, HeapEntry entry, boolean force, List<Spilled> spilled) {
+        int frequency = sketch.frequency(key);
+        Iterator<Map.Entry<Object, HeapEntry>> it = heap.entrySet().iterator();
+        while (heapBytes + entry.weight > budget.getHeapBytes() && it.hasNext()) {
+            Map.Entry<Object, HeapEntry> eldest = it.next();
+            if (!force && frequency < sketch.frequency(eldest.getKey()))
+                return false;
+            it.remove();
+            heapBytes -= eldest.getValue().weight;
+            byte[] bytes = ValueCodec.encode(eldest.getValue().value);
+            if (bytes != null)
+                insertIntoOffHeap(eldest.getKey(), bytes, eldest.getValue().created, spilled);
+            else
+                statistics.eviction();
+        }
+        heap.put(key, entry);
+        heapBytes += entry.weight;
+        return true;
+    }
+
+    private void insertIntoOffHeap(Object key, byte[] bytes, long created, List<Spilled> spilled) {
+        if (bytes.length > budget.getOffHeapBytes()) {
+            spilled.add(new Spilled(key, bytes, created));
+            return;
+        }
+
+        Iterator<Map.Entry<Object, OffHeapEntry>> it = offHeap.entrySet().iterator();
+        while (offHeapBytes + bytes.length > budget.getOffHeapBytes() && it.hasNext()) {
+            Map.Entry<Object, OffHeapEntry> eldest = it.next();
+            it.remove();
+            offHeapBytes -= eldest.getValue().buffer.capacity();
+            spilled.add(new Spilled(eldest.getKey(), eldest.getValue().bytes(), eldest.getValue().created));
+        }
+
+        ByteBuffer buffer;
+        try {
+            buffer = ByteBuffer.allocateDirect(bytes.length);
+        } catch (OutOfMemoryError e) {
+            // over -XX:MaxDirectMemorySize
+            log.warn("Cannot allocate " + bytes.length + " bytes off-heap for " + name + "; " + e);
+            spilled.add(new Spilled(key, bytes, created));
+            return;
+        }
+        buffer.put(bytes).flip();
+        offHeap.put(key, new OffHeapEntry(buffer, created));
+        offHeapBytes += bytes.length;
+    }
+
+    private void removeFromHeap(Object key) {
+        HeapEntry entry = heap.remove(key);
+        if (entry != null)
+            heapBytes -= entry.weight;
+    }
+
+    private void removeFromOffHeap(Object key) {
+        OffHeapEntry entry = offHeap.remove(key);
+        if (entry != null)
+            offHeapBytes -= entry.buffer.capacity();
+    }
+
+    /*
+     * writes the values evicted from the memory tiers to the disk (not holding the lock)
+     */
+    private void spill(List<Spilled> spilled) {
+        for (Spilled s : spilled) {
+            if (diskStore.isEnabled())
+                diskStore.put(name, s.key, s.bytes, s.created, statistics);
+            else
+                statistics.eviction();
+        }
+    }
+
+    private static String keyName(Object key) {
+        return String.valueOf(key);
+    }
+}
@@ -0,0 +1,72 @@
+package org.pathwaycommons.pcviz.cache;
+
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Provides {@link TieredCache}s that share the same {@link DiskStore};
+ * a cache that was not configured is created on demand, with the default budget.
+ */
+public class TieredCacheManager implements CacheManager {
+
+    private final DiskStore diskStore;
+    private final CacheBudget defaultBudget;
+    private final ConcurrentMap<String, TieredCache> caches = new ConcurrentHashMap<String, TieredCache>();
+    private volatile Executor refresher;
+    private volatile long staleAfterMillis;
+
+    public TieredCacheManager(DiskStore diskStore, CacheBudget defaultBudget) {
+        this.diskStore = diskStore;
+        this.defaultBudget = defaultBudget;
+    }
+
+    public void addCache(String name, CacheBudget budget) {
+        caches.put(name, newCache(name, budget));
+    }
+
+    @Override
+    public Cache getCache(String name) {
+        return caches.computeIfAbsent(name, n -> newCache(n, defaultBudget));
+    }
+
+    private TieredCache newCache(String name, CacheBudget budget) {
+        TieredCache cache = new TieredCache(name, budget, diskStore);
+        cache.setRefresher(refresher, staleAfterMillis);
+        return cache;
+    }
+
+    /**
+     * Lets all the caches serve stale values (see {@link TieredCache#setRefresher(Executor, long)}).
+     */
+    public void setRefresher(Executor refresher, long staleAfterMillis) {
+        this.refresher = refresher;
+        this.staleAfterMillis = staleAfterMillis;
+        for (TieredCache cache : caches.values())
+            cache.setRefresher(refresher, staleAfterMillis);
+    }
+
+    @Override
+    public Collection<String> getCacheNames() {
+        return Collections.unmodifiableSet(new TreeSet<String>(caches.keySet()));
+    }
+
+    public Collection<TieredCache> getCaches() {
+        return Collections.unmodifiableCollection(caches.values());
+    }
+
+    public DiskStore getDiskStore() {
+        return diskStore;
+    }
+
+    /**
+     * Deletes the disk tier (called by Spring on shutdown).
+     */
+    public void close() {
+        diskStore.close();
+    }
+}
@@ -0,0 +1,79 @@
+package org.pathwaycommons.pcviz.cache;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serializes cached values for the off-heap and disk tiers.
+ * Strings (e.g. network JSON), by far the most common and largest values,
+ * are stored as plain UTF-8; other serializable values use Java serialization.
+ */
+final class ValueCodec {
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte OBJECT = 2;
+
+    private ValueCodec() {
+    }
+
+    /**
+     * @param value the value to serialize (can be null)
+     * @return the serialized value, or null if the value cannot be serialized
+     */
+    static byte[] encode(Object value) {
+        if (value == null)
+            return new byte[]{NULL};
+
+        if (value instanceof String) {
+            byte[] utf8 = ((String) value).getBytes(StandardCharsets.UTF_8);
+            byte[] bytes = new byte[utf8.length + 1];
+            bytes[0] = STRING;
+            System.arraycopy(utf8, 0, bytes, 1, utf8.length);
+            return bytes;
+        }
+
+        if (!(value instanceof Serializable))
+            return null;
+
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            bos.write(OBJECT);
+            ObjectOutputStream oos = new ObjectOutputStream(bos);
+            oos.writeObject(value);
+            oos.close();
+            return bos.toByteArray();
+        } catch (IOException e) {
+            // some field is not serializable
+            return null;
+        }
+    }
+
+    static Object decode(byte[] bytes) throws IOException {
+        switch (bytes[0]) {
+            case NULL:
+                return null;
+            case STRING:
+                return new String(bytes, 1, bytes.length - 1, StandardCharsets.UTF_8);
+            case OBJECT:
+                try (ObjectInputStream ois = new ObjectInputStream(
+                    new ByteArrayInputStream(bytes, 1, bytes.length - 1))) {
+                    return ois.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException(e);
+                }
+            default:
+                throw new IOException("Unknown cached value type: " + bytes[0]);
+        }
+    }
+
+    /**
+     * Rough size of the value while it is on the heap: the UTF-16 chars of a String,
+     * or else the length of the serialized form.
+     */
+    static long heapWeight(Object value, byte[] encoded) {
+        if (value instanceof String)
+            return 40L + 2L * ((String) value).length();
+        return 16L + ((encoded == null) ? 0 : encoded.length);
+    }
+}
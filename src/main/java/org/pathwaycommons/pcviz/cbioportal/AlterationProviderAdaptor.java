@@ -22,6 +22,17 @@ public abstract class AlterationProviderAdaptor implements AlterationProvider
 	{
 		return memory.get(id);
 	}
+
+	/**
+	 * Tells whether the alterations of the gene can be provided without querying a remote service.
+	 *
+	 * @param id gene id
+	 * @return true if the alterations are at hand
+	 */
+	public boolean isCached(String id)
+	{
+		return memory.containsKey(id);
+	}
 	
 	protected String getEntrezGeneID(Node node)
 	{
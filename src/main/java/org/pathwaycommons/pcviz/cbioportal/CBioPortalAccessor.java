@@ -2,18 +2,29 @@ package org.pathwaycommons.pcviz.cbioportal;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.pathwaycommons.pcviz.cache.FileIndex;
+import org.pathwaycommons.pcviz.cache.NegativeCache;
+import org.pathwaycommons.pcviz.metrics.Trace;
 import org.pathwaycommons.pcviz.service.GeneNameService;
+import org.pathwaycommons.pcviz.upstream.DeadlineExceededException;
+import org.pathwaycommons.pcviz.upstream.UpstreamScheduler;
+import org.pathwaycommons.pcviz.upstream.UpstreamUnavailableException;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Arman Aksoy
@@ -27,6 +38,7 @@ public class CBioPortalAccessor extends AlterationProviderAdaptor
 	protected final static String COMMAND = "cmd=";
 	protected final static String DELIMITER = "\t";
 	protected final static String NOT_FOUND_FILENAME = "NOTFOUND";
+	protected final static String CASES_FILENAME = "cases.txt";
 
 	private final List<CancerStudy> cancerStudies;
 	private final Map<String, CancerStudy> cancerStudiesById;
@@ -40,23 +52,56 @@ public class CBioPortalAccessor extends AlterationProviderAdaptor
 	private GeneNameService geneNameService;
 	private CBioPortalOptions options;
 	private String cacheDir;
+	private FileIndex cacheIndex;
+	private UpstreamScheduler upstreamScheduler;
+	private int timeoutMillis = 30000;
+	private NegativeCache negativeCache;
 
-	private Map<String, Set<String>> notFoundMap;
+	private final Map<String, Set<String>> notFoundMap;
 
 	static String portalURL = "https://www.cbioportal.org/webservice.do?";
 
 	private CancerStudy currentCancerStudy;
 	private CaseList currentCaseList;
 
-	public void setCacheDir(String cacheDir)
+	/**
+	 * Sets the folder of the downloaded data, and indexes its files.
+	 *
+	 * @param cacheDir folder
+	 * @throws IOException when the folder cannot be read
+	 */
+	public void setCacheDir(String cacheDir) throws IOException
 	{
 		this.cacheDir = cacheDir;
+		// profile/case list/gene
+		this.cacheIndex = new FileIndex(Paths.get(cacheDir), 3);
 	}
 
 	public void setGeneNameService(GeneNameService geneNameService) {
 		this.geneNameService = geneNameService;
 	}
 
+	public void setUpstreamScheduler(UpstreamScheduler upstreamScheduler)
+	{
+		this.upstreamScheduler = upstreamScheduler;
+	}
+
+	/**
+	 * @param negativeCache remembers the genes whose data could not be downloaded, so that they are not retried at once
+	 */
+	public void setNegativeCache(NegativeCache negativeCache)
+	{
+		this.negativeCache = negativeCache;
+	}
+
+	/**
+	 * @param timeoutMillis connect and read timeout of a portal request
+	 */
+	public void setTimeoutMillis(int timeoutMillis)
+	{
+		this.timeoutMillis = timeoutMillis;
+	}
+
 	public CBioPortalAccessor()
 	{
 		cancerStudies = new ArrayList<CancerStudy>();
@@ -64,7 +109,8 @@ public class CBioPortalAccessor extends AlterationProviderAdaptor
 		caseListCache = new HashMap<CancerStudy, List<CaseList>>();
 		currentGeneticProfiles = new ArrayList<GeneticProfile>();
 		memory = new HashMap<String, AlterationPack>();
-		validatedCaseLists = new HashSet<CaseList>();
+		validatedCaseLists = Collections.newSetFromMap(new ConcurrentHashMap<CaseList, Boolean>());
+		notFoundMap = new ConcurrentHashMap<String, Set<String>>();
 		cancerStudiesById = new HashMap<String, CancerStudy>();
 		caseListsById = new HashMap<String, CaseList>();
 		geneticProfilesById = new HashMap<String, GeneticProfile>();
@@ -122,7 +168,7 @@ public class CBioPortalAccessor extends AlterationProviderAdaptor
 		setCurrentGeneticProfiles(profiles);
 	}
 
-	public void initializeStudies() throws IOException
+	public synchronized void initializeStudies() throws IOException
 	{
 		for (CancerStudy study : getAllCancerStudies())
 		{
@@ -132,6 +178,86 @@ public class CBioPortalAccessor extends AlterationProviderAdaptor
 		assert !cancerStudies.isEmpty();
 	}
 
+	/**
+	 * Replaces all the known studies, case lists and genetic profiles
+	 * (e.g., loaded from a persisted snapshot) and resets the current study;
+	 * the readers of the metadata wait for it, and get either the old or the new one.
+	 *
+	 * @param metadata cBioPortal metadata snapshot
+	 */
+	public synchronized void setMetadata(PortalMetadata metadata)
+	{
+		currentCancerStudy = null;
+		currentCaseList = null;
+		currentGeneticProfiles = new ArrayList<GeneticProfile>();
+		cancerStudies.clear();
+		cancerStudiesById.clear();
+		caseListCache.clear();
+		geneticProfilesCache.clear();
+		caseListsById.clear();
+		geneticProfilesById.clear();
+		validatedCaseLists.clear();
+		memory.clear();
+
+		for (CancerStudy study : metadata.getCancerStudies())
+		{
+			cancerStudies.add(study);
+			cancerStudiesById.put(study.getStudyId(), study);
+
+			List<CaseList> caseLists = metadata.getCaseLists(study.getStudyId());
+			if (caseLists != null)
+				caseListCache.put(study, caseLists);
+
+			List<GeneticProfile> profiles = metadata.getGeneticProfiles(study.getStudyId());
+			if (profiles != null)
+				geneticProfilesCache.put(study, profiles);
+		}
+	}
+
+	/**
+	 * @return snapshot of the studies, case lists and genetic profiles known so far
+	 */
+	public synchronized PortalMetadata getMetadata()
+	{
+		Map<String, List<CaseList>> caseLists = new HashMap<String, List<CaseList>>();
+		for (Map.Entry<CancerStudy, List<CaseList>> entry : caseListCache.entrySet())
+			caseLists.put(entry.getKey().getStudyId(), entry.getValue());
+
+		Map<String, List<GeneticProfile>> profiles = new HashMap<String, List<GeneticProfile>>();
+		for (Map.Entry<CancerStudy, List<GeneticProfile>> entry : geneticProfilesCache.entrySet())
+			profiles.put(entry.getKey().getStudyId(), entry.getValue());
+
+		return new PortalMetadata(cancerStudies, caseLists, profiles);
+	}
+
+	/**
+	 * Downloads the list of studies together with all their case lists and genetic profiles.
+	 * Studies whose details cannot be fetched are still listed (their details are loaded lazily later).
+	 *
+	 * @return fresh metadata
+	 * @throws IOException when the list of studies cannot be obtained
+	 */
+	public PortalMetadata fetchMetadata() throws IOException
+	{
+		List<CancerStudy> studies = getAllCancerStudies();
+		Map<String, List<CaseList>> caseLists = new HashMap<String, List<CaseList>>();
+		Map<String, List<GeneticProfile>> profiles = new HashMap<String, List<GeneticProfile>>();
+		for (CancerStudy study : studies)
+		{
+			try
+			{
+				caseLists.put(study.getStudyId(), getCaseListsForStudy(study));
+				profiles.put(study.getStudyId(), getGeneticProfilesForStudy(study));
+			}
+			catch (IOException e)
+			{
+				caseLists.remove(study.getStudyId());
+				log.warn("Could not fetch case lists/genetic profiles of " + study.getStudyId() + "; " + e);
+			}
+		}
+		return new PortalMetadata(studies, caseLists, profiles);
+	}
+
 	public void setOptions(CBioPortalOptions cBioPortalOptions)
 	{
 		this.options = cBioPortalOptions;
@@ -142,17 +268,17 @@ public class CBioPortalAccessor extends AlterationProviderAdaptor
 		return options;
 	}
 
-	public CaseList getCaseListById(String id)
+	public synchronized CaseList getCaseListById(String id)
 	{
 		return caseListsById.get(id);
 	}
 
-	public CancerStudy getCancerStudyById(String id)
+	public synchronized CancerStudy getCancerStudyById(String id)
 	{
 		return cancerStudiesById.get(id);
 	}
 
-	private Change[] mergeChanges(Change[] changes1, Change[] changes2)
+	static Change[] mergeChanges(Change[] changes1, Change[] changes2)
 	{
 		assert changes1.length == changes2.length;
 
@@ -195,31 +321,22 @@ public class CBioPortalAccessor extends AlterationProviderAdaptor
 		String s = geneNameService.getSymbol(symbol);
 		if (s != null) symbol = s;
 
-		Map<String, Change> changesMap = new HashMap<String, Change>();
-
 		String[] data = getDataForGene(symbol, geneticProfile, caseList);
 		if (data == null) return null;
 
-		if (data.length != caseList.getCases().length)
+		if (data.length != caseList.size())
 		{
 			log.error("Data length and caselist length " +
 				"do not match. Data: " + data.length + "  " + "caselist: " +
-				caseList.getCases().length + "\nTime to delete the cache!");
+				caseList.size() + "\nTime to delete the cache!");
 			return null;
 		}
 
+		// data are aligned with the case list already (see downloadDataForGene)
+		Change[] changes = new Change[data.length];
 		for (int j = 0; j < data.length; j++)
 		{
-			Change ch = inferChange(geneticProfile, data[j]);
-			changesMap.put(caseList.getCases()[j], ch);
-		}
-
-		Change[] changes = new Change[caseList.getCases().length];
-		int counter = 0;
-		for (String aCase : caseList.getCases())
-		{
-			Change change = changesMap.get(aCase);
-			changes[counter++] = change == null ? Change.NO_DATA : change;
+			changes[j] = inferChange(geneticProfile, data[j]);
 		}
 
 		return changes;
@@ -227,8 +344,24 @@ public class CBioPortalAccessor extends AlterationProviderAdaptor
 
 	private Change inferChange(GeneticProfile geneticProfile, String dataPoint)
 	{
+		return inferChange(ProfileType.convertToAlteration(geneticProfile.getType()), dataPoint, options);
+	}
+
+	/**
+	 * Infers the change from a cBioPortal data point of a profile of the given alteration type.
+	 *
+	 * @param alteration alteration type of the genetic profile
+	 * @param dataPoint value
+	 * @param options thresholds
+	 * @return change
+	 */
+	static Change inferChange(Alteration alteration, String dataPoint, CBioPortalOptions options)
+	{
+		// not in the downloaded data, i.e. not profiled - unlike NaN, which means "not mutated" in a mutation profile
+		if (MISSING.equals(dataPoint)) return Change.NO_DATA;
+
 		// TODO: Discuss these steps further
-		switch (ProfileType.convertToAlteration(geneticProfile.getType()))
+		switch (alteration)
 		{
 			case MUTATION:
 				return isNaN(dataPoint) ? Change.NO_CHANGE :
@@ -288,9 +421,14 @@ public class CBioPortalAccessor extends AlterationProviderAdaptor
 		return Change.NO_CHANGE;
 	}
 
-	final String[] NULLS = new String[]{"", "NaN", "NA", "null"};
+	static final String[] NULLS = new String[]{"", "NaN", "NA", "null"};
 
-	private boolean isNaN(String s)
+	/**
+	 * Data point of a sample that is missing in the downloaded profile data.
+	 */
+	static final String MISSING = "NotProfiled";
+
+	static boolean isNaN(String s)
 	{
 		if (s == null) return true;
 		s = s.trim();
@@ -322,8 +460,6 @@ public class CBioPortalAccessor extends AlterationProviderAdaptor
 		AlterationPack alterationPack = getFromMemory(symbol);
 		if (alterationPack != null) return alterationPack;
 
-		alterationPack = new AlterationPack(symbol);
-
 		// A few sanity checks
 		CancerStudy cancerStudy = currentCancerStudy;
 		if (!getCancerStudies().contains(cancerStudy))
@@ -350,25 +486,59 @@ public class CBioPortalAccessor extends AlterationProviderAdaptor
 			throw new IllegalArgumentException(e.getMessage());
 		}
 
-		// Now to the genetic profile analyses
-		for (GeneticProfile geneticProfile : currentGeneticProfiles)
+		try
 		{
-			if (!getCurrentGeneticProfiles().contains(geneticProfile))
-			{
-				log.warn("the genetic profile "
-					+ geneticProfile.getId() + " is not in the available profiles list. Skipping.");
-				continue;
-			}
+			alterationPack = getAlterations(symbol, currentCaseList, currentGeneticProfiles);
+		}
+		catch (UncheckedIOException e)
+		{
+			log.error(e.getMessage(), e.getCause());
+			return null;
+		}
+		if (alterationPack == null)
+		{
+			return null;
+		}
 
+		memorize(symbol, alterationPack);
+
+		if (alterationPack.getSize() != currentCaseList.size())
+		{
+			System.err.println("Time to clear cache!");
+			System.err.println("Cached sample size = " + alterationPack.getSize());
+			System.err.println("Current sample size = " + currentCaseList.size());
+		}
+
+		return alterationPack;
+	}
+
+	/**
+	 * Gets the alterations of a gene in the given samples and genetic profiles;
+	 * unlike {@link #getAlterations(String)}, does not depend on the current study selection,
+	 * and can be called from several threads at once.
+	 *
+	 * @param symbol gene symbol or Entrez Gene ID
+	 * @param caseList samples
+	 * @param geneticProfiles profiles to use
+	 * @return alterations or null if there are no data
+	 * @throws UncheckedIOException if the data of a profile could not be got
+	 */
+	public AlterationPack getAlterations(String symbol, CaseList caseList, List<GeneticProfile> geneticProfiles)
+	{
+		AlterationPack alterationPack = new AlterationPack(symbol);
+
+		// Now to the genetic profile analyses
+		for (GeneticProfile geneticProfile : geneticProfiles)
+		{
 			Change[] changes;
 			try
 			{
-				changes = getDataForCurrentStudy(geneticProfile, symbol, currentCaseList);
+				changes = getDataForCurrentStudy(geneticProfile, symbol, caseList);
 			} catch (IOException e)
 			{
-				log.error("Could not get data for genetic profile " + geneticProfile.getId()
-					+ ". Skipping...");
-				continue;
+				// not the same as no data, which the callers may remember
+				throw new UncheckedIOException("Could not get data of " + symbol + " for genetic profile "
+					+ geneticProfile.getId(), e);
 			}
 
 			if (changes == null)
@@ -397,41 +567,96 @@ public class CBioPortalAccessor extends AlterationProviderAdaptor
 			return null;
 		}
 
-		memorize(symbol, alterationPack);
+		return alterationPack;
+	}
 
-		if (alterationPack.getSize() != currentCaseList.getCases().length)
+	/**
+	 * Checks whether the data of the gene are all in the local cache already
+	 * (i.e., the alterations can be got without querying the portal).
+	 *
+	 * @param symbol gene symbol or Entrez Gene ID
+	 * @param caseList samples
+	 * @param geneticProfiles profiles to use
+	 * @return true if there is no need to download anything
+	 */
+	public boolean isCached(String symbol, CaseList caseList, List<GeneticProfile> geneticProfiles)
+	{
+		String s = geneNameService.getSymbol(symbol);
+		if (s != null) symbol = s;
+
+		for (GeneticProfile geneticProfile : geneticProfiles)
 		{
-			System.err.println("Time to clear cache!");
-			System.err.println("Cached sample size = " + alterationPack.getSize());
-			System.err.println("Current sample size = " + currentCaseList.getCases().length);
+			if (!isNotFound(symbol, geneticProfile, caseList)
+				&& !cacheIndex.contains(cacheKey(geneticProfile, caseList, symbol)))
+				return false;
 		}
+		return true;
+	}
 
-		return alterationPack;
+	/**
+	 * @param caseList samples
+	 * @param geneticProfiles profiles to use
+	 * @return alteration provider bound to the selection (independent of the current study)
+	 */
+	public PortalAlterationProvider getAlterationProvider(CaseList caseList, List<GeneticProfile> geneticProfiles)
+	{
+		return new PortalAlterationProvider(this, caseList, geneticProfiles);
 	}
 
-	public List<CaseList> getCaseListsForCurrentStudy() throws IOException
+	/**
+	 * Gets the case lists of a study; they are downloaded only once.
+	 *
+	 * @param study cancer study
+	 * @return case lists
+	 * @throws IOException
+	 */
+	public synchronized List<CaseList> getCaseLists(CancerStudy study) throws IOException
 	{
-		List<CaseList> caseLists = caseListCache.get(getCurrentCancerStudy());
-		if (caseLists != null)
+		List<CaseList> caseLists = caseListCache.get(study);
+		if (caseLists == null)
 		{
-			for (CaseList caseList : caseLists)
-				caseListsById.put(caseList.getId(), caseList);
-			return caseLists;
+			caseLists = getCaseListsForStudy(study);
+			caseListCache.put(study, caseLists);
 		}
+		return caseLists;
+	}
+
+	/**
+	 * Gets the genetic profiles of a study; they are downloaded only once.
+	 *
+	 * @param study cancer study
+	 * @return genetic profiles
+	 * @throws IOException
+	 */
+	public synchronized List<GeneticProfile> getGeneticProfiles(CancerStudy study) throws IOException
+	{
+		List<GeneticProfile> geneticProfiles = geneticProfilesCache.get(study);
+		if (geneticProfiles == null)
+		{
+			geneticProfiles = getGeneticProfilesForStudy(study);
+			assert !geneticProfiles.isEmpty();
+			geneticProfilesCache.put(study, geneticProfiles);
+		}
+		return geneticProfiles;
+	}
 
-		caseLists = getCaseListsForStudy(getCurrentCancerStudy());
+	public List<CaseList> getCaseListsForCurrentStudy() throws IOException
+	{
+		List<CaseList> caseLists = getCaseLists(getCurrentCancerStudy());
 		for (CaseList caseList : caseLists)
 		{
 			caseListsById.put(caseList.getId(), caseList);
 		}
-
-		caseListCache.put(getCurrentCancerStudy(), caseLists);
 		return caseLists;
 	}
 
-	public List<CancerStudy> getCancerStudies()
+	/**
+	 * @return the studies known now (a copy, so that it is either all the old or all the new studies
+	 * while the metadata is replaced, see {@link #setMetadata(PortalMetadata)})
+	 */
+	public synchronized List<CancerStudy> getCancerStudies()
 	{
-		return cancerStudies;
+		return Collections.unmodifiableList(new ArrayList<CancerStudy>(cancerStudies));
 	}
 
 	public CancerStudy getCurrentCancerStudy()
@@ -468,22 +693,11 @@ public class CBioPortalAccessor extends AlterationProviderAdaptor
 
 	public List<GeneticProfile> getGeneticProfilesForCurrentStudy() throws IOException
 	{
-		List<GeneticProfile> geneticProfiles = geneticProfilesCache.get(getCurrentCancerStudy());
-		if (geneticProfiles != null)
-		{
-			for (GeneticProfile geneticProfile : geneticProfiles)
-				geneticProfilesById.put(geneticProfile.getId(), geneticProfile);
-			return geneticProfiles;
-		}
-
-		geneticProfiles = getGeneticProfilesForStudy(getCurrentCancerStudy());
+		List<GeneticProfile> geneticProfiles = getGeneticProfiles(getCurrentCancerStudy());
 		for (GeneticProfile geneticProfile : geneticProfiles)
 		{
 			geneticProfilesById.put(geneticProfile.getId(), geneticProfile);
 		}
-
-		assert !geneticProfiles.isEmpty();
-		geneticProfilesCache.put(getCurrentCancerStudy(), geneticProfiles);
 		return geneticProfiles;
 	}
 
@@ -561,31 +775,45 @@ public class CBioPortalAccessor extends AlterationProviderAdaptor
 			return null;
 		}
 
-		String firstCase = caseList.getCases()[0];
-		int startIndex = 0;
-		while (!firstCase.equals(results.get(0)[startIndex])) startIndex++;
-
-		// DEBUG CODE
-		String[] cases = results.get(0);
-		for (int i = 0; i < caseList.getCases().length; i++)
+		String[] result = align(results.get(0), results.get(1), caseList);
+		if (result == null)
 		{
-			assert cases[i+startIndex].equals(caseList.getCases()[i]);
+			log.warn("None of the samples of " + caseList.getId() + " is in the data for " + symbol);
 		}
-		// END OF DEBUG CODE
-
-
-		String[] data = results.get(1);
-
-		assert data.length > 2;
-
-		String[] result = new String[data.length - startIndex];
-		System.arraycopy(data, startIndex, result, 0, result.length);
 		return result;
 	}
 
+	/**
+	 * Aligns the data columns with the case list via the study's sample dictionary.
+	 *
+	 * @param cases sample barcodes of the data columns
+	 * @param data data points
+	 * @param caseList samples to get the data for
+	 * @return data in the order of the case list, {@link #MISSING} for the samples that are not in the data;
+	 * null if none of the samples is there
+	 */
+	static String[] align(String[] cases, String[] data, CaseList caseList)
+	{
+		SampleDictionary samples = caseList.getSamples();
+		int[] positions = caseList.getPositions();
+		String[] result = new String[caseList.size()];
+		Arrays.fill(result, MISSING);
+		int found = 0;
+		for (int i = 0; i < cases.length && i < data.length; i++)
+		{
+			int id = samples.indexOf(cases[i]);
+			if (id < 0 || id >= positions.length || positions[id] < 0) continue;
+			result[positions[id]] = data[i];
+			found++;
+		}
+		return (found == 0) ? null : result;
+	}
+
 	public List<CaseList> getCaseListsForStudy(CancerStudy study) throws IOException
 	{
 		List<CaseList> caseLists = new ArrayList<CaseList>();
+		// all the case lists of a study share one sample dictionary
+		SampleDictionary samples = new SampleDictionary();
 
 		String url = "getCaseLists&cancer_study_id=" + study.getStudyId();
 		for (String[] results : queryAndParseURL(url))
@@ -604,7 +832,7 @@ public class CBioPortalAccessor extends AlterationProviderAdaptor
 						.toArray(new String[cases.length - startIndex]);
 			}
 
-			CaseList caseList = new CaseList(results[0], results[1], cases);
+			CaseList caseList = new CaseList(results[0], results[1], samples, cases);
 			caseLists.add(caseList);
 		}
 
@@ -617,12 +845,31 @@ public class CBioPortalAccessor extends AlterationProviderAdaptor
 	}
 
 	private List<String[]> queryAndParseURL(String urlPostFix, boolean skipHeader) throws IOException
+	{
+		if (upstreamScheduler == null)
+			return fetchAndParseURL(urlPostFix, skipHeader);
+		return upstreamScheduler.call(UpstreamScheduler.CBIOPORTAL, command(urlPostFix),
+				() -> fetchAndParseURL(urlPostFix, skipHeader));
+	}
+
+	/*
+	 * the web API command, e.g. "getProfileData"
+	 */
+	private static String command(String urlPostFix)
+	{
+		int end = urlPostFix.indexOf('&');
+		return (end < 0) ? urlPostFix : urlPostFix.substring(0, end);
+	}
+
+	private List<String[]> fetchAndParseURL(String urlPostFix, boolean skipHeader) throws IOException
 	{
 		List<String[]> list = new ArrayList<String[]>();
 
 		String urlStr = portalURL + COMMAND + urlPostFix;
 		URL url = new URL(urlStr);
 		URLConnection urlConnection = url.openConnection();
+		urlConnection.setConnectTimeout(timeoutMillis);
+		urlConnection.setReadTimeout(timeoutMillis);
 		Scanner scanner = new Scanner(urlConnection.getInputStream());
 
 		int lineNum = 0;
@@ -672,55 +919,82 @@ public class CBioPortalAccessor extends AlterationProviderAdaptor
 		return studies;
 	}
 
+	/**
+	 * Saves the downloaded data of a gene (and the case list, the first time);
+	 * can be called for the same gene from several threads.
+	 */
 	public void cacheData(String[] data, String symbol, GeneticProfile geneticProfile, CaseList caseList)
 			throws IOException
 	{
-		Path dir = Paths.get(cacheDir, geneticProfile.getId(), caseList.getId());
-		if(!Files.exists(dir)) {
-			Files.createDirectories(dir);
-		}
-
-		Path casefile = Paths.get(dir.toString(),"cases.txt");
-		if (!Files.exists(casefile))
+		String casesKey = cacheKey(geneticProfile, caseList, CASES_FILENAME);
+		if (!cacheIndex.contains(casesKey))
 		{
-			BufferedWriter writer = Files.newBufferedWriter(casefile);
 			StringBuilder sb = new StringBuilder();
 			for (String aCase : caseList.getCases())
 			{
 				sb.append(aCase).append("\t");
 			}
-			writer.write(sb.toString().trim());
-			writer.close();
+			writeInCache(casesKey, sb.toString().trim());
 		}
 
-		Path url = Paths.get(dir.toString(),symbol);
-		BufferedWriter writer = Files.newBufferedWriter(url);
-
+		StringBuilder sb = new StringBuilder();
 		for (int i = 0; i < data.length; i++)
 		{
-			writer.write(data[i]);
-			if (i < data.length - 1) writer.write(DELIMITER);
+			sb.append(data[i]);
+			if (i < data.length - 1) sb.append(DELIMITER);
+		}
+		writeInCache(cacheKey(geneticProfile, caseList, symbol), sb.toString());
+	}
+
+	/*
+	 * writes a temporary file and moves it in place, so that concurrent writers
+	 * do not mix their output, and readers never see a partly written file
+	 */
+	private void writeInCache(String key, String content) throws IOException
+	{
+		Path file = cacheIndex.resolve(key);
+		Files.createDirectories(file.getParent());
+		Path tmp = Files.createTempFile(file.getParent(), null, ".tmp");
+		try
+		{
+			Files.write(tmp, content.getBytes(StandardCharsets.UTF_8));
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally
+		{
+			Files.deleteIfExists(tmp);
 		}
+		cacheIndex.add(key);
+	}
 
-		writer.close();
+	/*
+	 * the relative path of a file in the cache folder
+	 */
+	private static String cacheKey(GeneticProfile geneticProfile, CaseList caseList, String fileName)
+	{
+		return geneticProfile.getId() + "/" + caseList.getId() + "/" + fileName;
 	}
 
 	public String[] readDataInCache(String symbol, GeneticProfile geneticProfile, CaseList caseList)
 	{
-		Path url = Paths.get(cacheDir, geneticProfile.getId(), caseList.getId(), symbol);
+		String key = cacheKey(geneticProfile, caseList, symbol);
 
-		if (Files.exists(url))
+		if (cacheIndex.contains(key))
 		{
 			try
 			{
 				if (!validatedCaseLists.contains(caseList))
 					checkCaseListValidity(geneticProfile, caseList);
 
-				BufferedReader reader = Files.newBufferedReader(url);
+				BufferedReader reader = Files.newBufferedReader(cacheIndex.resolve(key));
 				String line = reader.readLine();
 				reader.close();
 				return line.split(DELIMITER);
 			}
+			catch (NoSuchFileException e)
+			{
+				cacheIndex.remove(key); // deleted meanwhile
+			}
 			catch (IOException e)
 			{
 				log.error("Cannot read an existing file", e);
@@ -731,12 +1005,11 @@ public class CBioPortalAccessor extends AlterationProviderAdaptor
 
 	private void checkCaseListValidity(GeneticProfile geneticProfile, CaseList caseList) throws IOException
 	{
-		Path file = Paths.get(cacheDir, geneticProfile.getId(),
-				caseList.getId(), "cases.txt");
+		String casesKey = cacheKey(geneticProfile, caseList, CASES_FILENAME);
 
-		if (Files.exists(file))
+		if (cacheIndex.contains(casesKey))
 		{
-			Scanner sc = new Scanner(Files.newInputStream(file));
+			Scanner sc = new Scanner(Files.newInputStream(cacheIndex.resolve(casesKey)));
 			String[] token = sc.nextLine().split("\t");
 			sc.close();
 			String[] cases = caseList.getCases();
@@ -758,26 +1031,21 @@ public class CBioPortalAccessor extends AlterationProviderAdaptor
 		validatedCaseLists.add(caseList);
 	}
 
-	protected void readNotFoundInCache(GeneticProfile geneticProfile, CaseList caseList)
+	protected synchronized void readNotFoundInCache(GeneticProfile geneticProfile, CaseList caseList)
 	{
-		if (notFoundMap == null)
-		{
-			notFoundMap = new HashMap<String, Set<String>>();
-		}
-
 		String key = geneticProfile.getId() + caseList.getId();
-		notFoundMap.put(key, new HashSet<String>());
+		Set<String> notFound = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
-		Path url = Paths.get(cacheDir, geneticProfile.getId(), caseList.getId(), NOT_FOUND_FILENAME);
+		String notFoundKey = cacheKey(geneticProfile, caseList, NOT_FOUND_FILENAME);
 
-		if (Files.exists(url))
+		if (cacheIndex.contains(notFoundKey))
 		{
 			try
 			{
-				BufferedReader reader = Files.newBufferedReader(url);
+				BufferedReader reader = Files.newBufferedReader(cacheIndex.resolve(notFoundKey));
 				for (String line = reader.readLine(); line != null; line = reader.readLine())
 				{
-					if (!line.isEmpty()) notFoundMap.get(key).add(line);
+					if (!line.isEmpty()) notFound.add(line);
 				}
 				reader.close();
 			}
@@ -786,23 +1054,19 @@ public class CBioPortalAccessor extends AlterationProviderAdaptor
 				log.error("Cannot read an existing not-found file", e);
 			}
 		}
+		notFoundMap.put(key, notFound);
 	}
 
-	protected void addToNotFound(String symbol, GeneticProfile geneticProfile, CaseList caseList)
+	protected synchronized void addToNotFound(String symbol, GeneticProfile geneticProfile, CaseList caseList)
 			throws IOException
 	{
 		String key = geneticProfile.getId() + caseList.getId();
 		notFoundMap.get(key).add(symbol);
 
-		Path dir = Paths.get(cacheDir, geneticProfile.getId(), caseList.getId());
-		if(!Files.exists(dir)) {
-			Files.createDirectories(dir);
-		}
+		String notFoundKey = cacheKey(geneticProfile, caseList, NOT_FOUND_FILENAME);
+		Path url = cacheIndex.resolve(notFoundKey);
 
-		Path url = Paths.get(cacheDir, geneticProfile.getId(),
-				caseList.getId(), NOT_FOUND_FILENAME);
-
-		if (Files.exists(url))
+		if (cacheIndex.contains(notFoundKey))
 		{
 			BufferedWriter writer = Files.newBufferedWriter(url, StandardOpenOption.APPEND);
 			writer.write("\n" + symbol);
@@ -810,37 +1074,67 @@ public class CBioPortalAccessor extends AlterationProviderAdaptor
 		}
 		else
 		{
+			Files.createDirectories(url.getParent());
 			BufferedWriter writer = Files.newBufferedWriter(url);
 			writer.write(symbol);
 			writer.close();
+			cacheIndex.add(notFoundKey);
 		}
 	}
 
 	protected boolean isNotFound(String symbol, GeneticProfile geneticProfile, CaseList caseList)
 	{
 		String key = geneticProfile.getId() + caseList.getId();
-		if (notFoundMap == null || !notFoundMap.containsKey(key))
+		if (!notFoundMap.containsKey(key))
 		{
 			readNotFoundInCache(geneticProfile, caseList);
 		}
 		return notFoundMap.get(key).contains(symbol);
 	}
 
+	/**
+	 * @param symbol gene symbol
+	 * @param geneticProfile profile
+	 * @param caseList samples
+	 * @return data in the order of the case list, or null if the portal has no data for the gene
+	 * @throws IOException if the data could not be got (now or recently)
+	 */
 	public String[] getDataForGene(String symbol, GeneticProfile geneticProfile, CaseList caseList)
+		throws IOException
 	{
 		assert symbol != null && !symbol.isEmpty();
 
-		try
+		if (isNotFound(symbol, geneticProfile, caseList))
+			return null;
+
+		String[] data;
+		try (Trace.Span span = Trace.span("cbioportal read " + geneticProfile.getId()))
 		{
-			if (isNotFound(symbol, geneticProfile, caseList))
-				return null;
+			data = readDataInCache(symbol, geneticProfile, caseList);
+		}
+		if(data != null)
+			return data;
 
-			String[] data = readDataInCache(symbol, geneticProfile, caseList);
-			if(data != null)
-				return data;
+		// failed recently (not found ones are in the NOTFOUND file for good)
+		String negativeKey = "cbioportal:" + geneticProfile.getId() + ":" + caseList.getId() + ":" + symbol;
+		if (negativeCache != null && negativeCache.get(negativeKey) != null)
+			throw new IOException("Getting the data of " + symbol + " failed recently");
 
+		try
+		{
 			data = downloadDataForGene(symbol, geneticProfile, caseList);
+		}
+		catch (IOException e)
+		{
+			// not the gene's fault if the request ran out of time or the portal is down
+			if (negativeCache != null && !(e instanceof DeadlineExceededException)
+				&& !(e instanceof UpstreamUnavailableException))
+				negativeCache.put(negativeKey, NegativeCache.Kind.ERROR);
+			throw e;
+		}
 
+		try (Trace.Span span = Trace.span("cbioportal write " + geneticProfile.getId()))
+		{
 			if (data != null)
 			{
 				cacheData(data, symbol, geneticProfile, caseList);
@@ -849,13 +1143,12 @@ public class CBioPortalAccessor extends AlterationProviderAdaptor
 			{
 				addToNotFound(symbol, geneticProfile, caseList);
 			}
-			return data;
 		}
 		catch (IOException e)
 		{
-			log.error("Cannot access to the data of " + symbol, e);
-			return null;
+			log.error("Cannot cache the data of " + symbol, e);
 		}
+		return data;
 	}
 
 }
@@ -1,22 +1,69 @@
 package org.pathwaycommons.pcviz.cbioportal;
 
+import java.util.Arrays;
+
+/**
+ * A named list of samples, stored as ids in the study's {@link SampleDictionary}.
+ */
 public class CaseList {
-    private String[] cases;
+    private SampleDictionary samples;
+    private int[] sampleIds;
+    private int[] positions; // sample id -> index in this list (or -1); lazily built
     private String id;
     private String description;
 
     public CaseList(String id, String description, String[] cases) {
+        this(id, description, new SampleDictionary(), cases);
+    }
+
+    public CaseList(String id, String description, SampleDictionary samples, String[] cases) {
+        this(id, description, samples, samples.encode(cases));
+    }
+
+    public CaseList(String id, String description, SampleDictionary samples, int[] sampleIds) {
         this.id = id;
         this.description = description;
-        this.cases = cases;
+        this.samples = samples;
+        this.sampleIds = sampleIds;
     }
 
     public String[] getCases() {
-        return cases;
+        return samples.decode(sampleIds);
     }
 
     public void setCases(String[] cases) {
-        this.cases = cases;
+        this.sampleIds = samples.encode(cases);
+        this.positions = null;
+    }
+
+    public int[] getSampleIds() {
+        return sampleIds;
+    }
+
+    public SampleDictionary getSamples() {
+        return samples;
+    }
+
+    public int size() {
+        return sampleIds.length;
+    }
+
+    /**
+     * Gets the position of each dictionary sample in this list,
+     * which allows aligning data columns with the list without any lookups per gene.
+     *
+     * @return array indexed by sample id; -1 where the sample is not in this list
+     */
+    public int[] getPositions() {
+        int[] pos = positions;
+        if (pos == null || pos.length < samples.size()) {
+            pos = new int[samples.size()];
+            Arrays.fill(pos, -1);
+            for (int i = 0; i < sampleIds.length; i++)
+                pos[sampleIds[i]] = i;
+            positions = pos;
+        }
+        return pos;
     }
 
     public String getId() {
@@ -0,0 +1,360 @@
+package org.pathwaycommons.pcviz.cbioportal;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A cBioPortal study staged in a local directory (the portal's import format):
+ * meta_study.txt, meta_*.txt with data_*.txt (CNA/expression matrices, mutation MAF)
+ * and case_lists/*.txt.
+ *
+ * The metadata are read when the object is created; the data files are parsed
+ * (in parallel, line by line) on first use and kept in memory as changes
+ * aligned with the study's {@link SampleDictionary}.
+ */
+public class LocalStudy
+{
+	private static Log log = LogFactory.getLog(LocalStudy.class);
+
+	public static final String META_STUDY = "meta_study.txt";
+	private static final String CASE_LISTS = "case_lists";
+	// the samples that were sequenced for mutations, by the portal's convention
+	private static final String SEQUENCED = "_sequenced";
+
+	private static final Change[] CHANGES = Change.values();
+
+	private final Path dir;
+	private final CancerStudy cancerStudy;
+	private final SampleDictionary samples;
+	private final List<CaseList> caseLists;
+	private final List<GeneticProfile> geneticProfiles;
+	private final Map<String, Path> dataFiles;
+	private final CBioPortalOptions options;
+
+	// profile id -> gene symbol or Entrez Gene ID -> change ordinals indexed by sample id
+	private volatile Map<String, Map<String, byte[]>> data;
+	// a gene that is not mutated: NO_CHANGE for the sequenced samples, NO_DATA for the others
+	private volatile byte[] notMutated;
+
+	public LocalStudy(Path dir, CBioPortalOptions options) throws IOException
+	{
+		this.dir = dir;
+		this.options = options;
+
+		Map<String, String> meta = readMeta(dir.resolve(META_STUDY));
+		String studyId = meta.get("cancer_study_identifier");
+		if (studyId == null)
+			throw new IOException("No cancer_study_identifier in " + dir.resolve(META_STUDY));
+		cancerStudy = new CancerStudy(studyId, meta.get("name"), meta.get("description"));
+
+		samples = new SampleDictionary();
+		caseLists = new ArrayList<CaseList>();
+		Path caseListDir = dir.resolve(CASE_LISTS);
+		if (Files.isDirectory(caseListDir))
+		{
+			try (DirectoryStream<Path> files = Files.newDirectoryStream(caseListDir, "*.txt"))
+			{
+				for (Path file : files)
+				{
+					Map<String, String> caseList = readMeta(file);
+					String id = caseList.get("stable_id");
+					String ids = caseList.get("case_list_ids");
+					if (id == null || ids == null) continue;
+					String description = caseList.containsKey("case_list_description")
+						? caseList.get("case_list_description") : caseList.get("case_list_name");
+					caseLists.add(new CaseList(id, description, samples, ids.trim().split("\\s+")));
+				}
+			}
+		}
+		Collections.sort(caseLists, (a, b) -> a.getId().compareTo(b.getId()));
+
+		if (getCaseListById(studyId + "_all") == null)
+		{
+			// the "all samples" list is what the cancer context uses by default
+			int[] all = new int[samples.size()];
+			for (int i = 0; i < all.length; i++) all[i] = i;
+			caseLists.add(new CaseList(studyId + "_all", "All samples", samples, all));
+		}
+
+		geneticProfiles = new ArrayList<GeneticProfile>();
+		dataFiles = new HashMap<String, Path>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "meta_*.txt"))
+		{
+			for (Path file : files)
+			{
+				if (file.getFileName().toString().equals(META_STUDY)) continue;
+				Map<String, String> profile = readMeta(file);
+				String type = profile.get("genetic_alteration_type");
+				String stableId = profile.get("stable_id");
+				String dataFile = profile.get("data_filename");
+				if (type == null || stableId == null || dataFile == null) continue;
+
+				// the portal and the staging files call protein data differently
+				if (type.equals("PROTEIN_LEVEL")) type = ProfileType.PROTEIN_ARRAY_PROTEIN_LEVEL.name();
+				String id = stableId.startsWith(studyId + "_") ? stableId : studyId + "_" + stableId;
+				GeneticProfile geneticProfile = new GeneticProfile(id,
+					profile.get("profile_name"), profile.get("profile_description"), type);
+				if (ProfileType.convertToAlteration(geneticProfile.getType()) == null) continue;
+
+				geneticProfiles.add(geneticProfile);
+				dataFiles.put(id, dir.resolve(dataFile));
+			}
+		}
+		Collections.sort(geneticProfiles, (a, b) -> a.getId().compareTo(b.getId()));
+	}
+
+	public static boolean isStudyDir(Path dir)
+	{
+		return Files.isDirectory(dir) && Files.exists(dir.resolve(META_STUDY));
+	}
+
+	public Path getDir()
+	{
+		return dir;
+	}
+
+	public CancerStudy getCancerStudy()
+	{
+		return cancerStudy;
+	}
+
+	public List<CaseList> getCaseLists()
+	{
+		return caseLists;
+	}
+
+	public CaseList getCaseListById(String id)
+	{
+		for (CaseList caseList : caseLists)
+		{
+			if (caseList.getId().equals(id)) return caseList;
+		}
+		return null;
+	}
+
+	public List<GeneticProfile> getGeneticProfiles()
+	{
+		return geneticProfiles;
+	}
+
+	/**
+	 * @param caseList samples to report
+	 * @param profiles genetic profiles to use
+	 * @return alteration provider bound to the selection
+	 */
+	public LocalStudyAlterationProvider getAlterationProvider(CaseList caseList, List<GeneticProfile> profiles)
+	{
+		if (!caseLists.contains(caseList))
+			throw new IllegalArgumentException("The case list is not of " + cancerStudy.getStudyId() + ": " + caseList);
+
+		return new LocalStudyAlterationProvider(this, caseList, profiles);
+	}
+
+	/**
+	 * @param profile genetic profile
+	 * @param gene gene symbol or Entrez Gene ID
+	 * @param caseList samples
+	 * @return changes in the order of the case list or null if the profile has no data for the gene
+	 */
+	Change[] getChanges(GeneticProfile profile, String gene, CaseList caseList)
+	{
+		Map<String, byte[]> rows = load().get(profile.getId());
+		if (rows == null) return null;
+
+		byte[] row = rows.get(gene.toUpperCase());
+		if (row == null)
+		{
+			// not mentioned in a MAF means not mutated (other data types list every gene they have)
+			if (ProfileType.convertToAlteration(profile.getType()) != Alteration.MUTATION) return null;
+			row = notMutated;
+		}
+
+		int[] ids = caseList.getSampleIds();
+		Change[] changes = new Change[ids.length];
+		for (int i = 0; i < ids.length; i++)
+			changes[i] = CHANGES[row[ids[i]]];
+		return changes;
+	}
+
+	private Map<String, Map<String, byte[]>> load()
+	{
+		Map<String, Map<String, byte[]>> map = data;
+		if (map != null) return map;
+
+		synchronized (this)
+		{
+			if (data == null)
+			{
+				long t = System.currentTimeMillis();
+				notMutated = readSequenced();
+				Map<String, Map<String, byte[]>> loaded = new ConcurrentHashMap<String, Map<String, byte[]>>();
+				geneticProfiles.parallelStream().forEach(profile -> {
+					try
+					{
+						Alteration alteration = ProfileType.convertToAlteration(profile.getType());
+						Path file = dataFiles.get(profile.getId());
+						loaded.put(profile.getId(), (alteration == Alteration.MUTATION)
+							? readMutations(file) : readMatrix(file, alteration));
+					}
+					catch (IOException e)
+					{
+						throw new UncheckedIOException("Cannot read " + dataFiles.get(profile.getId()), e);
+					}
+				});
+				data = loaded;
+				log.info("Loaded local study " + cancerStudy.getStudyId() + " in "
+					+ (System.currentTimeMillis() - t) + " ms");
+			}
+			return data;
+		}
+	}
+
+	/*
+	 * Reads a gene x sample matrix (CNA, expression, methylation, protein level).
+	 */
+	private Map<String, byte[]> readMatrix(Path file, Alteration alteration) throws IOException
+	{
+		Map<String, byte[]> rows = new HashMap<String, byte[]>();
+		try (BufferedReader reader = Files.newBufferedReader(file))
+		{
+			String line = reader.readLine();
+			while (line != null && line.startsWith("#")) line = reader.readLine();
+			if (line == null) return rows;
+
+			String[] header = line.split("\t", -1);
+			int symbolCol = indexOf(header, "Hugo_Symbol");
+			int entrezCol = indexOf(header, "Entrez_Gene_Id");
+			int[] sampleIds = new int[header.length];
+			for (int i = 0; i < header.length; i++)
+				sampleIds[i] = (i == symbolCol || i == entrezCol) ? -1 : samples.indexOf(header[i]);
+
+			byte noData = (byte) Change.NO_DATA.ordinal();
+			for (line = reader.readLine(); line != null; line = reader.readLine())
+			{
+				String[] token = line.split("\t", -1);
+				byte[] row = new byte[samples.size()];
+				Arrays.fill(row, noData);
+				for (int i = 0; i < token.length && i < sampleIds.length; i++)
+				{
+					if (sampleIds[i] >= 0)
+						row[sampleIds[i]] = (byte) CBioPortalAccessor.inferChange(alteration, token[i], options).ordinal();
+				}
+				addRow(rows, token, symbolCol, entrezCol, row);
+			}
+		}
+		return rows;
+	}
+
+	/*
+	 * Changes of a gene without mutations, by the study's sequenced case list; all the samples
+	 * are taken as sequenced if there is no such list.
+	 */
+	private byte[] readSequenced()
+	{
+		byte[] row = new byte[samples.size()];
+		CaseList sequenced = getCaseListById(cancerStudy.getStudyId() + SEQUENCED);
+		if (sequenced == null)
+		{
+			Arrays.fill(row, (byte) Change.NO_CHANGE.ordinal());
+			return row;
+		}
+
+		Arrays.fill(row, (byte) Change.NO_DATA.ordinal());
+		for (int id : sequenced.getSampleIds())
+			row[id] = (byte) Change.NO_CHANGE.ordinal();
+		return row;
+	}
+
+	/*
+	 * Reads a mutation annotation file (MAF); sequenced samples without a mutation in a gene get NO_CHANGE,
+	 * the others NO_DATA.
+	 */
+	private Map<String, byte[]> readMutations(Path file) throws IOException
+	{
+		Map<String, byte[]> rows = new HashMap<String, byte[]>();
+		try (BufferedReader reader = Files.newBufferedReader(file))
+		{
+			String line = reader.readLine();
+			while (line != null && line.startsWith("#")) line = reader.readLine();
+			if (line == null) return rows;
+
+			String[] header = line.split("\t", -1);
+			int symbolCol = indexOf(header, "Hugo_Symbol");
+			int entrezCol = indexOf(header, "Entrez_Gene_Id");
+			int sampleCol = indexOf(header, "Tumor_Sample_Barcode");
+			int proteinCol = indexOf(header, "HGVSp_Short");
+			if (proteinCol < 0) proteinCol = indexOf(header, "Amino_Acid_Change");
+			if (proteinCol < 0) proteinCol = indexOf(header, "Protein_Change");
+			if (sampleCol < 0) throw new IOException("No Tumor_Sample_Barcode column in " + file);
+			if (symbolCol < 0 && entrezCol < 0) throw new IOException("No gene column in " + file);
+
+			for (line = reader.readLine(); line != null; line = reader.readLine())
+			{
+				String[] token = line.split("\t", -1);
+				if (token.length <= sampleCol) continue;
+				int sampleId = samples.indexOf(token[sampleCol]);
+				if (sampleId < 0) continue;
+
+				String key = (symbolCol >= 0 && !token[symbolCol].isEmpty())
+					? token[symbolCol].toUpperCase() : token[entrezCol];
+				byte[] row = rows.get(key);
+				if (row == null)
+				{
+					row = notMutated.clone();
+					addRow(rows, token, symbolCol, entrezCol, row);
+				}
+
+				String protein = (proteinCol >= 0 && proteinCol < token.length) ? token[proteinCol] : null;
+				Change change = CBioPortalAccessor.inferChange(Alteration.MUTATION,
+					(protein == null || protein.isEmpty()) ? "mutated" : protein, options);
+				// several mutations of a gene in a sample: an inhibiting one wins
+				if (row[sampleId] != Change.INHIBITING.ordinal())
+					row[sampleId] = (byte) change.ordinal();
+			}
+		}
+		return rows;
+	}
+
+	private static void addRow(Map<String, byte[]> rows, String[] token, int symbolCol, int entrezCol, byte[] row)
+	{
+		if (symbolCol >= 0 && symbolCol < token.length && !token[symbolCol].isEmpty())
+			rows.putIfAbsent(token[symbolCol].toUpperCase(), row);
+		if (entrezCol >= 0 && entrezCol < token.length && !token[entrezCol].isEmpty())
+			rows.putIfAbsent(token[entrezCol], row);
+	}
+
+	private static int indexOf(String[] header, String column)
+	{
+		for (int i = 0; i < header.length; i++)
+		{
+			if (header[i].equalsIgnoreCase(column)) return i;
+		}
+		return -1;
+	}
+
+	/*
+	 * Reads a "key: value" per line file (meta_*.txt, case_lists/*.txt).
+	 */
+	private static Map<String, String> readMeta(Path file) throws IOException
+	{
+		Map<String, String> meta = new HashMap<String, String>();
+		try (BufferedReader reader = Files.newBufferedReader(file))
+		{
+			for (String line = reader.readLine(); line != null; line = reader.readLine())
+			{
+				int i = line.indexOf(':');
+				if (i > 0) meta.put(line.substring(0, i).trim(), line.substring(i + 1).trim());
+			}
+		}
+		return meta;
+	}
+}
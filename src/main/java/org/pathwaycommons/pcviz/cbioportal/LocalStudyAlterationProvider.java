@@ -0,0 +1,76 @@
+package org.pathwaycommons.pcviz.cbioportal;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Provides alterations from a {@link LocalStudy} for the selected case list and genetic profiles,
+ * the same way {@link CBioPortalAccessor} does from the portal, but without any network access.
+ */
+public class LocalStudyAlterationProvider extends AlterationProviderAdaptor
+{
+	private final LocalStudy study;
+	private final CaseList caseList;
+	private final List<GeneticProfile> geneticProfiles;
+
+	LocalStudyAlterationProvider(LocalStudy study, CaseList caseList, List<GeneticProfile> geneticProfiles)
+	{
+		this.study = study;
+		this.caseList = caseList;
+		this.geneticProfiles = geneticProfiles;
+		memory = new ConcurrentHashMap<String, AlterationPack>();
+	}
+
+	public CaseList getCaseList()
+	{
+		return caseList;
+	}
+
+	public List<GeneticProfile> getGeneticProfiles()
+	{
+		return geneticProfiles;
+	}
+
+	@Override
+	public boolean isCached(String id)
+	{
+		return true; // everything is in the local files
+	}
+
+	@Override
+	public AlterationPack getAlterations(Node node)
+	{
+		String id = getEntrezGeneID(node);
+		return (id != null) ? getAlterations(id) : null;
+	}
+
+	@Override
+	public AlterationPack getAlterations(String id)
+	{
+		if (id == null || id.isEmpty()) throw new IllegalArgumentException(
+			"id cannot be null or empty. id = " + id);
+
+		AlterationPack alterationPack = getFromMemory(id);
+		if (alterationPack != null) return alterationPack;
+
+		alterationPack = new AlterationPack(id);
+		for (GeneticProfile geneticProfile : geneticProfiles)
+		{
+			Change[] changes = study.getChanges(geneticProfile, id, caseList);
+			if (changes == null) continue;
+
+			Alteration alteration = ProfileType.convertToAlteration(geneticProfile.getType());
+			Change[] altChanges = alterationPack.get(alteration);
+			if (altChanges == null)
+				alterationPack.put(alteration, changes);
+			else
+				alterationPack.put(alteration, CBioPortalAccessor.mergeChanges(altChanges, changes));
+		}
+
+		if (alterationPack.getAlterationTypes().isEmpty())
+			return null;
+
+		memorize(id, alterationPack);
+		return alterationPack;
+	}
+}
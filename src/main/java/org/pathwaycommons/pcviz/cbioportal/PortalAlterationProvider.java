@@ -0,0 +1,63 @@
+package org.pathwaycommons.pcviz.cbioportal;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Provides alterations from cBioPortal for a fixed case list and genetic profiles.
+ * Unlike {@link CBioPortalAccessor#getAlterations(String)}, it does not depend on
+ * the accessor's current study selection and can be used by several threads at once.
+ */
+public class PortalAlterationProvider extends AlterationProviderAdaptor
+{
+	private final CBioPortalAccessor accessor;
+	private final CaseList caseList;
+	private final List<GeneticProfile> geneticProfiles;
+
+	PortalAlterationProvider(CBioPortalAccessor accessor, CaseList caseList, List<GeneticProfile> geneticProfiles)
+	{
+		this.accessor = accessor;
+		this.caseList = caseList;
+		this.geneticProfiles = geneticProfiles;
+		memory = new ConcurrentHashMap<String, AlterationPack>();
+	}
+
+	public CaseList getCaseList()
+	{
+		return caseList;
+	}
+
+	public List<GeneticProfile> getGeneticProfiles()
+	{
+		return geneticProfiles;
+	}
+
+	@Override
+	public boolean isCached(String id)
+	{
+		return super.isCached(id) || accessor.isCached(id, caseList, geneticProfiles);
+	}
+
+	@Override
+	public AlterationPack getAlterations(Node node)
+	{
+		String symbol = accessor.getGeneSymbol(node);
+		return (symbol != null) ? getAlterations(symbol) : null;
+	}
+
+	@Override
+	public AlterationPack getAlterations(String id)
+	{
+		if (id == null || id.isEmpty()) throw new IllegalArgumentException(
+			"id cannot be null or empty. id = " + id);
+
+		AlterationPack alterationPack = getFromMemory(id);
+		if (alterationPack != null) return alterationPack;
+
+		alterationPack = accessor.getAlterations(id, caseList, geneticProfiles);
+		if (alterationPack != null)
+			memorize(id, alterationPack);
+
+		return alterationPack;
+	}
+}
@@ -0,0 +1,200 @@
+package org.pathwaycommons.pcviz.cbioportal;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Immutable snapshot of the cBioPortal metadata (cancer studies, their case lists
+ * and genetic profiles), which can be persisted in a compact binary form
+ * and loaded back at startup without contacting the portal.
+ */
+public class PortalMetadata
+{
+	public static final String FILENAME = "metadata.snapshot";
+
+	private static final int FORMAT_VERSION = 2;
+
+	private final List<CancerStudy> cancerStudies;
+	private final Map<String, List<CaseList>> caseLists;
+	private final Map<String, List<GeneticProfile>> geneticProfiles;
+
+	public PortalMetadata(List<CancerStudy> cancerStudies,
+		Map<String, List<CaseList>> caseLists,
+		Map<String, List<GeneticProfile>> geneticProfiles)
+	{
+		this.cancerStudies = Collections.unmodifiableList(new ArrayList<CancerStudy>(cancerStudies));
+		this.caseLists = Collections.unmodifiableMap(new HashMap<String, List<CaseList>>(caseLists));
+		this.geneticProfiles = Collections.unmodifiableMap(new HashMap<String, List<GeneticProfile>>(geneticProfiles));
+	}
+
+	public List<CancerStudy> getCancerStudies()
+	{
+		return cancerStudies;
+	}
+
+	/**
+	 * @param studyId cancer study id
+	 * @return case lists of the study or null when those were not fetched yet
+	 */
+	public List<CaseList> getCaseLists(String studyId)
+	{
+		return caseLists.get(studyId);
+	}
+
+	/**
+	 * @param studyId cancer study id
+	 * @return genetic profiles of the study or null when those were not fetched yet
+	 */
+	public List<GeneticProfile> getGeneticProfiles(String studyId)
+	{
+		return geneticProfiles.get(studyId);
+	}
+
+	public boolean isEmpty()
+	{
+		return cancerStudies.isEmpty();
+	}
+
+	/**
+	 * Serializes the snapshot; the output is deterministic,
+	 * so that two snapshots can be compared byte-to-byte.
+	 *
+	 * @return gzipped binary representation
+	 * @throws IOException
+	 */
+	public byte[] toBytes() throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(bytes)));
+		out.writeInt(FORMAT_VERSION);
+		out.writeInt(cancerStudies.size());
+		for (CancerStudy study : cancerStudies)
+		{
+			out.writeUTF(study.getStudyId());
+			out.writeUTF(study.getName());
+			out.writeUTF(study.getDescription());
+
+			// each barcode is written once per study; case lists are written as sample ids
+			List<CaseList> lists = caseLists.get(study.getStudyId());
+			out.writeInt(lists == null ? -1 : lists.size());
+			if (lists != null)
+			{
+				SampleDictionary samples = new SampleDictionary();
+				List<int[]> encoded = new ArrayList<int[]>(lists.size());
+				for (CaseList caseList : lists)
+					encoded.add(samples.encode(caseList.getCases()));
+
+				out.writeInt(samples.size());
+				for (int k = 0; k < samples.size(); k++) out.writeUTF(samples.getSample(k));
+
+				for (int j = 0; j < lists.size(); j++)
+				{
+					out.writeUTF(lists.get(j).getId());
+					out.writeUTF(str(lists.get(j).getDescription()));
+					int[] ids = encoded.get(j);
+					out.writeInt(ids.length);
+					for (int id : ids) out.writeInt(id);
+				}
+			}
+
+			List<GeneticProfile> profiles = geneticProfiles.get(study.getStudyId());
+			out.writeInt(profiles == null ? -1 : profiles.size());
+			if (profiles != null) for (GeneticProfile profile : profiles)
+			{
+				out.writeUTF(profile.getId());
+				out.writeUTF(str(profile.getName()));
+				out.writeUTF(str(profile.getDescription()));
+				out.writeUTF(profile.getType().name());
+			}
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static String str(String s)
+	{
+		return (s == null) ? "" : s;
+	}
+
+	public static PortalMetadata fromBytes(byte[] data) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+			new GZIPInputStream(new ByteArrayInputStream(data))));
+		try
+		{
+			int version = in.readInt();
+			if (version != FORMAT_VERSION)
+				throw new IOException("Unsupported metadata snapshot version: " + version);
+
+			int n = in.readInt();
+			List<CancerStudy> studies = new ArrayList<CancerStudy>(n);
+			Map<String, List<CaseList>> caseLists = new HashMap<String, List<CaseList>>();
+			Map<String, List<GeneticProfile>> profiles = new HashMap<String, List<GeneticProfile>>();
+			for (int i = 0; i < n; i++)
+			{
+				CancerStudy study = new CancerStudy(in.readUTF(), in.readUTF(), in.readUTF());
+				studies.add(study);
+
+				int m = in.readInt();
+				if (m >= 0)
+				{
+					SampleDictionary samples = new SampleDictionary();
+					int numberOfSamples = in.readInt();
+					for (int k = 0; k < numberOfSamples; k++) samples.add(in.readUTF());
+
+					List<CaseList> lists = new ArrayList<CaseList>(m);
+					for (int j = 0; j < m; j++)
+					{
+						String id = in.readUTF();
+						String description = in.readUTF();
+						int[] ids = new int[in.readInt()];
+						for (int k = 0; k < ids.length; k++) ids[k] = in.readInt();
+						lists.add(new CaseList(id, description, samples, ids));
+					}
+					caseLists.put(study.getStudyId(), lists);
+				}
+
+				m = in.readInt();
+				if (m >= 0)
+				{
+					List<GeneticProfile> list = new ArrayList<GeneticProfile>(m);
+					for (int j = 0; j < m; j++)
+					{
+						list.add(new GeneticProfile(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF()));
+					}
+					profiles.put(study.getStudyId(), list);
+				}
+			}
+			return new PortalMetadata(studies, caseLists, profiles);
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	public static PortalMetadata read(Path file) throws IOException
+	{
+		return fromBytes(Files.readAllBytes(file));
+	}
+
+	/**
+	 * Writes the snapshot to a temporary file first and then moves it in place,
+	 * so that readers never see a partially written snapshot.
+	 *
+	 * @param data serialized snapshot (see {@link #toBytes()})
+	 * @param file target file
+	 * @throws IOException
+	 */
+	public static void write(byte[] data, Path file) throws IOException
+	{
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		Files.write(tmp, data);
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
@@ -0,0 +1,84 @@
+package org.pathwaycommons.pcviz.cbioportal;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-study dictionary of sample (case) barcodes.
+ * Each distinct barcode is stored once and gets a small int id,
+ * so that the case lists of a study can be kept as int arrays
+ * and the profile data can be aligned by plain array indexing.
+ */
+public class SampleDictionary
+{
+	private final Map<String, Integer> ids;
+	private String[] samples;
+	private int size;
+
+	public SampleDictionary()
+	{
+		ids = new HashMap<String, Integer>();
+		samples = new String[16];
+		size = 0;
+	}
+
+	/**
+	 * Gets the id of the sample; adds the sample to the dictionary if it is not there yet.
+	 *
+	 * @param sample barcode
+	 * @return sample id
+	 */
+	public synchronized int add(String sample)
+	{
+		Integer id = ids.get(sample);
+		if (id != null) return id;
+
+		if (size == samples.length) samples = Arrays.copyOf(samples, size * 2);
+		samples[size] = sample;
+		ids.put(sample, size);
+		return size++;
+	}
+
+	/**
+	 * @param cases barcodes
+	 * @return ids of the samples (new ones are added to the dictionary)
+	 */
+	public synchronized int[] encode(String[] cases)
+	{
+		int[] encoded = new int[cases.length];
+		for (int i = 0; i < cases.length; i++)
+			encoded[i] = add(cases[i]);
+		return encoded;
+	}
+
+	/**
+	 * @param sample barcode
+	 * @return sample id or -1 if the sample is not in the dictionary
+	 */
+	public synchronized int indexOf(String sample)
+	{
+		Integer id = ids.get(sample);
+		return (id == null) ? -1 : id;
+	}
+
+	public synchronized String getSample(int id)
+	{
+		if (id < 0 || id >= size)
+			throw new IndexOutOfBoundsException("No sample with id " + id + "; size = " + size);
+		return samples[id];
+	}
+
+	public synchronized String[] decode(int[] sampleIds)
+	{
+		String[] cases = new String[sampleIds.length];
+		for (int i = 0; i < sampleIds.length; i++)
+			cases[i] = samples[sampleIds[i]];
+		return cases;
+	}
+
+	public synchronized int size()
+	{
+		return size;
+	}
+}
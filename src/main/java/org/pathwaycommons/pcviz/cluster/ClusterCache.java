@@ -0,0 +1,173 @@
+package org.pathwaycommons.pcviz.cluster;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Optional cluster tier of the network cache: each graph query result (by its canonical network key)
+ * has an owner node, chosen by consistent hashing, which queries Pathway Commons and keeps the result;
+ * the other nodes get the raw result from the owner over HTTP (and render the networks of it themselves),
+ * or query it themselves if the owner fails.
+ * Enabled by listing all the nodes' base URLs in cluster.peers (the same on each node),
+ * and this node's one in cluster.self; e.g., for two instances on localhost:
+ * <pre>
+ * cluster.peers=http://localhost:8080,http://localhost:8081
+ * cluster.self=http://localhost:${server.port}
+ * </pre>
+ */
+@Component
+public class ClusterCache {
+    private static final Log log = LogFactory.getLog(ClusterCache.class);
+
+    // the peer API path (see ClusterController)
+    public static final String RESULT_PATH = "/cluster/result";
+
+    // set while serving another node's request, so that it is never forwarded again
+    private static final ThreadLocal<Boolean> peerRequest = new ThreadLocal<Boolean>();
+
+    @Value("${cluster.peers:}")
+    private String peers;
+
+    @Value("${cluster.self:}")
+    private String self;
+
+    @Value("${cluster.timeout.ms:10000}")
+    private int timeoutMs;
+
+    @Value("${cluster.retry.seconds:30}")
+    private long retrySeconds;
+
+    private HashRing ring;
+
+    // peer -> time until which it is considered down
+    private final Map<String, Long> down = new ConcurrentHashMap<String, Long>();
+
+    public ClusterCache() {
+    }
+
+    public ClusterCache(String peers, String self, int timeoutMs, long retrySeconds) {
+        this.peers = peers;
+        this.self = self;
+        this.timeoutMs = timeoutMs;
+        this.retrySeconds = retrySeconds;
+        init();
+    }
+
+    @PostConstruct
+    void init() {
+        List<String> nodes = new ArrayList<String>();
+        for (String peer : peers.split(",")) {
+            if (!peer.trim().isEmpty())
+                nodes.add(normalize(peer));
+        }
+        self = normalize(self);
+        if (nodes.size() > 1 && !nodes.contains(self))
+            throw new IllegalArgumentException("cluster.self (" + self + ") is not in cluster.peers: " + nodes);
+
+        ring = new HashRing(nodes, 128);
+        if (isEnabled())
+            log.info("Cluster network cache: " + nodes + "; this node: " + self);
+    }
+
+    public boolean isEnabled() {
+        return ring.getNodes().size() > 1;
+    }
+
+    /**
+     * @param key canonical network key
+     * @return the node that should query and keep the result (maybe this one)
+     */
+    public String getOwner(String key) {
+        long now = System.currentTimeMillis();
+        down.values().removeIf(until -> until < now);
+        return ring.getOwner(key, down.keySet());
+    }
+
+    public String getSelf() {
+        return self;
+    }
+
+    /**
+     * Gets the raw graph query result from its owner node, unless this node is the owner,
+     * or this is a request from another node.
+     *
+     * @param key canonical network key
+     * @param type graph query type
+     * @param genes query genes
+     * @return the result (as SifEdgeList bytes), or null if it should be got locally
+     */
+    public byte[] fetch(String key, String type, Collection<String> genes) {
+        if (!isEnabled() || Boolean.TRUE.equals(peerRequest.get()))
+            return null;
+
+        String owner = getOwner(key);
+        if (owner == null || owner.equals(self))
+            return null;
+
+        StringBuilder url = new StringBuilder(owner).append(RESULT_PATH);
+        try {
+            url.append("?type=").append(URLEncoder.encode(type.toLowerCase(), "UTF-8"))
+                .append("&genes=").append(URLEncoder.encode(String.join(",", genes), "UTF-8"));
+            HttpURLConnection connection = (HttpURLConnection) new URL(url.toString()).openConnection();
+            connection.setConnectTimeout(timeoutMs);
+            connection.setReadTimeout(timeoutMs);
+            connection.setRequestProperty("Accept", "application/octet-stream");
+            try {
+                if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                    log.warn("Peer " + owner + " returned " + connection.getResponseCode() + " for " + key);
+                    return null;
+                }
+                try (InputStream in = connection.getInputStream()) {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    byte[] buffer = new byte[8192];
+                    for (int n = in.read(buffer); n > 0; n = in.read(buffer))
+                        out.write(buffer, 0, n);
+                    log.debug("Got graph query result " + key + " from " + owner);
+                    return out.toByteArray();
+                }
+            } finally {
+                connection.disconnect();
+            }
+        } catch (IOException e) {
+            log.warn("Peer " + owner + " failed (will be skipped for " + retrySeconds + " s); " + e);
+            down.put(owner, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(retrySeconds));
+            return null;
+        }
+    }
+
+    /**
+     * Runs the task as a request from another node: nothing gets forwarded.
+     */
+    public static <T> T servePeer(PeerTask<T> task) throws IOException {
+        peerRequest.set(Boolean.TRUE);
+        try {
+            return task.call();
+        } finally {
+            peerRequest.remove();
+        }
+    }
+
+    public interface PeerTask<T> {
+        T call() throws IOException;
+    }
+
+    private static String normalize(String url) {
+        url = url.trim();
+        while (url.endsWith("/"))
+            url = url.substring(0, url.length() - 1);
+        return url;
+    }
+}
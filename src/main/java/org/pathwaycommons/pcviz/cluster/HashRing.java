@@ -0,0 +1,70 @@
+package org.pathwaycommons.pcviz.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Consistent hashing of keys to nodes: each node is placed at many (virtual) points on a ring,
+ * and a key belongs to the first node clockwise from the key's hash;
+ * so, adding or removing a node moves only about 1/N of the keys.
+ */
+public class HashRing {
+
+    private final TreeMap<Long, String> ring = new TreeMap<Long, String>();
+    private final List<String> nodes;
+
+    /**
+     * @param nodes node ids (e.g. base URLs), the same on all the nodes
+     * @param virtualNodes points per node; more - more even distribution
+     */
+    public HashRing(Collection<String> nodes, int virtualNodes) {
+        this.nodes = Collections.unmodifiableList(new ArrayList<String>(new LinkedHashSet<String>(nodes)));
+        for (String node : this.nodes)
+            for (int i = 0; i < virtualNodes; i++)
+                ring.put(hash(node + "#" + i), node);
+    }
+
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @param key the key
+     * @return the node that owns the key, or null if there are no nodes
+     */
+    public String getOwner(String key) {
+        return getOwner(key, Collections.<String>emptySet());
+    }
+
+    /**
+     * @param key the key
+     * @param excluded nodes to skip (e.g. the ones that are down)
+     * @return the first node, not excluded, clockwise from the key's hash; or null
+     */
+    public String getOwner(String key, Set<String> excluded) {
+        if (ring.isEmpty())
+            return null;
+        long h = hash(key);
+        for (String node : ring.tailMap(h).values())
+            if (!excluded.contains(node))
+                return node;
+        for (String node : ring.headMap(h).values())
+            if (!excluded.contains(node))
+                return node;
+        return null;
+    }
+
+    static long hash(String s) {
+        try {
+            byte[] d = MessageDigest.getInstance("MD5").digest(s.getBytes(StandardCharsets.UTF_8));
+            long h = 0;
+            for (int i = 0; i < 8; i++)
+                h = (h << 8) | (d[i] & 0xff);
+            return h;
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package org.pathwaycommons.pcviz.controller;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+/**
+ * Registers the {@link AdminTokenInterceptor} for the administration API
+ * (cache administration, the slow request traces and the request/upstream call limits).
+ */
+@Configuration
+public class AdminConfiguration extends WebMvcConfigurerAdapter {
+
+    @Autowired
+    private AdminTokenInterceptor adminTokenInterceptor;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(adminTokenInterceptor).addPathPatterns("/admin/**");
+    }
+}
@@ -0,0 +1,45 @@
+package org.pathwaycommons.pcviz.controller;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Collections;
+
+/**
+ * Guards the administration API (/admin/**, see {@link AdminConfiguration}): disabled (404)
+ * unless the admin.token property is set; every request must have the same token
+ * in the X-Admin-Token header (401 otherwise).
+ */
+@Component
+public class AdminTokenInterceptor extends HandlerInterceptorAdapter {
+
+    static final String HEADER = "X-Admin-Token";
+
+    @Value("${admin.token:}")
+    private String adminToken;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+        throws IOException {
+        if (adminToken == null || adminToken.isEmpty())
+            return deny(response, HttpServletResponse.SC_NOT_FOUND, "Administration is disabled");
+        String token = request.getHeader(HEADER);
+        if (token == null || !MessageDigest.isEqual(adminToken.getBytes(StandardCharsets.UTF_8),
+            token.getBytes(StandardCharsets.UTF_8)))
+            return deny(response, HttpServletResponse.SC_UNAUTHORIZED, "Invalid or missing " + HEADER);
+        return true;
+    }
+
+    private static boolean deny(HttpServletResponse response, int status, String message) throws IOException {
+        response.setStatus(status);
+        response.setContentType(JsonResponses.CONTENT_TYPE);
+        response.getWriter().write(JsonResponses.serialize(Collections.singletonMap("error", message)));
+        return false;
+    }
+}
@@ -1,6 +1,7 @@
 package org.pathwaycommons.pcviz.controller;
 
 import org.pathwaycommons.pcviz.service.BioGeneService;
+import org.pathwaycommons.pcviz.service.QueryLogService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
@@ -24,6 +25,9 @@ public class BioGeneController
     @Autowired
     private BioGeneService bioGeneService;
 
+    @Autowired
+    private QueryLogService queryLogService;
+
     public BioGeneService getBioGeneService() {
         return bioGeneService;
     }
@@ -46,6 +50,9 @@ public class BioGeneController
 		try
 		{
 			data = getBioGeneService().getData(gene, organism);
+			if (data == null)
+				data = BioGeneService.NO_DATA;
+			queryLogService.recordBioGene(organism, gene);
 			status = HttpStatus.OK;
 		}
 		catch (IOException e)
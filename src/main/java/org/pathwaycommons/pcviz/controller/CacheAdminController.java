@@ -0,0 +1,143 @@
+package org.pathwaycommons.pcviz.controller;
+
+import cpath.service.GraphType;
+import flexjson.JSONDeserializer;
+import org.pathwaycommons.pcviz.service.CacheAdminService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.pathwaycommons.pcviz.controller.JsonResponses.error;
+import static org.pathwaycommons.pcviz.controller.JsonResponses.json;
+
+/**
+ * Cache statistics, invalidation and warm-up.
+ * Disabled unless the admin.token property is set; every request must have
+ * the same token in the X-Admin-Token header (see {@link AdminTokenInterceptor}).
+ */
+@Controller
+@RequestMapping("/admin/cache")
+public class CacheAdminController {
+
+    @Autowired
+    private CacheAdminService cacheAdminService;
+
+    @RequestMapping(value = "", method = RequestMethod.GET)
+    public ResponseEntity<String> getStatistics() {
+        try {
+            return json(cacheAdminService.getStatistics(), HttpStatus.OK);
+        } catch (IOException e) {
+            return error(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    @RequestMapping(value = "{name}", method = RequestMethod.GET)
+    public ResponseEntity<String> getStatistics(@PathVariable String name) {
+        try {
+            return json(cacheAdminService.getStatistics(name), HttpStatus.OK);
+        } catch (IllegalArgumentException e) {
+            return error(e.getMessage(), HttpStatus.NOT_FOUND);
+        }
+    }
+
+    /**
+     * Removes values from the cache by key, key prefix or gene, e.g.
+     * DELETE /admin/cache/cancerContextAlterationsCache?prefix=brca_tcga/
+     */
+    @RequestMapping(value = "{name}", method = RequestMethod.DELETE)
+    public ResponseEntity<String> invalidate(@PathVariable String name,
+                                             @RequestParam(value = "key", required = false) String key,
+                                             @RequestParam(value = "prefix", required = false) String prefix,
+                                             @RequestParam(value = "gene", required = false) String gene) {
+        try {
+            return json(Collections.singletonMap("removed", cacheAdminService.invalidate(name, key, prefix, gene)),
+                HttpStatus.OK);
+        } catch (IllegalArgumentException e) {
+            return error(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    /**
+     * Deletes files from a cache.folder sub-directory by path prefix or gene, e.g.
+     * DELETE /admin/cache/folder/biogene?gene=TP53
+     */
+    @RequestMapping(value = "folder/{folder}", method = RequestMethod.DELETE)
+    public ResponseEntity<String> invalidateFolder(@PathVariable String folder,
+                                                   @RequestParam(value = "prefix", required = false) String prefix,
+                                                   @RequestParam(value = "gene", required = false) String gene) {
+        try {
+            return json(Collections.singletonMap("removed", cacheAdminService.invalidateFolder(folder, prefix, gene)),
+                HttpStatus.OK);
+        } catch (IllegalArgumentException e) {
+            return error(e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (IOException e) {
+            return error(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Removes a network from the caches and the cache.folder (the raw query result), e.g.
+     * DELETE /admin/cache/network/neighborhood/TP53,MDM2
+     */
+    @RequestMapping(value = "network/{type}/{genes}", method = RequestMethod.DELETE)
+    public ResponseEntity<String> invalidateNetwork(@PathVariable String type, @PathVariable String genes) {
+        try {
+            CacheAdminService.NetworkQuery query = new CacheAdminService.NetworkQuery(
+                GraphType.valueOf(type.trim().toUpperCase()), Arrays.asList(genes.split("\\s*,\\s*")));
+            return json(Collections.singletonMap("removed", cacheAdminService.invalidateNetwork(query)), HttpStatus.OK);
+        } catch (IllegalArgumentException e) {
+            return error(e.getMessage(), HttpStatus.BAD_REQUEST);
+        } catch (IOException e) {
+            return error(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Starts computing the networks listed in the request body, e.g.
+     * [{"type":"neighborhood","genes":["TP53","MDM2"]},{"type":"pathsbetween","genes":"BRCA1,BRCA2"}]
+     */
+    @RequestMapping(value = "warm", method = RequestMethod.POST)
+    public ResponseEntity<String> warm(@RequestBody String body,
+                                       @RequestParam(value = "parallelism", defaultValue = "2") int parallelism,
+                                       @RequestParam(value = "biogene", defaultValue = "false") boolean bioGene) {
+        List<CacheAdminService.NetworkQuery> queries = new ArrayList<CacheAdminService.NetworkQuery>();
+        try {
+            List<Map<String, Object>> items = new JSONDeserializer<List<Map<String, Object>>>().deserialize(body);
+            for (Map<String, Object> item : items) {
+                Object genes = item.get("genes");
+                Collection<String> geneList = new ArrayList<String>();
+                if (genes instanceof Collection) {
+                    for (Object gene : (Collection<?>) genes)
+                        geneList.add(gene.toString().trim());
+                } else if (genes != null) {
+                    geneList.addAll(Arrays.asList(genes.toString().trim().split("\\s*,\\s*")));
+                }
+                if (geneList.isEmpty())
+                    throw new IllegalArgumentException("No genes in " + item);
+                queries.add(new CacheAdminService.NetworkQuery(
+                    GraphType.valueOf(String.valueOf(item.get("type")).trim().toUpperCase()), geneList));
+            }
+        } catch (RuntimeException e) {
+            return error("Invalid warm-up request: " + e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+
+        try {
+            return json(cacheAdminService.warm(queries, bioGene, parallelism), HttpStatus.ACCEPTED);
+        } catch (IllegalStateException e) {
+            return error(e.getMessage(), HttpStatus.CONFLICT);
+        }
+    }
+
+    @RequestMapping(value = "warm", method = RequestMethod.GET)
+    public ResponseEntity<String> getWarmJob() {
+        CacheAdminService.WarmJob job = cacheAdminService.getWarmJob();
+        if (job == null)
+            return error("No cache warm-up has been started", HttpStatus.NOT_FOUND);
+        return json(job, HttpStatus.OK);
+    }
+}
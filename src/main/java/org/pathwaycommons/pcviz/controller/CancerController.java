@@ -1,18 +1,27 @@
 package org.pathwaycommons.pcviz.controller;
 
 import flexjson.JSONSerializer;
+import org.pathwaycommons.pcviz.metrics.Trace;
 import org.pathwaycommons.pcviz.model.CancerStudyDetails;
 import org.pathwaycommons.pcviz.service.CancerContextService;
+import org.pathwaycommons.pcviz.service.QueryLogService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.HashMap;
 
 @Controller
@@ -21,6 +30,9 @@ public class CancerController {
     @Autowired
     CancerContextService cancerContextService;
 
+    @Autowired
+    QueryLogService queryLogService;
+
     public CancerContextService getCancerContextService() {
         return cancerContextService;
     }
@@ -68,14 +80,56 @@ public class CancerController {
 
         try {
             context = cancerContextService.loadContext(studyId, profiles, genes);
+            queryLogService.recordContext(studyId, profiles, genes);
         } catch (Exception e) {
             return new ResponseEntity<String>(e.getMessage(), headers, HttpStatus.BAD_REQUEST);
         }
 
-        JSONSerializer jsonSerializer = new JSONSerializer().exclude("*.class");
-        String response = jsonSerializer.deepSerialize(context);
+        String response;
+        try (Trace.Span span = Trace.span("serialize")) {
+            JSONSerializer jsonSerializer = new JSONSerializer().exclude("*.class");
+            response = jsonSerializer.deepSerialize(context);
+        }
 
         return new ResponseEntity<String>(response, headers, HttpStatus.OK);
     }
 
+    /**
+     * Streams the cancer context gene by gene, as soon as each gene's data is available,
+     * either as newline-delimited JSON or (when the client accepts text/event-stream) as server-sent events.
+     * Each entry has the same form as in the non-streaming response, e.g. {"TP53":{"altered":0.5}}.
+     */
+    @RequestMapping(value = "context/{studyId}/{profiles}/{genes}/stream", method = {RequestMethod.GET, RequestMethod.POST})
+    public ResponseEntity<StreamingResponseBody> streamContext(@PathVariable String studyId, @PathVariable String profiles,
+                                                               @PathVariable String genes,
+                                                               @RequestHeader(value = "Accept", required = false) String accept)
+    {
+        final boolean sse = accept != null && accept.contains(MediaType.TEXT_EVENT_STREAM_VALUE);
+        queryLogService.recordContext(studyId, profiles, genes);
+
+        StreamingResponseBody body = (OutputStream out) -> {
+            JSONSerializer jsonSerializer = new JSONSerializer().exclude("*.class");
+            try {
+                cancerContextService.streamContext(studyId, profiles, genes, (gene, data) -> {
+                    String json = jsonSerializer.deepSerialize(Collections.singletonMap(gene, data));
+                    String chunk = (sse) ? "data: " + json + "\n\n" : json + "\n";
+                    try {
+                        out.write(chunk.getBytes(StandardCharsets.UTF_8));
+                        out.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+
+        return ResponseEntity.ok()
+            .contentType(MediaType.parseMediaType((sse)
+                ? MediaType.TEXT_EVENT_STREAM_VALUE + ";charset=UTF-8" : "application/x-ndjson;charset=UTF-8"))
+            .body(body);
+    }
 }
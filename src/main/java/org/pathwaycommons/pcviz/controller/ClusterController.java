@@ -0,0 +1,50 @@
+package org.pathwaycommons.pcviz.controller;
+
+import cpath.service.GraphType;
+import org.pathwaycommons.pcviz.cluster.ClusterCache;
+import org.pathwaycommons.pcviz.service.PathwayCommonsService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Serves the graph query results this node owns to the other cluster nodes (see {@link ClusterCache}).
+ */
+@Controller
+public class ClusterController {
+
+    @Autowired
+    private PathwayCommonsService pathwayCommonsService;
+
+    @RequestMapping(value = ClusterCache.RESULT_PATH, method = RequestMethod.GET)
+    public ResponseEntity<byte[]> getResult(@RequestParam("type") String type, @RequestParam("genes") String genes)
+    {
+        GraphType graphType;
+        try {
+            graphType = GraphType.valueOf(type.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().contentType(MediaType.TEXT_PLAIN)
+                .body(e.getMessage().getBytes(StandardCharsets.UTF_8));
+        }
+
+        Set<String> geneSet = new TreeSet<String>(Arrays.asList(genes.split("\\s*,\\s*")));
+        try {
+            byte[] result = ClusterCache.servePeer(() -> pathwayCommonsService.getRawResult(graphType, geneSet));
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_OCTET_STREAM).body(result);
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).contentType(MediaType.TEXT_PLAIN)
+                .body(String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
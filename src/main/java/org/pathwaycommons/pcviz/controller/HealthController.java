@@ -0,0 +1,68 @@
+package org.pathwaycommons.pcviz.controller;
+
+import flexjson.JSONSerializer;
+import org.pathwaycommons.pcviz.service.CacheAdminService;
+import org.pathwaycommons.pcviz.service.QueryLogService;
+import org.pathwaycommons.pcviz.upstream.LoadSheddingInterceptor;
+import org.pathwaycommons.pcviz.upstream.UpstreamScheduler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Readiness check for the load balancer: 503 until the startup cache warm-up
+ * (see {@link QueryLogService}) is over, unless querylog.warm.readiness=false;
+ * and the state of the request and upstream call limits, which, like the rest of the administration API,
+ * needs the admin.token in the X-Admin-Token header (see {@link AdminTokenInterceptor}).
+ */
+@Controller
+public class HealthController {
+
+    @Autowired
+    private QueryLogService queryLogService;
+
+    @Autowired
+    private LoadSheddingInterceptor loadSheddingInterceptor;
+
+    @Autowired
+    private UpstreamScheduler upstreamScheduler;
+
+    @Value("${querylog.warm.readiness:true}")
+    private boolean waitForWarmUp;
+
+    @RequestMapping(value = "/ready", method = RequestMethod.GET)
+    public ResponseEntity<String> ready() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.add("Content-Type", "application/json; charset=utf-8");
+
+        CacheAdminService.WarmJob warmUp = queryLogService.getWarmJob();
+        boolean ready = !waitForWarmUp || (warmUp != null && !warmUp.isRunning());
+
+        Map<String, Object> status = new LinkedHashMap<String, Object>();
+        status.put("ready", ready);
+        if (warmUp != null)
+            status.put("warmUp", warmUp);
+
+        String body = new JSONSerializer().exclude("*.class").deepSerialize(status);
+        return new ResponseEntity<String>(body, headers, (ready) ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    /**
+     * Gets the concurrency limit of each endpoint group and the upstream call queues.
+     */
+    @RequestMapping(value = "/admin/limits", method = RequestMethod.GET)
+    public ResponseEntity<String> limits() {
+        Map<String, Object> limits = new LinkedHashMap<String, Object>();
+        limits.put("endpoints", loadSheddingInterceptor.getStatistics());
+        limits.put("upstream", upstreamScheduler.getStatistics());
+        return JsonResponses.json(limits, HttpStatus.OK);
+    }
+}
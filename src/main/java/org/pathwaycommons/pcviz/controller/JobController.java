@@ -0,0 +1,171 @@
+package org.pathwaycommons.pcviz.controller;
+
+import cpath.service.GraphType;
+import flexjson.JSONSerializer;
+import org.pathwaycommons.pcviz.service.NetworkJobService;
+import org.pathwaycommons.pcviz.service.PathwayCommonsService;
+import org.pathwaycommons.pcviz.service.QueryLogService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Network queries as jobs, for those that take too long for a request (see {@link NetworkJobService}):
+ * POST /jobs/graph/{type}/{genes}, then poll GET /jobs/{id} (or subscribe to GET /jobs/{id}/events)
+ * until the status is DONE, and get the network from GET /jobs/{id}/result.
+ * The /graph requests are still answered right away.
+ */
+@Controller
+@RequestMapping("/jobs")
+public class JobController {
+
+    // an SSE comment this often keeps the subscription alive while the status does not change
+    static final long KEEP_ALIVE_MS = 15000;
+
+    @Autowired
+    private NetworkJobService networkJobService;
+
+    @Autowired
+    private PathwayCommonsService pathwayCommonsService;
+
+    @Autowired
+    private QueryLogService queryLogService;
+
+    /**
+     * Submits a network query; returns the job (202), with its URL in the Location header.
+     *
+     * @param type graph query type
+     * @param genes comma-separated query genes
+     */
+    @RequestMapping(value = "graph/{type}/{genes}", method = RequestMethod.POST)
+    public ResponseEntity<String> submit(@PathVariable String type, @PathVariable String genes) {
+        GraphType graphType;
+        try {
+            graphType = GraphType.valueOf(type.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return error("Unknown graph type: " + type, HttpStatus.BAD_REQUEST);
+        }
+        Set<String> geneSet = new TreeSet<String>();
+        for (String gene : genes.split("\\s*,\\s*"))
+            if (!gene.trim().isEmpty())
+                geneSet.add(gene.trim());
+        if (geneSet.isEmpty())
+            return error("No genes", HttpStatus.BAD_REQUEST);
+
+        NetworkJobService.NetworkJob job;
+        try {
+            job = networkJobService.submit(graphType, geneSet);
+        } catch (IllegalStateException e) {
+            return error(e.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        queryLogService.recordNetwork(graphType, geneSet);
+
+        HttpHeaders headers = jsonHeaders();
+        headers.setLocation(ServletUriComponentsBuilder.fromCurrentContextPath()
+            .path("/jobs/{id}").buildAndExpand(job.getId()).toUri());
+        return new ResponseEntity<String>(toJson(job), headers, HttpStatus.ACCEPTED);
+    }
+
+    @RequestMapping(value = "{id:.+}", method = RequestMethod.GET)
+    public ResponseEntity<String> getJob(@PathVariable String id) {
+        NetworkJobService.NetworkJob job = networkJobService.getJob(id);
+        if (job == null)
+            return error("Unknown job: " + id, HttpStatus.NOT_FOUND);
+        return new ResponseEntity<String>(toJson(job), jsonHeaders(), HttpStatus.OK);
+    }
+
+    /**
+     * Gets the network of a done job (as /graph does); for a job still queued or running - the job (202);
+     * for a failed one - the job (503).
+     */
+    @RequestMapping(value = "{id:.+}/result", method = RequestMethod.GET)
+    public ResponseEntity<String> getResult(@PathVariable String id) {
+        NetworkJobService.NetworkJob job = networkJobService.getJob(id);
+        if (job == null)
+            return error("Unknown job: " + id, HttpStatus.NOT_FOUND);
+
+        switch (job.getStatus()) {
+            case DONE:
+                HttpHeaders headers = jsonHeaders();
+                headers.add(NetworkController.NETWORK_KEY_HEADER, job.getId());
+                try {
+                    return new ResponseEntity<String>(
+                        pathwayCommonsService.createNetwork(job.getType(), job.getGenes()), headers, HttpStatus.OK);
+                } catch (IOException e) { // evicted meanwhile, and the query failed this time
+                    return error(e.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+                }
+            case FAILED:
+                return new ResponseEntity<String>(toJson(job), jsonHeaders(), HttpStatus.SERVICE_UNAVAILABLE);
+            default:
+                return new ResponseEntity<String>(toJson(job), jsonHeaders(), HttpStatus.ACCEPTED);
+        }
+    }
+
+    /**
+     * Server-sent events: the job, each time its status changes, until it is finished;
+     * the last event is always the DONE or FAILED job.
+     */
+    @RequestMapping(value = "{id:.+}/events", method = RequestMethod.GET)
+    public ResponseEntity<StreamingResponseBody> subscribe(@PathVariable String id) {
+        final NetworkJobService.NetworkJob job = networkJobService.getJob(id);
+        if (job == null)
+            return new ResponseEntity<StreamingResponseBody>(HttpStatus.NOT_FOUND);
+
+        StreamingResponseBody body = (OutputStream out) -> {
+            // the events are of snapshots, so the last one sent is always the finished job
+            NetworkJobService.NetworkJob sent = job.snapshot();
+            write(out, "data: " + toJson(sent) + "\n\n");
+            try {
+                while (!sent.isFinished()) {
+                    if (job.await(sent.getStatus(), KEEP_ALIVE_MS) == sent.getStatus()) {
+                        write(out, ":\n\n");
+                    } else {
+                        sent = job.snapshot();
+                        write(out, "data: " + toJson(sent) + "\n\n");
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        };
+
+        return ResponseEntity.ok()
+            .contentType(MediaType.parseMediaType(MediaType.TEXT_EVENT_STREAM_VALUE + ";charset=UTF-8"))
+            .body(body);
+    }
+
+    private static void write(OutputStream out, String chunk) throws IOException {
+        out.write(chunk.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static String toJson(NetworkJobService.NetworkJob job) {
+        return new JSONSerializer().exclude("*.class").include("genes").serialize(job);
+    }
+
+    private static HttpHeaders jsonHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.add("Content-Type", "application/json; charset=utf-8");
+        return headers;
+    }
+
+    private static ResponseEntity<String> error(String message, HttpStatus status) {
+        return new ResponseEntity<String>(new JSONSerializer().serialize(
+            Collections.singletonMap("error", message)), jsonHeaders(), status);
+    }
+}
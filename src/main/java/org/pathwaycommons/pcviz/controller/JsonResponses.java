@@ -0,0 +1,33 @@
+package org.pathwaycommons.pcviz.controller;
+
+import flexjson.JSONSerializer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.Collections;
+
+/**
+ * The JSON responses of the administration API: a value, or {"error": message}.
+ */
+final class JsonResponses {
+
+    static final String CONTENT_TYPE = "application/json; charset=utf-8";
+
+    private JsonResponses() {
+    }
+
+    static ResponseEntity<String> json(Object body, HttpStatus status) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.add("Content-Type", CONTENT_TYPE);
+        return new ResponseEntity<String>(serialize(body), headers, status);
+    }
+
+    static ResponseEntity<String> error(String message, HttpStatus status) {
+        return json(Collections.singletonMap("error", message), status);
+    }
+
+    static String serialize(Object body) {
+        return new JSONSerializer().exclude("*.class").deepSerialize(body);
+    }
+}
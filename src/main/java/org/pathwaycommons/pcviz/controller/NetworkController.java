@@ -2,16 +2,25 @@ package org.pathwaycommons.pcviz.controller;
 
 import cpath.service.GraphType;
 import org.pathwaycommons.pcviz.service.PathwayCommonsService;
+import org.pathwaycommons.pcviz.service.QueryLogService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.WebDataBinder;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.beans.PropertyEditorSupport;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -19,9 +28,14 @@ import java.util.TreeSet;
 @RequestMapping("/graph")
 public class NetworkController
 {
+    static final String NETWORK_KEY_HEADER = "X-Network-Key";
+
     @Autowired
     private PathwayCommonsService pathwayCommonsService;
 
+    @Autowired
+    private QueryLogService queryLogService;
+
     /**
      * This configures the web request parameters binding, i.e.,
      * conversion to the corresponding java types; for example,
@@ -36,15 +50,200 @@ public class NetworkController
         binder.registerCustomEditor(GraphType.class, new GraphTypeEditor());
     }
 
+    /**
+     * Gets the network; optionally, only the best-supported part of it,
+     * or its level-of-detail view (with groups of nodes collapsed, if the network is large).
+     *
+     * @param type graph query type
+     * @param genes comma-separated query genes
+     * @param minEdgeCitations skip edges with fewer co-citations (default: cocitation.min.edge)
+     * @param minNodeCitations skip edges of the nodes with fewer co-citations (default: cocitation.min.node)
+     * @param maxEdges return at most this many, most co-cited, edges (default: all; not for summary)
+     * @param summary whether to collapse groups of nodes into meta-nodes (default: false)
+     * @param expanded comma-separated groups not to collapse (for summary)
+     */
     @RequestMapping(value = "{type}/{genes}", method = {RequestMethod.GET, RequestMethod.POST},
             headers = "Accept=application/json")
-    public ResponseEntity<String> getEntityInJson(@PathVariable GraphType type, @PathVariable String genes)
-            throws IOException
+    public ResponseEntity<String> getEntityInJson(@PathVariable GraphType type, @PathVariable String genes,
+            @RequestParam(value = "minEdgeCitations", required = false) Integer minEdgeCitations,
+            @RequestParam(value = "minNodeCitations", required = false) Integer minNodeCitations,
+            @RequestParam(value = "maxEdges", required = false) Integer maxEdges,
+            @RequestParam(value = "summary", required = false, defaultValue = "false") boolean summary,
+            @RequestParam(value = "expanded", required = false) String expanded)
     {
         Set<String> geneSet = new TreeSet<String>();
         geneSet.addAll(Arrays.asList(genes.split("\\s*,\\s*")));
-        String networkJson = pathwayCommonsService.createNetwork(type, geneSet);
-        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8).body(networkJson);
+        String networkJson;
+        try {
+            if(summary) {
+                Set<Integer> groups;
+                try {
+                    groups = groups(expanded);
+                } catch (NumberFormatException e) {
+                    return new ResponseEntity<String>("Bad expanded groups: " + expanded, HttpStatus.BAD_REQUEST);
+                }
+                networkJson = pathwayCommonsService.createNetworkSummary(type, geneSet,
+                    (minEdgeCitations != null) ? minEdgeCitations : pathwayCommonsService.getMinEdgeCitations(),
+                    (minNodeCitations != null) ? minNodeCitations : pathwayCommonsService.getMinNodeCitations(),
+                    groups);
+            } else if(minEdgeCitations == null && minNodeCitations == null && maxEdges == null) {
+                networkJson = pathwayCommonsService.createNetwork(type, geneSet);
+            } else {
+                networkJson = pathwayCommonsService.createNetwork(type, geneSet,
+                    (minEdgeCitations != null) ? minEdgeCitations : pathwayCommonsService.getMinEdgeCitations(),
+                    (minNodeCitations != null) ? minNodeCitations : pathwayCommonsService.getMinNodeCitations(),
+                    (maxEdges != null) ? maxEdges : 0);
+            }
+        } catch (IOException e) { // the graph query failed; nothing is cached
+            return new ResponseEntity<String>(e.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        queryLogService.recordNetwork(type, geneSet);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON_UTF8)
+            .header(NETWORK_KEY_HEADER, pathwayCommonsService.registerNetwork(type, geneSet))
+            .body(networkJson);
+    }
+
+    /**
+     * Streams the network as it is got, in chunks: first the query genes with their best-cited edges,
+     * then the genes' other edges and the rest, with their nodes; the last chunk has the node ranks,
+     * the query genes to remove (those not in the network) and the network key. Each chunk is a delta (as of /graph/delta)
+     * in newline-delimited JSON or (when the client accepts text/event-stream) server-sent events.
+     *
+     * @param type graph query type
+     * @param genes comma-separated query genes
+     * @param minEdgeCitations skip edges with fewer co-citations (default: cocitation.min.edge)
+     * @param minNodeCitations skip edges of the nodes with fewer co-citations (default: cocitation.min.node)
+     */
+    @RequestMapping(value = "{type}/{genes}/stream", method = {RequestMethod.GET, RequestMethod.POST})
+    public ResponseEntity<StreamingResponseBody> streamNetwork(@PathVariable GraphType type, @PathVariable String genes,
+            @RequestParam(value = "minEdgeCitations", required = false) Integer minEdgeCitations,
+            @RequestParam(value = "minNodeCitations", required = false) Integer minNodeCitations,
+            @RequestHeader(value = "Accept", required = false) String accept)
+    {
+        final boolean sse = accept != null && accept.contains(MediaType.TEXT_EVENT_STREAM_VALUE);
+        final Set<String> geneSet = new TreeSet<String>();
+        geneSet.addAll(Arrays.asList(genes.split("\\s*,\\s*")));
+        queryLogService.recordNetwork(type, geneSet);
+
+        StreamingResponseBody body = (OutputStream out) -> {
+            try {
+                pathwayCommonsService.streamNetwork(type, geneSet,
+                    (minEdgeCitations != null) ? minEdgeCitations : pathwayCommonsService.getMinEdgeCitations(),
+                    (minNodeCitations != null) ? minNodeCitations : pathwayCommonsService.getMinNodeCitations(),
+                    json -> {
+                        String chunk = (sse) ? "data: " + json + "\n\n" : json + "\n";
+                        try {
+                            out.write(chunk.getBytes(StandardCharsets.UTF_8));
+                            out.flush();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+
+        return ResponseEntity.ok()
+            .contentType(MediaType.parseMediaType((sse)
+                ? MediaType.TEXT_EVENT_STREAM_VALUE + ";charset=UTF-8" : "application/x-ndjson;charset=UTF-8"))
+            .header(NETWORK_KEY_HEADER, pathwayCommonsService.registerNetwork(type, geneSet))
+            .body(body);
+    }
+
+    /**
+     * Expands a collapsed group of nodes of the network's level-of-detail view (see getEntityInJson):
+     * {"key":..., "genes":[...], "add":{"nodes":[members],"edges":[...]}, "removeNodes":[meta-node id], ...}.
+     *
+     * @param type graph query type
+     * @param genes comma-separated query genes
+     * @param group the group to expand (meta-node "cluster-{group}")
+     * @param minEdgeCitations as for the summary
+     * @param minNodeCitations as for the summary
+     * @param expanded comma-separated groups already expanded
+     */
+    @RequestMapping(value = "{type}/{genes}/expand/{group}", method = {RequestMethod.GET, RequestMethod.POST},
+            headers = "Accept=application/json")
+    public ResponseEntity<String> expand(@PathVariable GraphType type, @PathVariable String genes,
+            @PathVariable int group,
+            @RequestParam(value = "minEdgeCitations", required = false) Integer minEdgeCitations,
+            @RequestParam(value = "minNodeCitations", required = false) Integer minNodeCitations,
+            @RequestParam(value = "expanded", required = false) String expanded)
+    {
+        HttpHeaders headers = new HttpHeaders();
+        headers.add("Content-Type", "application/json; charset=utf-8");
+
+        Set<String> geneSet = new TreeSet<String>();
+        geneSet.addAll(Arrays.asList(genes.split("\\s*,\\s*")));
+        String deltaJson;
+        try {
+            deltaJson = pathwayCommonsService.expandNetworkSummary(type, geneSet,
+                (minEdgeCitations != null) ? minEdgeCitations : pathwayCommonsService.getMinEdgeCitations(),
+                (minNodeCitations != null) ? minNodeCitations : pathwayCommonsService.getMinNodeCitations(),
+                groups(expanded), group);
+        } catch (IllegalArgumentException e) { // incl. NumberFormatException
+            return new ResponseEntity<String>(e.getMessage(), headers, HttpStatus.BAD_REQUEST);
+        } catch (IOException e) {
+            return new ResponseEntity<String>(e.getMessage(), headers, HttpStatus.SERVICE_UNAVAILABLE);
+        }
+
+        return new ResponseEntity<String>(deltaJson, headers, HttpStatus.OK);
+    }
+
+    /**
+     * Gets the changes to a displayed neighborhood network when some genes are added to or removed from the query:
+     * {"key":..., "genes":[...], "add":{"nodes":[...],"edges":[...]}, "update":{"nodes":[...]},
+     * "removeNodes":[ids], "removeEdges":[ids]}, where the key is of the new network (to get the next delta from).
+     * The nodes come with their importance where it may have changed, but no ranks: the client re-ranks them.
+     *
+     * @param key the displayed network key (X-Network-Key header of the /graph response, or the previous delta's key)
+     * @param add comma-separated genes to add
+     * @param remove comma-separated genes to remove
+     * @param minEdgeCitations skip edges with fewer co-citations (default: cocitation.min.edge)
+     * @param minNodeCitations skip edges of the nodes with fewer co-citations (default: cocitation.min.node)
+     */
+    @RequestMapping(value = "delta/{key:.+}", method = {RequestMethod.GET, RequestMethod.POST},
+            headers = "Accept=application/json")
+    public ResponseEntity<String> getDelta(@PathVariable String key,
+            @RequestParam(value = "add", required = false) String add,
+            @RequestParam(value = "remove", required = false) String remove,
+            @RequestParam(value = "minEdgeCitations", required = false) Integer minEdgeCitations,
+            @RequestParam(value = "minNodeCitations", required = false) Integer minNodeCitations)
+    {
+        HttpHeaders headers = new HttpHeaders();
+        headers.add("Content-Type", "application/json; charset=utf-8");
+
+        String deltaJson;
+        try {
+            deltaJson = pathwayCommonsService.createNetworkDelta(key, geneList(add), geneList(remove),
+                (minEdgeCitations != null) ? minEdgeCitations : pathwayCommonsService.getMinEdgeCitations(),
+                (minNodeCitations != null) ? minNodeCitations : pathwayCommonsService.getMinNodeCitations());
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity<String>(e.getMessage(), headers, HttpStatus.BAD_REQUEST);
+        } catch (IOException e) {
+            return new ResponseEntity<String>(e.getMessage(), headers, HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        if(deltaJson == null) // e.g. expired; the client has to get the whole network
+            return new ResponseEntity<String>("Unknown network: " + key, headers, HttpStatus.NOT_FOUND);
+
+        return new ResponseEntity<String>(deltaJson, headers, HttpStatus.OK);
+    }
+
+    private static Set<Integer> groups(String groups) {
+        Set<Integer> set = new TreeSet<Integer>();
+        for (String group : geneList(groups))
+            set.add(Integer.valueOf(group));
+        return set;
+    }
+
+    private static List<String> geneList(String genes) {
+        List<String> list = new ArrayList<String>();
+        if(genes != null) {
+            for (String gene : genes.split("\\s*,\\s*"))
+                if(!gene.trim().isEmpty())
+                    list.add(gene.trim());
+        }
+        return list;
     }
 
     final class GraphTypeEditor extends PropertyEditorSupport {
@@ -0,0 +1,37 @@
+package org.pathwaycommons.pcviz.controller;
+
+import org.pathwaycommons.pcviz.cache.Staleness;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Marks a response made with a stale cached value (e.g. while an upstream service is down):
+ * "Warning: 110" and "Age" (seconds since the value was fetched).
+ */
+@ControllerAdvice
+public class StaleResponseAdvice implements ResponseBodyAdvice<Object> {
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return true;
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+                                  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                  ServerHttpRequest request, ServerHttpResponse response) {
+        long age = Staleness.take();
+        if (age >= 0) {
+            response.getHeaders().add("Warning", "110 pcviz \"Response is Stale\"");
+            response.getHeaders().set("Age", String.valueOf(TimeUnit.MILLISECONDS.toSeconds(age)));
+        }
+        return body;
+    }
+}
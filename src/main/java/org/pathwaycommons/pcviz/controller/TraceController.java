@@ -0,0 +1,43 @@
+package org.pathwaycommons.pcviz.controller;
+
+import org.pathwaycommons.pcviz.metrics.Tracer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.pathwaycommons.pcviz.controller.JsonResponses.json;
+
+/**
+ * The traces of the last slow requests (see {@link Tracer}), the latest first.
+ * Like the cache administration, disabled unless the admin.token property is set;
+ * every request must have the same token in the X-Admin-Token header (see {@link AdminTokenInterceptor}).
+ */
+@Controller
+@RequestMapping("/admin/traces")
+public class TraceController {
+
+    @Autowired
+    private Tracer tracer;
+
+    @RequestMapping(value = "", method = RequestMethod.GET)
+    public ResponseEntity<String> getTraces() {
+        Map<String, Object> body = new LinkedHashMap<String, Object>();
+        body.put("slowMs", tracer.getSlowMillis());
+        body.put("slowRequests", tracer.getCount());
+        body.put("traces", tracer.getSlowTraces());
+        return json(body, HttpStatus.OK);
+    }
+
+    @RequestMapping(value = "", method = RequestMethod.DELETE)
+    public ResponseEntity<String> clear() {
+        tracer.clear();
+        return json(Collections.singletonMap("cleared", true), HttpStatus.OK);
+    }
+}
@@ -0,0 +1,102 @@
+package org.pathwaycommons.pcviz.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram in microseconds, with log-linear buckets as in HdrHistogram: each power of two is split
+ * into 8 equal sub-buckets (so a value is known to within 12.5%), from 1 us to about 19 hours (larger values
+ * count as the largest). Recording is a bucket lookup and two striped (LongAdder) increments, with no locking.
+ */
+public class Histogram {
+
+    static final int SUB_BITS = 3;
+    static final int SUB_BUCKETS = 1 << SUB_BITS;
+    static final int MAX_BITS = 36;
+    static final int BUCKETS = SUB_BUCKETS + (MAX_BITS - SUB_BITS) * SUB_BUCKETS;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS];
+    private final LongAdder sumMicros = new LongAdder();
+
+    public Histogram() {
+        for (int i = 0; i < BUCKETS; i++)
+            counts[i] = new LongAdder();
+    }
+
+    /**
+     * @param nanos duration
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts[index(micros)].increment();
+        sumMicros.add(micros);
+    }
+
+    /**
+     * @param startNanos {@link System#nanoTime()} at the start
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder c : counts)
+            count += c.sum();
+        return count;
+    }
+
+    public double getSumSeconds() {
+        return sumMicros.sum() / 1e6;
+    }
+
+    /**
+     * @param percentile e.g. 99
+     * @return the value (the upper bound of its bucket) at the percentile, in microseconds; 0 if none recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] snapshot = snapshot();
+        long total = 0;
+        for (long c : snapshot)
+            total += c;
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank)
+                return upperBound(i) - 1;
+        }
+        return upperBound(BUCKETS - 1) - 1;
+    }
+
+    /**
+     * @return the counts per bucket (read one by one, not atomically)
+     */
+    long[] snapshot() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            snapshot[i] = counts[i].sum();
+        return snapshot;
+    }
+
+    static int index(long micros) {
+        if (micros < SUB_BUCKETS)
+            return (int) micros;
+        int msb = 63 - Long.numberOfLeadingZeros(micros);
+        if (msb >= MAX_BITS)
+            return BUCKETS - 1;
+        int shift = msb - SUB_BITS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + (int) ((micros >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /*
+     * the bucket's exclusive upper bound, in microseconds
+     */
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS)
+            return index + 1;
+        int shift = index / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + index % SUB_BUCKETS + 1) << shift;
+    }
+}
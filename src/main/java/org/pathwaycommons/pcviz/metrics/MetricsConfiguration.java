@@ -0,0 +1,149 @@
+package org.pathwaycommons.pcviz.metrics;
+
+import org.pathwaycommons.pcviz.cache.CacheStatistics;
+import org.pathwaycommons.pcviz.cache.NegativeCache;
+import org.pathwaycommons.pcviz.cache.TieredCache;
+import org.pathwaycommons.pcviz.cache.TieredCacheManager;
+import org.pathwaycommons.pcviz.upstream.LoadSheddingInterceptor;
+import org.pathwaycommons.pcviz.upstream.UpstreamScheduler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+import javax.annotation.PostConstruct;
+import java.util.Map;
+
+import static org.pathwaycommons.pcviz.metrics.MetricsRegistry.PREFIX;
+
+/**
+ * Registers the {@link MetricsInterceptor} (before the other interceptors, so that the requests
+ * they turn away are timed as well), and exports the statistics that the caches, the upstream scheduler
+ * and the load shedding keep themselves.
+ */
+@Configuration
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class MetricsConfiguration extends WebMvcConfigurerAdapter {
+
+    @Autowired
+    private MetricsRegistry metrics;
+
+    @Autowired
+    private MetricsInterceptor metricsInterceptor;
+
+    @Autowired
+    private TieredCacheManager cacheManager;
+
+    @Autowired
+    private NegativeCache negativeCache;
+
+    @Autowired
+    private UpstreamScheduler upstreamScheduler;
+
+    @Autowired
+    private LoadSheddingInterceptor loadSheddingInterceptor;
+
+    @PostConstruct
+    void init() {
+        metrics.register(this::collectCaches);
+        metrics.register(this::collectUpstreams);
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(metricsInterceptor);
+    }
+
+    private void collectCaches(MetricsRegistry.Samples samples) {
+        for (TieredCache cache : cacheManager.getCaches()) {
+            String name = cache.getName();
+            CacheStatistics statistics = cache.getStatistics();
+            samples.counter(PREFIX + "cache_hits_total", "Cache hits by tier",
+                statistics.getHeapHits(), "cache", name, "tier", "heap");
+            samples.counter(PREFIX + "cache_hits_total", "Cache hits by tier",
+                statistics.getOffHeapHits(), "cache", name, "tier", "offheap");
+            samples.counter(PREFIX + "cache_hits_total", "Cache hits by tier",
+                statistics.getDiskHits(), "cache", name, "tier", "disk");
+            samples.counter(PREFIX + "cache_misses_total", "Cache misses",
+                statistics.getMisses(), "cache", name);
+            samples.counter(PREFIX + "cache_stale_hits_total", "Expired values served while refreshed",
+                statistics.getStaleHits(), "cache", name);
+            samples.counter(PREFIX + "cache_puts_total", "Values put in the cache",
+                statistics.getPuts(), "cache", name);
+            samples.counter(PREFIX + "cache_evictions_total", "Values dropped from the last tier",
+                statistics.getEvictions(), "cache", name);
+            samples.counter(PREFIX + "cache_rejections_total", "Values kept out of the heap tier",
+                statistics.getRejections(), "cache", name);
+            samples.gauge(PREFIX + "cache_entries", "Values in the cache",
+                cache.size(), "cache", name);
+            samples.gauge(PREFIX + "cache_bytes", "Cache size by tier",
+                cache.getHeapBytes(), "cache", name, "tier", "heap");
+            samples.gauge(PREFIX + "cache_bytes", "Cache size by tier",
+                cache.getOffHeapBytes(), "cache", name, "tier", "offheap");
+            samples.gauge(PREFIX + "cache_bytes", "Cache size by tier",
+                cache.getDiskBytes(), "cache", name, "tier", "disk");
+            samples.gauge(PREFIX + "cache_max_bytes", "Cache budget by tier",
+                cache.getBudget().getHeapBytes(), "cache", name, "tier", "heap");
+            samples.gauge(PREFIX + "cache_max_bytes", "Cache budget by tier",
+                cache.getBudget().getOffHeapBytes(), "cache", name, "tier", "offheap");
+        }
+        samples.gauge(PREFIX + "cache_disk_bytes", "Disk tier size (all caches)",
+            cacheManager.getDiskStore().getBytes());
+        samples.gauge(PREFIX + "cache_disk_max_bytes", "Disk tier budget (all caches)",
+            cacheManager.getDiskStore().getMaxBytes());
+
+        Map<String, Object> negative = negativeCache.getStatistics();
+        samples.gauge(PREFIX + "negative_cache_entries", "Upstream lookups remembered as giving nothing",
+            number(negative.get("entries")));
+        samples.counter(PREFIX + "negative_cache_hits_total", "Upstream lookups not repeated",
+            number(negative.get("hits")));
+        samples.counter(PREFIX + "negative_cache_filtered_total", "Lookups answered by the bloom filter alone",
+            number(negative.get("filtered")));
+        samples.counter(PREFIX + "negative_cache_added_total", "Upstream lookups remembered, by kind",
+            number(negative.get("noData")), "kind", "no_data");
+        samples.counter(PREFIX + "negative_cache_added_total", "Upstream lookups remembered, by kind",
+            number(negative.get("errors")), "kind", "error");
+    }
+
+    private void collectUpstreams(MetricsRegistry.Samples samples) {
+        for (Map.Entry<String, Map<String, Object>> e : upstreamScheduler.getStatistics().entrySet()) {
+            String upstream = e.getKey();
+            Map<String, Object> lane = e.getValue();
+            samples.gauge(PREFIX + "upstream_permits", "Concurrent calls allowed",
+                number(lane.get("permits")), "upstream", upstream);
+            samples.gauge(PREFIX + "upstream_active_calls", "Calls being made",
+                number(lane.get("active")), "upstream", upstream);
+            for (Map.Entry<String, Object> stat : lane.entrySet()) {
+                if (stat.getKey().startsWith("waiting"))
+                    samples.gauge(PREFIX + "upstream_waiting_calls", "Calls waiting for their turn, by priority",
+                        number(stat.getValue()), "upstream", upstream,
+                        "priority", stat.getKey().substring("waiting".length()).toLowerCase());
+            }
+            samples.counter(PREFIX + "upstream_dropped_calls_total", "Calls dropped as their deadline passed",
+                number(lane.get("dropped")), "upstream", upstream);
+            for (String state : new String[]{"CLOSED", "OPEN", "HALF_OPEN"})
+                samples.gauge(PREFIX + "upstream_breaker_state", "Circuit breaker state (1 - current)",
+                    state.equals(lane.get("breakerState")) ? 1 : 0,
+                    "upstream", upstream, "state", state.toLowerCase());
+            samples.counter(PREFIX + "upstream_breaker_opened_total", "Times the circuit breaker opened",
+                number(lane.get("breakerOpened")), "upstream", upstream);
+        }
+
+        for (Map.Entry<String, Map<String, Object>> e : loadSheddingInterceptor.getStatistics().entrySet()) {
+            String group = e.getKey();
+            Map<String, Object> limiter = e.getValue();
+            samples.gauge(PREFIX + "endpoint_concurrency_limit", "Concurrent requests allowed, by endpoint group",
+                number(limiter.get("limit")), "group", group);
+            samples.gauge(PREFIX + "endpoint_in_flight_requests", "Requests being served, by endpoint group",
+                number(limiter.get("inFlight")), "group", group);
+            samples.counter(PREFIX + "endpoint_rejected_requests_total", "Requests turned away, by endpoint group",
+                number(limiter.get("rejected")), "group", group);
+        }
+    }
+
+    private static double number(Object value) {
+        return (value instanceof Number) ? ((Number) value).doubleValue() : Double.NaN;
+    }
+}
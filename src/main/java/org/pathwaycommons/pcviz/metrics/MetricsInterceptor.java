@@ -0,0 +1,50 @@
+package org.pathwaycommons.pcviz.metrics;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Records the latency of each web request by method, endpoint (the matched URL pattern, e.g. /graph/{type}/{genes})
+ * and status. A streaming request is timed from its start until its response is written.
+ */
+@Component
+public class MetricsInterceptor extends HandlerInterceptorAdapter {
+
+    static final String METRIC = MetricsRegistry.PREFIX + "http_request_duration_seconds";
+
+    private static final String START = MetricsInterceptor.class.getName() + ".start";
+
+    private final MetricsRegistry metrics;
+
+    @Autowired
+    public MetricsInterceptor(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (request.getAttribute(START) == null) // not again when a streaming response is done
+            request.setAttribute(START, System.nanoTime());
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        Long start = (Long) request.getAttribute(START);
+        if (start == null)
+            return;
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        int status = response.getStatus();
+        if (ex != null && status < 400)
+            status = 500;
+        metrics.histogram(METRIC, "Web request latency",
+            "method", request.getMethod(),
+            "endpoint", (pattern != null) ? pattern.toString() : "unmatched",
+            "status", String.valueOf(status)).recordSince(start);
+    }
+}
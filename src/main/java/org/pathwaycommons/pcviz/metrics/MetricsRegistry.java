@@ -0,0 +1,232 @@
+package org.pathwaycommons.pcviz.metrics;
+
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The application's metrics, written in the Prometheus text format by {@link #scrape()}
+ * (served on the management port by {@link MetricsServer}).
+ * Counters and histograms are created on first use and then updated by the callers without locking;
+ * gauges, and counters kept elsewhere (e.g. {@link org.pathwaycommons.pcviz.cache.CacheStatistics}),
+ * are read at scrape time by the registered {@link Collector}s.
+ * Labels are given as name, value pairs; keep their values few (e.g. URL patterns, not URLs).
+ */
+@Component
+public class MetricsRegistry {
+
+    public static final String PREFIX = "pcviz_";
+
+    // histogram buckets exported: 2^8 us (0.26 ms) to 2^26 us (67 s), each twice the previous
+    private static final int MIN_EXPORTED_BITS = 8;
+    private static final int MAX_EXPORTED_BITS = 26;
+
+    /**
+     * Adds samples read at scrape time.
+     */
+    public interface Collector {
+        void collect(Samples samples);
+    }
+
+    private static final class Family {
+        final String name;
+        final String help;
+        final String type;
+        final Map<String, Object> metrics = new ConcurrentHashMap<String, Object>();
+
+        Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private final Map<String, Family> families = new ConcurrentHashMap<String, Family>();
+    private final List<Collector> collectors = new CopyOnWriteArrayList<Collector>();
+
+    /**
+     * @param name metric name, with the prefix and the _total suffix
+     * @param help description
+     * @param labels name, value pairs
+     * @return the counter
+     */
+    public LongAdder counter(String name, String help, String... labels) {
+        return (LongAdder) family(name, help, "counter").metrics
+            .computeIfAbsent(labels(labels), l -> new LongAdder());
+    }
+
+    /**
+     * @param name metric name, with the prefix and the unit (e.g. _seconds)
+     * @param help description
+     * @param labels name, value pairs
+     * @return the histogram
+     */
+    public Histogram histogram(String name, String help, String... labels) {
+        return (Histogram) family(name, help, "histogram").metrics
+            .computeIfAbsent(labels(labels), l -> new Histogram());
+    }
+
+    public void register(Collector collector) {
+        collectors.add(collector);
+    }
+
+    /**
+     * Exports the pool's queued tasks, active and all threads, and completed tasks
+     * (if it is a {@link ThreadPoolExecutor}, as those of {@link java.util.concurrent.Executors} are).
+     *
+     * @param name executor name (label)
+     * @param executor thread pool
+     */
+    public void monitor(String name, ExecutorService executor) {
+        if (!(executor instanceof ThreadPoolExecutor))
+            return;
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+        register(samples -> {
+            samples.gauge(PREFIX + "executor_queued_tasks", "Tasks waiting in the executor's queue",
+                pool.getQueue().size(), "executor", name);
+            samples.gauge(PREFIX + "executor_active_threads", "Threads running tasks",
+                pool.getActiveCount(), "executor", name);
+            samples.gauge(PREFIX + "executor_threads", "Threads in the pool",
+                pool.getPoolSize(), "executor", name);
+            samples.counter(PREFIX + "executor_completed_tasks_total", "Tasks completed",
+                pool.getCompletedTaskCount(), "executor", name);
+        });
+    }
+
+    /**
+     * @return all the metrics in the Prometheus text format (version 0.0.4)
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder(16384);
+        for (Family family : new TreeMap<String, Family>(families).values()) {
+            header(out, family.name, family.help, family.type);
+            for (Map.Entry<String, Object> metric : new TreeMap<String, Object>(family.metrics).entrySet()) {
+                if (metric.getValue() instanceof Histogram)
+                    writeHistogram(out, family.name, metric.getKey(), (Histogram) metric.getValue());
+                else
+                    sample(out, family.name, metric.getKey(), ((LongAdder) metric.getValue()).sum());
+            }
+        }
+
+        Samples samples = new Samples();
+        for (Collector collector : collectors)
+            collector.collect(samples);
+        for (Samples.Group group : samples.groups.values()) {
+            header(out, group.name, group.help, group.type);
+            for (Map.Entry<String, Double> sample : group.values.entrySet())
+                sample(out, group.name, sample.getKey(), sample.getValue());
+        }
+        return out.toString();
+    }
+
+    /**
+     * The samples of the collectors, grouped by metric name.
+     */
+    public static final class Samples {
+
+        private static final class Group {
+            final String name;
+            final String help;
+            final String type;
+            final Map<String, Double> values = new LinkedHashMap<String, Double>();
+
+            Group(String name, String help, String type) {
+                this.name = name;
+                this.help = help;
+                this.type = type;
+            }
+        }
+
+        private final Map<String, Group> groups = new TreeMap<String, Group>();
+
+        Samples() {
+        }
+
+        public void gauge(String name, String help, double value, String... labels) {
+            add(name, help, "gauge", value, labels);
+        }
+
+        public void counter(String name, String help, double value, String... labels) {
+            add(name, help, "counter", value, labels);
+        }
+
+        private void add(String name, String help, String type, double value, String[] labels) {
+            Group group = groups.get(name);
+            if (group == null) {
+                group = new Group(name, help, type);
+                groups.put(name, group);
+            }
+            group.values.put(labels(labels), value);
+        }
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, n -> new Family(n, help, type));
+        if (!family.type.equals(type))
+            throw new IllegalArgumentException(name + " is a " + family.type);
+        return family;
+    }
+
+    private static void writeHistogram(StringBuilder out, String name, String labels, Histogram histogram) {
+        long[] counts = histogram.snapshot();
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0;
+        int next = 0;
+        for (int bits = MIN_EXPORTED_BITS; bits <= MAX_EXPORTED_BITS; bits++) {
+            for (int end = Histogram.index(1L << bits); next < end; next++)
+                cumulative += counts[next];
+            String le = BigDecimal.valueOf(1L << bits, 6).stripTrailingZeros().toPlainString();
+            sample(out, name + "_bucket", prefix + "le=\"" + le + "\"", cumulative);
+        }
+        for (; next < counts.length; next++)
+            cumulative += counts[next];
+        sample(out, name + "_bucket", prefix + "le=\"+Inf\"", cumulative);
+        sample(out, name + "_sum", labels, histogram.getSumSeconds());
+        sample(out, name + "_count", labels, cumulative);
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ')
+            .append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty())
+            out.append('{').append(labels).append('}');
+        out.append(' ');
+        if (Double.isNaN(value))
+            out.append("NaN");
+        else if (Double.isInfinite(value))
+            out.append((value > 0) ? "+Inf" : "-Inf");
+        else if (value == Math.rint(value) && Math.abs(value) < 1e15)
+            out.append((long) value);
+        else
+            out.append(value);
+        out.append('\n');
+    }
+
+    /*
+     * name="value",.. (as they go inside the braces)
+     */
+    static String labels(String... labels) {
+        if (labels.length % 2 != 0)
+            throw new IllegalArgumentException("Labels must be name, value pairs: " + Arrays.toString(labels));
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0)
+                sb.append(',');
+            String value = (labels[i + 1] == null) ? "" : labels[i + 1];
+            sb.append(labels[i]).append("=\"")
+                .append(value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")).append('"');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,109 @@
+package org.pathwaycommons.pcviz.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the metrics (see {@link MetricsRegistry}) at /metrics on the management port (metrics.port;
+ * -1 - off, the default), apart from the web application, so that they are not exposed with it
+ * and can be scraped even when all the request threads are busy.
+ * It listens on 127.0.0.1, unless metrics.address is set (e.g. 0.0.0.0, for a scraper on another host).
+ */
+@Component
+public class MetricsServer {
+    private static final Log log = LogFactory.getLog(MetricsServer.class);
+
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    @Value("${metrics.port:-1}")
+    private int port;
+
+    @Value("${metrics.address:127.0.0.1}")
+    private String address;
+
+    private final MetricsRegistry registry;
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    @Autowired
+    public MetricsServer(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @PostConstruct
+    void start() throws IOException {
+        if (port < 0) {
+            log.info("Metrics server is off (metrics.port=" + port + ")");
+            return;
+        }
+        InetSocketAddress socket = (address == null || address.trim().isEmpty())
+            ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port) : new InetSocketAddress(address.trim(), port);
+        server = HttpServer.create(socket, 0);
+        server.createContext("/metrics", this::handle);
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "metrics-server");
+            t.setDaemon(true);
+            return t;
+        });
+        server.setExecutor(executor);
+        server.start();
+        log.info("Metrics server: http://" + socket.getHostString() + ":" + server.getAddress().getPort() + "/metrics");
+    }
+
+    @PreDestroy
+    void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the port listened on (the actual one, if metrics.port is 0), or -1 if off
+     */
+    public int getPort() {
+        return (server != null) ? server.getAddress().getPort() : -1;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = registry.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if ("HEAD".equals(method)) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to write the metrics", e);
+            exchange.sendResponseHeaders(500, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package org.pathwaycommons.pcviz.metrics;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The timeline of one web request: the phases of its work (spans), each with its thread, start and duration,
+ * nested as they were called - also across threads, as the trace is carried along with the request's
+ * {@link org.pathwaycommons.pcviz.upstream.RequestContext}. A span is opened with {@link #span(String)}
+ * in a try-with-resources statement; with no trace in the thread it costs next to nothing.
+ * See {@link Tracer} for what becomes of the slow requests' traces.
+ */
+public final class Trace {
+
+    // spans kept per trace (e.g. a context request of many genes); the rest are counted
+    static final int MAX_SPANS = 500;
+
+    private static final ThreadLocal<Span> current = new ThreadLocal<Span>();
+
+    private final String name;
+    private final String client;
+    private final long startNanos = System.nanoTime();
+    private final long startMillis = System.currentTimeMillis();
+    private final Span root;
+
+    private final List<Record> records = new ArrayList<Record>();
+    private int dropped;
+    private long durationNanos = -1;
+    private int status;
+
+    /*
+     * a finished span
+     */
+    private static final class Record {
+        final String name;
+        final String thread;
+        final int depth;
+        final long startNanos;
+        final long durationNanos;
+
+        Record(String name, String thread, int depth, long startNanos, long durationNanos) {
+            this.name = name;
+            this.thread = thread;
+            this.depth = depth;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+        }
+    }
+
+    /**
+     * A phase of the work; closing it records its duration (in the trace, and in the histogram if any).
+     */
+    public static final class Span implements AutoCloseable {
+
+        private static final Span NOOP = new Span(null, null, null, 0, null);
+
+        private final Trace trace;
+        private final Span parent;
+        private final String name;
+        private final int depth;
+        private final Histogram histogram;
+        private final long startNanos = System.nanoTime();
+        private boolean closed;
+
+        private Span(Trace trace, Span parent, String name, int depth, Histogram histogram) {
+            this.trace = trace;
+            this.parent = parent;
+            this.name = name;
+            this.depth = depth;
+            this.histogram = histogram;
+        }
+
+        @Override
+        public void close() {
+            if (closed || this == NOOP)
+                return;
+            closed = true;
+            long duration = System.nanoTime() - startNanos;
+            if (histogram != null)
+                histogram.record(duration);
+            if (trace != null) {
+                trace.add(new Record(name, Thread.currentThread().getName(), depth, startNanos, duration));
+                if (current.get() == this)
+                    current.set(parent);
+            }
+        }
+    }
+
+    /**
+     * @param name what the request is, e.g. "GET /graph/neighborhood/TP53"
+     * @param client who it is for
+     */
+    public Trace(String name, String client) {
+        this.name = name;
+        this.client = client;
+        this.root = new Span(this, null, name, 0, null);
+    }
+
+    /**
+     * Opens a span in the current thread's trace, nested in the span open in this thread
+     * (or in the one that handed the work to this thread).
+     *
+     * @param name phase name, e.g. "parse"
+     * @return the span to close at the end of the phase
+     */
+    public static Span span(String name) {
+        return span(name, null);
+    }
+
+    /**
+     * The same, also recording the phase's duration in the histogram (traced or not).
+     */
+    public static Span span(String name, Histogram histogram) {
+        Span parent = current.get();
+        if (parent == null)
+            return (histogram != null) ? new Span(null, null, name, 0, histogram) : Span.NOOP;
+        Span span = new Span(parent.trace, parent, name, parent.depth + 1, histogram);
+        current.set(span);
+        return span;
+    }
+
+    /**
+     * @return the span open in the current thread (to nest the spans of another thread in), or null
+     */
+    public static Span currentSpan() {
+        return current.get();
+    }
+
+    /**
+     * @param span the span to nest the current thread's spans in (null - none; not traced)
+     */
+    public static void setCurrentSpan(Span span) {
+        if (span != null)
+            current.set(span);
+        else
+            current.remove();
+    }
+
+    public Span getRoot() {
+        return root;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Ends the trace; the spans closed later (e.g. by background work on the request's behalf) are ignored.
+     *
+     * @param status HTTP status of the response
+     */
+    public synchronized void finish(int status) {
+        if (durationNanos < 0) {
+            durationNanos = System.nanoTime() - startNanos;
+            this.status = status;
+        }
+    }
+
+    /**
+     * @return the request's duration (so far, if not finished)
+     */
+    public synchronized long getDurationMillis() {
+        return TimeUnit.NANOSECONDS.toMillis((durationNanos < 0) ? System.nanoTime() - startNanos : durationNanos);
+    }
+
+    /**
+     * @return request, client, status, start time, duration (ms), and the spans in the order they started:
+     * name, depth (1 - called by the request directly), thread, start (ms from the request's start) and duration (ms)
+     */
+    public synchronized Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("request", name);
+        map.put("client", client);
+        map.put("status", status);
+        map.put("started", Instant.ofEpochMilli(startMillis).toString());
+        map.put("durationMs", millis((durationNanos < 0) ? System.nanoTime() - startNanos : durationNanos));
+
+        List<Record> sorted = new ArrayList<Record>(records);
+        sorted.sort(Comparator.<Record>comparingLong(r -> r.startNanos).thenComparingInt(r -> r.depth));
+        List<Map<String, Object>> spans = new ArrayList<Map<String, Object>>();
+        for (Record record : sorted) {
+            Map<String, Object> span = new LinkedHashMap<String, Object>();
+            span.put("name", record.name);
+            span.put("depth", record.depth);
+            span.put("thread", record.thread);
+            span.put("startMs", millis(record.startNanos - startNanos));
+            span.put("durationMs", millis(record.durationNanos));
+            spans.add(span);
+        }
+        map.put("spans", spans);
+        if (dropped > 0)
+            map.put("droppedSpans", dropped);
+        return map;
+    }
+
+    private synchronized void add(Record record) {
+        if (durationNanos >= 0)
+            return;
+        if (records.size() < MAX_SPANS)
+            records.add(record);
+        else
+            dropped++;
+    }
+
+    /*
+     * ms with 0.1 precision
+     */
+    private static double millis(long nanos) {
+        return Math.round(nanos / 100_000.0) / 10.0;
+    }
+}
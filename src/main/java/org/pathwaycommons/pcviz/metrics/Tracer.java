@@ -0,0 +1,99 @@
+package org.pathwaycommons.pcviz.metrics;
+
+import flexjson.JSONSerializer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ends the requests' {@link Trace}s: a request that took trace.slow.ms or longer (-1 - none) is logged
+ * with its spans, as one line of JSON, and kept among the last trace.slow.keep slow ones (see /admin/traces).
+ */
+@Component
+public class Tracer {
+    private static final Log log = LogFactory.getLog(Tracer.class);
+
+    @Value("${trace.slow.ms:2000}")
+    private long slowMillis = 2000;
+
+    @Value("${trace.slow.keep:50}")
+    private int keep = 50;
+
+    // the last slow traces; a ring buffer
+    private Map<String, Object>[] slow;
+    private int next;
+    private long count;
+
+    public Tracer() {
+    }
+
+    public Tracer(long slowMillis, int keep) {
+        this.slowMillis = slowMillis;
+        this.keep = keep;
+        init();
+    }
+
+    @PostConstruct
+    @SuppressWarnings("unchecked")
+    void init() {
+        slow = new Map[Math.max(1, keep)];
+    }
+
+    /**
+     * Ends the trace, and logs and keeps it if the request was slow.
+     *
+     * @param trace the request's trace
+     * @param status HTTP status of the response
+     */
+    public void finish(Trace trace, int status) {
+        trace.finish(status);
+        if (slowMillis < 0 || trace.getDurationMillis() < slowMillis)
+            return;
+
+        Map<String, Object> map = trace.toMap();
+        if (log.isWarnEnabled())
+            log.warn("Slow request: " + new JSONSerializer().exclude("*.class").deepSerialize(map));
+        synchronized (this) {
+            slow[next] = map;
+            next = (next + 1) % slow.length;
+            count++;
+        }
+    }
+
+    public long getSlowMillis() {
+        return slowMillis;
+    }
+
+    /**
+     * @return the number of slow requests since the start
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the last slow requests' traces (see {@link Trace#toMap()}), the latest first
+     */
+    public synchronized List<Map<String, Object>> getSlowTraces() {
+        List<Map<String, Object>> traces = new ArrayList<Map<String, Object>>();
+        for (int i = 1; i <= slow.length; i++) {
+            Map<String, Object> trace = slow[(next - i + slow.length) % slow.length];
+            if (trace == null)
+                break;
+            traces.add(trace);
+        }
+        return traces;
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized void clear() {
+        slow = new Map[slow.length];
+        next = 0;
+    }
+}
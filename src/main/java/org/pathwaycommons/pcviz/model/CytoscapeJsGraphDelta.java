@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013 Memorial-Sloan Kettering Cancer Center.
+ *
+ * This file is part of PCViz.
+ *
+ * PCViz is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PCViz is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with PCViz. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.pathwaycommons.pcviz.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Changes to turn a displayed network into another one:
+ * the elements to add, the nodes to update (same id, new data) and the ids of the elements to remove.
+ */
+public class CytoscapeJsGraphDelta {
+    private String key;
+    private List<String> genes = new ArrayList<String>();
+    private CytoscapeJsGraph add = new CytoscapeJsGraph();
+    private CytoscapeJsGraph update = new CytoscapeJsGraph();
+    private List<String> removeNodes = new ArrayList<String>();
+    private List<String> removeEdges = new ArrayList<String>();
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public List<String> getGenes() {
+        return genes;
+    }
+
+    public void setGenes(List<String> genes) {
+        this.genes = genes;
+    }
+
+    public CytoscapeJsGraph getAdd() {
+        return add;
+    }
+
+    public void setAdd(CytoscapeJsGraph add) {
+        this.add = add;
+    }
+
+    public CytoscapeJsGraph getUpdate() {
+        return update;
+    }
+
+    public void setUpdate(CytoscapeJsGraph update) {
+        this.update = update;
+    }
+
+    public List<String> getRemoveNodes() {
+        return removeNodes;
+    }
+
+    public void setRemoveNodes(List<String> removeNodes) {
+        this.removeNodes = removeNodes;
+    }
+
+    public List<String> getRemoveEdges() {
+        return removeEdges;
+    }
+
+    public void setRemoveEdges(List<String> removeEdges) {
+        this.removeEdges = removeEdges;
+    }
+}
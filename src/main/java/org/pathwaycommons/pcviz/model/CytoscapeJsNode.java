@@ -19,5 +19,17 @@
 
 package org.pathwaycommons.pcviz.model;
 
+import java.util.Map;
+
 public class CytoscapeJsNode extends CytoscapeJsElement {
+    // preset position ({"x":..,"y":..}), if laid out on the server
+    private Map<String, Double> position;
+
+    public Map<String, Double> getPosition() {
+        return position;
+    }
+
+    public void setPosition(Map<String, Double> position) {
+        this.position = position;
+    }
 }
@@ -39,7 +39,11 @@ public enum PropertyKey
     UNIPROT,
     RANK,
 	UNIPROTDESC,
-	DATASOURCE;
+	DATASOURCE,
+	ISMETA,
+	MEMBERS,
+	LABEL,
+	SHAPE;
 
 	@Override
 	public String toString()
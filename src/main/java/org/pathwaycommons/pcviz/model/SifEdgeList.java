@@ -0,0 +1,324 @@
+/*
+ * Copyright 2013 Memorial-Sloan Kettering Cancer Center.
+ *
+ * This file is part of PCViz.
+ *
+ * PCViz is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * PCViz is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with PCViz. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.pathwaycommons.pcviz.model;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Raw result of a Pathway Commons graph query (the edges of the extended SIF),
+ * kept apart from the rendered network so that the rendering options
+ * (co-citation thresholds, gene validation, UniProt ids) can change without querying again.
+ * All the strings (genes, types, data sources, PubMed ids) are stored once, in a table,
+ * and the edges refer to them by index.
+ */
+public class SifEdgeList implements Serializable
+{
+	private static final int FORMAT_VERSION = 2;
+
+	private final String[] seeds;
+	private final String[] strings;
+	private final int[] sources;
+	private final int[] types;
+	private final int[] targets;
+	private final int[][] dataSources;
+	private final int[][] publications;
+
+	private SifEdgeList(String[] seeds, String[] strings, int[] sources, int[] types, int[] targets,
+		int[][] dataSources, int[][] publications)
+	{
+		this.seeds = seeds;
+		this.strings = strings;
+		this.sources = sources;
+		this.types = types;
+		this.targets = targets;
+		this.dataSources = dataSources;
+		this.publications = publications;
+	}
+
+	/**
+	 * Parses the edges section of the PC extended SIF (TXT) format:
+	 * a header line, then tab-separated lines
+	 * (source, type, target, data sources, PubMed ids, ...), up to the first empty line.
+	 *
+	 * @param txt the graph query result; can be null or empty
+	 * @return the edge list
+	 */
+	public static SifEdgeList parse(String txt)
+	{
+		return parse(txt, Collections.<String>emptySet());
+	}
+
+	/**
+	 * Parses the graph query result (see {@link #parse(String)}) and keeps the query genes with it.
+	 *
+	 * @param txt the graph query result; can be null or empty
+	 * @param seeds query genes
+	 * @return the edge list
+	 */
+	public static SifEdgeList parse(String txt, Collection<String> seeds)
+	{
+		Map<String, Integer> index = new HashMap<String, Integer>();
+		List<String> strings = new ArrayList<String>();
+		List<int[]> edges = new ArrayList<int[]>(); // source, type, target
+		List<int[]> dataSources = new ArrayList<int[]>();
+		List<int[]> publications = new ArrayList<int[]>();
+
+		if (txt != null && !txt.trim().isEmpty())
+		{
+			Scanner scanner = new Scanner(txt);
+			scanner.nextLine(); // skip title
+			while (scanner.hasNextLine())
+			{
+				String line = scanner.nextLine();
+				if (line.trim().isEmpty())
+					break; // done - skip the next section (nodes descr.)
+
+				//split; empty tokens that result from '\t\t' and after the last tab are also included:
+				String[] sif = line.split("\t", -1);
+				edges.add(new int[]{
+					intern(sif[0], index, strings), intern(sif[1], index, strings), intern(sif[2], index, strings)});
+				dataSources.add(intern((sif.length > 3) ? sif[3].split(";") : new String[0], index, strings));
+				publications.add(intern((sif.length > 4) ? sif[4].split(";") : new String[0], index, strings));
+			}
+		}
+
+		int n = edges.size();
+		int[] src = new int[n], type = new int[n], tgt = new int[n];
+		for (int i = 0; i < n; i++)
+		{
+			src[i] = edges.get(i)[0];
+			type[i] = edges.get(i)[1];
+			tgt[i] = edges.get(i)[2];
+		}
+		return new SifEdgeList(sortedSeeds(seeds), strings.toArray(new String[strings.size()]), src, type, tgt,
+			dataSources.toArray(new int[n][]), publications.toArray(new int[n][]));
+	}
+
+	/**
+	 * Merges the results of graph queries, e.g. the neighborhoods of several gene sets
+	 * into the neighborhood of their union; the same edge (source, type, target) is taken once.
+	 *
+	 * @param parts edge lists to merge
+	 * @return the edge list with the union of the parts' edges and seeds
+	 */
+	public static SifEdgeList union(List<SifEdgeList> parts)
+	{
+		Map<String, Integer> index = new HashMap<String, Integer>();
+		List<String> strings = new ArrayList<String>();
+		Set<String> seeds = new TreeSet<String>();
+		Set<String> edgeKeys = new HashSet<String>();
+		List<int[]> edges = new ArrayList<int[]>();
+		List<int[]> dataSources = new ArrayList<int[]>();
+		List<int[]> publications = new ArrayList<int[]>();
+
+		for (SifEdgeList part : parts)
+		{
+			seeds.addAll(Arrays.asList(part.seeds));
+			for (int i = 0; i < part.size(); i++)
+			{
+				if (!edgeKeys.add(part.getSource(i) + "\t" + part.getType(i) + "\t" + part.getTarget(i)))
+					continue;
+				edges.add(new int[]{intern(part.getSource(i), index, strings),
+					intern(part.getType(i), index, strings), intern(part.getTarget(i), index, strings)});
+				dataSources.add(intern(part.getDataSources(i), index, strings));
+				publications.add(intern(part.getPublications(i), index, strings));
+			}
+		}
+
+		int n = edges.size();
+		int[] src = new int[n], type = new int[n], tgt = new int[n];
+		for (int i = 0; i < n; i++)
+		{
+			src[i] = edges.get(i)[0];
+			type[i] = edges.get(i)[1];
+			tgt[i] = edges.get(i)[2];
+		}
+		return new SifEdgeList(seeds.toArray(new String[seeds.size()]), strings.toArray(new String[strings.size()]),
+			src, type, tgt, dataSources.toArray(new int[n][]), publications.toArray(new int[n][]));
+	}
+
+	private static String[] sortedSeeds(Collection<String> seeds)
+	{
+		Set<String> sorted = new TreeSet<String>();
+		for (String seed : seeds)
+			sorted.add(seed.trim());
+		return sorted.toArray(new String[sorted.size()]);
+	}
+
+	private static int intern(String s, Map<String, Integer> index, List<String> strings)
+	{
+		Integer i = index.get(s);
+		if (i == null)
+		{
+			i = strings.size();
+			strings.add(s);
+			index.put(s, i);
+		}
+		return i;
+	}
+
+	private static int[] intern(String[] values, Map<String, Integer> index, List<String> strings)
+	{
+		int[] ids = new int[values.length];
+		for (int i = 0; i < values.length; i++)
+			ids[i] = intern(values[i], index, strings);
+		return ids;
+	}
+
+	public int size()
+	{
+		return sources.length;
+	}
+
+	/**
+	 * @return the query genes, sorted (empty if unknown)
+	 */
+	public Set<String> getSeeds()
+	{
+		return new TreeSet<String>(Arrays.asList(seeds));
+	}
+
+	public String getSource(int edge)
+	{
+		return strings[sources[edge]];
+	}
+
+	public String getType(int edge)
+	{
+		return strings[types[edge]];
+	}
+
+	public String getTarget(int edge)
+	{
+		return strings[targets[edge]];
+	}
+
+	public String[] getDataSources(int edge)
+	{
+		return lookup(dataSources[edge]);
+	}
+
+	public String[] getPublications(int edge)
+	{
+		return lookup(publications[edge]);
+	}
+
+	private String[] lookup(int[] ids)
+	{
+		String[] values = new String[ids.length];
+		for (int i = 0; i < ids.length; i++)
+			values[i] = strings[ids[i]];
+		return values;
+	}
+
+	public byte[] toBytes() throws IOException
+	{
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bos)))
+		{
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(seeds.length);
+			for (String seed : seeds)
+				out.writeUTF(seed);
+			out.writeInt(strings.length);
+			for (String s : strings)
+				out.writeUTF(s);
+			out.writeInt(sources.length);
+			for (int i = 0; i < sources.length; i++)
+			{
+				out.writeInt(sources[i]);
+				out.writeInt(types[i]);
+				out.writeInt(targets[i]);
+				writeIds(out, dataSources[i]);
+				writeIds(out, publications[i]);
+			}
+		}
+		return bos.toByteArray();
+	}
+
+	public static SifEdgeList fromBytes(byte[] bytes) throws IOException
+	{
+		try (DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(bytes))))
+		{
+			String[] seeds = readSeeds(in);
+			String[] strings = new String[in.readInt()];
+			for (int i = 0; i < strings.length; i++)
+				strings[i] = in.readUTF();
+			int n = in.readInt();
+			int[] src = new int[n], type = new int[n], tgt = new int[n];
+			int[][] dataSources = new int[n][], publications = new int[n][];
+			for (int i = 0; i < n; i++)
+			{
+				src[i] = in.readInt();
+				type[i] = in.readInt();
+				tgt[i] = in.readInt();
+				dataSources[i] = readIds(in);
+				publications[i] = readIds(in);
+			}
+			return new SifEdgeList(seeds, strings, src, type, tgt, dataSources, publications);
+		}
+	}
+
+	/**
+	 * Reads only the query genes.
+	 *
+	 * @param bytes serialized edge list
+	 * @return the query genes, sorted (empty if unknown)
+	 * @throws IOException when the data are not a serialized edge list
+	 */
+	public static Set<String> readSeeds(byte[] bytes) throws IOException
+	{
+		try (DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(bytes))))
+		{
+			return new TreeSet<String>(Arrays.asList(readSeeds(in)));
+		}
+	}
+
+	private static String[] readSeeds(DataInputStream in) throws IOException
+	{
+		int version = in.readInt();
+		if (version < 1 || version > FORMAT_VERSION)
+			throw new IOException("Unsupported SIF edge list format: " + version);
+		if (version == 1)
+			return new String[0];
+		String[] seeds = new String[in.readInt()];
+		for (int i = 0; i < seeds.length; i++)
+			seeds[i] = in.readUTF();
+		return seeds;
+	}
+
+	private static void writeIds(DataOutputStream out, int[] ids) throws IOException
+	{
+		out.writeInt(ids.length);
+		for (int id : ids)
+			out.writeInt(id);
+	}
+
+	private static int[] readIds(DataInputStream in) throws IOException
+	{
+		int[] ids = new int[in.readInt()];
+		for (int i = 0; i < ids.length; i++)
+			ids[i] = in.readInt();
+		return ids;
+	}
+}
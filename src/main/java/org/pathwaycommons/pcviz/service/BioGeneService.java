@@ -1,17 +1,23 @@
 package org.pathwaycommons.pcviz.service;
 
+import org.pathwaycommons.pcviz.cache.FileIndex;
+import org.pathwaycommons.pcviz.cache.NegativeCache;
+import org.pathwaycommons.pcviz.metrics.Trace;
+import org.pathwaycommons.pcviz.upstream.UpstreamScheduler;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
 import java.io.IOException;
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
 import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Scanner;
+import java.util.regex.Pattern;
 
 @Service
 public class BioGeneService {
@@ -21,41 +27,132 @@ public class BioGeneService {
 
     public final static String bioGeneFormat = "json";
 
+    // the answer for a gene BioGene has no data for
+    public static final String NO_DATA = "{\"returnCode\":\"NO_DATA\",\"count\":0,\"geneInfo\":[]}";
+
+    private static final Pattern SUCCESS = Pattern.compile("\"returnCode\"\\s*:\\s*\"SUCCESS\"");
+
     @Value("${cache.folder}")
     private String cacheDir;
 
+    // connect and read timeout of a BioGene request
+    @Value("${biogene.timeout.ms:10000}")
+    private int timeoutMillis;
+
+    private UpstreamScheduler upstreamScheduler;
+
+    private NegativeCache negativeCache;
+
+    // the saved BioGene data files
+    private FileIndex index;
+
     public BioGeneService() {
     }
 
+    /*
+     * for tests
+     */
+    BioGeneService(String bioGeneUrl, String cacheDir, NegativeCache negativeCache) {
+        this.bioGeneUrl = bioGeneUrl;
+        this.cacheDir = cacheDir;
+        this.timeoutMillis = 10000;
+        this.negativeCache = negativeCache;
+    }
+
+    @Autowired
+    public void setUpstreamScheduler(UpstreamScheduler upstreamScheduler) {
+        this.upstreamScheduler = upstreamScheduler;
+    }
+
+    @Autowired
+    public void setNegativeCache(NegativeCache negativeCache) {
+        this.negativeCache = negativeCache;
+    }
+
     @PostConstruct
     void init() throws IOException{
-        Path dir = Paths.get(cacheDir, "biogene");
-        if(!Files.exists(dir))
-            Files.createDirectories(dir);
+        index = new FileIndex(Paths.get(cacheDir, "biogene"), 1);
     }
 
     /**
-     * Requests data from BioGene server.
+     * Requests data from BioGene server. A gene that BioGene has no data for, or rejects,
+     * is not requested again for a while (see {@link NegativeCache}); and no answer but the data
+     * is cached (a null result is not kept), so that the gene is requested again after that while.
      *
      * @param gene      query gene
      * @param organism  organism name
-     * @return          BioGene data in json format
+     * @return          BioGene data in json format, or null if BioGene has no data for the gene (see {@link #NO_DATA})
      * @throws java.io.IOException
      */
-    @Cacheable("bioGeneCache")
+    @Cacheable(cacheNames = "bioGeneCache", sync = true)
     public String getData(String gene, String organism) throws IOException
     {
-        Path file = Paths.get(cacheDir, "biogene", gene + ".json");
-        if(Files.exists(file)) {
-           return new String(Files.readAllBytes(file));
+        try (Trace.Span span = Trace.span("getBioGeneData")) {
+            return load(gene, organism);
+        }
+    }
+
+    private String load(String gene, String organism) throws IOException
+    {
+        String fileName = gene + ".json";
+        byte[] saved;
+        try (Trace.Span span = Trace.span("biogene read")) {
+            saved = index.read(fileName);
+        }
+        if(saved != null) {
+           return new String(saved);
         }
 
+        String negativeKey = "biogene:" + organism + ":" + gene;
+        NegativeCache.Kind known = (negativeCache != null) ? negativeCache.get(negativeKey) : null;
+        if(known == NegativeCache.Kind.NO_DATA)
+            return null;
+        if(known == NegativeCache.Kind.ERROR)
+            throw new IOException("BioGene recently rejected the query of " + gene);
+
         // continue if no cached data found (upgrade to java8 way later...) -
         String url = (new StringBuilder()).append(bioGeneUrl).append("retrieve.do")
             .append("?query=").append(gene).append("&org=").append(organism)
             .append("&format=").append(bioGeneFormat).toString();
+        String data = (upstreamScheduler != null)
+            ? upstreamScheduler.call(UpstreamScheduler.BIOGENE, "retrieve", () -> fetch(url))
+            : fetch(url);
+
+        if(data == null) {
+            if(negativeCache != null)
+                negativeCache.put(negativeKey, NegativeCache.Kind.ERROR);
+            throw new IOException("BioGene rejected the query of " + gene);
+        }
+        if(!SUCCESS.matcher(data).find()) {
+            // e.g. unknown gene; not saved for good
+            if(negativeCache != null)
+                negativeCache.put(negativeKey, NegativeCache.Kind.NO_DATA);
+            return null;
+        }
+
+        //save
+        try (Trace.Span span = Trace.span("biogene write")) {
+            Files.write(index.resolve(fileName), data.getBytes());
+            index.add(fileName);
+        }
+
+        return data;
+    }
+
+    /*
+     * returns null if BioGene rejects the query (4xx)
+     */
+    String fetch(String url) throws IOException
+    {
         URL bioGene = new URL(url);
         URLConnection bioGeneCxn = bioGene.openConnection();
+        bioGeneCxn.setConnectTimeout(timeoutMillis);
+        bioGeneCxn.setReadTimeout(timeoutMillis);
+        if(bioGeneCxn instanceof HttpURLConnection) {
+            int status = ((HttpURLConnection) bioGeneCxn).getResponseCode();
+            if(status >= 400 && status < 500)
+                return null;
+        }
         Scanner scanner = new Scanner(bioGeneCxn.getInputStream());
         StringBuilder sb = new StringBuilder();
         // Read all
@@ -65,12 +162,7 @@ public class BioGeneService {
         }
         scanner.close();
 
-        String data = sb.toString();
-
-        //save
-        Files.write(file, data.getBytes());
-
-        return data;
+        return sb.toString();
     }
 
 }
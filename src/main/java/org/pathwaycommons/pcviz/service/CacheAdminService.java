@@ -0,0 +1,398 @@
+package org.pathwaycommons.pcviz.service;
+
+import cpath.service.GraphType;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pathwaycommons.pcviz.cache.CacheStatistics;
+import org.pathwaycommons.pcviz.cache.NegativeCache;
+import org.pathwaycommons.pcviz.cache.TieredCache;
+import org.pathwaycommons.pcviz.cache.TieredCacheManager;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Inspects and manages the application caches (see {@link TieredCacheManager})
+ * and the cache.folder sub-directories.
+ */
+@Service
+public class CacheAdminService {
+    private static final Log log = LogFactory.getLog(CacheAdminService.class);
+
+    // cache.folder sub-directories
+    static final List<String> FOLDERS = Arrays.asList("sif", "biogene", "cbioportal", "cocitations");
+
+    // pre-populated data that cannot be fetched again
+    private static final Set<String> READ_ONLY_FOLDERS = Collections.singleton("cocitations");
+
+    @Value("${cache.folder}")
+    private String cacheDir;
+
+    @Value("${admin.warm.threads:4}")
+    private int maxWarmThreads;
+
+    private final TieredCacheManager cacheManager;
+    private final PathwayCommonsService pathwayCommonsService;
+    private final BioGeneService bioGeneService;
+    private final AtomicReference<WarmJob> warmJob = new AtomicReference<WarmJob>();
+    private NegativeCache negativeCache;
+
+    @Autowired
+    public CacheAdminService(TieredCacheManager cacheManager, PathwayCommonsService pathwayCommonsService,
+                             BioGeneService bioGeneService) {
+        this.cacheManager = cacheManager;
+        this.pathwayCommonsService = pathwayCommonsService;
+        this.bioGeneService = bioGeneService;
+    }
+
+    @Autowired
+    public void setNegativeCache(NegativeCache negativeCache) {
+        this.negativeCache = negativeCache;
+    }
+
+    /**
+     * Progress of a bulk cache warm-up.
+     */
+    public static class WarmJob {
+        private final int total;
+        private final AtomicInteger done = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final long started = System.currentTimeMillis();
+        private volatile long finished;
+
+        WarmJob(int total) {
+            this.total = total;
+            if (total == 0)
+                finished = started;
+        }
+
+        void completed(boolean ok) {
+            if (!ok)
+                failed.incrementAndGet();
+            if (done.incrementAndGet() == total)
+                finished = System.currentTimeMillis();
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public int getDone() {
+            return done.get();
+        }
+
+        public int getFailed() {
+            return failed.get();
+        }
+
+        public long getStarted() {
+            return started;
+        }
+
+        public long getFinished() {
+            return finished;
+        }
+
+        public boolean isRunning() {
+            return finished == 0;
+        }
+    }
+
+    /**
+     * A network to compute when warming up the caches.
+     */
+    public static class NetworkQuery {
+        private final GraphType type;
+        private final Set<String> genes;
+
+        public NetworkQuery(GraphType type, Collection<String> genes) {
+            this.type = type;
+            this.genes = new TreeSet<String>(genes);
+        }
+
+        public GraphType getType() {
+            return type;
+        }
+
+        public Set<String> getGenes() {
+            return genes;
+        }
+    }
+
+    /**
+     * @return statistics of all the caches, the shared disk store, the negative cache and the cache.folder sub-directories
+     * @throws IOException when a sub-directory cannot be read
+     */
+    public Map<String, Object> getStatistics() throws IOException {
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+
+        List<Map<String, Object>> caches = new ArrayList<Map<String, Object>>();
+        for (String name : cacheManager.getCacheNames())
+            caches.add(getStatistics(name));
+        stats.put("caches", caches);
+
+        Map<String, Object> disk = new LinkedHashMap<String, Object>();
+        disk.put("bytes", cacheManager.getDiskStore().getBytes());
+        disk.put("maxBytes", cacheManager.getDiskStore().getMaxBytes());
+        stats.put("disk", disk);
+
+        if (negativeCache != null)
+            stats.put("negative", negativeCache.getStatistics());
+
+        List<Map<String, Object>> folders = new ArrayList<Map<String, Object>>();
+        for (String folder : FOLDERS) {
+            Map<String, Object> folderStats = new LinkedHashMap<String, Object>();
+            folderStats.put("name", folder);
+            long files = 0, bytes = 0;
+            for (Path file : listFiles(folder)) {
+                files++;
+                bytes += Files.size(file);
+            }
+            folderStats.put("files", files);
+            folderStats.put("bytes", bytes);
+            folders.add(folderStats);
+        }
+        stats.put("folders", folders);
+
+        return stats;
+    }
+
+    /**
+     * @param name cache name
+     * @return the cache statistics
+     * @throws IllegalArgumentException when there is no such cache
+     */
+    public Map<String, Object> getStatistics(String name) {
+        TieredCache cache = getCache(name);
+        CacheStatistics statistics = cache.getStatistics();
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("name", name);
+        stats.put("size", cache.size());
+        stats.put("heapBytes", cache.getHeapBytes());
+        stats.put("offHeapBytes", cache.getOffHeapBytes());
+        stats.put("diskBytes", cache.getDiskBytes());
+        stats.put("maxHeapBytes", cache.getBudget().getHeapBytes());
+        stats.put("maxOffHeapBytes", cache.getBudget().getOffHeapBytes());
+        stats.put("hits", statistics.getHits());
+        stats.put("heapHits", statistics.getHeapHits());
+        stats.put("offHeapHits", statistics.getOffHeapHits());
+        stats.put("diskHits", statistics.getDiskHits());
+        stats.put("misses", statistics.getMisses());
+        stats.put("staleHits", statistics.getStaleHits());
+        stats.put("hitRatio", statistics.getHitRatio());
+        stats.put("puts", statistics.getPuts());
+        stats.put("evictions", statistics.getEvictions());
+        stats.put("rejections", statistics.getRejections());
+        return stats;
+    }
+
+    /**
+     * Removes some values from a cache; exactly one of the criteria must be given.
+     *
+     * @param name cache name
+     * @param key the key as shown by Spring's SimpleKey without the "SimpleKey [...]" wrapper,
+     *            e.g. "TP53,human" (bioGeneCache) or "brca_tcga/cna,mutation/TP53" (cancerContextAlterationsCache)
+     * @param prefix the beginning of such keys
+     * @param gene a gene that is a part of the key
+     * @return number of the values removed
+     * @throws IllegalArgumentException when there is no such cache, or no single criterion is given
+     */
+    public int invalidate(String name, String key, String prefix, String gene) {
+        TieredCache cache = getCache(name);
+        Predicate<String> predicate = keyPredicate(key, prefix, gene);
+        int removed = cache.evictIf(k -> predicate.test(displayKey(k)));
+        log.info("Removed " + removed + " values from " + name
+            + " (key: " + key + ", prefix: " + prefix + ", gene: " + gene + ")");
+        return removed;
+    }
+
+    /**
+     * Deletes some files from a cache.folder sub-directory; exactly one of the criteria must be given.
+     *
+     * @param folder the sub-directory, except for the read-only "cocitations";
+     *               "sif" files are named by the network key (see {@link PathwayCommonsService#getNetworkKey})
+     * @param prefix the beginning of the file path relative to the sub-directory,
+     *               e.g. "brca_tcga_" in "cbioportal" (the study's profiles)
+     * @param gene the gene whose files (e.g. "biogene/TP53.json", "cbioportal/.../TP53") to delete
+     * @return number of the files deleted
+     * @throws IOException when the files cannot be deleted
+     * @throws IllegalArgumentException when the folder is unknown or read-only, or no single criterion is given
+     */
+    public int invalidateFolder(String folder, String prefix, String gene) throws IOException {
+        if (!FOLDERS.contains(folder) || READ_ONLY_FOLDERS.contains(folder))
+            throw new IllegalArgumentException("Cannot invalidate the folder: " + folder);
+        if ((prefix == null) == (gene == null))
+            throw new IllegalArgumentException("Either prefix or gene must be given");
+
+        Path dir = Paths.get(cacheDir, folder);
+        int removed = 0;
+        for (Path file : listFiles(folder)) {
+            String path = dir.relativize(file).toString().replace('\\', '/');
+            String fileName = file.getFileName().toString();
+            boolean matches = (prefix != null)
+                ? path.startsWith(prefix)
+                : fileName.equalsIgnoreCase(gene) || fileName.toUpperCase().startsWith(gene.toUpperCase() + ".");
+            if (matches && Files.deleteIfExists(file))
+                removed++;
+        }
+        log.info("Deleted " + removed + " files from " + dir + " (prefix: " + prefix + ", gene: " + gene + ")");
+        return removed;
+    }
+
+    /**
+     * Removes the network from the networkCache, and its raw query result from the sifCache, rankedEdgesCache,
+     * the cache.folder and the negative cache.
+     *
+     * @param query network
+     * @return number of the values and files removed
+     * @throws IOException when the file cannot be deleted
+     */
+    public int invalidateNetwork(NetworkQuery query) throws IOException {
+        String type = query.getType().toString();
+        Set<String> genes = new HashSet<String>();
+        for (String gene : query.getGenes())
+            genes.add(gene.toUpperCase());
+
+        int removed = getCache("networkCache").evictIf(key -> {
+            String[] tokens = tokens(displayKey(key));
+            if (tokens.length == 0 || !tokens[0].equalsIgnoreCase(type))
+                return false;
+            Set<String> keyGenes = new HashSet<String>();
+            for (int i = 1; i < tokens.length; i++)
+                if (!tokens[i].matches("\\d+")) // e.g. the co-citation thresholds
+                    keyGenes.add(tokens[i].toUpperCase());
+            return keyGenes.equals(genes);
+        });
+
+        String key = pathwayCommonsService.getNetworkKey(query.getType(), query.getGenes());
+        removed += getCache(PathwayCommonsService.SIF_CACHE).evictIf(key::equals);
+        removed += getCache(PathwayCommonsService.RANKED_EDGES_CACHE).evictIf(key::equals);
+        if (pathwayCommonsService.deleteSifFile(key))
+            removed++;
+        if (negativeCache != null)
+            negativeCache.remove(PathwayCommonsService.negativeKey(key));
+
+        return removed;
+    }
+
+    /**
+     * Computes the networks (and, optionally, gets the BioGene data of their genes) in background,
+     * so that the caches are filled. Only one warm-up can run at a time.
+     *
+     * @param queries networks to compute
+     * @param bioGene whether to also get BioGene data of the query genes
+     * @param parallelism max. number of the concurrent queries (bounded by admin.warm.threads)
+     * @return the new warm-up job
+     * @throws IllegalStateException when another warm-up is running
+     */
+    public WarmJob warm(List<NetworkQuery> queries, boolean bioGene, int parallelism) {
+        Set<String> genes = new TreeSet<String>();
+        if (bioGene)
+            for (NetworkQuery query : queries)
+                genes.addAll(query.getGenes());
+
+        WarmJob job = new WarmJob(queries.size() + genes.size());
+        WarmJob previous = warmJob.get();
+        if ((previous != null && previous.isRunning()) || !warmJob.compareAndSet(previous, job))
+            throw new IllegalStateException("Cache warm-up is already running");
+
+        int threads = Math.max(1, Math.min(parallelism, maxWarmThreads));
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "cache-warm");
+            t.setDaemon(true);
+            return t;
+        });
+
+        for (NetworkQuery query : queries) {
+            executor.execute(() -> {
+                boolean ok = false;
+                try {
+                    ok = pathwayCommonsService.createNetwork(query.getType(), query.getGenes()) != null;
+                } catch (Exception e) {
+                    log.warn("Cache warm-up failed for " + query.getType() + " " + query.getGenes() + "; " + e);
+                }
+                job.completed(ok);
+            });
+        }
+        for (String gene : genes) {
+            executor.execute(() -> {
+                boolean ok = false;
+                try {
+                    ok = bioGeneService.getData(gene, "human") != null;
+                } catch (Exception e) {
+                    log.warn("Cache warm-up failed for BioGene " + gene + "; " + e);
+                }
+                job.completed(ok);
+            });
+        }
+        executor.shutdown();
+
+        log.info("Started cache warm-up: " + queries.size() + " networks, " + genes.size()
+            + " BioGene entries, " + threads + " threads");
+        return job;
+    }
+
+    /**
+     * @return the last warm-up job, or null
+     */
+    public WarmJob getWarmJob() {
+        return warmJob.get();
+    }
+
+    private TieredCache getCache(String name) {
+        if (!cacheManager.getCacheNames().contains(name))
+            throw new IllegalArgumentException("No such cache: " + name);
+        return (TieredCache) cacheManager.getCache(name);
+    }
+
+    private List<Path> listFiles(String folder) throws IOException {
+        Path dir = Paths.get(cacheDir, folder);
+        if (!Files.isDirectory(dir))
+            return Collections.emptyList();
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+    }
+
+    private static Predicate<String> keyPredicate(String key, String prefix, String gene) {
+        if ((key != null ? 1 : 0) + (prefix != null ? 1 : 0) + (gene != null ? 1 : 0) != 1)
+            throw new IllegalArgumentException("Exactly one of key, prefix or gene must be given");
+        if (key != null)
+            return key::equals;
+        if (prefix != null)
+            return k -> k.startsWith(prefix);
+        return k -> {
+            for (String token : tokens(k))
+                if (token.equalsIgnoreCase(gene))
+                    return true;
+            return false;
+        };
+    }
+
+    /*
+     * "SimpleKey [NEIGHBORHOOD,[TP53, MDM2]]" -> "NEIGHBORHOOD,[TP53, MDM2]"
+     */
+    static String displayKey(String key) {
+        if (key.startsWith("SimpleKey [") && key.endsWith("]"))
+            return key.substring("SimpleKey [".length(), key.length() - 1);
+        return key;
+    }
+
+    private static String[] tokens(String key) {
+        String trimmed = key.replaceAll("^[\\s,\\[\\]/]+", "");
+        return trimmed.isEmpty() ? new String[0] : trimmed.split("[\\s,\\[\\]/]+");
+    }
+}
@@ -6,34 +6,109 @@ import org.apache.commons.logging.LogFactory;
 import org.pathwaycommons.pcviz.model.CancerStudyDetails;
 import org.pathwaycommons.pcviz.model.PropertyKey;
 import org.pathwaycommons.pcviz.cbioportal.*;
+import org.pathwaycommons.pcviz.cache.NegativeCache;
+import org.pathwaycommons.pcviz.metrics.MetricsRegistry;
+import org.pathwaycommons.pcviz.metrics.Trace;
+import org.pathwaycommons.pcviz.upstream.RequestContext;
+import org.pathwaycommons.pcviz.upstream.UpstreamScheduler;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
 
 @Service
 public class CancerContextService {
 
     private static final Log log = LogFactory.getLog(CancerContextService.class);
 
+    static final String CONTEXT_CACHE = "cancerContextAlterationsCache";
+
+    // genetic profile kinds that can be requested, in the canonical order
+    private static final String[] PROFILE_KINDS = {"cna", "exp", "mutation"};
+
     private final CBioPortalAccessor cBioPortalAccessor;
 
+    private final CacheManager cacheManager;
+
+    private final MetricsRegistry metrics;
+
+    private final ScheduledExecutorService metadataRefresher;
+
     @Value("${cache.folder}")
     private String cacheDir;
 
+    // how often to reconcile the persisted cBioPortal metadata snapshot with the portal
+    @Value("${cbioportal.metadata.refresh.hours:24}")
+    private Integer metadataRefreshHours;
+
+    // optional directory with cBioPortal studies staged locally (one sub-directory per study)
+    @Value("${cbioportal.studies.folder:}")
+    private String localStudiesDir;
+
+    // max. number of genes fetched from cBioPortal at once by a streaming context request
+    @Value("${cbioportal.fetch.threads:4}")
+    private Integer fetchThreads;
+
+    // connect and read timeout of a cBioPortal request
+    @Value("${cbioportal.timeout.ms:30000}")
+    private Integer timeoutMillis;
+
+    private ExecutorService contextFetcher;
+
+    private Path metadataSnapshot;
+
+    // local studies, which are used instead of the portal ones with the same id
+    private final Map<String, LocalStudy> localStudies = new LinkedHashMap<String, LocalStudy>();
+
     @Autowired
-    public CancerContextService(GeneNameService geneNameService) {
-        cBioPortalAccessor = new CBioPortalAccessor();
+    public CancerContextService(GeneNameService geneNameService, CacheManager cacheManager,
+                                UpstreamScheduler upstreamScheduler, NegativeCache negativeCache,
+                                MetricsRegistry metrics) {
+        this(newAccessor(geneNameService, upstreamScheduler, negativeCache), cacheManager, metrics);
+    }
+
+    CancerContextService(CBioPortalAccessor cBioPortalAccessor, CacheManager cacheManager, String cacheDir) {
+        this(cBioPortalAccessor, cacheManager, (MetricsRegistry) null);
+        this.cacheDir = cacheDir;
+        this.metadataRefreshHours = 24;
+        this.fetchThreads = 1;
+        this.timeoutMillis = 30000;
+    }
+
+    private CancerContextService(CBioPortalAccessor cBioPortalAccessor, CacheManager cacheManager,
+                                 MetricsRegistry metrics) {
+        this.cBioPortalAccessor = cBioPortalAccessor;
+        this.cacheManager = cacheManager;
+        this.metrics = metrics;
+        metadataRefresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cbioportal-metadata");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private static CBioPortalAccessor newAccessor(GeneNameService geneNameService,
+                                                  UpstreamScheduler upstreamScheduler, NegativeCache negativeCache) {
+        CBioPortalAccessor cBioPortalAccessor = new CBioPortalAccessor();
         cBioPortalAccessor.setGeneNameService(geneNameService);
+        cBioPortalAccessor.setUpstreamScheduler(upstreamScheduler);
+        cBioPortalAccessor.setNegativeCache(negativeCache);
+        return cBioPortalAccessor;
     }
 
     @PostConstruct
@@ -43,44 +118,162 @@ public class CancerContextService {
             Files.createDirectories(dir);
 
         cBioPortalAccessor.setCacheDir(cacheDir + FileSystems.getDefault().getSeparator() + "cbioportal");
+        cBioPortalAccessor.setTimeoutMillis(timeoutMillis);
+
+        if(localStudiesDir != null && !localStudiesDir.trim().isEmpty()) {
+            try (DirectoryStream<Path> dirs = Files.newDirectoryStream(Paths.get(localStudiesDir.trim()))) {
+                for (Path studyDir : dirs) {
+                    if(!LocalStudy.isStudyDir(studyDir))
+                        continue;
+                    try {
+                        LocalStudy localStudy = new LocalStudy(studyDir, cBioPortalAccessor.getOptions());
+                        localStudies.put(localStudy.getCancerStudy().getStudyId(), localStudy);
+                    } catch (IOException e) {
+                        log.error("Failed to read the local study in " + studyDir, e);
+                    }
+                }
+            }
+            log.info("Found " + localStudies.size() + " local cBioPortal studies in " + localStudiesDir);
+        }
 
+        metadataSnapshot = dir.resolve(PortalMetadata.FILENAME);
+        long refreshDelay = 0;
+        if(Files.exists(metadataSnapshot)) {
+            try {
+                cBioPortalAccessor.setMetadata(PortalMetadata.read(metadataSnapshot));
+                log.info("Loaded cBioPortal metadata snapshot: " + metadataSnapshot);
+                // reconciled with the portal when due, not on every start
+                long age = System.currentTimeMillis() - Files.getLastModifiedTime(metadataSnapshot).toMillis();
+                refreshDelay = Math.max(0, TimeUnit.HOURS.toMillis(metadataRefreshHours) - age);
+            } catch (IOException e) {
+                log.error("Failed to read the cBioPortal metadata snapshot " + metadataSnapshot, e);
+            }
+        }
+
+        if(cBioPortalAccessor.getCancerStudies().isEmpty()) {
+            // no snapshot yet; get at least the list of studies now (details are fetched in background)
+            try {
+                cBioPortalAccessor.initializeStudies();
+            } catch (IOException e) {
+                log.error("Failed to init studies from cBioPOrtal", e);
+            }
+        }
+
+        metadataRefresher.scheduleWithFixedDelay(this::refreshMetadata,
+            refreshDelay, TimeUnit.HOURS.toMillis(metadataRefreshHours), TimeUnit.MILLISECONDS);
+
+        contextFetcher = Executors.newFixedThreadPool(fetchThreads, r -> {
+            Thread t = new Thread(r, "cbioportal-fetch");
+            t.setDaemon(true);
+            return t;
+        });
+        if(metrics != null)
+            metrics.monitor("cbioportal-fetch", contextFetcher);
+    }
+
+    @PreDestroy
+    void destroy() {
+        metadataRefresher.shutdownNow();
+        contextFetcher.shutdownNow();
+    }
+
+    /*
+     * the executor that fetches the genes of a streaming request (tests)
+     */
+    void setContextFetcher(ExecutorService contextFetcher) {
+        this.contextFetcher = contextFetcher;
+    }
+
+    /**
+     * Downloads the current studies, case lists and genetic profiles from cBioPortal;
+     * if anything has changed, replaces the in-memory metadata, persists the snapshot
+     * and clears the dependent caches.
+     */
+    void refreshMetadata() {
         try {
-            cBioPortalAccessor.initializeStudies();
-        } catch (IOException e) {
-            log.error("Failed to init studies from cBioPOrtal", e);
+            PortalMetadata metadata = cBioPortalAccessor.fetchMetadata();
+            if(metadata.isEmpty()) {
+                log.warn("Got no cancer studies from cBioPortal; keeping the current metadata");
+                return;
+            }
+
+            byte[] data = metadata.toBytes();
+            if(Files.exists(metadataSnapshot) && Arrays.equals(data, Files.readAllBytes(metadataSnapshot))) {
+                log.debug("cBioPortal metadata has not changed");
+                Files.setLastModifiedTime(metadataSnapshot, FileTime.fromMillis(System.currentTimeMillis()));
+                return;
+            }
+
+            cBioPortalAccessor.setMetadata(metadata);
+            PortalMetadata.write(data, metadataSnapshot);
+            clearCache("cancerContextStudiesCache");
+            clearCache("cancerContextDetailsCache");
+            clearCache(CONTEXT_CACHE);
+            log.info("Updated cBioPortal metadata snapshot: " + metadata.getCancerStudies().size() + " studies");
+        } catch (Exception e) {
+            log.error("Failed to refresh cBioPortal metadata", e);
         }
     }
 
-    @Cacheable("cancerContextStudiesCache")
+    private void clearCache(String name) {
+        Cache cache = cacheManager.getCache(name);
+        if(cache != null)
+            cache.clear();
+    }
+
+    @Cacheable(cacheNames = "cancerContextStudiesCache", sync = true)
     public String listAvailableCancers() throws IOException {
+        List<CancerStudy> cancerStudies = new ArrayList<CancerStudy>();
+        for (LocalStudy localStudy : localStudies.values()) {
+            cancerStudies.add(localStudy.getCancerStudy());
+        }
+        for (CancerStudy cancerStudy : cBioPortalAccessor.getCancerStudies()) {
+            if(!localStudies.containsKey(cancerStudy.getStudyId()))
+                cancerStudies.add(cancerStudy);
+        }
         JSONSerializer jsonSerializer = new JSONSerializer().exclude("*.class");
-        return jsonSerializer.deepSerialize(cBioPortalAccessor.getCancerStudies());
+        return jsonSerializer.deepSerialize(cancerStudies);
     }
 
-    @Cacheable("cancerContextDetailsCache")
+    @Cacheable(cacheNames = "cancerContextDetailsCache", sync = true)
     public String getStudyDetails(String study) throws IOException {
-        CancerStudyDetails cancerStudyDetails = new CancerStudyDetails();
+        CancerStudyDetails cancerStudyDetails;
 
-        // Get/set cancer study
-        CancerStudy cancerStudyById = cBioPortalAccessor.getCancerStudyById(study);
-        cBioPortalAccessor.setCurrentCancerStudy(cancerStudyById);
-        cancerStudyDetails.setCancerStudy(cancerStudyById);
+        LocalStudy localStudy = localStudies.get(study);
+        if(localStudy != null) {
+            cancerStudyDetails = createStudyDetails(localStudy.getCancerStudy(),
+                localStudy.getCaseListById(study + "_all"), localStudy.getGeneticProfiles());
+        } else {
+            CancerStudy cancerStudyById = cBioPortalAccessor.getCancerStudyById(study);
+            if(cancerStudyById != null) {
+                // Now use the biggest case set as default
+                CaseList caseListById = findCaseList(cBioPortalAccessor.getCaseLists(cancerStudyById), study + "_all");
+                cancerStudyDetails = createStudyDetails(cancerStudyById, caseListById,
+                    cBioPortalAccessor.getGeneticProfiles(cancerStudyById));
+            } else {
+                cancerStudyDetails = createStudyDetails(null, null, Collections.<GeneticProfile>emptyList());
+            }
+        }
 
-        // Now use the biggest case set as default
-        CaseList caseListById = cBioPortalAccessor.getCaseListById(study + "_all");
-        if(cancerStudyById != null) {
-            if(caseListById.getCases()!=null)
-                cancerStudyDetails.setNumberOfCases(caseListById.getCases().length);
+        JSONSerializer jsonSerializer = new JSONSerializer().exclude("*.class");
+        return jsonSerializer.deepSerialize(cancerStudyDetails);
+    }
+
+    private CancerStudyDetails createStudyDetails(CancerStudy cancerStudy, CaseList caseList,
+                                                  List<GeneticProfile> geneticProfiles) {
+        CancerStudyDetails cancerStudyDetails = new CancerStudyDetails();
+        cancerStudyDetails.setCancerStudy(cancerStudy);
+        if(cancerStudy != null) {
+            if(caseList != null)
+                cancerStudyDetails.setNumberOfCases(caseList.size());
             // Now find out if there is profiles
-            for (GeneticProfile geneticProfile : cBioPortalAccessor.getGeneticProfilesForCurrentStudy()) {
+            for (GeneticProfile geneticProfile : geneticProfiles) {
                 if (isCNA(geneticProfile)) cancerStudyDetails.setHasCNA(true);
                 if (isExtendedMutation(geneticProfile)) cancerStudyDetails.setHasMutation(true);
                 if (isZscores(geneticProfile)) cancerStudyDetails.setHasExpression(true);
             }
         }
-
-        JSONSerializer jsonSerializer = new JSONSerializer().exclude("*.class");
-        return jsonSerializer.deepSerialize(cancerStudyDetails);
+        return cancerStudyDetails;
     }
 
     private boolean isZscores(GeneticProfile geneticProfile) {
@@ -97,17 +290,212 @@ public class CancerContextService {
                 || profile.getId().toLowerCase().endsWith("_cna");
     }
 
-    @Cacheable("cancerContextAlterationsCache")
+    /**
+     * Gets the ratio of altered samples of each gene in the study.
+     * Results are cached per (study, canonical profile set, gene), so that requests
+     * with overlapping gene lists share the work, and only the missing genes are fetched.
+     *
+     * @param studyId cancer study
+     * @param profiles genetic profile kinds (cna, mutation, exp)
+     * @param genes comma-separated gene symbols
+     * @return gene symbol (upper-case) to its context data
+     * @throws IOException when the study data cannot be accessed
+     */
     public HashMap<String, HashMap<String, Double>> loadContext(String studyId, String profiles, String genes) throws IOException {
         HashMap<String, HashMap<String, Double>> context = new HashMap<String, HashMap<String, Double>>();
 
+        profiles = canonicalProfiles(profiles);
+        Cache cache = cacheManager.getCache(CONTEXT_CACHE);
+        AlterationProvider alterationProvider = null; // not needed when all the genes are cached
+
+        try (Trace.Span span = Trace.span("loadContext")) {
+            for (String gene : canonicalGenes(genes)) {
+                HashMap<String, Double> dataMap = getCachedGeneContext(cache, studyId, profiles, gene);
+                if (dataMap == null) {
+                    if (alterationProvider == null)
+                        alterationProvider = getAlterationProvider(studyId, profiles);
+                    dataMap = getGeneContext(alterationProvider, cache, studyId, profiles, gene);
+                }
+                if (dataMap != null && !dataMap.isEmpty())
+                    context.put(gene, dataMap);
+            }
+        }
+
+        return context;
+    }
+
+    /**
+     * Gets the same data as {@link #loadContext(String, String, String)}, gene by gene, as soon as
+     * each one is available: cached genes and genes that do not require querying cBioPortal go first,
+     * and the rest are fetched concurrently. The listener is always called from the caller's thread.
+     *
+     * @param studyId cancer study
+     * @param profiles genetic profile kinds (cna, mutation, exp)
+     * @param genes comma-separated gene symbols
+     * @param listener receives the (upper-case) gene symbol and its context data
+     * @throws IOException when the study data cannot be accessed
+     * @throws InterruptedException
+     */
+    public void streamContext(String studyId, String profiles, String genes,
+                              BiConsumer<String, HashMap<String, Double>> listener)
+        throws IOException, InterruptedException
+    {
+        final String canonicalProfiles = canonicalProfiles(profiles);
+        final Cache cache = cacheManager.getCache(CONTEXT_CACHE);
+
+        List<String> misses = new ArrayList<String>();
+        for (String gene : canonicalGenes(genes)) {
+            HashMap<String, Double> dataMap = getCachedGeneContext(cache, studyId, canonicalProfiles, gene);
+            if (dataMap == null)
+                misses.add(gene);
+            else if (!dataMap.isEmpty())
+                listener.accept(gene, dataMap);
+        }
+        if (misses.isEmpty())
+            return;
+
+        final AlterationProviderAdaptor alterationProvider = getAlterationProvider(studyId, canonicalProfiles);
+        List<String> pending = new ArrayList<String>();
+        for (String gene : misses) {
+            if(alterationProvider.isCached(gene)) {
+                HashMap<String, Double> dataMap = getGeneContext(alterationProvider, cache, studyId, canonicalProfiles, gene);
+                if (dataMap != null && !dataMap.isEmpty())
+                    listener.accept(gene, dataMap);
+            } else {
+                pending.add(gene);
+            }
+        }
+
+        CompletionService<Map.Entry<String, HashMap<String, Double>>> completionService =
+            new ExecutorCompletionService<Map.Entry<String, HashMap<String, Double>>>(
+                RequestContext.propagating(contextFetcher));
+        List<Future<Map.Entry<String, HashMap<String, Double>>>> futures =
+            new ArrayList<Future<Map.Entry<String, HashMap<String, Double>>>>();
+        try {
+            for (String gene : pending) {
+                futures.add(completionService.submit(() ->
+                    new AbstractMap.SimpleEntry<String, HashMap<String, Double>>(gene,
+                        getGeneContext(alterationProvider, cache, studyId, canonicalProfiles, gene))));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                Map.Entry<String, HashMap<String, Double>> entry = completionService.take().get();
+                if (entry.getValue() != null && !entry.getValue().isEmpty())
+                    listener.accept(entry.getKey(), entry.getValue());
+            }
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            // e.g., the client has gone
+            for (Future<?> future : futures)
+                future.cancel(true);
+        }
+    }
+
+    /**
+     * Makes equivalent profile selections (e.g. "mutation,cna" and "cna,mutation")
+     * share the cache entries.
+     *
+     * @param profiles genetic profile kinds as requested
+     * @return sorted, comma-separated recognized kinds
+     */
+    static String canonicalProfiles(String profiles) {
+        profiles = profiles.toLowerCase();
+        StringBuilder sb = new StringBuilder();
+        for (String kind : PROFILE_KINDS) {
+            if(profiles.contains(kind))
+                sb.append((sb.length() == 0) ? "" : ",").append(kind);
+        }
+        return sb.toString();
+    }
+
+    static Set<String> canonicalGenes(String genes) {
+        Set<String> set = new LinkedHashSet<String>();
+        for (String gene : genes.split(",")) {
+            gene = gene.trim().toUpperCase();
+            if(!gene.isEmpty())
+                set.add(gene);
+        }
+        return set;
+    }
+
+    private static String contextKey(String studyId, String profiles, String gene) {
+        return studyId + "/" + profiles + "/" + gene;
+    }
+
+    /*
+     * Returns null if the gene is not in the cache, or an empty map if it is known to have no data.
+     */
+    @SuppressWarnings("unchecked")
+    private HashMap<String, Double> getCachedGeneContext(Cache cache, String studyId, String profiles, String gene) {
+        if(cache == null)
+            return null;
+        Cache.ValueWrapper value = cache.get(contextKey(studyId, profiles, gene));
+        return (value == null) ? null : (HashMap<String, Double>) value.get();
+    }
+
+    /*
+     * Computes and caches the gene's context (an empty map when the gene is known to have no data);
+     * returns null (nothing is cached) if the data could not be got, e.g. cBioPortal timed out.
+     */
+    private HashMap<String, Double> getGeneContext(AlterationProvider alterationProvider, Cache cache,
+                                                   String studyId, String profiles, String gene) {
+        HashMap<String, Double> dataMap = new HashMap<String, Double>();
+        try (Trace.Span span = Trace.span("getAlterations " + gene)) {
+            AlterationPack alterations = alterationProvider.getAlterations(gene);
+            if (alterations != null) {
+                alterations.complete(Alteration.ANY);
+                double altered = alterations.calcAlteredRatio(Alteration.ANY);
+                dataMap.put(PropertyKey.ALTERED.toString(), altered);
+            }
+        } catch (Exception e) {
+            log.error("Cannot get alterations from cBio portal for: " + gene + ". " + e);
+            return null;
+        }
+
+        if(cache != null)
+            cache.put(contextKey(studyId, profiles, gene), dataMap);
+
+        return dataMap;
+    }
+
+    /*
+     * Selects the study, its "all samples" case list and the requested kind of genetic profiles;
+     * local studies are preferred to the portal ones.
+     */
+    AlterationProviderAdaptor getAlterationProvider(String studyId, String profiles) throws IOException {
+        try (Trace.Span span = Trace.span("alterationProvider")) {
+            return selectAlterationProvider(studyId, profiles);
+        }
+    }
+
+    private AlterationProviderAdaptor selectAlterationProvider(String studyId, String profiles) throws IOException {
+        LocalStudy localStudy = localStudies.get(studyId);
+        if(localStudy != null) {
+            return localStudy.getAlterationProvider(localStudy.getCaseListById(studyId + "_all"),
+                selectGeneticProfiles(localStudy.getGeneticProfiles(), profiles));
+        }
+
         CancerStudy cancerStudyById = cBioPortalAccessor.getCancerStudyById(studyId);
-        cBioPortalAccessor.setCurrentCancerStudy(cancerStudyById);
-        CaseList caseListById = cBioPortalAccessor.getCaseListById(studyId + "_all");
-        cBioPortalAccessor.setCurrentCaseList(caseListById);
+        if(cancerStudyById == null)
+            throw new IllegalArgumentException("Unknown cancer study: " + studyId);
+        CaseList caseListById = findCaseList(cBioPortalAccessor.getCaseLists(cancerStudyById), studyId + "_all");
+        if(caseListById == null)
+            throw new IllegalArgumentException("No case list " + studyId + "_all");
+        return cBioPortalAccessor.getAlterationProvider(caseListById,
+            selectGeneticProfiles(cBioPortalAccessor.getGeneticProfiles(cancerStudyById), profiles));
+    }
 
+    private static CaseList findCaseList(List<CaseList> caseLists, String id) {
+        for (CaseList caseList : caseLists) {
+            if(caseList.getId().equals(id))
+                return caseList;
+        }
+        return null;
+    }
+
+    private List<GeneticProfile> selectGeneticProfiles(List<GeneticProfile> available, String profiles) {
         ArrayList<GeneticProfile> geneticProfiles = new ArrayList<GeneticProfile>();
-        for (GeneticProfile geneticProfile : cBioPortalAccessor.getGeneticProfilesForCurrentStudy()) {
+        for (GeneticProfile geneticProfile : available) {
             if(profiles.contains("cna") && isCNA(geneticProfile)) {
                 geneticProfiles.add(geneticProfile);
 
@@ -121,23 +509,6 @@ public class CancerContextService {
                 geneticProfiles.add(geneticProfile);
             }
         }
-        cBioPortalAccessor.setCurrentGeneticProfiles(geneticProfiles);
-
-        for (String gene : genes.split(",")) {
-            try {
-                AlterationPack alterations = cBioPortalAccessor.getAlterations(gene);
-                if (alterations != null) {
-                    alterations.complete(Alteration.ANY);
-                    double altered = alterations.calcAlteredRatio(Alteration.ANY);
-                    HashMap<String, Double> dataMap = new HashMap<String, Double>();
-                    dataMap.put(PropertyKey.ALTERED.toString(), altered);
-                    context.put(gene.toUpperCase(), dataMap);
-                }
-            } catch (Exception e) {
-                log.error("Cannot get alterations from cBio portal for: " + gene + ". " + e);
-            }
-        }
-
-        return context;
+        return geneticProfiles;
     }
 }
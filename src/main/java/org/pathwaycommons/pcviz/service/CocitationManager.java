@@ -2,6 +2,7 @@ package org.pathwaycommons.pcviz.service;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.pathwaycommons.pcviz.cache.FileIndex;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
@@ -22,19 +23,16 @@ public class CocitationManager
 	private static final Log log = LogFactory.getLog(CocitationManager.class);
 
 	/*
-	 * Directory for co-citation files. todo use more fancy resource management
+	 * Co-citation files (pre-populated; read-only), indexed so that the genes without one cost no I/O.
 	 */
-	private String resourceDir;
+	private FileIndex index;
 
 	public CocitationManager() {}
 
 	@Value("${cache.folder}")
 	public void setResourceDir(String cacheDir) throws IOException {
 		Path dir = Paths.get(cacheDir,"cocitations");
-		if (!Files.exists(dir))
-			Files.createDirectories(dir);
-
-		resourceDir = dir.toString();
+		index = new FileIndex(dir, 1);
 	}
 
 	/**
@@ -47,7 +45,7 @@ public class CocitationManager
 		if(cacheExists(symbol)) {
 			Map<String, Integer> map = new HashMap();
 			try {
-				BufferedReader reader = Files.newBufferedReader(Paths.get(resourceDir, symbol));
+				BufferedReader reader = Files.newBufferedReader(index.resolve(symbol));
 				reader.readLine();
 				for (String line = reader.readLine(); line != null; line = reader.readLine()) {
 					String[] token = line.split("\t");
@@ -69,6 +67,6 @@ public class CocitationManager
 	 */
 	protected boolean cacheExists(String symbol)
 	{
-		return Files.exists(Paths.get(resourceDir, symbol));
+		return index.contains(symbol);
 	}
 }
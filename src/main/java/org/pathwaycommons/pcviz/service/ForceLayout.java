@@ -0,0 +1,227 @@
+package org.pathwaycommons.pcviz.service;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Force-directed (Fruchterman-Reingold) network layout, with the repulsion approximated by
+ * Barnes-Hut over a quadtree; all in primitive arrays.
+ * It is deterministic: the start positions are a spiral in node order, the cooling is by iteration,
+ * and the nodes' displacements (computed in parallel for large networks) do not depend on each other.
+ */
+final class ForceLayout {
+
+    // ideal edge length (px)
+    static final double EDGE_LENGTH = 80;
+    // approximate a quadtree cell by its center of mass when size / distance is below this
+    static final double THETA = 0.8;
+    static final double GRAVITY = 0.05;
+    // compute the displacements in parallel for this many nodes
+    static final int PARALLEL_NODES = 1000;
+
+    private static final int MAX_DEPTH = 32;
+    private static final int EMPTY = -1;
+    private static final int INTERNAL = -2;
+
+    private final int n;
+    private final int[] sources;
+    private final int[] targets;
+    private final double[] x;
+    private final double[] y;
+
+    // quadtree: cell bounds, center of mass, mass, body (node) or EMPTY/INTERNAL, and children (4 per cell)
+    private int cells;
+    private double[] cellX, cellY, cellSize, massX, massY, mass;
+    private int[] body, children;
+
+    /**
+     * @param n number of nodes
+     * @param sources edge sources (node indices)
+     * @param targets edge targets (node indices)
+     */
+    ForceLayout(int n, int[] sources, int[] targets) {
+        this.n = n;
+        this.sources = sources;
+        this.targets = targets;
+        x = new double[n];
+        y = new double[n];
+        double golden = Math.PI * (3 - Math.sqrt(5));
+        for (int i = 0; i < n; i++) {
+            double r = EDGE_LENGTH * Math.sqrt(i + 0.5);
+            x[i] = r * Math.cos(i * golden);
+            y[i] = r * Math.sin(i * golden);
+        }
+        allocate(4 * n + 4);
+    }
+
+    /**
+     * Runs the layout.
+     *
+     * @param iterations number of iterations (cooling steps)
+     * @param budgetNanos time limit
+     * @return false if the time ran out (then the positions are not final)
+     */
+    boolean run(int iterations, long budgetNanos) {
+        final long deadline = System.nanoTime() + budgetNanos;
+        final double[] dx = new double[n], dy = new double[n];
+        final double start = EDGE_LENGTH * Math.sqrt(n) / 4 + EDGE_LENGTH;
+        for (int it = 0; it < iterations; it++) {
+            if (System.nanoTime() > deadline)
+                return false;
+
+            buildQuadtree();
+            IntStream nodes = IntStream.range(0, n);
+            if (n >= PARALLEL_NODES)
+                nodes = nodes.parallel();
+            nodes.forEach(i -> repulse(i, dx, dy));
+
+            for (int e = 0; e < sources.length; e++) {
+                int s = sources[e], t = targets[e];
+                double ex = x[s] - x[t], ey = y[s] - y[t];
+                double f = Math.sqrt(ex * ex + ey * ey) / EDGE_LENGTH;
+                dx[s] -= ex * f;
+                dy[s] -= ey * f;
+                dx[t] += ex * f;
+                dy[t] += ey * f;
+            }
+
+            // move, at most as far as the temperature allows
+            double temperature = start * (1 - (double) it / iterations);
+            for (int i = 0; i < n; i++) {
+                double mx = dx[i] - GRAVITY * x[i], my = dy[i] - GRAVITY * y[i];
+                double d = Math.sqrt(mx * mx + my * my);
+                if (d > 0) {
+                    double step = Math.min(d, temperature) / d;
+                    x[i] += mx * step;
+                    y[i] += my * step;
+                }
+            }
+        }
+        return true;
+    }
+
+    double[] getX() {
+        return x;
+    }
+
+    double[] getY() {
+        return y;
+    }
+
+    /*
+     * Sets the repulsion of the node from all the others (approximated) to dx, dy.
+     */
+    private void repulse(int i, double[] dx, double[] dy) {
+        final double k2 = EDGE_LENGTH * EDGE_LENGTH;
+        double fx = 0, fy = 0;
+        int[] stack = new int[4 * MAX_DEPTH + 4];
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int cell = stack[--top];
+            if (mass[cell] == 0 || body[cell] == i)
+                continue;
+            double ex = x[i] - massX[cell], ey = y[i] - massY[cell];
+            double d2 = ex * ex + ey * ey;
+            if (body[cell] >= 0 || cellSize[cell] * cellSize[cell] < THETA * THETA * d2) {
+                if (d2 > 1e-9) {
+                    double f = k2 * mass[cell] / d2;
+                    fx += ex * f;
+                    fy += ey * f;
+                }
+            } else {
+                for (int q = 0; q < 4; q++)
+                    if (children[4 * cell + q] != EMPTY)
+                        stack[top++] = children[4 * cell + q];
+            }
+        }
+        dx[i] = fx;
+        dy[i] = fy;
+    }
+
+    private void buildQuadtree() {
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            minX = Math.min(minX, x[i]);
+            minY = Math.min(minY, y[i]);
+            maxX = Math.max(maxX, x[i]);
+            maxY = Math.max(maxY, y[i]);
+        }
+        cells = 0;
+        newCell(minX, minY, Math.max(maxX - minX, maxY - minY) + 1);
+        for (int i = 0; i < n; i++)
+            insert(i);
+    }
+
+    private void insert(int i) {
+        int cell = 0;
+        for (int depth = 0; ; depth++) {
+            if (body[cell] == EMPTY) {
+                body[cell] = i;
+                addMass(cell, x[i], y[i], 1);
+                return;
+            }
+            if (body[cell] >= 0) {
+                if (depth >= MAX_DEPTH) { // (almost) the same position: lump together
+                    addMass(cell, x[i], y[i], 1);
+                    return;
+                }
+                // push the body down
+                int j = body[cell];
+                body[cell] = INTERNAL;
+                int child = child(cell, x[j], y[j]);
+                body[child] = j;
+                addMass(child, massX[cell], massY[cell], mass[cell]);
+            }
+            addMass(cell, x[i], y[i], 1);
+            cell = child(cell, x[i], y[i]);
+        }
+    }
+
+    private void addMass(int cell, double px, double py, double m) {
+        double total = mass[cell] + m;
+        massX[cell] = (massX[cell] * mass[cell] + px * m) / total;
+        massY[cell] = (massY[cell] * mass[cell] + py * m) / total;
+        mass[cell] = total;
+    }
+
+    /*
+     * Gets (or creates) the child cell containing the position.
+     */
+    private int child(int cell, double px, double py) {
+        double half = cellSize[cell] / 2;
+        int qx = (px >= cellX[cell] + half) ? 1 : 0, qy = (py >= cellY[cell] + half) ? 1 : 0;
+        int q = 4 * cell + 2 * qy + qx;
+        if (children[q] == EMPTY) {
+            int c = newCell(cellX[cell] + qx * half, cellY[cell] + qy * half, half);
+            children[q] = c;
+        }
+        return children[q];
+    }
+
+    private int newCell(double cx, double cy, double size) {
+        if (cells == body.length)
+            allocate(2 * cells);
+        int cell = cells++;
+        cellX[cell] = cx;
+        cellY[cell] = cy;
+        cellSize[cell] = size;
+        massX[cell] = massY[cell] = mass[cell] = 0;
+        body[cell] = EMPTY;
+        Arrays.fill(children, 4 * cell, 4 * cell + 4, EMPTY);
+        return cell;
+    }
+
+    private void allocate(int capacity) {
+        if (body != null && capacity <= body.length)
+            return;
+        cellX = (cellX == null) ? new double[capacity] : Arrays.copyOf(cellX, capacity);
+        cellY = (cellY == null) ? new double[capacity] : Arrays.copyOf(cellY, capacity);
+        cellSize = (cellSize == null) ? new double[capacity] : Arrays.copyOf(cellSize, capacity);
+        massX = (massX == null) ? new double[capacity] : Arrays.copyOf(massX, capacity);
+        massY = (massY == null) ? new double[capacity] : Arrays.copyOf(massY, capacity);
+        mass = (mass == null) ? new double[capacity] : Arrays.copyOf(mass, capacity);
+        body = (body == null) ? new int[capacity] : Arrays.copyOf(body, capacity);
+        children = (children == null) ? new int[4 * capacity] : Arrays.copyOf(children, 4 * capacity);
+    }
+}
@@ -0,0 +1,211 @@
+package org.pathwaycommons.pcviz.service;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pathwaycommons.pcviz.model.SifEdgeList;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Answers NEIGHBORHOOD queries from the cached results of smaller ones, relying on
+ * neighborhood(A &cup; B) = neighborhood(A) &cup; neighborhood(B).
+ * Keeps an index of the seed sets with cached results; a query is split into
+ * the cached seed sets it contains (the largest first) and the rest,
+ * which is queried upstream gene by gene (when there are not too many such genes),
+ * so that the results can be reused when the user adds or removes genes.
+ */
+class NeighborhoodAssembler {
+    private static final Log log = LogFactory.getLog(NeighborhoodAssembler.class);
+
+    /**
+     * Where the results are cached.
+     */
+    interface Store {
+        /**
+         * @return the cached result, or null
+         */
+        SifEdgeList get(Set<String> seeds) throws IOException;
+
+        void put(Set<String> seeds, SifEdgeList sif) throws IOException;
+    }
+
+    /**
+     * Runs the query upstream.
+     */
+    interface Upstream {
+        /**
+         * @return the result, or null if the query failed
+         */
+        SifEdgeList query(Set<String> seeds) throws IOException;
+    }
+
+    private final Store store;
+    private final Upstream upstream;
+    private final Executor executor;
+    private final int maxSplit;
+
+    // gene -> seed sets (with cached results) that contain it
+    private final Map<String, Set<Set<String>>> index = new HashMap<String, Set<Set<String>>>();
+
+    /**
+     * @param store result cache
+     * @param upstream graph query service
+     * @param executor runs the upstream queries
+     * @param maxSplit query at most this many genes one by one; more - together
+     */
+    NeighborhoodAssembler(Store store, Upstream upstream, Executor executor, int maxSplit) {
+        this.store = store;
+        this.upstream = upstream;
+        this.executor = executor;
+        this.maxSplit = maxSplit;
+    }
+
+    synchronized void add(Set<String> seeds) {
+        Set<String> key = Collections.unmodifiableSet(new TreeSet<String>(seeds));
+        for (String gene : key)
+            index.computeIfAbsent(gene, g -> new HashSet<Set<String>>()).add(key);
+    }
+
+    synchronized void remove(Set<String> seeds) {
+        for (String gene : seeds) {
+            Set<Set<String>> sets = index.get(gene);
+            if (sets != null) {
+                sets.remove(seeds);
+                if (sets.isEmpty())
+                    index.remove(gene);
+            }
+        }
+    }
+
+    /**
+     * Finds cached seed sets, each a subset of the query, that together cover as much of it as possible.
+     *
+     * @param seeds query genes
+     * @return the seed sets of the cached results to merge
+     */
+    synchronized List<Set<String>> cover(Set<String> seeds) {
+        List<Set<String>> candidates = new ArrayList<Set<String>>();
+        Set<Set<String>> seen = new HashSet<Set<String>>();
+        for (String gene : seeds) {
+            for (Set<String> set : index.getOrDefault(gene, Collections.<Set<String>>emptySet())) {
+                if (seen.add(set) && seeds.containsAll(set))
+                    candidates.add(set);
+            }
+        }
+
+        // greedy set cover: the set with the most uncovered genes first; of equals, the smaller one
+        List<Set<String>> cover = new ArrayList<Set<String>>();
+        Set<String> uncovered = new HashSet<String>(seeds);
+        while (!uncovered.isEmpty()) {
+            Set<String> best = null;
+            int bestGain = 0;
+            for (Set<String> set : candidates) {
+                int gain = 0;
+                for (String gene : set)
+                    if (uncovered.contains(gene))
+                        gain++;
+                if (gain > bestGain || (gain > 0 && gain == bestGain && set.size() < best.size())) {
+                    best = set;
+                    bestGain = gain;
+                }
+            }
+            if (best == null)
+                break;
+            cover.add(best);
+            uncovered.removeAll(best);
+        }
+        return cover;
+    }
+
+    /**
+     * Gets the neighborhood of the genes, merging the cached results and querying upstream only what is missing.
+     *
+     * @param seeds query genes
+     * @return the neighborhood, or null if an upstream query failed
+     * @throws IOException
+     */
+    SifEdgeList assemble(Set<String> seeds) throws IOException {
+        return assemble(seeds, null);
+    }
+
+    /**
+     * Gets the neighborhood of the genes, as {@link #assemble(Set)} does,
+     * and passes each part to the listener as soon as it is available (on the caller's thread).
+     *
+     * @param seeds query genes
+     * @param listener receives the parts (cached ones first, then the queried ones as they come); can be null
+     * @return the neighborhood, or null if an upstream query failed
+     * @throws IOException
+     */
+    SifEdgeList assemble(Set<String> seeds, Consumer<SifEdgeList> listener) throws IOException {
+        List<SifEdgeList> parts = new ArrayList<SifEdgeList>();
+        Set<String> missing = new TreeSet<String>(seeds);
+        for (Set<String> set : cover(seeds)) {
+            SifEdgeList sif = store.get(set);
+            if (sif == null) {
+                remove(set); // evicted
+                continue;
+            }
+            parts.add(sif);
+            missing.removeAll(set);
+            if (listener != null)
+                listener.accept(sif);
+        }
+
+        int cached = parts.size();
+        if (!missing.isEmpty()) {
+            List<Set<String>> queries = new ArrayList<Set<String>>();
+            if (missing.size() <= maxSplit) {
+                for (String gene : missing)
+                    queries.add(Collections.singleton(gene));
+            } else {
+                queries.add(missing);
+            }
+
+            // the parts in the query order (the same result whatever the timing), the listener - as they come
+            CompletionService<SifEdgeList> completion = new ExecutorCompletionService<SifEdgeList>(executor);
+            List<Future<SifEdgeList>> futures = new ArrayList<Future<SifEdgeList>>();
+            for (Set<String> query : queries)
+                futures.add(completion.submit(() -> queryAndStore(query)));
+            try {
+                for (int i = 0; i < futures.size(); i++) {
+                    SifEdgeList sif = completion.take().get();
+                    if (sif == null)
+                        return null;
+                    if (listener != null)
+                        listener.accept(sif);
+                }
+                for (Future<SifEdgeList> future : futures)
+                    parts.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                throw (e.getCause() instanceof IOException) ? (IOException) e.getCause() : new IOException(e.getCause());
+            } finally {
+                for (Future<SifEdgeList> future : futures)
+                    future.cancel(true);
+            }
+        }
+
+        if (log.isDebugEnabled())
+            log.debug("Neighborhood of " + seeds + ": " + cached + " cached parts, queried: " + missing);
+
+        return (parts.size() == 1) ? parts.get(0) : SifEdgeList.union(parts);
+    }
+
+    private SifEdgeList queryAndStore(Set<String> seeds) throws IOException {
+        SifEdgeList sif = store.get(seeds); // e.g. by a concurrent request
+        if (sif == null) {
+            sif = upstream.query(seeds);
+            if (sif == null)
+                return null;
+            store.put(seeds, sif);
+        }
+        add(seeds);
+        return sif;
+    }
+}
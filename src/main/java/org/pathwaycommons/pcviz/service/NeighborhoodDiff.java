@@ -0,0 +1,204 @@
+package org.pathwaycommons.pcviz.service;
+
+import org.pathwaycommons.pcviz.model.SifEdgeList;
+
+import java.util.*;
+
+/**
+ * The difference between the rendered neighborhood networks of two gene sets,
+ * worked out from the per-gene neighborhoods: as N(A u B) = N(A) u N(B), only the edges
+ * of the added and removed genes' neighborhoods can change, and whether such an edge
+ * is (still) there is a lookup in the other genes' neighborhoods.
+ * So the work is about the size of the change times the number of genes, not the network size.
+ * The same goes for the importance of the nodes (see {@link NodeRanker}), which is worked out
+ * only for the nodes near the change.
+ */
+final class NeighborhoodDiff {
+
+    /**
+     * An edge of a per-gene neighborhood.
+     */
+    static final class EdgeRef {
+        final RankedEdges edges;
+        final int edge;
+
+        EdgeRef(RankedEdges edges, int edge) {
+            this.edges = edges;
+            this.edge = edge;
+        }
+    }
+
+    private final Set<String> oldSeeds;
+    private final Set<String> newSeeds;
+    private final Map<String, RankedEdges> neighborhoods;
+    private final int minEdgeCocitations;
+    private final int minNodeCocitations;
+
+    final List<EdgeRef> addedEdges = new ArrayList<EdgeRef>();
+    final List<EdgeRef> removedEdges = new ArrayList<EdgeRef>();
+    final Set<String> addedNodes = new TreeSet<String>();
+    final Set<String> removedNodes = new TreeSet<String>();
+    // nodes in both networks that became (or stopped being) seeds
+    final Set<String> updatedNodes = new TreeSet<String>();
+    // the importance in the new network of the added nodes, and of the others whose importance may have changed
+    final Map<String, Integer> importance = new TreeMap<String, Integer>();
+
+    /**
+     * @param oldSeeds the genes of the displayed network
+     * @param newSeeds the genes of the network to display
+     * @param neighborhoods the neighborhood of each of these genes
+     * @param minEdgeCocitations as in {@link RankedEdges#select(int, int, int)}
+     * @param minNodeCocitations as in {@link RankedEdges#select(int, int, int)}
+     */
+    NeighborhoodDiff(Set<String> oldSeeds, Set<String> newSeeds, Map<String, RankedEdges> neighborhoods,
+                     int minEdgeCocitations, int minNodeCocitations) {
+        this.oldSeeds = oldSeeds;
+        this.newSeeds = newSeeds;
+        this.neighborhoods = neighborhoods;
+        this.minEdgeCocitations = minEdgeCocitations;
+        this.minNodeCocitations = minNodeCocitations;
+        diff();
+    }
+
+    private void diff() {
+        Set<String> changed = new TreeSet<String>(oldSeeds);
+        changed.addAll(newSeeds);
+        Set<String> kept = new HashSet<String>(oldSeeds);
+        kept.retainAll(newSeeds);
+        changed.removeAll(kept);
+
+        Set<String> candidateNodes = new TreeSet<String>(changed);
+        Set<String> seen = new HashSet<String>();
+        for (String gene : changed) {
+            RankedEdges edges = neighborhoods.get(gene);
+            SifEdgeList sif = edges.getSif();
+            for (int i = 0; i < edges.size(); i++) {
+                if (!edges.isSelected(i, minEdgeCocitations, minNodeCocitations)
+                    || !seen.add(RankedEdges.edgeKey(sif.getSource(i), sif.getType(i), sif.getTarget(i))))
+                    continue;
+                boolean inOld = contains(oldSeeds, edges, i);
+                boolean inNew = contains(newSeeds, edges, i);
+                if (inOld != inNew) {
+                    (inNew ? addedEdges : removedEdges).add(new EdgeRef(edges, i));
+                    candidateNodes.add(sif.getSource(i));
+                    candidateNodes.add(sif.getTarget(i));
+                }
+            }
+        }
+
+        // with no edges, a network shows just its genes
+        boolean oldEmpty = isEmpty(oldSeeds), newEmpty = isEmpty(newSeeds);
+        if (oldEmpty != newEmpty) {
+            candidateNodes.addAll(oldSeeds);
+            candidateNodes.addAll(newSeeds);
+        }
+
+        for (String node : candidateNodes) {
+            boolean inOld = hasNode(oldSeeds, oldEmpty, node);
+            boolean inNew = hasNode(newSeeds, newEmpty, node);
+            if (inOld && !inNew)
+                removedNodes.add(node);
+            else if (inNew && !inOld)
+                addedNodes.add(node);
+            else if (inNew && oldSeeds.contains(node) != newSeeds.contains(node))
+                updatedNodes.add(node);
+        }
+
+        rank(candidateNodes, newEmpty);
+    }
+
+    /*
+     * A node's distance to the nearest seed can change only if a changed node (an added or removed gene,
+     * or an end of an added or removed edge) is at most as far from it, on a path of the new network.
+     * So the search from the changed nodes stops at the nodes that are closer to a seed than to them.
+     */
+    private void rank(Set<String> changedNodes, boolean newEmpty) {
+        Set<String> visited = new HashSet<String>();
+        List<String> frontier = new ArrayList<String>();
+        for (String node : changedNodes) {
+            if (hasNode(newSeeds, newEmpty, node) && visited.add(node))
+                frontier.add(node);
+        }
+        for (int d = 0; !frontier.isEmpty(); d++) {
+            List<String> next = new ArrayList<String>();
+            for (String node : frontier) {
+                int distance = seedDistance(node, newEmpty);
+                if (distance < d)
+                    continue;
+                importance.put(node, NodeRanker.MAX_IMPORTANCE - distance);
+                for (String neighbor : neighbors(node, newEmpty)) {
+                    if (visited.add(neighbor))
+                        next.add(neighbor);
+                }
+            }
+            frontier = next;
+        }
+    }
+
+    /*
+     * The distance from the node to the nearest seed in the new network,
+     * or MAX_IMPORTANCE if it is that far or farther (as NodeRanker searches).
+     */
+    private int seedDistance(String node, boolean newEmpty) {
+        if (newSeeds.contains(node))
+            return 0;
+        Set<String> visited = new HashSet<String>(Collections.singleton(node));
+        List<String> frontier = Collections.singletonList(node);
+        for (int d = 1; d < NodeRanker.MAX_IMPORTANCE && !frontier.isEmpty(); d++) {
+            List<String> next = new ArrayList<String>();
+            for (String v : frontier) {
+                for (String neighbor : neighbors(v, newEmpty)) {
+                    if (newSeeds.contains(neighbor))
+                        return d;
+                    if (visited.add(neighbor))
+                        next.add(neighbor);
+                }
+            }
+            frontier = next;
+        }
+        return NodeRanker.MAX_IMPORTANCE;
+    }
+
+    /*
+     * The neighbors of the node in the new network.
+     */
+    private Set<String> neighbors(String node, boolean newEmpty) {
+        Set<String> neighbors = new HashSet<String>();
+        if (!newEmpty) {
+            for (String seed : newSeeds)
+                neighbors.addAll(neighborhoods.get(seed).getNeighbors(node, minEdgeCocitations, minNodeCocitations));
+        }
+        return neighbors;
+    }
+
+    /*
+     * Whether the edge (of some gene's neighborhood) is in the network of these genes.
+     */
+    private boolean contains(Set<String> seeds, RankedEdges of, int edge) {
+        SifEdgeList sif = of.getSif();
+        for (String seed : seeds) {
+            RankedEdges edges = neighborhoods.get(seed);
+            if (edges == of || edges.indexOf(sif.getSource(edge), sif.getType(edge), sif.getTarget(edge)) >= 0)
+                return true;
+        }
+        return false;
+    }
+
+    private boolean isEmpty(Set<String> seeds) {
+        for (String seed : seeds) {
+            if (neighborhoods.get(seed).select(minEdgeCocitations, minNodeCocitations, 1).length > 0)
+                return false;
+        }
+        return true;
+    }
+
+    private boolean hasNode(Set<String> seeds, boolean empty, String node) {
+        if (empty)
+            return seeds.contains(node);
+        for (String seed : seeds) {
+            if (neighborhoods.get(seed).hasSelectedEdge(node, minEdgeCocitations, minNodeCocitations))
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,354 @@
+package org.pathwaycommons.pcviz.service;
+
+import cpath.service.GraphType;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pathwaycommons.pcviz.metrics.MetricsRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs network queries that may take longer than an HTTP request may last (e.g. paths between many genes)
+ * as jobs: submitted, then polled for their status; the network, once done, is in the network cache.
+ * Jobs are identified by the canonical network key, so the same query submitted again is the same job.
+ * A bounded pool of workers takes the queued jobs by priority - submission time, delayed by the number
+ * of genes (jobs.priority.gene.ms each), so that small jobs overtake large ones, but not forever.
+ * The queue is saved in cache.folder/jobs.tsv and resumed on start.
+ */
+@Service
+public class NetworkJobService {
+    private static final Log log = LogFactory.getLog(NetworkJobService.class);
+
+    static final String FILENAME = "jobs.tsv";
+
+    public enum Status {QUEUED, RUNNING, DONE, FAILED}
+
+    /**
+     * A network query job.
+     */
+    public static class NetworkJob {
+        private final String id;
+        private final GraphType type;
+        private final Set<String> genes;
+        private final long submitted;
+        private volatile Status status = Status.QUEUED;
+        private volatile long started;
+        private volatile long finished;
+        private volatile String error;
+
+        NetworkJob(String id, GraphType type, Set<String> genes, long submitted) {
+            this.id = id;
+            this.type = type;
+            this.genes = genes;
+            this.submitted = submitted;
+        }
+
+        synchronized void started() {
+            started = System.currentTimeMillis();
+            status = Status.RUNNING;
+            notifyAll();
+        }
+
+        synchronized void finished(String error) {
+            finished = System.currentTimeMillis();
+            this.error = error;
+            status = (error == null) ? Status.DONE : Status.FAILED;
+            notifyAll();
+        }
+
+        /**
+         * @return a copy of the job as it is now, with the fields consistent with the status
+         */
+        public synchronized NetworkJob snapshot() {
+            NetworkJob copy = new NetworkJob(id, type, genes, submitted);
+            copy.status = status;
+            copy.started = started;
+            copy.finished = finished;
+            copy.error = error;
+            return copy;
+        }
+
+        /**
+         * Waits for the status to change.
+         *
+         * @param seen the status last seen
+         * @param timeoutMillis max. time to wait
+         * @return the current status
+         * @throws InterruptedException
+         */
+        public synchronized Status await(Status seen, long timeoutMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            for (long wait = timeoutMillis; status == seen && wait > 0; wait = deadline - System.currentTimeMillis())
+                wait(wait);
+            return status;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public GraphType getType() {
+            return type;
+        }
+
+        public Set<String> getGenes() {
+            return genes;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public long getSubmitted() {
+            return submitted;
+        }
+
+        public long getStarted() {
+            return started;
+        }
+
+        public long getFinished() {
+            return finished;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public boolean isFinished() {
+            return status == Status.DONE || status == Status.FAILED;
+        }
+    }
+
+    /*
+     * a queued job; the earliest (submitted + delay) first, then the first submitted
+     */
+    private final class Task implements Runnable, Comparable<Task> {
+        private final NetworkJob job;
+        private final long priority;
+        private final long sequence = sequences.incrementAndGet();
+
+        Task(NetworkJob job) {
+            this.job = job;
+            this.priority = job.getSubmitted() + job.getGenes().size() * geneDelayMillis;
+        }
+
+        @Override
+        public void run() {
+            NetworkJobService.this.run(job);
+        }
+
+        @Override
+        public int compareTo(Task o) {
+            int c = Long.compare(priority, o.priority);
+            return (c != 0) ? c : Long.compare(sequence, o.sequence);
+        }
+    }
+
+    @Value("${cache.folder}")
+    private String cacheDir;
+
+    @Value("${jobs.threads:2}")
+    private int threads;
+
+    @Value("${jobs.queue.max:100}")
+    private int maxQueued;
+
+    @Value("${jobs.priority.gene.ms:1000}")
+    private long geneDelayMillis;
+
+    @Value("${jobs.retention.minutes:60}")
+    private long retentionMinutes;
+
+    private final PathwayCommonsService pathwayCommonsService;
+    private final MetricsRegistry metrics;
+
+    private final Map<String, NetworkJob> jobs = new ConcurrentHashMap<String, NetworkJob>();
+    private final AtomicLong sequences = new AtomicLong();
+    private final ScheduledExecutorService scheduler;
+    private ThreadPoolExecutor workers;
+    private volatile boolean stopping;
+    private Path file;
+
+    @Autowired
+    public NetworkJobService(PathwayCommonsService pathwayCommonsService, MetricsRegistry metrics) {
+        this.pathwayCommonsService = pathwayCommonsService;
+        this.metrics = metrics;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "network-job-cleaner");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    NetworkJobService(PathwayCommonsService pathwayCommonsService, String cacheDir, int threads, int maxQueued,
+                      long geneDelayMillis) {
+        this(pathwayCommonsService, (MetricsRegistry) null);
+        this.cacheDir = cacheDir;
+        this.threads = threads;
+        this.maxQueued = maxQueued;
+        this.geneDelayMillis = geneDelayMillis;
+        this.retentionMinutes = 60;
+    }
+
+    @PostConstruct
+    void init() {
+        file = Paths.get(cacheDir, FILENAME);
+        workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new PriorityBlockingQueue<Runnable>(), r -> {
+                Thread t = new Thread(r, "network-job");
+                t.setDaemon(true);
+                return t;
+            });
+        if (metrics != null)
+            metrics.monitor("network-job", workers);
+
+        if (Files.exists(file)) {
+            try {
+                int resumed = load();
+                if (resumed > 0)
+                    log.info("Resumed " + resumed + " network jobs from " + file);
+            } catch (IOException e) {
+                log.error("Failed to read the job queue " + file, e);
+            }
+        }
+        scheduler.scheduleWithFixedDelay(this::removeFinished, 1, 1, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    void destroy() {
+        stopping = true;
+        scheduler.shutdownNow();
+        workers.shutdownNow();
+        save(); // the interrupted jobs as well, to run again on start
+    }
+
+    /**
+     * Submits a network query, unless the same one is queued, running or done.
+     * A network whose query result is cached is created right away.
+     *
+     * @param type graph query type
+     * @param genes query genes
+     * @return the job
+     * @throws IllegalStateException if the queue is full
+     */
+    public NetworkJob submit(GraphType type, Collection<String> genes) {
+        final String id = pathwayCommonsService.getNetworkKey(type, genes);
+        NetworkJob job;
+        boolean now = false;
+        synchronized (this) {
+            job = jobs.get(id);
+            if (job != null && job.getStatus() != Status.FAILED)
+                return job;
+
+            now = pathwayCommonsService.isCached(type, genes);
+            if (!now && workers.getQueue().size() >= maxQueued)
+                throw new IllegalStateException("Too many queued jobs (" + maxQueued + "); try again later");
+            job = new NetworkJob(id, type, new TreeSet<String>(genes), System.currentTimeMillis());
+            jobs.put(id, job);
+        }
+
+        if (now) {
+            run(job);
+        } else {
+            workers.execute(new Task(job));
+            save();
+        }
+        return job;
+    }
+
+    /**
+     * @param id job id
+     * @return the job, or null if it is unknown (or finished long ago)
+     */
+    public NetworkJob getJob(String id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * @return the number of jobs waiting for a worker
+     */
+    public int getQueued() {
+        return workers.getQueue().size();
+    }
+
+    private void run(NetworkJob job) {
+        job.started();
+        String error = null;
+        try {
+            // throws if the graph query failed, so that a failed job leaves nothing in the network cache
+            pathwayCommonsService.createNetwork(job.getType(), job.getGenes());
+            pathwayCommonsService.registerNetwork(job.getType(), job.getGenes());
+        } catch (Exception e) {
+            if (stopping)
+                return; // left running, to resume
+            log.warn("Network job failed: " + job.getType() + " " + job.getGenes() + "; " + e);
+            error = e.toString();
+        }
+        job.finished(error);
+        save();
+    }
+
+    /*
+     * forgets the jobs finished more than jobs.retention.minutes ago
+     */
+    void removeFinished() {
+        long before = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(retentionMinutes);
+        jobs.values().removeIf(job -> job.isFinished() && job.getFinished() < before);
+    }
+
+    /*
+     * writes the unfinished jobs: id, type, genes, submitted
+     */
+    private synchronized void save() {
+        try {
+            Path tmp = Files.createTempFile(file.getParent(), FILENAME, ".tmp");
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (NetworkJob job : jobs.values()) {
+                    if (!job.isFinished())
+                        writer.write(job.getId() + "\t" + job.getType() + "\t" + String.join(",", job.getGenes())
+                            + "\t" + job.getSubmitted() + "\n");
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("Failed to write the job queue " + file, e);
+        }
+    }
+
+    private int load() throws IOException {
+        int count = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                String[] token = line.split("\t");
+                if (token.length < 4 || jobs.containsKey(token[0]))
+                    continue;
+                try {
+                    NetworkJob job = new NetworkJob(token[0], GraphType.valueOf(token[1]),
+                        new TreeSet<String>(Arrays.asList(token[2].split(","))), Long.parseLong(token[3]));
+                    jobs.put(job.getId(), job);
+                    workers.execute(new Task(job));
+                    count++;
+                } catch (IllegalArgumentException e) {
+                    log.warn("Bad job in " + file + ": " + line);
+                }
+            }
+        }
+        return count;
+    }
+}
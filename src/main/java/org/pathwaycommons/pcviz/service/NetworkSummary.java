@@ -0,0 +1,291 @@
+package org.pathwaycommons.pcviz.service;
+
+import org.pathwaycommons.pcviz.model.CytoscapeJsEdge;
+import org.pathwaycommons.pcviz.model.CytoscapeJsGraph;
+import org.pathwaycommons.pcviz.model.CytoscapeJsNode;
+import org.pathwaycommons.pcviz.model.PropertyKey;
+
+import java.util.*;
+
+/**
+ * Level-of-detail view of a large network: its nodes are grouped, and a group
+ * (unless expanded) is shown as one meta-node with the member count; the edges
+ * of the collapsed members are merged into meta-edges.
+ * <p>
+ * The groups are the communities found by label propagation over the network without
+ * the query genes (which are always shown, and would otherwise pull everything into one group);
+ * then the nodes left alone are grouped by what they are linked to (e.g. "the other neighbors of TP53").
+ */
+final class NetworkSummary {
+
+    static final String META_PREFIX = "cluster-";
+
+    private static final int MAX_ROUNDS = 20;
+
+    private NetworkSummary() {
+    }
+
+    /**
+     * Groups the nodes.
+     *
+     * @param n number of nodes
+     * @param sources edge sources (node indices)
+     * @param targets edge targets (node indices)
+     * @param seeds whether each node is a query gene (never grouped)
+     * @return group of each node (0, 1, ..); -1 - not grouped
+     */
+    static int[] cluster(int n, int[] sources, int[] targets, boolean[] seeds) {
+        // adjacency of the non-seed nodes (compressed sparse rows)
+        int[] offsets = new int[n + 1];
+        for (int e = 0; e < sources.length; e++) {
+            if (seeds[sources[e]] || seeds[targets[e]] || sources[e] == targets[e])
+                continue;
+            offsets[sources[e] + 1]++;
+            offsets[targets[e] + 1]++;
+        }
+        for (int v = 0; v < n; v++)
+            offsets[v + 1] += offsets[v];
+        int[] neighbors = new int[offsets[n]];
+        int[] fill = Arrays.copyOf(offsets, n);
+        for (int e = 0; e < sources.length; e++) {
+            if (seeds[sources[e]] || seeds[targets[e]] || sources[e] == targets[e])
+                continue;
+            neighbors[fill[sources[e]]++] = targets[e];
+            neighbors[fill[targets[e]]++] = sources[e];
+        }
+
+        // edge weights: 1 + the number of common neighbors, so that a community is held together
+        // by its triangles rather than lost through a bridge
+        for (int v = 0; v < n; v++)
+            Arrays.sort(neighbors, offsets[v], offsets[v + 1]);
+        int[] weights = new int[neighbors.length];
+        for (int v = 0; v < n; v++) {
+            for (int i = offsets[v]; i < offsets[v + 1]; i++)
+                weights[i] = 1 + common(neighbors, offsets[v], offsets[v + 1],
+                    offsets[neighbors[i]], offsets[neighbors[i] + 1]);
+        }
+
+        // label propagation, in node order: take the label of the neighbors with the most weight
+        // (ties: keep the own label if it is one of them, else the smallest)
+        int[] labels = new int[n];
+        for (int v = 0; v < n; v++)
+            labels[v] = v;
+        int[] counts = new int[n];
+        for (int round = 0; round < MAX_ROUNDS; round++) {
+            boolean changed = false;
+            for (int v = 0; v < n; v++) {
+                if (seeds[v] || offsets[v] == offsets[v + 1])
+                    continue;
+                for (int i = offsets[v]; i < offsets[v + 1]; i++)
+                    counts[labels[neighbors[i]]] += weights[i];
+                int own = labels[v], best = own, bestCount = counts[own];
+                for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+                    int label = labels[neighbors[i]], count = counts[label];
+                    if (count > bestCount || (count == bestCount && best != own && label < best)) {
+                        best = label;
+                        bestCount = count;
+                    }
+                }
+                for (int i = offsets[v]; i < offsets[v + 1]; i++)
+                    counts[labels[neighbors[i]]] = 0;
+                if (best != labels[v]) {
+                    labels[v] = best;
+                    changed = true;
+                }
+            }
+            if (!changed)
+                break;
+        }
+
+        // communities of two or more
+        int[] size = new int[n];
+        for (int v = 0; v < n; v++)
+            if (!seeds[v])
+                size[labels[v]]++;
+        int[] group = new int[n];
+        Arrays.fill(group, -1);
+        Map<Integer, Integer> groups = new HashMap<Integer, Integer>();
+        for (int v = 0; v < n; v++) {
+            if (!seeds[v] && size[labels[v]] > 1)
+                group[v] = groups.computeIfAbsent(labels[v], l -> groups.size());
+        }
+
+        // the rest - by what they are linked to
+        List<SortedSet<String>> links = new ArrayList<SortedSet<String>>(n);
+        for (int v = 0; v < n; v++)
+            links.add(null);
+        for (int e = 0; e < sources.length; e++) {
+            int s = sources[e], t = targets[e];
+            if (s == t)
+                continue;
+            if (!seeds[s] && group[s] < 0)
+                link(links, s, (seeds[t] || group[t] < 0) ? "n" + t : "g" + group[t]);
+            if (!seeds[t] && group[t] < 0)
+                link(links, t, (seeds[s] || group[s] < 0) ? "n" + s : "g" + group[s]);
+        }
+        Map<SortedSet<String>, List<Integer>> alike = new LinkedHashMap<SortedSet<String>, List<Integer>>();
+        for (int v = 0; v < n; v++) {
+            if (!seeds[v] && group[v] < 0 && links.get(v) != null)
+                alike.computeIfAbsent(links.get(v), k -> new ArrayList<Integer>()).add(v);
+        }
+        int next = groups.size();
+        for (List<Integer> members : alike.values()) {
+            if (members.size() < 2)
+                continue;
+            for (int v : members)
+                group[v] = next;
+            next++;
+        }
+        return group;
+    }
+
+    /*
+     * Counts the common elements of two sorted ranges.
+     */
+    private static int common(int[] a, int from1, int to1, int from2, int to2) {
+        int count = 0;
+        while (from1 < to1 && from2 < to2) {
+            if (a[from1] < a[from2])
+                from1++;
+            else if (a[from1] > a[from2])
+                from2++;
+            else {
+                count++;
+                from1++;
+                from2++;
+            }
+        }
+        return count;
+    }
+
+    private static void link(List<SortedSet<String>> links, int v, String to) {
+        if (links.get(v) == null)
+            links.set(v, new TreeSet<String>());
+        links.get(v).add(to);
+    }
+
+    /**
+     * Gets the view of the network with the groups, except the expanded ones, collapsed.
+     *
+     * @param network the whole network (its nodes ranked)
+     * @param group group of each node (as by {@link #cluster(int, int[], int[], boolean[])})
+     * @param expanded the groups to show in full
+     * @return the network of the (not grouped or expanded) nodes, meta-nodes and edges between these
+     */
+    static CytoscapeJsGraph view(CytoscapeJsGraph network, int[] group, Set<Integer> expanded) {
+        List<CytoscapeJsNode> nodes = network.getNodes();
+        Map<Object, Integer> index = new HashMap<Object, Integer>(2 * nodes.size());
+        for (int v = 0; v < nodes.size(); v++)
+            index.put(nodes.get(v).getProperty(PropertyKey.ID), v);
+
+        CytoscapeJsGraph view = new CytoscapeJsGraph();
+        Map<Integer, CytoscapeJsNode> metaNodes = new TreeMap<Integer, CytoscapeJsNode>();
+        Map<Integer, Object> topMembers = new HashMap<Integer, Object>();
+        for (int v = 0; v < nodes.size(); v++) {
+            CytoscapeJsNode node = nodes.get(v);
+            if (group[v] < 0 || expanded.contains(group[v])) {
+                view.getNodes().add(node);
+                continue;
+            }
+            CytoscapeJsNode meta = metaNodes.get(group[v]);
+            if (meta == null) {
+                meta = new CytoscapeJsNode();
+                meta.setProperty(PropertyKey.ID, META_PREFIX + group[v]);
+                meta.setProperty(PropertyKey.ISMETA, true);
+                meta.setProperty(PropertyKey.SHAPE, "roundrectangle");
+                meta.setProperty(PropertyKey.ISVALID, true);
+                meta.setProperty(PropertyKey.ISSEED, false);
+                meta.setProperty(PropertyKey.ALTERED, 0);
+                meta.setProperty(PropertyKey.MEMBERS, 0);
+                meta.setProperty(PropertyKey.CITED, 0);
+                meta.setProperty(PropertyKey.RANK, Integer.MAX_VALUE);
+                metaNodes.put(group[v], meta);
+            }
+            int members = (Integer) meta.getProperty(PropertyKey.MEMBERS) + 1;
+            meta.setProperty(PropertyKey.MEMBERS, members);
+            meta.setProperty(PropertyKey.CITED,
+                (Integer) meta.getProperty(PropertyKey.CITED) + (Integer) node.getProperty(PropertyKey.CITED));
+            int rank = (Integer) node.getProperty(PropertyKey.RANK);
+            if (rank < (Integer) meta.getProperty(PropertyKey.RANK)) {
+                meta.setProperty(PropertyKey.RANK, rank);
+                topMembers.put(group[v], node.getProperty(PropertyKey.ID));
+            }
+        }
+        for (Map.Entry<Integer, CytoscapeJsNode> meta : metaNodes.entrySet()) {
+            // named after the top-ranked member
+            meta.getValue().setProperty(PropertyKey.LABEL, topMembers.get(meta.getKey())
+                + " +" + ((Integer) meta.getValue().getProperty(PropertyKey.MEMBERS) - 1));
+            view.getNodes().add(meta.getValue());
+        }
+
+        Map<String, CytoscapeJsEdge> metaEdges = new LinkedHashMap<String, CytoscapeJsEdge>();
+        for (CytoscapeJsEdge edge : network.getEdges()) {
+            int s = index.get(edge.getProperty(PropertyKey.SOURCE)), t = index.get(edge.getProperty(PropertyKey.TARGET));
+            String source = representative(nodes, group, expanded, s), target = representative(nodes, group, expanded, t);
+            boolean collapsed = !source.equals(edge.getProperty(PropertyKey.SOURCE))
+                || !target.equals(edge.getProperty(PropertyKey.TARGET));
+            if (!collapsed) {
+                view.getEdges().add(edge);
+                continue;
+            }
+            if (source.equals(target))
+                continue; // within a group
+
+            String id = (source.compareTo(target) < 0) ? source + "-meta-" + target : target + "-meta-" + source;
+            CytoscapeJsEdge meta = metaEdges.get(id);
+            if (meta == null) {
+                meta = new CytoscapeJsEdge();
+                meta.setProperty(PropertyKey.ID, id);
+                meta.setProperty(PropertyKey.SOURCE, source);
+                meta.setProperty(PropertyKey.TARGET, target);
+                meta.setProperty(PropertyKey.ISMETA, true);
+                meta.setProperty(PropertyKey.ISDIRECTED, false);
+                meta.setProperty(PropertyKey.TYPE, "meta");
+                meta.setProperty(PropertyKey.MEMBERS, 0);
+                meta.setProperty(PropertyKey.CITED, 0);
+                metaEdges.put(id, meta);
+            }
+            meta.setProperty(PropertyKey.MEMBERS, (Integer) meta.getProperty(PropertyKey.MEMBERS) + 1);
+            meta.setProperty(PropertyKey.CITED,
+                Math.max((Integer) meta.getProperty(PropertyKey.CITED), (Integer) edge.getProperty(PropertyKey.CITED)));
+        }
+        view.getEdges().addAll(metaEdges.values());
+        return view;
+    }
+
+    /**
+     * Gets the elements to add when a group is expanded: its members and their edges
+     * (to the meta-nodes of the groups still collapsed); the group's meta-node is to be removed.
+     *
+     * @param network the whole network (its nodes ranked)
+     * @param group group of each node
+     * @param expanded the groups already expanded
+     * @param expand the group to expand
+     * @return the members and their edges
+     */
+    static CytoscapeJsGraph expand(CytoscapeJsGraph network, int[] group, Set<Integer> expanded, int expand) {
+        Set<Integer> groups = new HashSet<Integer>(expanded);
+        groups.add(expand);
+        CytoscapeJsGraph view = view(network, group, groups);
+
+        Set<Object> members = new HashSet<Object>();
+        List<CytoscapeJsNode> nodes = network.getNodes();
+        CytoscapeJsGraph added = new CytoscapeJsGraph();
+        for (int v = 0; v < nodes.size(); v++) {
+            if (group[v] == expand) {
+                members.add(nodes.get(v).getProperty(PropertyKey.ID));
+                added.getNodes().add(nodes.get(v));
+            }
+        }
+        for (CytoscapeJsEdge edge : view.getEdges()) {
+            if (members.contains(edge.getProperty(PropertyKey.SOURCE)) || members.contains(edge.getProperty(PropertyKey.TARGET)))
+                added.getEdges().add(edge);
+        }
+        return added;
+    }
+
+    private static String representative(List<CytoscapeJsNode> nodes, int[] group, Set<Integer> expanded, int v) {
+        return (group[v] < 0 || expanded.contains(group[v]))
+            ? (String) nodes.get(v).getProperty(PropertyKey.ID) : META_PREFIX + group[v];
+    }
+}
@@ -0,0 +1,114 @@
+package org.pathwaycommons.pcviz.service;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+/**
+ * Ranks the nodes of a network as the web client's ranker (cytoscape.core.rank.js) does,
+ * so that it does not have to: by importance - the closer to a seed, the higher
+ * (max(0, MAX_IMPORTANCE - distance)) - then by co-citations (most cited first; ties - by node index).
+ * Works on the network as primitive arrays (nodes are 0..n-1 and edges - pairs of node indices);
+ * for large networks, the search frontier is expanded and the ranks sorted in parallel.
+ */
+final class NodeRanker {
+
+    static final int MAX_IMPORTANCE = 4;
+
+    // expand a search frontier of this many nodes in parallel
+    static final int PARALLEL_FRONTIER = 2048;
+
+    private final int[] importance;
+    private final int[] rank;
+
+    /**
+     * @param n number of nodes
+     * @param sources edge sources (node indices)
+     * @param targets edge targets (node indices)
+     * @param seeds whether each node is a query gene
+     * @param cited co-citations of each node
+     */
+    NodeRanker(int n, int[] sources, int[] targets, boolean[] seeds, int[] cited) {
+        int[][] adjacency = adjacency(n, sources, targets);
+        importance = importance(n, adjacency[0], adjacency[1], seeds);
+        rank = rank(n, importance, cited);
+    }
+
+    /**
+     * @return importance of each node
+     */
+    int[] getImportance() {
+        return importance;
+    }
+
+    /**
+     * @return rank of each node (0 - the top)
+     */
+    int[] getRank() {
+        return rank;
+    }
+
+    /*
+     * Undirected adjacency in the compressed sparse row form: {offsets (n + 1), neighbors}.
+     */
+    private static int[][] adjacency(int n, int[] sources, int[] targets) {
+        int[] offsets = new int[n + 1];
+        for (int e = 0; e < sources.length; e++) {
+            offsets[sources[e] + 1]++;
+            offsets[targets[e] + 1]++;
+        }
+        for (int v = 0; v < n; v++)
+            offsets[v + 1] += offsets[v];
+        int[] neighbors = new int[offsets[n]];
+        int[] fill = Arrays.copyOf(offsets, n);
+        for (int e = 0; e < sources.length; e++) {
+            neighbors[fill[sources[e]]++] = targets[e];
+            neighbors[fill[targets[e]]++] = sources[e];
+        }
+        return new int[][]{offsets, neighbors};
+    }
+
+    /*
+     * Breadth-first search from all the seeds at once, down to the depth at which the importance is 0.
+     */
+    private static int[] importance(int n, int[] offsets, int[] neighbors, boolean[] seeds) {
+        AtomicIntegerArray depth = new AtomicIntegerArray(n);
+        int[] frontier = IntStream.range(0, n).filter(v -> seeds[v]).toArray();
+        for (int v = 0; v < n; v++)
+            depth.set(v, seeds[v] ? 0 : -1);
+
+        for (int d = 1; d < MAX_IMPORTANCE && frontier.length > 0; d++) {
+            final int level = d;
+            IntStream vertices = IntStream.of(frontier);
+            if (frontier.length >= PARALLEL_FRONTIER)
+                vertices = vertices.parallel();
+            frontier = vertices
+                .flatMap(v -> IntStream.range(offsets[v], offsets[v + 1]).map(i -> neighbors[i]))
+                .filter(w -> depth.compareAndSet(w, -1, level)) // each node is claimed once
+                .toArray();
+        }
+
+        int[] importance = new int[n];
+        for (int v = 0; v < n; v++)
+            importance[v] = (depth.get(v) < 0) ? 0 : MAX_IMPORTANCE - depth.get(v);
+        return importance;
+    }
+
+    /*
+     * Sorts (importance desc., co-citations desc., node asc.) packed in longs:
+     * 3 bits of importance, 30 bits of co-citations (capped) and 30 bits of node index.
+     */
+    private static int[] rank(int n, int[] importance, int[] cited) {
+        final long mask = (1L << 30) - 1;
+        long[] packed = new long[n];
+        for (int v = 0; v < n; v++) {
+            long citations = Math.max(0, Math.min(cited[v], mask));
+            packed[v] = ((long) (MAX_IMPORTANCE - importance[v]) << 60) | ((mask - citations) << 30) | v;
+        }
+        Arrays.parallelSort(packed); // sequential for small arrays anyway
+        int[] rank = new int[n];
+        for (int r = 0; r < n; r++)
+            rank[(int) (packed[r] & mask)] = r;
+        return rank;
+    }
+}
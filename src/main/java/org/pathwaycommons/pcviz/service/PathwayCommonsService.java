@@ -2,7 +2,6 @@ package org.pathwaycommons.pcviz.service;
 
 import cpath.client.CPathClient;
 import cpath.client.util.CPathException;
-import cpath.query.CPathGraphQuery;
 import cpath.service.GraphType;
 import cpath.service.OutputFormat;
 import flexjson.JSONSerializer;
@@ -12,21 +11,46 @@ import org.apache.commons.logging.LogFactory;
 import org.biopax.paxtools.controller.ModelUtils;
 import org.biopax.paxtools.pattern.miner.SIFEnum;
 import org.biopax.paxtools.pattern.miner.SIFType;
+import org.pathwaycommons.pcviz.cache.FileIndex;
+import org.pathwaycommons.pcviz.cache.NegativeCache;
+import org.pathwaycommons.pcviz.cache.TieredCache;
+import org.pathwaycommons.pcviz.cluster.ClusterCache;
+import org.pathwaycommons.pcviz.metrics.MetricsRegistry;
+import org.pathwaycommons.pcviz.metrics.Trace;
 import org.pathwaycommons.pcviz.model.CytoscapeJsEdge;
 import org.pathwaycommons.pcviz.model.CytoscapeJsGraph;
+import org.pathwaycommons.pcviz.model.CytoscapeJsGraphDelta;
 import org.pathwaycommons.pcviz.model.CytoscapeJsNode;
 import org.pathwaycommons.pcviz.model.PropertyKey;
+import org.pathwaycommons.pcviz.model.SifEdgeList;
+import org.pathwaycommons.pcviz.upstream.DeadlineExceededException;
+import org.pathwaycommons.pcviz.upstream.RequestContext;
+import org.pathwaycommons.pcviz.upstream.UpstreamScheduler;
+import org.pathwaycommons.pcviz.upstream.UpstreamUnavailableException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
 @Service
 public class PathwayCommonsService {
@@ -34,10 +58,56 @@ public class PathwayCommonsService {
 
     // Pathway Commons client
     private CPathClient client;
-    private CPathGraphQuery graphQuery;
+
+    private static final String[] PATTERNS = {
+        "CONTROLS_STATE_CHANGE_OF",
+        "CONTROLS_EXPRESSION_OF",
+        "CATALYSIS_PRECEDES",
+        "CONTROLS_TRANSPORT_OF",
+        "CONTROLS_PHOSPHORYLATION_OF",
+        "IN_COMPLEX_WITH"
+    };
+
+    // runs the graph queries of a multi-gene neighborhood concurrently
+    private ExecutorService upstreamExecutor;
+    private NeighborhoodAssembler neighborhoods;
+
+    @Value("${pathwaycommons.query.threads:4}")
+    private int upstreamThreads;
+
+    // query at most this many missing neighborhood genes one by one (then the results can be reused)
+    @Value("${pathwaycommons.neighborhood.split.max:20}")
+    private int maxNeighborhoodSplit;
 
     private GeneNameService geneNameService;
     private CocitationManager cocitMan;
+    private ClusterCache clusterCache;
+    private CacheManager cacheManager;
+    private UpstreamScheduler upstreamScheduler;
+
+    private NegativeCache negativeCache;
+    private MetricsRegistry metrics;
+
+    // the raw graph query result files
+    private FileIndex sifIndex;
+
+    // raw graph query results (SifEdgeList bytes) by network key
+    static final String SIF_CACHE = "sifCache";
+    // the same, ready for rendering (RankedEdges)
+    static final String RANKED_EDGES_CACHE = "rankedEdgesCache";
+    // query genes by network key, for the network deltas
+    static final String NETWORK_GENES_CACHE = "networkGenesCache";
+    // progressive network: edges in the first chunk, and max. edges per chunk
+    static final int STREAM_FIRST_CHUNK = 50;
+    static final int STREAM_MAX_CHUNK = 1000;
+
+    // node groups of the networks' level-of-detail views
+    static final String NETWORK_SUMMARY_CACHE = "networkSummaryCache";
+
+    // time spent in each phase of creating a network: upstream (graph query), parse, cocitations (edge ranking),
+    // annotate (nodes and edges), layout (node ranks and positions), serialize, disk_write (raw result);
+    // the phases are also the spans of the request's trace
+    static final String PHASE_METRIC = MetricsRegistry.PREFIX + "network_phase_duration_seconds";
 
     @Value("${cocitation.min.edge:0}")
     private Integer minNumberOfCoCitationsForEdges;
@@ -45,6 +115,21 @@ public class PathwayCommonsService {
     @Value("${cocitation.min.node:0}")
     private Integer minNumberOfCoCitationsForNodes;
 
+    // optional server-side layout (then clients need not lay out the networks)
+    @Value("${network.layout.enabled:false}")
+    private boolean layoutEnabled;
+
+    @Value("${network.layout.iterations:300}")
+    private int layoutIterations;
+
+    // if the layout takes longer, it is left to the client
+    @Value("${network.layout.budget.ms:1000}")
+    private long layoutBudgetMillis;
+
+    // summarize networks of this many nodes or more
+    @Value("${network.summary.min.nodes:300}")
+    private int summaryMinNodes;
+
     @Value("${pathwaycommons.url}")
     private volatile String pathwayCommonsUrl;
 
@@ -64,8 +149,54 @@ public class PathwayCommonsService {
         this.cocitMan = cocitMan;
     }
 
+    @Autowired
+    public void setClusterCache(ClusterCache clusterCache) {
+        this.clusterCache = clusterCache;
+    }
+
+    @Autowired
+    public void setCacheManager(CacheManager cacheManager) {
+        this.cacheManager = cacheManager;
+    }
+
+    @Autowired
+    public void setUpstreamScheduler(UpstreamScheduler upstreamScheduler) {
+        this.upstreamScheduler = upstreamScheduler;
+    }
+
+    @Autowired
+    public void setNegativeCache(NegativeCache negativeCache) {
+        this.negativeCache = negativeCache;
+    }
+
+    @Autowired
+    public void setMetrics(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
     public PathwayCommonsService() {
-        cocitationMap = new HashMap();
+        cocitationMap = new ConcurrentHashMap<String, Map<String, Integer>>();
+    }
+
+    /*
+     * for tests: no cluster, upstream scheduler or metrics; the defaults of the properties
+     */
+    PathwayCommonsService(GeneNameService geneNameService, CocitationManager cocitMan, CacheManager cacheManager,
+                          NegativeCache negativeCache, String cacheDir) {
+        this();
+        this.geneNameService = geneNameService;
+        this.cocitMan = cocitMan;
+        this.cacheManager = cacheManager;
+        this.negativeCache = negativeCache;
+        this.cacheDir = cacheDir;
+        this.pathwayCommonsUrl = "http://www.pathwaycommons.org/pc2/";
+        this.upstreamThreads = 4;
+        this.maxNeighborhoodSplit = 20;
+        this.minNumberOfCoCitationsForEdges = 0;
+        this.minNumberOfCoCitationsForNodes = 0;
+        this.layoutIterations = 300;
+        this.layoutBudgetMillis = 1000;
+        this.summaryMinNodes = 300;
     }
 
     @PostConstruct
@@ -73,99 +204,511 @@ public class PathwayCommonsService {
     {
         client = CPathClient.newInstance(pathwayCommonsUrl);
         client.setName("PCViz10");
-        graphQuery = client.createGraphQuery().patterns(
-                new String[]{
-                        "CONTROLS_STATE_CHANGE_OF",
-                        "CONTROLS_EXPRESSION_OF",
-                        "CATALYSIS_PRECEDES",
-                        "CONTROLS_TRANSPORT_OF",
-                        "CONTROLS_PHOSPHORYLATION_OF",
-                        "IN_COMPLEX_WITH"
+
+        sifIndex = new FileIndex(Paths.get(cacheDir, "sif"), 1);
+
+        upstreamExecutor = Executors.newFixedThreadPool(upstreamThreads, r -> {
+            Thread t = new Thread(r, "pc-query");
+            t.setDaemon(true);
+            return t;
+        });
+        if(metrics != null)
+            metrics.monitor("pc-query", upstreamExecutor);
+        neighborhoods = new NeighborhoodAssembler(
+            new NeighborhoodAssembler.Store() {
+                @Override
+                public SifEdgeList get(Set<String> seeds) throws IOException {
+                    return getCachedSif(getNetworkKey(GraphType.NEIGHBORHOOD, seeds));
+                }
+
+                @Override
+                public void put(Set<String> seeds, SifEdgeList sif) throws IOException {
+                    storeSif(getNetworkKey(GraphType.NEIGHBORHOOD, seeds), sif);
                 }
-        );
+            },
+            seeds -> querySif(GraphType.NEIGHBORHOOD, seeds),
+            RequestContext.propagating(upstreamExecutor), maxNeighborhoodSplit);
+
+        Thread indexer = new Thread(this::indexNeighborhoods, "pc-neighborhood-index");
+        indexer.setDaemon(true);
+        indexer.start();
+    }
 
-        Path dir = Paths.get(cacheDir, "networks");
-        if(!Files.exists(dir))
-            Files.createDirectories(dir);
+    @PreDestroy
+    void destroy() {
+        upstreamExecutor.shutdownNow();
     }
 
-    @Cacheable("metadataCache")
+    @Cacheable(cacheNames = "metadataCache", sync = true)
     public String getMetadataDatasources() {
         String relUrl = "metadata/datasources.json";
         try {
-            return client.get(relUrl, null, String.class);
-        } catch (CPathException e) {
+            return callUpstream("metadata", () -> client.get(relUrl, null, String.class));
+        } catch (IOException e) { // incl. CPathException, wrapped
             log.error("Failed fetching " + relUrl, e);
             return null;
         }
     }
 
-    @Cacheable("networkCache")
+    @Cacheable(cacheNames = "networkCache", unless = "#root.target.hasNoData(#type, #genes)")
     public String createNetwork(GraphType type, Collection<String> genes) throws IOException
     {
-        /* Short-cut start */
-        Set<String> sortedIds = new TreeSet<>();
-        for(String gene : genes) {
-            String uniprotId = geneNameService.getUniprotId(gene);
-            sortedIds.add((uniprotId!=null)?uniprotId:gene);
+        final String key = getNetworkKey(type, genes);
+        try (Trace.Span span = Trace.span("createNetwork")) {
+            return renderNetwork(getRankedEdges(type, genes, key), genes,
+                minNumberOfCoCitationsForEdges, minNumberOfCoCitationsForNodes, 0);
+        }
+    }
+
+    /**
+     * Creates the network with only the best-supported interactions.
+     * Whatever the options, the graph query is run (and cached) only once.
+     *
+     * @param type graph query type
+     * @param genes query genes
+     * @param minEdgeCitations skip edges with fewer co-citations
+     * @param minNodeCitations skip edges of the nodes with fewer co-citations
+     * @param maxEdges max. number of edges (the most co-cited ones); 0 - no limit
+     * @return network in the Cytoscape.js JSON format (not cached if the query gave no data, see {@link #hasNoData})
+     * @throws IOException if the graph query failed (nothing is cached then)
+     */
+    @Cacheable(cacheNames = "networkCache", unless = "#root.target.hasNoData(#type, #genes)")
+    public String createNetwork(GraphType type, Collection<String> genes,
+                                int minEdgeCitations, int minNodeCitations, int maxEdges) throws IOException
+    {
+        final String key = getNetworkKey(type, genes);
+        try (Trace.Span span = Trace.span("createNetwork")) {
+            return renderNetwork(getRankedEdges(type, genes, key), genes, minEdgeCitations, minNodeCitations, maxEdges);
         }
-        final String cachedNetwork = ModelUtils.md5hex(
-               StringUtils.join(sortedIds.iterator(),null)
-            ).replaceAll("/|\\\\","_") + "." + type.toString().toLowerCase() + ".json";
+    }
+
+    /**
+     * Remembers the query genes of the network, so that the network can be referred to by its key.
+     *
+     * @param type graph query type
+     * @param genes query genes
+     * @return network key
+     */
+    public String registerNetwork(GraphType type, Collection<String> genes)
+    {
+        final String key = getNetworkKey(type, genes);
+        Cache cache = (cacheManager != null) ? cacheManager.getCache(NETWORK_GENES_CACHE) : null;
+        if(cache != null)
+            cache.put(key, StringUtils.join(normalize(genes).iterator(), ","));
+        return key;
+    }
+
+    /**
+     * Gets the query genes of a network by its key.
+     *
+     * @param key network key
+     * @return query genes, or null if the network is unknown
+     * @throws IOException
+     */
+    public Set<String> getNetworkGenes(String key) throws IOException
+    {
+        Cache cache = (cacheManager != null) ? cacheManager.getCache(NETWORK_GENES_CACHE) : null;
+        Cache.ValueWrapper value = (cache != null) ? cache.get(key) : null;
+        if(value != null)
+            return new TreeSet<String>(Arrays.asList(((String) value.get()).split(",")));
+
+        // the raw query results have their query genes
+        Cache edgesCache = (cacheManager != null) ? cacheManager.getCache(RANKED_EDGES_CACHE) : null;
+        value = (edgesCache != null) ? edgesCache.get(key) : null;
+        Set<String> genes = (value != null) ? ((RankedEdges) value.get()).getSif().getSeeds() : null;
+        byte[] bytes = (genes == null) ? sifIndex.read(sifFileName(key)) : null;
+        if(bytes != null)
+            genes = SifEdgeList.readSeeds(bytes);
+
+        return (genes == null || genes.isEmpty()) ? null : genes;
+    }
+
+    /**
+     * Gets the changes to a displayed neighborhood network when some genes are added to or removed from the query,
+     * worked out from the neighborhoods of the added/removed genes (see {@link NeighborhoodDiff}).
+     * The result is the same as the difference of the two networks rendered with these thresholds,
+     * but for the node ranks: the importance is set on the added nodes, and sent as updates for the others
+     * it may have changed for (those near the change); the client re-ranks the nodes (as cy.rankNodes() does).
+     *
+     * @param key the displayed network key
+     * @param add genes to add
+     * @param remove genes to remove
+     * @param minEdgeCitations skip edges with fewer co-citations
+     * @param minNodeCitations skip edges of the nodes with fewer co-citations
+     * @return the delta (with the key of the new network) in JSON, or null if the network is unknown
+     * @throws IOException when a neighborhood could not be got
+     * @throws IllegalArgumentException when it is not a neighborhood network
+     */
+    public String createNetworkDelta(String key, Collection<String> add, Collection<String> remove,
+                                     int minEdgeCitations, int minNodeCitations) throws IOException
+    {
+        CytoscapeJsGraphDelta delta = getNetworkDelta(key, add, remove, minEdgeCitations, minNodeCitations);
+        return (delta != null) ? (new JSONSerializer()).exclude("*.class", "*.position").deepSerialize(delta) : null;
+    }
 
-        final Path file = Paths.get(cacheDir, "networks", cachedNetwork);
+    CytoscapeJsGraphDelta getNetworkDelta(String key, Collection<String> add, Collection<String> remove,
+                                          int minEdgeCitations, int minNodeCitations) throws IOException
+    {
+        if(!key.endsWith("." + GraphType.NEIGHBORHOOD.toString().toLowerCase()))
+            throw new IllegalArgumentException("Not a neighborhood network: " + key);
+        Set<String> oldGenes = getNetworkGenes(key);
+        if(oldGenes == null)
+            return null;
+
+        Set<String> newGenes = new TreeSet<String>(oldGenes);
+        newGenes.addAll(normalize(add));
+        newGenes.removeAll(normalize(remove));
+        Set<String> genes = new TreeSet<String>(oldGenes);
+        genes.addAll(newGenes);
+        Map<String, RankedEdges> neighborhoods = getNeighborhoods(genes);
+        NeighborhoodDiff diff = new NeighborhoodDiff(oldGenes, newGenes, neighborhoods,
+            minEdgeCitations, minNodeCitations);
 
-        if(Files.exists(file)) { //return cached data
-            log.debug("Found cached network: " + file.toString());
-            return new String(Files.readAllBytes(file));
+        CytoscapeJsGraphDelta delta = new CytoscapeJsGraphDelta();
+        delta.setKey(registerNetwork(GraphType.NEIGHBORHOOD, newGenes));
+        delta.getGenes().addAll(newGenes);
+        for (String node : diff.addedNodes)
+            createNode(delta.getAdd(), node, getTotalCocitations(node), newGenes);
+        for (String node : diff.updatedNodes)
+            createNode(delta.getUpdate(), node, getTotalCocitations(node), newGenes);
+        delta.getRemoveNodes().addAll(diff.removedNodes);
+        for (NeighborhoodDiff.EdgeRef ref : diff.addedEdges) {
+            SifEdgeList sif = ref.edges.getSif();
+            createEdge(delta.getAdd(), sif.getSource(ref.edge), sif.getTarget(ref.edge),
+                SIFEnum.typeOf(sif.getType(ref.edge)), ref.edges.getEdgeCocitations(ref.edge),
+                sif.getDataSources(ref.edge), sif.getPublications(ref.edge));
+        }
+        for (NeighborhoodDiff.EdgeRef ref : diff.removedEdges) {
+            SifEdgeList sif = ref.edges.getSif();
+            delta.getRemoveEdges().add(edgeId(sif.getSource(ref.edge), SIFEnum.typeOf(sif.getType(ref.edge)),
+                sif.getTarget(ref.edge)));
         }
-        /* Short-cut end */
 
-        final CytoscapeJsGraph graph = new CytoscapeJsGraph();
-        final HashSet<String> nodeNames = new HashSet<String>();
+        Map<Object, CytoscapeJsNode> changed = new HashMap<Object, CytoscapeJsNode>();
+        for (CytoscapeJsNode node : delta.getAdd().getNodes())
+            changed.put(node.getProperty(PropertyKey.ID), node);
+        for (CytoscapeJsNode node : delta.getUpdate().getNodes())
+            changed.put(node.getProperty(PropertyKey.ID), node);
+        for (Map.Entry<String, Integer> importance : diff.importance.entrySet()) {
+            CytoscapeJsNode update = changed.get(importance.getKey());
+            if(update == null) {
+                update = new CytoscapeJsNode();
+                update.setProperty(PropertyKey.ID, importance.getKey());
+                delta.getUpdate().getNodes().add(update);
+            }
+            update.setProperty(PropertyKey.IMPORTANCE, importance.getValue());
+        }
+
+        return delta;
+    }
+
+    /*
+     * Gets the neighborhood of each gene; the cached ones right away, the rest - queried concurrently.
+     */
+    private Map<String, RankedEdges> getNeighborhoods(Set<String> genes) throws IOException
+    {
+        Map<String, RankedEdges> neighborhoods = new HashMap<String, RankedEdges>();
+        Map<String, Future<RankedEdges>> queries = new HashMap<String, Future<RankedEdges>>();
+        for (String gene : genes) {
+            Set<String> seed = Collections.singleton(gene);
+            String key = getNetworkKey(GraphType.NEIGHBORHOOD, seed);
+            if(hasLocalResult(key))
+                neighborhoods.put(gene, getRankedEdges(GraphType.NEIGHBORHOOD, seed, key));
+            else
+                queries.put(gene, upstreamExecutor.submit(
+                    RequestContext.wrap(() -> getRankedEdges(GraphType.NEIGHBORHOOD, seed, key))));
+        }
         try {
-            String txt = graphQuery.kind(type).sources(genes)
-                .direction(CPathClient.Direction.BOTHSTREAM)//undirected was the default but useless as we excluded interacts-with pattern
-                    .stringResult(OutputFormat.TXT);
-            if (txt != null && !txt.trim().isEmpty()) {
-                Scanner scanner = new Scanner(txt);
-                String line = scanner.nextLine(); // skip title
-                while (scanner.hasNextLine())
-                {
-                    line = scanner.nextLine();
-                    if(line.trim().isEmpty())
-                        break; // done - skip the next section (nodes descr.) of PC extended SIF (TXT) format
-
-                    //split; empty tokens that result from '\t\t' and after the last tab are also included:
-                    String[] sif = line.split("\t",-1);
-
-                    String srcName = sif[0];
-                    String targetName = sif[2];
-
-                    int edgeCo = getCocitations(srcName, targetName);
-                    int srcCo = getTotalCocitations(srcName);
-                    int targetCo = getTotalCocitations(targetName);
-                    if (edgeCo < minNumberOfCoCitationsForEdges
-                        || srcCo < minNumberOfCoCitationsForNodes
-                        || targetCo < minNumberOfCoCitationsForNodes)
-                    {
-                        continue;
-                    }
-
-                    SIFType sifType = SIFEnum.typeOf(sif[1]);
-                    String[] datasources = sif[3].split(";");
-                    String[] publications = sif[4].split(";");
-
-                    if(nodeNames.add(srcName))
-                        createNode(graph, srcName, srcCo, genes);
-                    if(nodeNames.add(targetName))
-                        createNode(graph, targetName, targetCo, genes);;
-
-                    createEdge(graph, srcName, targetName, sifType, edgeCo, datasources, publications);
+            for (Map.Entry<String, Future<RankedEdges>> query : queries.entrySet())
+                neighborhoods.put(query.getKey(), query.getValue().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw (e.getCause() instanceof IOException) ? (IOException) e.getCause() : new IOException(e.getCause());
+        } finally {
+            for (Future<RankedEdges> query : queries.values())
+                query.cancel(true);
+        }
+        return neighborhoods;
+    }
+
+    public int getMinEdgeCitations() {
+        return minNumberOfCoCitationsForEdges;
+    }
+
+    public int getMinNodeCitations() {
+        return minNumberOfCoCitationsForNodes;
+    }
+
+    /**
+     * Builds the network JSON from the ranked raw graph query result;
+     * a local pass, with no upstream queries.
+     *
+     * @param edges ranked raw query result
+     * @param genes query genes
+     * @param minEdgeCocitations skip edges with fewer co-citations
+     * @param minNodeCocitations skip edges of the nodes with fewer co-citations
+     * @param maxEdges max. number of edges; 0 - no limit
+     * @return network in the Cytoscape.js JSON format
+     */
+    String renderNetwork(RankedEdges edges, Collection<String> genes,
+                         int minEdgeCocitations, int minNodeCocitations, int maxEdges)
+    {
+        CytoscapeJsGraph graph;
+        try (Trace.Span span = phase("annotate")) {
+            graph = buildGraph(edges, genes, minEdgeCocitations, minNodeCocitations, maxEdges);
+        }
+        boolean positions;
+        try (Trace.Span span = phase("layout")) {
+            positions = rankAndLayOut(graph, layoutEnabled);
+        }
+        try (Trace.Span span = phase("serialize")) {
+            return serialize(graph, positions);
+        }
+    }
+
+    /**
+     * Gets the network progressively, in chunks, as soon as each part of the result is available:
+     * first the query genes with their best-cited edges, then the other edges of the genes, a gene at a time,
+     * and the rest of the edges (most co-cited first), each edge with its nodes; finally the nodes' ranks
+     * (and positions, if the layout is enabled), and which query genes are not in the network.
+     * The edges and nodes are those of {@link #createNetwork(GraphType, Collection, int, int, int)} with no limit.
+     *
+     * @param type graph query type
+     * @param genes query genes
+     * @param minEdgeCitations skip edges with fewer co-citations
+     * @param minNodeCitations skip edges of the nodes with fewer co-citations
+     * @param json receives the chunks in JSON (see {@link CytoscapeJsGraphDelta}): elements to add;
+     *                 the last one - node updates and removals, and the key
+     * @throws IOException
+     */
+    public void streamNetwork(GraphType type, Collection<String> genes, int minEdgeCitations, int minNodeCitations,
+                              Consumer<String> json) throws IOException
+    {
+        streamDeltas(type, genes, minEdgeCitations, minNodeCitations, delta -> {
+            JSONSerializer serializer = (new JSONSerializer()).exclude("*.class");
+            List<CytoscapeJsNode> updates = delta.getUpdate().getNodes();
+            if(updates.isEmpty() || updates.get(0).getPosition() == null)
+                serializer.exclude("*.position");
+            json.accept(serializer.deepSerialize(delta));
+        });
+    }
+
+    /*
+     * The same, the chunks as they are.
+     */
+    void streamDeltas(GraphType type, Collection<String> genes, int minEdgeCitations, int minNodeCitations,
+                      Consumer<CytoscapeJsGraphDelta> listener) throws IOException
+    {
+        final String key = getNetworkKey(type, genes);
+        final Set<String> seeds = normalize(genes);
+        final Set<String> nodeNames = new HashSet<String>();
+        final Set<String> edgeIds = new HashSet<String>();
+
+        // the query genes go with the first edges
+        final CytoscapeJsGraphDelta[] chunk = {new CytoscapeJsGraphDelta()};
+        for (String gene : seeds) {
+            createNode(chunk[0].getAdd(), gene, getTotalCocitations(gene), genes);
+            nodeNames.add(gene);
+        }
+        final int[] chunkSize = {STREAM_FIRST_CHUNK};
+        final boolean[] sent = {false};
+
+        RankedEdges edges = getRankedEdges(type, genes, key, part -> {
+            SifEdgeList sif = part.getSif();
+            for (int i : seedsFirst(part, seeds, minEdgeCitations, minNodeCitations)) {
+                SIFType sifType = SIFEnum.typeOf(sif.getType(i));
+                if(!edgeIds.add(edgeId(sif.getSource(i), sifType, sif.getTarget(i))))
+                    continue; // in an earlier part
+                CytoscapeJsGraph add = chunk[0].getAdd();
+                if(nodeNames.add(sif.getSource(i)))
+                    createNode(add, sif.getSource(i), part.getSourceCocitations(i), genes);
+                if(nodeNames.add(sif.getTarget(i)))
+                    createNode(add, sif.getTarget(i), part.getTargetCocitations(i), genes);
+                createEdge(add, sif.getSource(i), sif.getTarget(i), sifType, part.getEdgeCocitations(i),
+                    sif.getDataSources(i), sif.getPublications(i));
+                if(add.getEdges().size() >= chunkSize[0]) {
+                    listener.accept(chunk[0]);
+                    sent[0] = true;
+                    chunk[0] = new CytoscapeJsGraphDelta();
+                    chunkSize[0] = Math.min(2 * chunkSize[0], STREAM_MAX_CHUNK);
                 }
             }
-        } catch (CPathException e) {
-            log.warn("PC query error or no data; " + type.toString().toLowerCase() + ", source: " + genes + "; " + e);
+            if(!chunk[0].getAdd().getEdges().isEmpty()) {
+                listener.accept(chunk[0]);
+                sent[0] = true;
+                chunk[0] = new CytoscapeJsGraphDelta();
+            }
+        });
+        if(!sent[0]) // no edges
+            listener.accept(chunk[0]);
+
+        // the ranks need the whole network
+        CytoscapeJsGraph graph = buildGraph(edges, genes, minEdgeCitations, minNodeCitations, 0);
+        rankAndLayOut(graph, layoutEnabled);
+        CytoscapeJsGraphDelta last = new CytoscapeJsGraphDelta();
+        last.setKey(key);
+        last.getGenes().addAll(seeds);
+        for (CytoscapeJsNode node : graph.getNodes()) {
+            CytoscapeJsNode update = new CytoscapeJsNode();
+            update.setProperty(PropertyKey.ID, node.getProperty(PropertyKey.ID));
+            update.setProperty(PropertyKey.RANK, node.getProperty(PropertyKey.RANK));
+            update.setProperty(PropertyKey.IMPORTANCE, node.getProperty(PropertyKey.IMPORTANCE));
+            update.setPosition(node.getPosition());
+            last.getUpdate().getNodes().add(update);
+            nodeNames.remove(node.getProperty(PropertyKey.ID));
+        }
+        last.getRemoveNodes().addAll(new TreeSet<String>(nodeNames)); // the query genes with no edges
+        listener.accept(last);
+    }
+
+    /*
+     * Orders the selected edges of a part of the result for streaming: first the edges of the query genes,
+     * taking the best-cited remaining edge of each gene in turn (so that every gene gets its best edges
+     * into the first chunk), then the other edges, most co-cited first.
+     */
+    private static int[] seedsFirst(RankedEdges part, Set<String> seeds, int minEdgeCitations, int minNodeCitations)
+    {
+        SifEdgeList sif = part.getSif();
+        Map<String, List<Integer>> bySeed = new LinkedHashMap<String, List<Integer>>();
+        List<Integer> others = new ArrayList<Integer>();
+        for (int i : part.select(minEdgeCitations, minNodeCitations, 0)) {
+            String seed = seeds.contains(sif.getSource(i)) ? sif.getSource(i)
+                : seeds.contains(sif.getTarget(i)) ? sif.getTarget(i) : null;
+            if(seed != null)
+                bySeed.computeIfAbsent(seed, k -> new ArrayList<Integer>()).add(i);
+            else
+                others.add(i);
+        }
+
+        int[] order = new int[others.size() + bySeed.values().stream().mapToInt(List::size).sum()];
+        int n = 0;
+        for (int round = 0; n < order.length - others.size(); round++) {
+            for (List<Integer> seedEdges : bySeed.values()) {
+                if(round < seedEdges.size())
+                    order[n++] = seedEdges.get(round);
+            }
+        }
+        for (int i : others)
+            order[n++] = i;
+        return order;
+    }
+
+    /**
+     * Creates the level-of-detail view of the network: when it has network.summary.min.nodes or more nodes,
+     * groups of related nodes (see {@link NetworkSummary}) are collapsed into meta-nodes,
+     * which can be expanded with {@link #expandNetworkSummary}.
+     *
+     * @param type graph query type
+     * @param genes query genes
+     * @param minEdgeCitations skip edges with fewer co-citations
+     * @param minNodeCitations skip edges of the nodes with fewer co-citations
+     * @param expanded the groups to show in full
+     * @return network in the Cytoscape.js JSON format
+     * @throws IOException
+     */
+    @Cacheable(cacheNames = "networkCache", unless = "#root.target.hasNoData(#type, #genes)")
+    public String createNetworkSummary(GraphType type, Collection<String> genes,
+                                       int minEdgeCitations, int minNodeCitations, Set<Integer> expanded)
+        throws IOException
+    {
+        final String key = getNetworkKey(type, genes);
+        CytoscapeJsGraph network = getNetwork(type, genes, minEdgeCitations, minNodeCitations);
+        int[] groups = getNetworkGroups(key, network, minEdgeCitations, minNodeCitations);
+
+        CytoscapeJsGraph view = NetworkSummary.view(network, groups, expanded);
+        return serialize(view, rankAndLayOut(view, layoutEnabled));
+    }
+
+    /**
+     * Gets the members of a collapsed group of the network's level-of-detail view, and their edges.
+     *
+     * @param type graph query type
+     * @param genes query genes
+     * @param minEdgeCitations skip edges with fewer co-citations
+     * @param minNodeCitations skip edges of the nodes with fewer co-citations
+     * @param expanded the groups already expanded
+     * @param group the group to expand
+     * @return the elements to add, and the meta-node to remove, in JSON (see {@link CytoscapeJsGraphDelta})
+     * @throws IOException
+     * @throws IllegalArgumentException when there is no such group
+     */
+    public String expandNetworkSummary(GraphType type, Collection<String> genes, int minEdgeCitations,
+                                       int minNodeCitations, Set<Integer> expanded, int group) throws IOException
+    {
+        final String key = getNetworkKey(type, genes);
+        CytoscapeJsGraph network = getNetwork(type, genes, minEdgeCitations, minNodeCitations);
+        int[] groups = getNetworkGroups(key, network, minEdgeCitations, minNodeCitations);
+        if(group < 0 || !IntStream.of(groups).anyMatch(g -> g == group))
+            throw new IllegalArgumentException("No such group: " + group);
+
+        CytoscapeJsGraphDelta delta = new CytoscapeJsGraphDelta();
+        delta.setKey(key);
+        delta.getGenes().addAll(normalize(genes));
+        delta.setAdd(NetworkSummary.expand(network, groups, expanded, group));
+        delta.getRemoveNodes().add(NetworkSummary.META_PREFIX + group);
+        return (new JSONSerializer()).exclude("*.class", "*.position").deepSerialize(delta);
+    }
+
+    /*
+     * Builds the network with the nodes ranked (not laid out).
+     */
+    CytoscapeJsGraph getNetwork(GraphType type, Collection<String> genes, int minEdgeCitations, int minNodeCitations)
+        throws IOException
+    {
+        CytoscapeJsGraph network = buildGraph(getRankedEdges(type, genes, getNetworkKey(type, genes)), genes,
+            minEdgeCitations, minNodeCitations, 0);
+        rankAndLayOut(network, false);
+        return network;
+    }
+
+    /*
+     * Gets the node groups of the network, computed once per network and thresholds.
+     */
+    private int[] getNetworkGroups(String key, CytoscapeJsGraph network, int minEdgeCitations, int minNodeCitations)
+    {
+        final String groupsKey = key + "/" + minEdgeCitations + "/" + minNodeCitations;
+        Cache cache = (cacheManager != null) ? cacheManager.getCache(NETWORK_SUMMARY_CACHE) : null;
+        Cache.ValueWrapper value = (cache != null) ? cache.get(groupsKey) : null;
+        int n = network.getNodes().size();
+        if(value != null && ((int[]) value.get()).length == n)
+            return (int[]) value.get();
+
+        int[] groups;
+        if(n < summaryMinNodes) {
+            groups = new int[n];
+            Arrays.fill(groups, -1);
+        } else {
+            int[][] edges = edgeIndices(network);
+            groups = NetworkSummary.cluster(n, edges[0], edges[1], seeds(network));
+        }
+        if(cache != null)
+            cache.put(groupsKey, groups);
+        return groups;
+    }
+
+    private CytoscapeJsGraph buildGraph(RankedEdges edges, Collection<String> genes,
+                                        int minEdgeCocitations, int minNodeCocitations, int maxEdges)
+    {
+        final CytoscapeJsGraph graph = new CytoscapeJsGraph();
+        final HashSet<String> nodeNames = new HashSet<String>();
+        if(edges != null) {
+            SifEdgeList sif = edges.getSif();
+            for (int i : edges.select(minEdgeCocitations, minNodeCocitations, maxEdges))
+            {
+                String srcName = sif.getSource(i);
+                String targetName = sif.getTarget(i);
+                SIFType sifType = SIFEnum.typeOf(sif.getType(i));
+
+                if(nodeNames.add(srcName))
+                    createNode(graph, srcName, edges.getSourceCocitations(i), genes);
+                if(nodeNames.add(targetName))
+                    createNode(graph, targetName, edges.getTargetCocitations(i), genes);
+
+                createEdge(graph, srcName, targetName, sifType, edges.getEdgeCocitations(i),
+                    sif.getDataSources(i), sif.getPublications(i));
+            }
         }
 
         if(nodeNames.isEmpty()) {
@@ -174,13 +717,442 @@ public class PathwayCommonsService {
                 createNode(graph, gene, getTotalCocitations(gene), genes);
             }
         }
+        return graph;
+    }
 
-        String network =  (new JSONSerializer()).exclude("*.class").deepSerialize(graph);
+    private static String serialize(CytoscapeJsGraph graph, boolean positions)
+    {
+        JSONSerializer serializer = (new JSONSerializer()).exclude("*.class");
+        if(!positions)
+            serializer.exclude("*.position");
+        return serializer.deepSerialize(graph);
+    }
+
+    /*
+     * Sets the nodes' importance and rank (see NodeRanker), so that the client does not have to;
+     * and the positions, if the layout is to be done and is done in time.
+     */
+    private boolean rankAndLayOut(CytoscapeJsGraph graph, boolean layout)
+    {
+        final List<CytoscapeJsNode> nodes = graph.getNodes();
+        final int n = nodes.size();
+        final int[] cited = new int[n];
+        for (int v = 0; v < n; v++)
+            cited[v] = (Integer) nodes.get(v).getProperty(PropertyKey.CITED);
+        final int[][] edges = edgeIndices(graph);
+
+        NodeRanker ranker = new NodeRanker(n, edges[0], edges[1], seeds(graph), cited);
+        for (int v = 0; v < n; v++) {
+            nodes.get(v).setProperty(PropertyKey.IMPORTANCE, ranker.getImportance()[v]);
+            nodes.get(v).setProperty(PropertyKey.RANK, ranker.getRank()[v]);
+        }
+
+        if(!layout || n == 0)
+            return false;
+        ForceLayout forceLayout = new ForceLayout(n, edges[0], edges[1]);
+        if(!forceLayout.run(layoutIterations, TimeUnit.MILLISECONDS.toNanos(layoutBudgetMillis))) {
+            log.debug("Layout of " + n + " nodes, " + edges[0].length + " edges did not finish in "
+                + layoutBudgetMillis + " ms; left to the client");
+            return false;
+        }
+        for (int v = 0; v < n; v++) {
+            Map<String, Double> position = new HashMap<String, Double>(4);
+            position.put("x", Math.round(forceLayout.getX()[v] * 10) / 10.0);
+            position.put("y", Math.round(forceLayout.getY()[v] * 10) / 10.0);
+            nodes.get(v).setPosition(position);
+        }
+        return true;
+    }
+
+    /*
+     * Gets the edges as the node indices: {sources, targets}.
+     */
+    private static int[][] edgeIndices(CytoscapeJsGraph graph)
+    {
+        final List<CytoscapeJsNode> nodes = graph.getNodes();
+        final Map<Object, Integer> index = new HashMap<Object, Integer>(2 * nodes.size());
+        for (int v = 0; v < nodes.size(); v++)
+            index.put(nodes.get(v).getProperty(PropertyKey.ID), v);
+
+        final List<CytoscapeJsEdge> edges = graph.getEdges();
+        final int[] sources = new int[edges.size()], targets = new int[edges.size()];
+        for (int e = 0; e < edges.size(); e++) {
+            sources[e] = index.get(edges.get(e).getProperty(PropertyKey.SOURCE));
+            targets[e] = index.get(edges.get(e).getProperty(PropertyKey.TARGET));
+        }
+        return new int[][]{sources, targets};
+    }
+
+    private static boolean[] seeds(CytoscapeJsGraph graph)
+    {
+        final List<CytoscapeJsNode> nodes = graph.getNodes();
+        final boolean[] seeds = new boolean[nodes.size()];
+        for (int v = 0; v < nodes.size(); v++)
+            seeds[v] = (Boolean) nodes.get(v).getProperty(PropertyKey.ISSEED);
+        return seeds;
+    }
+
+    /*
+     * Gets the raw query result, from the caches or Pathway Commons, with the edges ranked by co-citations;
+     * throws an IOException if the query failed, so that no network made without it is cached.
+     */
+    private RankedEdges getRankedEdges(GraphType type, Collection<String> genes, String key) throws IOException
+    {
+        return getRankedEdges(type, genes, key, null);
+    }
+
+    /*
+     * The same, passing the parts of the result to the listener as they come
+     * (one part, unless a neighborhood is assembled of several).
+     */
+    private RankedEdges getRankedEdges(GraphType type, Collection<String> genes, String key,
+                                       Consumer<RankedEdges> listener) throws IOException
+    {
+        Cache cache = (cacheManager != null) ? cacheManager.getCache(RANKED_EDGES_CACHE) : null;
+        Cache.ValueWrapper value = (cache != null) ? cache.get(key) : null;
+        if(value != null) {
+            if(listener != null)
+                listener.accept((RankedEdges) value.get());
+            return (RankedEdges) value.get();
+        }
+
+        boolean whole = true, queried = false;
+        SifEdgeList sif = getCachedSif(key);
+        if(sif == null)
+            sif = fetchSif(type, genes, key); //from the node that owns the result, if that's another one
+        if(sif == null) {
+            if(type == GraphType.NEIGHBORHOOD && genes.size() > 1) {
+                // merge the neighborhoods of the subsets that are cached, query the rest
+                try (Trace.Span span = Trace.span("assemble neighborhoods")) {
+                    sif = neighborhoods.assemble(new TreeSet<String>(genes),
+                        (listener != null) ? part -> listener.accept(rankEdges(part)) : null);
+                }
+                whole = false;
+            } else {
+                sif = querySif(type, genes);
+                queried = true;
+                if(sif != null) {
+                    storeSif(key, sif);
+                    if(type == GraphType.NEIGHBORHOOD && sif.size() > 0)
+                        neighborhoods.add(sif.getSeeds());
+                }
+            }
+        }
+        if(sif == null)
+            throw new IOException("Pathway Commons query failed: " + key);
+
+        RankedEdges edges = rankEdges(sif);
+        if(sif.size() == 0 && negativeCache != null) {
+            // not cached, but remembered for a while (by querySif, if it has run the query)
+            if(!queried)
+                negativeCache.put(negativeKey(key), NegativeCache.Kind.NO_DATA);
+        } else if(cache != null) {
+            cache.put(key, edges);
+        }
+        if(whole && listener != null)
+            listener.accept(edges);
+        return edges;
+    }
+
+    /*
+     * Gets the raw result from the cluster node that owns it (it is not stored on this node, but for the caches);
+     * null if this node is the owner, or the owner failed.
+     */
+    private SifEdgeList fetchSif(GraphType type, Collection<String> genes, String key)
+    {
+        if(clusterCache == null)
+            return null;
+        byte[] bytes;
+        try (Trace.Span span = Trace.span("cluster fetch")) {
+            bytes = clusterCache.fetch(key, type.toString(), genes);
+        }
+        try {
+            return (bytes != null) ? SifEdgeList.fromBytes(bytes) : null;
+        } catch (IOException e) {
+            log.warn("Bad graph query result " + key + " from the cluster; " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Gets the raw graph query result (for another cluster node).
+     *
+     * @param type graph query type
+     * @param genes query genes
+     * @return the result as SifEdgeList bytes
+     * @throws IOException if the graph query failed
+     */
+    public byte[] getRawResult(GraphType type, Collection<String> genes) throws IOException
+    {
+        return getRankedEdges(type, genes, getNetworkKey(type, genes)).getSif().toBytes();
+    }
+
+    /**
+     * Whether the graph query has recently given no data (whether queried, assembled or got from another node);
+     * a network made of no data is not cached, so that the query is run again once the negative cache forgets it.
+     *
+     * @param type graph query type
+     * @param genes query genes
+     * @return true if the query gave no data
+     */
+    public boolean hasNoData(GraphType type, Collection<String> genes)
+    {
+        return negativeCache != null
+            && negativeCache.get(negativeKey(getNetworkKey(type, genes))) == NegativeCache.Kind.NO_DATA;
+    }
+
+    RankedEdges rankEdges(SifEdgeList sif)
+    {
+        int n = sif.size();
+        int[] edgeCo = new int[n], srcCo = new int[n], targetCo = new int[n];
+        try (Trace.Span span = phase("cocitations")) {
+            for (int i = 0; i < n; i++) {
+                edgeCo[i] = getCocitations(sif.getSource(i), sif.getTarget(i));
+                srcCo[i] = getTotalCocitations(sif.getSource(i));
+                targetCo[i] = getTotalCocitations(sif.getTarget(i));
+            }
+        }
+        return new RankedEdges(sif, edgeCo, srcCo, targetCo);
+    }
+
+    /**
+     * Whether the graph query result is at hand on this node, so that the network is quick to create.
+     *
+     * @param type graph query type
+     * @param genes query genes
+     * @return true if the raw result is cached
+     */
+    public boolean isCached(GraphType type, Collection<String> genes)
+    {
+        return hasLocalResult(getNetworkKey(type, genes));
+    }
+
+    private boolean hasLocalResult(String key)
+    {
+        for (String name : new String[]{RANKED_EDGES_CACHE, SIF_CACHE}) {
+            Cache cache = (cacheManager != null) ? cacheManager.getCache(name) : null;
+            if(cache != null && contains(cache, key))
+                return true;
+        }
+        return sifIndex.contains(sifFileName(key));
+    }
+
+    /*
+     * not counted as a hit or miss (unless the cache cannot tell without getting the value)
+     */
+    private static boolean contains(Cache cache, Object key)
+    {
+        return (cache instanceof TieredCache) ? ((TieredCache) cache).containsKey(key) : cache.get(key) != null;
+    }
+
+    /**
+     * Gets the canonical key of the graph query: the same for any order of the genes,
+     * and for the names of a gene that map to the same UniProt ID.
+     *
+     * @param type graph query type
+     * @param genes query genes
+     * @return key, which is also the raw result file name (without extension) in the cache folder
+     */
+    public String getNetworkKey(GraphType type, Collection<String> genes)
+    {
+        Set<String> sortedIds = new TreeSet<>();
+        for(String gene : normalize(genes)) {
+            String uniprotId = (geneNameService != null) ? geneNameService.getUniprotId(gene) : null;
+            sortedIds.add((uniprotId!=null)?uniprotId:gene);
+        }
+        return ModelUtils.md5hex(StringUtils.join(sortedIds.iterator(), ",")).replaceAll("/|\\\\","_")
+            + "." + type.toString().toLowerCase();
+    }
+
+    private static Set<String> normalize(Collection<String> genes)
+    {
+        Set<String> sortedIds = new TreeSet<>();
+        for(String gene : genes) {
+            sortedIds.add(gene.trim());
+        }
+        return sortedIds;
+    }
+
+    /**
+     * Gets the file of the raw graph query result (whether it exists or not).
+     *
+     * @param key network key
+     * @return file path in the cache folder
+     */
+    public Path getSifFile(String key)
+    {
+        return Paths.get(cacheDir, "sif", sifFileName(key));
+    }
+
+    /**
+     * Deletes the raw graph query result file.
+     *
+     * @param key network key
+     * @return true if there was the file
+     * @throws IOException
+     */
+    public boolean deleteSifFile(String key) throws IOException
+    {
+        return sifIndex.delete(sifFileName(key));
+    }
+
+    private static String sifFileName(String key)
+    {
+        return key + ".bin";
+    }
+
+    private SifEdgeList getCachedSif(String key) throws IOException
+    {
+        Cache cache = (cacheManager != null) ? cacheManager.getCache(SIF_CACHE) : null;
+        Cache.ValueWrapper value = (cache != null) ? cache.get(key) : null;
+        if(value != null) {
+            return SifEdgeList.fromBytes((byte[]) value.get());
+        }
+
+        byte[] bytes = sifIndex.read(sifFileName(key));
+        if(bytes != null) {
+            log.debug("Found cached graph query result: " + key);
+            if(cache != null)
+                cache.put(key, bytes);
+            return SifEdgeList.fromBytes(bytes);
+        }
+
+        return null;
+    }
+
+    /*
+     * Queries Pathway Commons; returns null if the query failed. A query that gave no data,
+     * or was rejected, is not repeated for a while (see NegativeCache).
+     */
+    private SifEdgeList querySif(GraphType type, Collection<String> genes) throws IOException
+    {
+        final String negativeKey = negativeKey(getNetworkKey(type, genes));
+        NegativeCache.Kind known = (negativeCache != null) ? negativeCache.get(negativeKey) : null;
+        if(known == NegativeCache.Kind.NO_DATA)
+            return SifEdgeList.parse(null, genes);
+        if(known == NegativeCache.Kind.ERROR)
+            return null;
+
+        SifEdgeList sif;
+        try {
+            // failures reach the scheduler, for its circuit breaker and metrics
+            sif = callUpstream("graph", () -> {
+                String txt;
+                try (Trace.Span span = phase("upstream")) {
+                    txt = queryUpstream(type, genes);
+                }
+
+                try (Trace.Span span = phase("parse")) {
+                    return SifEdgeList.parse(txt, genes);
+                }
+            });
+        } catch (DeadlineExceededException | UpstreamUnavailableException e) {
+            throw e; // not the query's fault
+        } catch (IOException e) {
+            log.warn("PC query failed; " + type.toString().toLowerCase() + ", source: " + genes + "; " + e);
+            if(negativeCache != null)
+                negativeCache.put(negativeKey, NegativeCache.Kind.ERROR);
+            return null;
+        }
+        if(sif != null && sif.size() == 0 && negativeCache != null)
+            negativeCache.put(negativeKey, NegativeCache.Kind.NO_DATA);
+        return sif;
+    }
+
+    /*
+     * Runs the graph query; returns the result in the extended SIF (TXT) format.
+     */
+    String queryUpstream(GraphType type, Collection<String> genes) throws IOException
+    {
+        try {
+            // a new query object each time, for the queries can run concurrently
+            return client.createGraphQuery().patterns(PATTERNS).kind(type).sources(genes)
+                .direction(CPathClient.Direction.BOTHSTREAM)//undirected was the default but useless as we excluded interacts-with pattern
+                    .stringResult(OutputFormat.TXT);
+        } catch (CPathException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /*
+     * the network's key in the negative cache
+     */
+    static String negativeKey(String key)
+    {
+        return "pc:" + key;
+    }
+
+    /*
+     * Calls Pathway Commons when the upstream scheduler lets.
+     */
+    private <T> T callUpstream(String operation, Callable<T> call) throws IOException
+    {
+        if(upstreamScheduler == null) {
+            try {
+                return call.call();
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+        return upstreamScheduler.call(UpstreamScheduler.PATHWAY_COMMONS, operation, call);
+    }
+
+    /*
+     * Saves the graph query result; an empty one is not kept for good, but in the negative cache for a while.
+     */
+    private void storeSif(String key, SifEdgeList sif) throws IOException
+    {
+        if(sif.size() == 0 && negativeCache != null)
+            return;
+        byte[] bytes = sif.toBytes();
 
         //cache it forever (until the folder is removed or cleaned)
-        Files.write(file, network.getBytes());
+        try (Trace.Span span = phase("disk_write")) {
+            Path file = getSifFile(key);
+            Path tmp = Files.createTempFile(file.getParent(), key, ".tmp");
+            Files.write(tmp, bytes);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            sifIndex.add(sifFileName(key));
+        }
 
-        return network;
+        Cache cache = (cacheManager != null) ? cacheManager.getCache(SIF_CACHE) : null;
+        if(cache != null)
+            cache.put(key, bytes);
+    }
+
+    /*
+     * opens the phase's span, which also records its duration in the metrics
+     */
+    private Trace.Span phase(String phase)
+    {
+        return Trace.span(phase, (metrics != null)
+            ? metrics.histogram(PHASE_METRIC, "Time spent in each phase of creating a network", "phase", phase)
+            : null);
+    }
+
+    /*
+     * Indexes the cached neighborhood results by their seed sets (in background).
+     */
+    private void indexNeighborhoods()
+    {
+        int count = 0;
+        for (String file : sifIndex.keys()) {
+            if (!file.endsWith(".neighborhood.bin"))
+                continue;
+            try {
+                byte[] bytes = sifIndex.read(file);
+                Set<String> seeds = (bytes != null) ? SifEdgeList.readSeeds(bytes) : Collections.<String>emptySet();
+                if (!seeds.isEmpty()) {
+                    neighborhoods.add(seeds);
+                    count++;
+                }
+            } catch (IOException e) {
+                log.warn("Cannot read " + file + "; " + e);
+            }
+        }
+        log.info("Indexed " + count + " cached neighborhood query results");
     }
 
     private void createNode(CytoscapeJsGraph graph, String nodeName, int totalCocitations, Collection<String> genes)
@@ -203,7 +1175,7 @@ public class PathwayCommonsService {
                             int edgeCo, String[] dataSources, String[] publicationIds)
     {
         CytoscapeJsEdge edge = new CytoscapeJsEdge();
-        edge.setProperty(PropertyKey.ID, srcName + "-" + sifType.getTag() + "-" + targetName);
+        edge.setProperty(PropertyKey.ID, edgeId(srcName, sifType, targetName));
         edge.setProperty(PropertyKey.SOURCE, srcName);
         edge.setProperty(PropertyKey.TARGET, targetName);
         edge.setProperty(PropertyKey.ISDIRECTED, sifType.isDirected());
@@ -214,6 +1186,11 @@ public class PathwayCommonsService {
         graph.getEdges().add(edge);
     }
 
+    private static String edgeId(String srcName, SIFType sifType, String targetName)
+    {
+        return srcName + "-" + sifType.getTag() + "-" + targetName;
+    }
+
     /**
      * Gets co-citations of the given gene. Uses local cache if it exists.
      *
@@ -222,12 +1199,14 @@ public class PathwayCommonsService {
      */
     private Map<String, Integer> getCocitationMap(String gene)
     {
-        if (!cocitationMap.containsKey(gene))
+        Map<String, Integer> map = cocitationMap.get(gene);
+        if (map == null)
         {
-            cocitationMap.put(gene, cocitMan.getCocitations(gene));
+            map = cocitMan.getCocitations(gene);
+            cocitationMap.put(gene, map);
         }
 
-        return cocitationMap.get(gene);
+        return map;
     }
 
     /**
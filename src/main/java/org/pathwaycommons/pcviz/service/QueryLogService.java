@@ -0,0 +1,296 @@
+package org.pathwaycommons.pcviz.service;
+
+import cpath.service.GraphType;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Counts the normalized network, cancer context and BioGene queries, periodically saves the counts
+ * (cache.folder/querylog.tsv.gz), and, on start, replays the most popular ones in background
+ * so that the caches are hot before the node takes much traffic.
+ * The counts are halved once a day, so that the log follows the recent popularity.
+ */
+@Service
+public class QueryLogService {
+    private static final Log log = LogFactory.getLog(QueryLogService.class);
+
+    static final String FILENAME = "querylog.tsv.gz";
+
+    private static final String GRAPH = "graph";
+    private static final String CONTEXT = "context";
+    private static final String BIOGENE = "biogene";
+
+    @Value("${cache.folder}")
+    private String cacheDir;
+
+    @Value("${querylog.enabled:true}")
+    private boolean enabled;
+
+    @Value("${querylog.max.entries:10000}")
+    private int maxEntries;
+
+    @Value("${querylog.flush.minutes:10}")
+    private long flushMinutes;
+
+    @Value("${querylog.warm.top:100}")
+    private int warmTop;
+
+    @Value("${querylog.warm.rate:2}")
+    private double warmRate; // queries per second
+
+    private final PathwayCommonsService pathwayCommonsService;
+    private final CancerContextService cancerContextService;
+    private final BioGeneService bioGeneService;
+
+    private final Map<String, LongAdder> counts = new ConcurrentHashMap<String, LongAdder>();
+    private final ScheduledExecutorService scheduler;
+    private volatile long lastDecay = System.currentTimeMillis();
+    private volatile CacheAdminService.WarmJob warmJob;
+    private Path file;
+
+    @Autowired
+    public QueryLogService(PathwayCommonsService pathwayCommonsService, CancerContextService cancerContextService,
+                           BioGeneService bioGeneService) {
+        this.pathwayCommonsService = pathwayCommonsService;
+        this.cancerContextService = cancerContextService;
+        this.bioGeneService = bioGeneService;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "query-log");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    QueryLogService(PathwayCommonsService pathwayCommonsService, CancerContextService cancerContextService,
+                    BioGeneService bioGeneService, String cacheDir, int warmTop, double warmRate) {
+        this(pathwayCommonsService, cancerContextService, bioGeneService);
+        this.cacheDir = cacheDir;
+        this.enabled = true;
+        this.maxEntries = 10000;
+        this.flushMinutes = 10;
+        this.warmTop = warmTop;
+        this.warmRate = warmRate;
+    }
+
+    @PostConstruct
+    void init() {
+        file = Paths.get(cacheDir, FILENAME);
+        if (!enabled)
+            return;
+
+        if (Files.exists(file)) {
+            try {
+                load();
+                log.info("Loaded " + counts.size() + " popular queries from " + file);
+            } catch (IOException e) {
+                log.error("Failed to read the query log " + file, e);
+            }
+        }
+        scheduler.scheduleWithFixedDelay(this::flush, flushMinutes, flushMinutes, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    void destroy() {
+        scheduler.shutdownNow();
+        if (enabled)
+            flush();
+    }
+
+    /**
+     * Starts replaying the top queries once the application has started.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        List<String> queries = getTopQueries(warmTop);
+        warmJob = new CacheAdminService.WarmJob(queries.size());
+        if (queries.isEmpty())
+            return;
+
+        log.info("Replaying " + queries.size() + " popular queries to warm up the caches");
+        Thread thread = new Thread(() -> replay(queries, warmJob), "query-log-warmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return the startup warm-up progress, or null if it has not started yet
+     */
+    public CacheAdminService.WarmJob getWarmJob() {
+        return warmJob;
+    }
+
+    public void recordNetwork(GraphType type, Collection<String> genes) {
+        record(GRAPH + "\t" + type + "\t" + joinSorted(genes, false));
+    }
+
+    public void recordContext(String studyId, String profiles, String genes) {
+        record(CONTEXT + "\t" + studyId + "\t" + CancerContextService.canonicalProfiles(profiles)
+            + "\t" + joinSorted(Arrays.asList(genes.split(",")), true));
+    }
+
+    public void recordBioGene(String organism, String gene) {
+        record(BIOGENE + "\t" + organism + "\t" + gene);
+    }
+
+    /**
+     * @param n max. number of queries
+     * @return the most frequent normalized queries, most frequent first
+     */
+    public List<String> getTopQueries(int n) {
+        List<Map.Entry<String, Long>> entries = snapshot();
+        List<String> top = new ArrayList<String>();
+        for (int i = 0; i < entries.size() && i < n; i++)
+            top.add(entries.get(i).getKey());
+        return top;
+    }
+
+    private void record(String query) {
+        if (!enabled)
+            return;
+        LongAdder count = counts.get(query);
+        if (count == null) {
+            if (counts.size() >= 2 * maxEntries)
+                return; // until the next flush trims the log
+            count = counts.computeIfAbsent(query, q -> new LongAdder());
+        }
+        count.increment();
+    }
+
+    private static String joinSorted(Collection<String> genes, boolean upperCase) {
+        Set<String> sorted = new TreeSet<String>();
+        for (String gene : genes) {
+            gene = gene.trim();
+            if (!gene.isEmpty())
+                sorted.add((upperCase) ? gene.toUpperCase() : gene);
+        }
+        return String.join(",", sorted);
+    }
+
+    /*
+     * sorted by count, descending
+     */
+    private List<Map.Entry<String, Long>> snapshot() {
+        List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>();
+        for (Map.Entry<String, LongAdder> e : counts.entrySet())
+            entries.add(new AbstractMap.SimpleEntry<String, Long>(e.getKey(), e.getValue().sum()));
+        entries.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        return entries;
+    }
+
+    /*
+     * trims and saves the log; halves the counts once a day
+     */
+    synchronized void flush() {
+        List<Map.Entry<String, Long>> entries = snapshot();
+        boolean decay = System.currentTimeMillis() - lastDecay > TimeUnit.DAYS.toMillis(1);
+        if (decay)
+            lastDecay = System.currentTimeMillis();
+
+        for (int i = 0; i < entries.size(); i++) {
+            Map.Entry<String, Long> e = entries.get(i);
+            if (i >= maxEntries || (decay && e.getValue() < 2)) {
+                counts.remove(e.getKey());
+            } else if (decay) {
+                LongAdder count = counts.get(e.getKey());
+                if (count != null)
+                    count.add(-(e.getValue() / 2));
+            }
+        }
+
+        try {
+            Path tmp = Files.createTempFile(file.getParent(), FILENAME, ".tmp");
+            try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(tmp)),
+                StandardCharsets.UTF_8)) {
+                writer.write("#" + lastDecay + "\n");
+                for (Map.Entry<String, Long> e : snapshot())
+                    writer.write(e.getValue() + "\t" + e.getKey() + "\n");
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("Failed to write the query log " + file, e);
+        }
+    }
+
+    private void load() throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+            new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (line.startsWith("#")) {
+                    lastDecay = Long.parseLong(line.substring(1).trim());
+                    continue;
+                }
+                int tab = line.indexOf('\t');
+                if (tab > 0) {
+                    LongAdder count = new LongAdder();
+                    count.add(Long.parseLong(line.substring(0, tab)));
+                    counts.put(line.substring(tab + 1), count);
+                }
+            }
+        }
+    }
+
+    /*
+     * runs the queries one by one, at most warmRate per second
+     */
+    private void replay(List<String> queries, CacheAdminService.WarmJob job) {
+        long interval = (warmRate > 0) ? (long) (1000 / warmRate) : 0;
+        for (String query : queries) {
+            long start = System.currentTimeMillis();
+            boolean ok = false;
+            try {
+                ok = replay(query);
+            } catch (Exception e) {
+                log.warn("Warm-up query failed: " + query.replace('\t', ' ') + "; " + e);
+            }
+            job.completed(ok);
+
+            long wait = interval - (System.currentTimeMillis() - start);
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+        log.info("Warm-up done: " + job.getDone() + " queries, " + job.getFailed() + " failed, in "
+            + (job.getFinished() - job.getStarted()) + " ms");
+    }
+
+    private boolean replay(String query) throws IOException {
+        String[] token = query.split("\t", -1);
+        switch (token[0]) {
+            case GRAPH:
+                Set<String> genes = new TreeSet<String>(Arrays.asList(token[2].split(",")));
+                return pathwayCommonsService.createNetwork(GraphType.valueOf(token[1]), genes) != null;
+            case CONTEXT:
+                cancerContextService.loadContext(token[1], token[2], token[3]);
+                return true;
+            case BIOGENE:
+                return bioGeneService.getData(token[2], token[1]) != null;
+            default:
+                log.warn("Unknown query in the log: " + query);
+                return false;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package org.pathwaycommons.pcviz.service;
+
+import org.pathwaycommons.pcviz.model.SifEdgeList;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Raw graph query result with the co-citation counts of the edges and their end nodes,
+ * and the edges sorted by co-citations (most cited first; ties - in the query result order).
+ * Then selecting the k best-supported edges over given thresholds takes a scan of about k edges
+ * (plus the ones skipped by the node threshold), whatever the result size.
+ */
+final class RankedEdges implements Serializable {
+
+    private final SifEdgeList sif;
+    private final int[] order;
+    private final int[] edgeCocitations;
+    private final int[] sourceCocitations;
+    private final int[] targetCocitations;
+
+    // lookup indices for network deltas, built on demand (not serialized)
+    private transient volatile Map<String, Integer> edgeIndex;
+    private transient volatile Map<String, int[]> nodeEdges;
+
+    RankedEdges(SifEdgeList sif, int[] edgeCocitations, int[] sourceCocitations, int[] targetCocitations) {
+        this.sif = sif;
+        this.edgeCocitations = edgeCocitations;
+        this.sourceCocitations = sourceCocitations;
+        this.targetCocitations = targetCocitations;
+
+        // sort (co-citations desc., edge asc.) packed in longs
+        int n = sif.size();
+        long[] packed = new long[n];
+        for (int i = 0; i < n; i++)
+            packed[i] = ((long) (Integer.MAX_VALUE - edgeCocitations[i]) << 32) | i;
+        Arrays.sort(packed);
+        order = new int[n];
+        for (int i = 0; i < n; i++)
+            order[i] = (int) packed[i];
+    }
+
+    SifEdgeList getSif() {
+        return sif;
+    }
+
+    int size() {
+        return order.length;
+    }
+
+    /**
+     * @param rank position in the co-citation order
+     * @return edge index in the raw result
+     */
+    int edgeAt(int rank) {
+        return order[rank];
+    }
+
+    int getEdgeCocitations(int edge) {
+        return edgeCocitations[edge];
+    }
+
+    int getSourceCocitations(int edge) {
+        return sourceCocitations[edge];
+    }
+
+    int getTargetCocitations(int edge) {
+        return targetCocitations[edge];
+    }
+
+    /**
+     * Selects the most co-cited edges.
+     *
+     * @param minEdgeCocitations skip edges with fewer co-citations
+     * @param minNodeCocitations skip edges having a node with fewer co-citations
+     * @param maxEdges max. number of edges to select; 0 - no limit
+     * @return edge indices, most co-cited first
+     */
+    int[] select(int minEdgeCocitations, int minNodeCocitations, int maxEdges) {
+        int limit = (maxEdges > 0) ? Math.min(maxEdges, order.length) : order.length;
+        int[] selected = new int[limit];
+        int count = 0;
+        for (int rank = 0; rank < order.length && count < limit; rank++) {
+            int edge = order[rank];
+            if (edgeCocitations[edge] < minEdgeCocitations)
+                break; // the rest are cited even less
+            if (sourceCocitations[edge] < minNodeCocitations || targetCocitations[edge] < minNodeCocitations)
+                continue;
+            selected[count++] = edge;
+        }
+        return Arrays.copyOf(selected, count);
+    }
+
+    /**
+     * @param edge edge index
+     * @return whether the edge passes the thresholds (as in {@link #select(int, int, int)} with no limit)
+     */
+    boolean isSelected(int edge, int minEdgeCocitations, int minNodeCocitations) {
+        return edgeCocitations[edge] >= minEdgeCocitations
+            && sourceCocitations[edge] >= minNodeCocitations && targetCocitations[edge] >= minNodeCocitations;
+    }
+
+    /**
+     * @return the edge index, or -1 if there is no such edge
+     */
+    int indexOf(String source, String type, String target) {
+        index();
+        Integer edge = edgeIndex.get(edgeKey(source, type, target));
+        return (edge != null) ? edge : -1;
+    }
+
+    /**
+     * @return whether any edge of the node passes the thresholds
+     */
+    boolean hasSelectedEdge(String node, int minEdgeCocitations, int minNodeCocitations) {
+        index();
+        int[] edges = nodeEdges.get(node);
+        if (edges != null) {
+            for (int edge : edges)
+                if (isSelected(edge, minEdgeCocitations, minNodeCocitations))
+                    return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the other end nodes of the node's edges that pass the thresholds
+     */
+    List<String> getNeighbors(String node, int minEdgeCocitations, int minNodeCocitations) {
+        index();
+        List<String> neighbors = new ArrayList<String>();
+        int[] edges = nodeEdges.get(node);
+        if (edges != null) {
+            for (int edge : edges)
+                if (isSelected(edge, minEdgeCocitations, minNodeCocitations))
+                    neighbors.add(node.equals(sif.getSource(edge)) ? sif.getTarget(edge) : sif.getSource(edge));
+        }
+        return neighbors;
+    }
+
+    static String edgeKey(String source, String type, String target) {
+        return source + "\t" + type + "\t" + target;
+    }
+
+    private void index() {
+        if (nodeEdges != null)
+            return;
+        synchronized (this) {
+            if (nodeEdges != null)
+                return;
+            int n = sif.size();
+            Map<String, Integer> edges = new HashMap<String, Integer>(2 * n);
+            Map<String, List<Integer>> incident = new HashMap<String, List<Integer>>();
+            for (int i = 0; i < n; i++) {
+                edges.put(edgeKey(sif.getSource(i), sif.getType(i), sif.getTarget(i)), i);
+                incident.computeIfAbsent(sif.getSource(i), k -> new ArrayList<Integer>()).add(i);
+                if (!sif.getTarget(i).equals(sif.getSource(i)))
+                    incident.computeIfAbsent(sif.getTarget(i), k -> new ArrayList<Integer>()).add(i);
+            }
+            Map<String, int[]> nodes = new HashMap<String, int[]>(2 * incident.size());
+            for (Map.Entry<String, List<Integer>> e : incident.entrySet())
+                nodes.put(e.getKey(), e.getValue().stream().mapToInt(Integer::intValue).toArray());
+            edgeIndex = edges;
+            nodeEdges = nodes;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package org.pathwaycommons.pcviz.upstream;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrency limit that follows the latency (gradient algorithm): once per window (at least a second
+ * and MIN_SAMPLES requests), the window's average latency is compared with the long-term average;
+ * while it is not much higher (within TOLERANCE), the limit grows (by about its square root), and when
+ * it is, the limit drops in proportion (at most by half). So, when the service behind gets slow,
+ * fewer requests are let in, rather than all of them queueing; the long-term average follows the
+ * latency slowly, so that the limit recovers when the service is just slower for good.
+ */
+final class AdaptiveLimiter {
+
+    static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+    static final int MIN_SAMPLES = 10;
+    static final double TOLERANCE = 1.5;
+    static final double SMOOTHING = 0.2;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private double limit;
+    private int inFlight;
+    private long accepted;
+    private long rejected;
+
+    // latency (ns): long-term average and the last window's
+    private double longRtt;
+    private double shortRtt;
+
+    private long windowStart;
+    private long windowSum;
+    private int windowCount;
+    private int windowMaxInFlight;
+
+    AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+        this.windowStart = System.nanoTime();
+    }
+
+    /**
+     * @return false if the limit is reached (then the request is to be rejected)
+     */
+    synchronized boolean tryAcquire() {
+        if (inFlight >= (int) limit) {
+            rejected++;
+            return false;
+        }
+        accepted++;
+        inFlight++;
+        windowMaxInFlight = Math.max(windowMaxInFlight, inFlight);
+        return true;
+    }
+
+    /**
+     * @param rttNanos the request's latency; negative - do not count it (e.g. a streaming response)
+     */
+    void release(long rttNanos) {
+        release(rttNanos, System.nanoTime());
+    }
+
+    synchronized void release(long rttNanos, long now) {
+        inFlight--;
+        if (rttNanos >= 0) {
+            windowSum += rttNanos;
+            windowCount++;
+        }
+        if (now - windowStart >= WINDOW_NANOS && windowCount >= MIN_SAMPLES) {
+            update((double) windowSum / windowCount);
+            windowStart = now;
+            windowSum = 0;
+            windowCount = 0;
+            windowMaxInFlight = inFlight;
+        }
+    }
+
+    private void update(double rtt) {
+        shortRtt = rtt;
+        if (longRtt == 0) {
+            longRtt = rtt;
+        } else {
+            longRtt = 0.98 * longRtt + 0.02 * rtt;
+            if (longRtt > 2 * rtt) // faster again; forget the slow period sooner
+                longRtt *= 0.95;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRtt / rtt));
+        if (gradient == 1.0 && windowMaxInFlight < limit / 2)
+            return; // not even half used; nothing to learn about a higher limit
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        if (newLimit > limit) // grow gradually, but back off at once
+            newLimit = (1 - SMOOTHING) * limit + SMOOTHING * newLimit;
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+    }
+
+    synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * @return the last window's average latency (ms)
+     */
+    synchronized long getLatencyMillis() {
+        return TimeUnit.NANOSECONDS.toMillis((long) shortRtt);
+    }
+
+    synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+        statistics.put("limit", (int) limit);
+        statistics.put("inFlight", inFlight);
+        statistics.put("accepted", accepted);
+        statistics.put("rejected", rejected);
+        statistics.put("latencyMs", TimeUnit.NANOSECONDS.toMillis((long) shortRtt));
+        statistics.put("baselineLatencyMs", TimeUnit.NANOSECONDS.toMillis((long) longRtt));
+        return statistics;
+    }
+}
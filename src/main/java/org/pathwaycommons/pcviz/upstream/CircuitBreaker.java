@@ -0,0 +1,89 @@
+package org.pathwaycommons.pcviz.upstream;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One upstream's circuit breaker: after so many consecutive failed calls it opens, and the calls
+ * fail at once instead of each waiting for the socket timeout; once the open period is over,
+ * a single probe call is let through (half-open), which closes the breaker again if it succeeds,
+ * or re-opens it if it fails.
+ */
+final class CircuitBreaker {
+
+    enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+    private boolean probing;
+    private long opened;
+    private long rejected;
+
+    CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * @return false if the call is not to be made (the breaker is open, or half-open with a probe out)
+     */
+    synchronized boolean allowRequest(long now) {
+        if (state == State.OPEN && now - openedAt >= openMillis) {
+            state = State.HALF_OPEN;
+            probing = false;
+        }
+        if (state == State.CLOSED || (state == State.HALF_OPEN && !probing)) {
+            probing = (state == State.HALF_OPEN);
+            return true;
+        }
+        rejected++;
+        return false;
+    }
+
+    synchronized void success() {
+        state = State.CLOSED;
+        failures = 0;
+        probing = false;
+    }
+
+    /**
+     * A call let through but not made after all (e.g. dropped while waiting for its turn).
+     */
+    synchronized void cancel() {
+        probing = false;
+    }
+
+    synchronized void failure(long now) {
+        failures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= failureThreshold)) {
+            state = State.OPEN;
+            openedAt = now;
+            probing = false;
+            opened++;
+        }
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return millis until a probe call is let through (0 if not open)
+     */
+    synchronized long getRetryAfterMillis(long now) {
+        return (state == State.OPEN) ? Math.max(0, openedAt + openMillis - now) : 0;
+    }
+
+    synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+        statistics.put("state", state.name());
+        statistics.put("consecutiveFailures", failures);
+        statistics.put("opened", opened);
+        statistics.put("rejected", rejected);
+        return statistics;
+    }
+}
@@ -0,0 +1,13 @@
+package org.pathwaycommons.pcviz.upstream;
+
+import java.io.IOException;
+
+/**
+ * An upstream call was not made, for the request it was for had run out of time.
+ */
+public class DeadlineExceededException extends IOException {
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,169 @@
+package org.pathwaycommons.pcviz.upstream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.async.CallableProcessingInterceptorAdapter;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Limits the concurrent requests per endpoint group, each with its own {@link AdaptiveLimiter},
+ * so that, when an upstream service gets slow, the requests that depend on it are turned away
+ * (503 with Retry-After) instead of piling up, and the cheap in-memory endpoints (gene validation
+ * and autocomplete) are not held up by them. Other requests (pages, static files, admin, jobs) are not limited.
+ * The limits (initial, min, max) are set with limit.{group}.initial, limit.{group}.min and limit.{group}.max.
+ */
+@Component
+public class LoadSheddingInterceptor extends HandlerInterceptorAdapter {
+    private static final Log log = LogFactory.getLog(LoadSheddingInterceptor.class);
+
+    // path prefix -> endpoint group
+    private static final Map<String, String> GROUPS = new LinkedHashMap<String, String>();
+    // group -> default initial, min and max limits
+    private static final Map<String, int[]> LIMITS = new LinkedHashMap<String, int[]>();
+    static {
+        GROUPS.put("/validate", "local");
+        GROUPS.put("/autocomplete", "local");
+        GROUPS.put("/graph", "network");
+        GROUPS.put("/cluster", "network");
+        GROUPS.put("/metadata", "network");
+        GROUPS.put("/cancer", "cancer");
+        GROUPS.put("/biogene", "biogene");
+
+        LIMITS.put("local", new int[]{100, 20, 400});
+        LIMITS.put("network", new int[]{20, 2, 200});
+        LIMITS.put("cancer", new int[]{10, 2, 100});
+        LIMITS.put("biogene", new int[]{10, 2, 100});
+    }
+
+    private static final String ATTRIBUTE = Permit.class.getName();
+
+    /*
+     * a request's admission; released once, whichever of the completion callbacks comes first
+     */
+    private static final class Permit {
+        final AdaptiveLimiter limiter;
+        final long start = System.nanoTime();
+        final AtomicBoolean released = new AtomicBoolean();
+        volatile boolean async;
+
+        Permit(AdaptiveLimiter limiter) {
+            this.limiter = limiter;
+        }
+
+        void release() {
+            if (released.compareAndSet(false, true))
+                limiter.release((async) ? -1 : System.nanoTime() - start);
+        }
+    }
+
+    @Value("${limit.enabled:true}")
+    private boolean enabled;
+
+    private final Environment environment;
+
+    private final Map<String, AdaptiveLimiter> limiters = new LinkedHashMap<String, AdaptiveLimiter>();
+
+    public LoadSheddingInterceptor(Environment environment) {
+        this.environment = environment;
+    }
+
+    @PostConstruct
+    void init() {
+        for (Map.Entry<String, int[]> group : LIMITS.entrySet()) {
+            String prefix = "limit." + group.getKey() + ".";
+            int[] limits = group.getValue();
+            AdaptiveLimiter limiter = new AdaptiveLimiter(
+                Integer.parseInt(environment.getProperty(prefix + "initial", String.valueOf(limits[0]))),
+                Integer.parseInt(environment.getProperty(prefix + "min", String.valueOf(limits[1]))),
+                Integer.parseInt(environment.getProperty(prefix + "max", String.valueOf(limits[2]))));
+            limiters.put(group.getKey(), limiter);
+        }
+        if (!enabled)
+            log.info("Request concurrency limits are disabled");
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+        throws IOException {
+        if (!enabled || request.getAttribute(ATTRIBUTE) != null) // e.g., the async dispatch of an admitted request
+            return true;
+        String group = group(request.getRequestURI().substring(request.getContextPath().length()));
+        if (group == null)
+            return true;
+
+        AdaptiveLimiter limiter = limiters.get(group);
+        if (!limiter.tryAcquire()) {
+            long retryAfter = Math.max(1, TimeUnit.MILLISECONDS.toSeconds(limiter.getLatencyMillis() + 999));
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setHeader("Retry-After", String.valueOf(retryAfter));
+            response.setContentType("application/json; charset=utf-8");
+            response.getWriter().write("{\"error\":\"Too many " + group + " requests; try again later\"}");
+            return false;
+        }
+        request.setAttribute(ATTRIBUTE, new Permit(limiter));
+        return true;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        Permit permit = (Permit) request.getAttribute(ATTRIBUTE);
+        if (permit != null)
+            permit.async = true; // the latency of a stream is not the service's
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        Permit permit = (Permit) request.getAttribute(ATTRIBUTE);
+        if (permit != null)
+            permit.release();
+    }
+
+    /**
+     * @return the interceptor that releases the permit of an async (streaming) request
+     * however the request ends (incl. timeout and error)
+     */
+    public CallableProcessingInterceptorAdapter getAsyncInterceptor() {
+        return new CallableProcessingInterceptorAdapter() {
+            @Override
+            public <T> void afterCompletion(NativeWebRequest request, Callable<T> task) {
+                Permit permit = (Permit) request.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+                if (permit != null)
+                    permit.release();
+            }
+        };
+    }
+
+    /**
+     * @return for each endpoint group: the current limit, requests in flight, accepted and rejected
+     * requests, and the latest and long-term average latency
+     */
+    public Map<String, Map<String, Object>> getStatistics() {
+        Map<String, Map<String, Object>> statistics = new LinkedHashMap<String, Map<String, Object>>();
+        for (Map.Entry<String, AdaptiveLimiter> e : limiters.entrySet())
+            statistics.put(e.getKey(), e.getValue().getStatistics());
+        return statistics;
+    }
+
+    static String group(String path) {
+        for (Map.Entry<String, String> e : GROUPS.entrySet()) {
+            if (path.equals(e.getKey()) || path.startsWith(e.getKey() + "/"))
+                return e.getValue();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,145 @@
+package org.pathwaycommons.pcviz.upstream;
+
+import org.pathwaycommons.pcviz.metrics.Trace;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * Who the current work is for, how urgent it is and until when it is of use:
+ * set for each web request (see {@link RequestContextInterceptor}) and carried along
+ * to the threads that do the work, so that {@link UpstreamScheduler} can queue the upstream calls fairly.
+ * Work with no request behind it (warm-ups, jobs, background refreshes) is bulk.
+ * A web request's context also has its {@link Trace}, so that the spans opened in those threads
+ * are nested in the span that handed them the work.
+ */
+public final class RequestContext {
+
+    public enum Priority {
+        INTERACTIVE, BULK
+    }
+
+    private static final ThreadLocal<RequestContext> current = new ThreadLocal<RequestContext>();
+
+    private final String client;
+    private final Priority priority;
+    private final long deadline;
+    private final Trace trace;
+
+    /**
+     * @param client who the work is for (e.g. the remote address)
+     * @param priority priority class
+     * @param deadline time (System.currentTimeMillis()) after which the result is of no use; 0 - none
+     */
+    public RequestContext(String client, Priority priority, long deadline) {
+        this(client, priority, deadline, null);
+    }
+
+    /**
+     * @param trace the request's trace (null - not traced)
+     */
+    public RequestContext(String client, Priority priority, long deadline, Trace trace) {
+        this.client = client;
+        this.priority = priority;
+        this.deadline = deadline;
+        this.trace = trace;
+    }
+
+    /**
+     * @return the current thread's context; with none set, a bulk one, with the thread name for the client
+     */
+    public static RequestContext get() {
+        RequestContext context = current.get();
+        return (context != null) ? context : new RequestContext(Thread.currentThread().getName(), Priority.BULK, 0);
+    }
+
+    /**
+     * Sets the current thread's context, and the root span of its trace as the current span.
+     */
+    public static void set(RequestContext context) {
+        if (context != null)
+            current.set(context);
+        else
+            current.remove();
+        Trace.setCurrentSpan((context != null && context.trace != null) ? context.trace.getRoot() : null);
+    }
+
+    public static void clear() {
+        current.remove();
+        Trace.setCurrentSpan(null);
+    }
+
+    /**
+     * @param task work to do on another thread
+     * @return the task to run in the current (submitter's) context
+     */
+    public static <T> Callable<T> wrap(Callable<T> task) {
+        final RequestContext context = get();
+        final Trace.Span span = Trace.currentSpan();
+        return () -> {
+            RequestContext previous = current.get();
+            Trace.Span previousSpan = Trace.currentSpan();
+            set(context);
+            Trace.setCurrentSpan(span);
+            try {
+                return task.call();
+            } finally {
+                set(previous);
+                Trace.setCurrentSpan(previousSpan);
+            }
+        };
+    }
+
+    public static Runnable wrap(Runnable task) {
+        final RequestContext context = get();
+        final Trace.Span span = Trace.currentSpan();
+        return () -> {
+            RequestContext previous = current.get();
+            Trace.Span previousSpan = Trace.currentSpan();
+            set(context);
+            Trace.setCurrentSpan(span);
+            try {
+                task.run();
+            } finally {
+                set(previous);
+                Trace.setCurrentSpan(previousSpan);
+            }
+        };
+    }
+
+    /**
+     * @param executor thread pool
+     * @return executor that runs each task in the context of the thread that submitted it
+     */
+    public static Executor propagating(Executor executor) {
+        return task -> executor.execute(wrap(task));
+    }
+
+    public String getClient() {
+        return client;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @return the request's trace, or null if not traced
+     */
+    public Trace getTrace() {
+        return trace;
+    }
+
+    public boolean isExpired() {
+        return deadline > 0 && System.currentTimeMillis() > deadline;
+    }
+
+    @Override
+    public String toString() {
+        return client + "/" + priority + ((deadline > 0) ? "/" + deadline : "");
+    }
+}
@@ -0,0 +1,144 @@
+package org.pathwaycommons.pcviz.upstream;
+
+import org.pathwaycommons.pcviz.cache.Staleness;
+import org.pathwaycommons.pcviz.metrics.Trace;
+import org.pathwaycommons.pcviz.metrics.Tracer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.async.CallableProcessingInterceptorAdapter;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Sets the {@link RequestContext} of each web request: the client is the remote address, or, if that is one of
+ * the upstream.trusted.proxies, the nearest X-Forwarded-For address that is not (the header is not trusted otherwise:
+ * any client could set it to take others' turns at the upstream services);
+ * the priority - interactive, except for the administration and job requests;
+ * the deadline - upstream.deadline.ms from the start, or sooner if the client says so in X-Request-Timeout (ms).
+ * Streaming responses, written by another thread, get the context of their request as well.
+ * Each request is traced (see {@link Trace}); the trace ends, and goes to the {@link Tracer}, with the response.
+ */
+@Component
+public class RequestContextInterceptor extends HandlerInterceptorAdapter {
+
+    static final String TIMEOUT_HEADER = "X-Request-Timeout";
+
+    private static final String ATTRIBUTE = RequestContext.class.getName();
+
+    // about the load balancer's timeout; no use calling upstream for a request that is gone
+    @Value("${upstream.deadline.ms:60000}")
+    private long deadlineMillis;
+
+    private Set<String> trustedProxies = Collections.emptySet();
+
+    @Autowired
+    private Tracer tracer;
+
+    /**
+     * @param proxies comma-separated addresses of the load balancers / reverse proxies whose X-Forwarded-For is used
+     */
+    @Value("${upstream.trusted.proxies:}")
+    void setTrustedProxies(String proxies) {
+        Set<String> trusted = new HashSet<String>();
+        for (String proxy : proxies.split(","))
+            if (!proxy.trim().isEmpty())
+                trusted.add(proxy.trim());
+        trustedProxies = trusted;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        RequestContext context = (RequestContext) request.getAttribute(ATTRIBUTE);
+        if (context == null) {
+            context = create(request);
+            request.setAttribute(ATTRIBUTE, context);
+        }
+        RequestContext.set(context);
+        Staleness.clear(); // left over by an earlier request of this thread that failed
+        return true;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        RequestContext.clear();
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        RequestContext.clear();
+        RequestContext context = (RequestContext) request.getAttribute(ATTRIBUTE);
+        if (context != null && context.getTrace() != null && tracer != null)
+            tracer.finish(context.getTrace(), (ex != null && response.getStatus() < 400) ? 500 : response.getStatus());
+    }
+
+    /**
+     * @return the interceptor that sets the request's context for the async (streaming) processing
+     */
+    public CallableProcessingInterceptorAdapter getAsyncInterceptor() {
+        return new CallableProcessingInterceptorAdapter() {
+            @Override
+            public <T> void preProcess(NativeWebRequest request, Callable<T> task) {
+                RequestContext.set((RequestContext) request.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST));
+            }
+
+            @Override
+            public <T> void postProcess(NativeWebRequest request, Callable<T> task, Object value) {
+                RequestContext.clear();
+            }
+        };
+    }
+
+    RequestContext create(HttpServletRequest request) {
+        String client = client(request);
+
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        RequestContext.Priority priority = (path.startsWith("/admin/") || path.startsWith("/jobs/"))
+            ? RequestContext.Priority.BULK : RequestContext.Priority.INTERACTIVE;
+
+        long timeout = deadlineMillis;
+        String requested = request.getHeader(TIMEOUT_HEADER);
+        if (requested != null) {
+            try {
+                long millis = Long.parseLong(requested.trim());
+                if (millis > 0 && (timeout <= 0 || millis < timeout))
+                    timeout = millis;
+            } catch (NumberFormatException e) {
+                // ignore
+            }
+        }
+
+        return new RequestContext(client, priority, (timeout > 0) ? System.currentTimeMillis() + timeout : 0,
+            new Trace(request.getMethod() + " " + path, client));
+    }
+
+    /**
+     * @return the remote address; if it is a trusted proxy, the address it forwarded for - each proxy appends
+     * the address it got the request from, so the rightmost untrusted one is the first that could not be spoofed
+     */
+    String client(HttpServletRequest request) {
+        String client = request.getRemoteAddr();
+        String forwarded = request.getHeader("X-Forwarded-For");
+        if (forwarded == null || !trustedProxies.contains(client))
+            return client;
+
+        String[] hops = forwarded.split(",");
+        for (int i = hops.length - 1; i >= 0; i--) {
+            String hop = hops[i].trim();
+            if (hop.isEmpty())
+                break;
+            client = hop;
+            if (!trustedProxies.contains(hop))
+                break;
+        }
+        return client;
+    }
+}
@@ -0,0 +1,74 @@
+package org.pathwaycommons.pcviz.upstream;
+
+import org.pathwaycommons.pcviz.cache.TieredCacheManager;
+import org.pathwaycommons.pcviz.metrics.MetricsRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Registers the {@link LoadSheddingInterceptor} and the {@link RequestContextInterceptor}
+ * (for the requests let in), and lets the caches serve stale values while they are refreshed
+ * (cache.refresh.threads threads; a value is stale after cache.stale.after.ms of waiting for the upstream).
+ */
+@Configuration
+public class UpstreamConfiguration extends WebMvcConfigurerAdapter {
+
+    @Autowired
+    private LoadSheddingInterceptor loadSheddingInterceptor;
+
+    @Autowired
+    private RequestContextInterceptor requestContextInterceptor;
+
+    @Autowired
+    private TieredCacheManager cacheManager;
+
+    @Autowired
+    private MetricsRegistry metrics;
+
+    @Value("${cache.refresh.threads:4}")
+    private int refreshThreads;
+
+    @Value("${cache.stale.after.ms:2000}")
+    private long staleAfterMillis;
+
+    private ExecutorService refresher;
+
+    @PostConstruct
+    void init() {
+        refresher = Executors.newFixedThreadPool(refreshThreads, r -> {
+            Thread t = new Thread(r, "cache-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+        metrics.monitor("cache-refresh", refresher);
+        // the refresh is made for the request that found the value expired (its client, priority and deadline)
+        cacheManager.setRefresher(RequestContext.propagating(refresher), staleAfterMillis);
+    }
+
+    @PreDestroy
+    void destroy() {
+        cacheManager.setRefresher(null, 0);
+        refresher.shutdownNow();
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(loadSheddingInterceptor);
+        registry.addInterceptor(requestContextInterceptor);
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.registerCallableInterceptors(loadSheddingInterceptor.getAsyncInterceptor(),
+            requestContextInterceptor.getAsyncInterceptor());
+    }
+}
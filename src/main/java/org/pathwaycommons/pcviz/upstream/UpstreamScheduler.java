@@ -0,0 +1,335 @@
+package org.pathwaycommons.pcviz.upstream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pathwaycommons.pcviz.metrics.MetricsRegistry;
+import org.pathwaycommons.pcviz.metrics.Trace;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.*;
+import java.util.concurrent.Callable;
+
+/**
+ * Admits the calls to the upstream services (Pathway Commons, cBioPortal, BioGene), at most so many
+ * at a time per service (upstream.{name}.concurrency); the others wait in the caller's thread.
+ * When a call is done, the next one is chosen: interactive before bulk (see {@link RequestContext}),
+ * and, within a priority, the clients take turns (round robin), so that one client's hundred calls
+ * do not hold up another's one. A call whose request deadline has passed is dropped - before
+ * or while it waits - with {@link DeadlineExceededException}.
+ * Each upstream also has a {@link CircuitBreaker}: after upstream.breaker.failures consecutive failed
+ * calls, the calls fail at once with {@link UpstreamUnavailableException} for upstream.breaker.open.seconds,
+ * after which one probe call is let through.
+ * The calls' wait and duration, and outcome (success, error, timeout, deadline, unavailable),
+ * are recorded in the {@link MetricsRegistry}, by upstream and operation, and the wait and the call
+ * are spans of the request's {@link Trace}.
+ */
+@Component
+public class UpstreamScheduler {
+    private static final Log log = LogFactory.getLog(UpstreamScheduler.class);
+
+    public static final String PATHWAY_COMMONS = "pathwaycommons";
+    public static final String CBIOPORTAL = "cbioportal";
+    public static final String BIOGENE = "biogene";
+
+    @Value("${upstream.pathwaycommons.concurrency:4}")
+    private int pathwayCommonsConcurrency;
+
+    @Value("${upstream.cbioportal.concurrency:4}")
+    private int cBioPortalConcurrency;
+
+    @Value("${upstream.biogene.concurrency:2}")
+    private int bioGeneConcurrency;
+
+    @Value("${upstream.breaker.failures:5}")
+    private int breakerFailures = 5;
+
+    @Value("${upstream.breaker.open.seconds:30}")
+    private int breakerOpenSeconds = 30;
+
+    private final Map<String, Lane> lanes = new LinkedHashMap<String, Lane>();
+    private final Map<String, CircuitBreaker> breakers = new LinkedHashMap<String, CircuitBreaker>();
+
+    private MetricsRegistry metrics;
+
+    public UpstreamScheduler() {
+    }
+
+    public UpstreamScheduler(int pathwayCommonsConcurrency, int cBioPortalConcurrency, int bioGeneConcurrency) {
+        this.pathwayCommonsConcurrency = pathwayCommonsConcurrency;
+        this.cBioPortalConcurrency = cBioPortalConcurrency;
+        this.bioGeneConcurrency = bioGeneConcurrency;
+        init();
+    }
+
+    public UpstreamScheduler(int pathwayCommonsConcurrency, int cBioPortalConcurrency, int bioGeneConcurrency,
+                             int breakerFailures, int breakerOpenSeconds) {
+        this.breakerFailures = breakerFailures;
+        this.breakerOpenSeconds = breakerOpenSeconds;
+        this.pathwayCommonsConcurrency = pathwayCommonsConcurrency;
+        this.cBioPortalConcurrency = cBioPortalConcurrency;
+        this.bioGeneConcurrency = bioGeneConcurrency;
+        init();
+    }
+
+    @PostConstruct
+    void init() {
+        lanes.put(PATHWAY_COMMONS, new Lane(pathwayCommonsConcurrency));
+        lanes.put(CBIOPORTAL, new Lane(cBioPortalConcurrency));
+        lanes.put(BIOGENE, new Lane(bioGeneConcurrency));
+        for (String upstream : lanes.keySet())
+            breakers.put(upstream, new CircuitBreaker(breakerFailures, breakerOpenSeconds * 1000L));
+        log.info("Upstream concurrency: " + PATHWAY_COMMONS + " " + pathwayCommonsConcurrency + ", "
+            + CBIOPORTAL + " " + cBioPortalConcurrency + ", " + BIOGENE + " " + bioGeneConcurrency);
+    }
+
+    @Autowired
+    public void setMetrics(MetricsRegistry metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * The same as {@link #call(String, String, Callable)}, for the "other" operation.
+     */
+    public <T> T call(String upstream, Callable<T> call) throws IOException {
+        return call(upstream, "other", call);
+    }
+
+    /**
+     * Makes the upstream call in the current thread when its turn comes.
+     *
+     * @param upstream upstream service name
+     * @param operation what is called, e.g. "graph" (a metrics label; keep the values few)
+     * @param call the call
+     * @return the call's result
+     * @throws DeadlineExceededException if the request's deadline passes before the turn comes
+     * @throws UpstreamUnavailableException if the upstream's circuit breaker is open
+     * @throws IOException the call's own, or any other checked exception wrapped
+     */
+    public <T> T call(String upstream, String operation, Callable<T> call) throws IOException {
+        Lane lane = lanes.get(upstream);
+        if (lane == null)
+            throw new IllegalArgumentException("Unknown upstream: " + upstream);
+
+        CircuitBreaker breaker = breakers.get(upstream);
+        if (!breaker.allowRequest(System.currentTimeMillis())) {
+            count(upstream, operation, "unavailable");
+            throw new UpstreamUnavailableException(upstream + " is unavailable; retrying in "
+                + (breaker.getRetryAfterMillis(System.currentTimeMillis()) / 1000 + 1) + " s");
+        }
+        try (Trace.Span span = Trace.span("wait " + upstream, (metrics != null)
+            ? metrics.histogram(MetricsRegistry.PREFIX + "upstream_wait_duration_seconds",
+                "Time upstream calls waited for their turn", "upstream", upstream)
+            : null)) {
+            lane.acquire(RequestContext.get());
+        } catch (IOException e) {
+            breaker.cancel(); // not the upstream's fault
+            count(upstream, operation, (e instanceof DeadlineExceededException) ? "deadline" : "error");
+            throw e;
+        }
+
+        String outcome = "error";
+        Trace.Span span = Trace.span(upstream + " " + operation, (metrics != null)
+            ? metrics.histogram(MetricsRegistry.PREFIX + "upstream_call_duration_seconds",
+                "Upstream call latency", "upstream", upstream, "operation", operation)
+            : null);
+        try {
+            T result = call.call();
+            breaker.success();
+            outcome = "success";
+            return result;
+        } catch (IOException | RuntimeException e) {
+            breaker.failure(System.currentTimeMillis());
+            if (isTimeout(e))
+                outcome = "timeout";
+            throw e;
+        } catch (Exception e) {
+            breaker.failure(System.currentTimeMillis());
+            if (isTimeout(e))
+                outcome = "timeout";
+            throw new IOException(e);
+        } finally {
+            span.close();
+            lane.release();
+            count(upstream, operation, outcome);
+        }
+    }
+
+    private void count(String upstream, String operation, String outcome) {
+        if (metrics != null)
+            metrics.counter(MetricsRegistry.PREFIX + "upstream_calls_total", "Upstream calls by outcome",
+                "upstream", upstream, "operation", operation, "outcome", outcome).increment();
+    }
+
+    /*
+     * a socket timeout, maybe wrapped (e.g. by the cPath2 client)
+     */
+    private static boolean isTimeout(Throwable e) {
+        for (Throwable t = e; t != null; t = (t.getCause() == t) ? null : t.getCause()) {
+            if (t instanceof SocketTimeoutException)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return whether the upstream's circuit breaker lets calls through (closed, or half-open for a probe)
+     */
+    public boolean isAvailable(String upstream) {
+        CircuitBreaker breaker = breakers.get(upstream);
+        return breaker == null || breaker.getState() != CircuitBreaker.State.OPEN;
+    }
+
+    /**
+     * @return for each upstream: permits, active calls, waiting calls (by priority), dropped calls,
+     * and the circuit breaker's state, consecutive failures, times opened and rejected calls
+     */
+    public Map<String, Map<String, Object>> getStatistics() {
+        Map<String, Map<String, Object>> statistics = new LinkedHashMap<String, Map<String, Object>>();
+        for (Map.Entry<String, Lane> e : lanes.entrySet()) {
+            Map<String, Object> lane = e.getValue().getStatistics();
+            for (Map.Entry<String, Object> b : breakers.get(e.getKey()).getStatistics().entrySet())
+                lane.put("breaker" + Character.toUpperCase(b.getKey().charAt(0)) + b.getKey().substring(1), b.getValue());
+            statistics.put(e.getKey(), lane);
+        }
+        return statistics;
+    }
+
+    /*
+     * a waiting call
+     */
+    private static final class Ticket {
+        final long deadline;
+        boolean granted;
+
+        Ticket(long deadline) {
+            this.deadline = deadline;
+        }
+
+        boolean isExpired(long now) {
+            return deadline > 0 && now > deadline;
+        }
+    }
+
+    /*
+     * one upstream's permits and waiting calls: priority -> client -> tickets; the clients are in turn order
+     */
+    private static final class Lane {
+        private final int permits;
+        private int active;
+        private long dropped;
+        private final Map<RequestContext.Priority, LinkedHashMap<String, ArrayDeque<Ticket>>> waiting =
+            new EnumMap<RequestContext.Priority, LinkedHashMap<String, ArrayDeque<Ticket>>>(RequestContext.Priority.class);
+
+        Lane(int permits) {
+            this.permits = Math.max(1, permits);
+            for (RequestContext.Priority priority : RequestContext.Priority.values())
+                waiting.put(priority, new LinkedHashMap<String, ArrayDeque<Ticket>>());
+        }
+
+        synchronized void acquire(RequestContext context) throws IOException {
+            if (context.isExpired()) {
+                dropped++;
+                throw new DeadlineExceededException("Request deadline passed before the upstream call");
+            }
+            if (active < permits && isEmpty()) {
+                active++;
+                return;
+            }
+
+            Ticket ticket = new Ticket(context.getDeadline());
+            ArrayDeque<Ticket> queue = waiting.get(context.getPriority()).get(context.getClient());
+            if (queue == null) {
+                queue = new ArrayDeque<Ticket>();
+                waiting.get(context.getPriority()).put(context.getClient(), queue);
+            }
+            queue.add(ticket);
+            try {
+                while (!ticket.granted) {
+                    long now = System.currentTimeMillis();
+                    if (ticket.isExpired(now)) {
+                        remove(context, ticket);
+                        dropped++;
+                        throw new DeadlineExceededException("Request deadline passed while waiting for the upstream");
+                    }
+                    wait((ticket.deadline > 0) ? ticket.deadline - now + 1 : 0);
+                }
+            } catch (InterruptedException e) {
+                if (ticket.granted) {
+                    release();
+                } else {
+                    remove(context, ticket);
+                }
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the upstream");
+            }
+        }
+
+        synchronized void release() {
+            active--;
+            long now = System.currentTimeMillis();
+            while (active < permits) {
+                Ticket next = next();
+                if (next == null)
+                    break;
+                if (next.isExpired(now))
+                    continue; // its waiter drops it
+                next.granted = true;
+                active++;
+            }
+            notifyAll();
+        }
+
+        /*
+         * takes the next client's first ticket, in priority order, and moves the client to the end of the turn
+         */
+        private Ticket next() {
+            for (LinkedHashMap<String, ArrayDeque<Ticket>> clients : waiting.values()) {
+                Iterator<Map.Entry<String, ArrayDeque<Ticket>>> it = clients.entrySet().iterator();
+                if (!it.hasNext())
+                    continue;
+                Map.Entry<String, ArrayDeque<Ticket>> first = it.next();
+                it.remove();
+                Ticket ticket = first.getValue().poll();
+                if (!first.getValue().isEmpty())
+                    clients.put(first.getKey(), first.getValue());
+                return ticket;
+            }
+            return null;
+        }
+
+        private void remove(RequestContext context, Ticket ticket) {
+            Map<String, ArrayDeque<Ticket>> clients = waiting.get(context.getPriority());
+            ArrayDeque<Ticket> queue = clients.get(context.getClient());
+            if (queue != null && queue.remove(ticket) && queue.isEmpty())
+                clients.remove(context.getClient());
+        }
+
+        private boolean isEmpty() {
+            for (LinkedHashMap<String, ArrayDeque<Ticket>> clients : waiting.values())
+                if (!clients.isEmpty())
+                    return false;
+            return true;
+        }
+
+        synchronized Map<String, Object> getStatistics() {
+            Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+            statistics.put("permits", permits);
+            statistics.put("active", active);
+            for (Map.Entry<RequestContext.Priority, LinkedHashMap<String, ArrayDeque<Ticket>>> e : waiting.entrySet()) {
+                int count = 0;
+                for (ArrayDeque<Ticket> queue : e.getValue().values())
+                    count += queue.size();
+                statistics.put("waiting" + e.getKey().name().charAt(0) + e.getKey().name().substring(1).toLowerCase(),
+                    count);
+            }
+            statistics.put("dropped", dropped);
+            return statistics;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package org.pathwaycommons.pcviz.upstream;
+
+import java.io.IOException;
+
+/**
+ * An upstream call not made because the upstream's circuit breaker is open.
+ */
+public class UpstreamUnavailableException extends IOException {
+
+    public UpstreamUnavailableException(String message) {
+        super(message);
+    }
+}
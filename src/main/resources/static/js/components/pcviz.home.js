@@ -42,7 +42,7 @@ var HomeView = Backbone.View.extend({
 
         var redirectForNewNetwork = function() {
             var input = $("input[name='tagsinput']").val();
-            if(input)
+            if(input && !updateNetworkGenes($("#query-type").val(), input))
                 window.location.hash = $("#query-type").val() + "/" + input;
         };
 
@@ -63,6 +63,18 @@ var pcVizStyleSheet = cytoscape.stylesheet()
         .css({
             "line-color": "#1450b9"
         })
+        .selector("node[?ismeta]")
+        .css({
+            "content": "data(label)",
+            "width": "mapData(members, 2, 500, 40, 120)",
+            "height": "mapData(members, 2, 500, 30, 90)",
+            "background-color": "#bdc3c7"
+        })
+        .selector("edge[?ismeta]")
+        .css({
+            "line-style": "dashed",
+            "width": "mapData(members, 1, 100, 1, 6)"
+        })
         .selector(":selected")
         .css({
             "background-color": "#000",
@@ -100,9 +112,151 @@ var edgeTypes = [
     "controls-transport-of"
 ];
 
+// Replaces a meta-node (a collapsed group of nodes of a summarized network) with its members;
+// expandedGroups - the groups expanded so far (updated)
+function expandMetaNode( cy, networkType, genes, metaNode, expandedGroups ){
+	var group = metaNode.id().substring("cluster-".length);
+	$.getJSON("graph/" + networkType + "/" + genes + "/expand/" + group + "?expanded=" + expandedGroups.join(","),
+		function(delta)
+		{
+			var center = metaNode.position();
+			var radius = 20 * Math.sqrt(delta.add.nodes.length);
+			var elements = _.map(delta.add.nodes, function(node, i) {
+				var angle = 2 * Math.PI * i / delta.add.nodes.length;
+				return {
+					group: "nodes",
+					data: node.data,
+					position: { x: center.x + radius * Math.cos(angle), y: center.y + radius * Math.sin(angle) }
+				};
+			});
+			_.each(delta.add.edges, function(edge) {
+				elements.push({ group: "edges", data: edge.data });
+			});
+
+			cy.startBatch();
+			cy.remove(metaNode); // with its edges
+			cy.add(elements);
+			cy.endBatch();
+			expandedGroups.push(group);
+		}
+	);
+}
+
+// The network on display in the main view (to change its genes in place): cy, type, genes and key
+var displayedNetwork = null;
+
+// Applies a network delta (see /graph/delta) to the displayed network: removes the elements,
+// updates the nodes' data and adds the new elements (the nodes next to a neighbor already there)
+function applyNetworkDelta( cy, delta ){
+	var extent = cy.extent();
+	var positions = {};
+	_.each(delta.add.edges, function(edge) {
+		var source = cy.getElementById(edge.data.source);
+		var target = cy.getElementById(edge.data.target);
+		if (source.length > 0 && target.length == 0)
+			positions[edge.data.target] = positions[edge.data.target] || source.position();
+		else if (target.length > 0 && source.length == 0)
+			positions[edge.data.source] = positions[edge.data.source] || target.position();
+	});
+	var elements = _.map(delta.add.nodes, function(node) {
+		var near = positions[node.data.id]
+			|| { x: (extent.x1 + extent.x2) / 2, y: (extent.y1 + extent.y2) / 2 };
+		var angle = 2 * Math.PI * Math.random();
+		return {
+			group: "nodes",
+			data: node.data,
+			position: { x: near.x + 60 * Math.cos(angle), y: near.y + 60 * Math.sin(angle) }
+		};
+	});
+	_.each(delta.add.edges, function(edge) {
+		elements.push({ group: "edges", data: edge.data });
+	});
+
+	cy.startBatch();
+	_.each(delta.removeEdges, function(id) { cy.remove(cy.getElementById(id)); });
+	_.each(delta.removeNodes, function(id) { cy.remove(cy.getElementById(id)); }); // with their edges
+	_.each(delta.update.nodes, function(node) { cy.getElementById(node.data.id).data(node.data); });
+	cy.add(elements);
+	cy.endBatch();
+}
+
+// Shows the number of nodes and of the edges of each type
+function updateNetworkCounts( cy ){
+	(new NumberOfNodesView({ model: { numberOfNodes: cy.nodes().length }})).render();
+
+	_.each(edgeTypes, function(type)
+	{
+		var numOfEdges = cy.$("edge[type='" + type + "']").length;
+		if(numOfEdges > 0)
+		{
+			$("#" + type + "-count").text(numOfEdges);
+			$("#row-" + type).show();
+		}
+		else
+		{
+			$("#row-" + type).hide();
+		}
+	});
+}
+
+// Adds/removes query genes of the displayed neighborhood network in place, with a network delta,
+// instead of loading the whole new network; returns false when that cannot be done
+// (another network type, a summarized network with meta-nodes, or no network on display).
+// If the delta cannot be got (e.g. the server forgot the network), the whole network is loaded.
+function updateNetworkGenes( networkType, names ){
+	var network = displayedNetwork;
+	if (!network || !network.key || network.type != "neighborhood" || networkType != "neighborhood"
+		|| network.cy.nodes("[?ismeta]").length > 0)
+	{
+		return false;
+	}
+
+	var geneValidations = new GeneValidations({ genes: names.toUpperCase() });
+	geneValidations.fetch({
+		success: function()
+		{
+			(new GeneValidationsView({ model: geneValidations })).render();
+			var genes = _.uniq(geneValidations.getPrimaryNames().split(","));
+			var add = _.difference(genes, network.genes);
+			var remove = _.difference(network.genes, genes);
+			if (add.length == 0 && remove.length == 0)
+				return;
+
+			$.ajax({
+				url: "graph/delta/" + network.key,
+				data: { add: add.join(","), remove: remove.join(",") },
+				dataType: "json",
+				success: function(delta)
+				{
+					if (displayedNetwork !== network)
+						return; // another network is on display now
+					applyNetworkDelta(network.cy, delta);
+					network.cy.rankNodes(); // the delta has the importance of the nodes near the change only
+					network.key = delta.key;
+					network.genes = delta.genes;
+					updateNetworkCounts(network.cy);
+					(new NodesSliderView()).render();
+					Backbone.history.navigate(networkType + "/" + delta.genes.join(","), { trigger: false });
+				},
+				error: function()
+				{
+					window.location.hash = networkType + "/" + genes.join(",");
+				}
+			});
+		}
+	});
+	return true;
+}
+
 function getPcVizLayoutOptions( data ){
 	var numNodes = data.nodes.length;
 
+	// laid out on the server - just draw it
+	if (numNodes > 0 && _.every(data.nodes, function(node) { return node.position; }))
+	{
+		return { name: 'preset' };
+	}
+
 	// forces layout
 	var pcVizLayoutOptions = {
 		name: 'cose',
@@ -142,6 +296,7 @@ var NetworkView = Backbone.View.extend({
 		networkLoading.slideDown();
 		container.hide();
 		controlsContainer.hide();
+		displayedNetwork = null;
 		$(this.detailsInfo).hide();
 
 		// get gene names from the input field
@@ -223,8 +378,10 @@ var NetworkView = Backbone.View.extend({
                 // log this event on google analytics
                 ga('send', 'event', 'main', networkType, geneValidations.getPrimaryNames());
 
-                $.getJSON("graph/" + networkType + "/" + geneValidations.getPrimaryNames(),
-                    function(data)
+                // large networks come summarized (meta-nodes expand on tap)
+                var expandedGroups = [];
+                $.getJSON("graph/" + networkType + "/" + geneValidations.getPrimaryNames() + "?summary=true",
+                    function(data, textStatus, jqXHR)
                     {
                         networkLoading.hide();
                         container.html("");
@@ -264,6 +421,12 @@ var NetworkView = Backbone.View.extend({
                                 // add click listener on nodes
                                 cy.on('tap', 'node', function(evt){
                                     var node = this;
+                                    if(node.data("ismeta"))
+                                    {
+                                        expandMetaNode(cy, networkType, geneValidations.getPrimaryNames(),
+                                            node, expandedGroups);
+                                        return;
+                                    }
                                     self.updateNodeDetails(evt, node);
                                 });
 
@@ -289,25 +452,19 @@ var NetworkView = Backbone.View.extend({
                                     localStorage.setItem(node.id(), JSON.stringify(position));
                                 });
 
-                                // Run the ranker on this graph
-                                cy.rankNodes();
+                                // nodes come ranked by the server (run cy.rankNodes() to re-rank)
 
-                                (new NumberOfNodesView({ model: { numberOfNodes: cy.nodes().length }})).render();
-
-                                _.each(edgeTypes, function(type)
-								{
-                                    var numOfEdges = cy.$("edge[type='" + type + "']").length;
-                                    if(numOfEdges > 0)
-                                    {
-                                        $("#" + type + "-count").text(numOfEdges);
-                                    }
-                                    else
-                                    {
-                                        $("#row-" + type).hide();
-                                    }
-                                });
+                                updateNetworkCounts(cy);
 
                                 (new NodesSliderView()).render();
+
+                                // genes added/removed later are applied to this network in place
+                                displayedNetwork = {
+                                    cy: cy,
+                                    type: networkType,
+                                    genes: _.uniq(geneValidations.getPrimaryNames().split(",")),
+                                    key: jqXHR.getResponseHeader("X-Network-Key")
+                                };
                             } // end of ready: function()
                         }; // end of cyOptions
 
@@ -445,7 +602,9 @@ var EmbedNetworkView = Backbone.View.extend({
         var geneValidations = new GeneValidations({ genes: names });
         geneValidations.fetch({
             success: function() {
-                $.getJSON("graph/" + networkType + "/" + geneValidations.getPrimaryNames(),
+                // large networks come summarized (meta-nodes expand on tap)
+                var expandedGroups = [];
+                $.getJSON("graph/" + networkType + "/" + geneValidations.getPrimaryNames() + "?summary=true",
                     function(data)
                     {
                         networkLoading.hide();
@@ -495,6 +654,12 @@ var EmbedNetworkView = Backbone.View.extend({
                                 cy.on('tap', 'node', function(evt){
                                     // request json data from BioGene service
                                     var node = this;
+                                    if(node.data("ismeta"))
+                                    {
+                                        expandMetaNode(cy, networkType, geneValidations.getPrimaryNames(),
+                                            node, expandedGroups);
+                                        return;
+                                    }
                                     $.getJSON("biogene/human/" + node.id(), function(queryResult) {
                                         var geneInfo = queryResult.geneInfo[0];
                                         var nodeData = node.data();
@@ -519,8 +684,7 @@ var EmbedNetworkView = Backbone.View.extend({
                                 // This is to get rid of overlapping nodes and panControl
                                 cy.zoom(0.90).center();
 
-                                // Run the ranker on this graph
-                                cy.rankNodes();
+                                // nodes come ranked by the server (run cy.rankNodes() to re-rank)
                             } // end of ready function
                         }; // end of cyOptions
 
@@ -20,6 +20,7 @@
         cy.startBatch();
 
         // compute "importance" values for all nodes, edges using BFS alg.
+        // (the same as the server does - see NodeRanker; nodes not reached have none)
         eles.bfs("node[?isseed]", function(i, depth) {
                 var node = this;
                 node.data( options.attrName, Math.max(options.minScore, options.maxScore-depth) );
@@ -29,7 +30,7 @@
 
         // sort nodes by "importance", taking into account "altered" and "cited" values, if needed, in order.
         nodes.sort(function(a, b) {
-            var diff = b.data(options.attrName) - b.data(options.attrName);
+            var diff = (b.data(options.attrName) || 0) - (a.data(options.attrName) || 0);
 
             if(diff == 0) {
                 diff = b.data("altered") - a.data("altered");
@@ -0,0 +1,84 @@
+package org.pathwaycommons.pcviz.cache;
+
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class FileIndexTest {
+
+    @Test
+    public void testIndex() throws Exception {
+        Path dir = Files.createTempDirectory("pcviz-index");
+        Files.write(dir.resolve("TP53.json"), "{}".getBytes());
+        Files.createDirectories(dir.resolve("brca_mutations/brca_all"));
+        Files.write(dir.resolve("brca_mutations/brca_all/TP53"), "1".getBytes());
+        Files.write(dir.resolve("MDM2.json.tmp"), "{".getBytes());
+
+        FileIndex index = new FileIndex(dir, 3);
+        assertEquals(2, index.size());
+        assertTrue(index.contains("TP53.json"));
+        assertTrue(index.contains("brca_mutations/brca_all/TP53"));
+        assertFalse(index.contains("MDM2.json.tmp"));
+        assertNull(index.read("MDM2.json"));
+        assertArrayEquals("{}".getBytes(), index.read("TP53.json"));
+
+        Files.write(index.resolve("MDM2.json"), "[]".getBytes());
+        assertNull(index.read("MDM2.json")); // not added yet
+        index.add("MDM2.json");
+        assertArrayEquals("[]".getBytes(), index.read("MDM2.json"));
+
+        // deleted behind the index's back
+        Files.delete(index.resolve("TP53.json"));
+        assertTrue(index.contains("TP53.json"));
+        assertNull(index.read("TP53.json"));
+        assertFalse(index.contains("TP53.json"));
+
+        assertTrue(index.delete("MDM2.json"));
+        assertFalse(index.contains("MDM2.json"));
+        assertFalse(Files.exists(index.resolve("MDM2.json")));
+    }
+
+    @Test
+    public void testRebuild() throws Exception {
+        FileIndex index = new FileIndex(Files.createTempDirectory("pcviz-index"), 1);
+        for (int i = 0; i < 5000; i++)
+            index.add("gene" + i + ".json");
+        assertEquals(5000, index.size());
+        for (int i = 0; i < 5000; i++)
+            assertTrue(index.contains("gene" + i + ".json"));
+        assertFalse(index.contains("gene5000.json"));
+    }
+
+    @Test
+    public void testConcurrentAdd() throws Exception {
+        FileIndex index = new FileIndex(Files.createTempDirectory("pcviz-index"), 1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> adds = new ArrayList<Future<?>>();
+            for (int t = 0; t < 8; t++) {
+                final int thread = t;
+                adds.add(executor.submit(() -> {
+                    for (int i = 0; i < 20000; i++)
+                        index.add("gene" + thread + "_" + i + ".json");
+                }));
+            }
+            for (Future<?> add : adds)
+                add.get();
+        } finally {
+            executor.shutdownNow();
+        }
+        // none lost by the filter rebuilds on the way
+        assertEquals(160000, index.size());
+        for (int t = 0; t < 8; t++)
+            for (int i = 0; i < 20000; i++)
+                assertTrue(index.contains("gene" + t + "_" + i + ".json"));
+    }
+}
@@ -0,0 +1,49 @@
+package org.pathwaycommons.pcviz.cache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NegativeCacheTest {
+
+    @Test
+    public void testKinds() throws Exception {
+        NegativeCache cache = new NegativeCache(60000, 20, 100);
+        cache.put("biogene:human:TP35", NegativeCache.Kind.NO_DATA);
+        cache.put("pc:abc.neighborhood", NegativeCache.Kind.ERROR);
+        assertEquals(NegativeCache.Kind.NO_DATA, cache.get("biogene:human:TP35"));
+        assertEquals(NegativeCache.Kind.ERROR, cache.get("pc:abc.neighborhood"));
+        assertNull(cache.get("biogene:human:TP53"));
+
+        Thread.sleep(40);
+        assertNull(cache.get("pc:abc.neighborhood")); // errors are kept shortly
+        assertEquals(NegativeCache.Kind.NO_DATA, cache.get("biogene:human:TP35"));
+
+        cache.remove("biogene:human:TP35");
+        assertNull(cache.get("biogene:human:TP35"));
+    }
+
+    @Test
+    public void testPurge() {
+        NegativeCache cache = new NegativeCache(60000, 60000, 100);
+        for (int i = 0; i < 1000; i++)
+            cache.put("gene" + i, NegativeCache.Kind.NO_DATA);
+        assertTrue(cache.size() <= 100);
+        assertEquals(NegativeCache.Kind.NO_DATA, cache.get("gene999"));
+    }
+
+    @Test
+    public void testBloomFilter() {
+        BloomFilter filter = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++)
+            filter.put("in" + i);
+        for (int i = 0; i < 10000; i++)
+            assertTrue(filter.mightContain("in" + i));
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++)
+            if (filter.mightContain("out" + i))
+                falsePositives++;
+        assertTrue("false positives: " + falsePositives, falsePositives < 300);
+    }
+}
@@ -0,0 +1,258 @@
+package org.pathwaycommons.pcviz.cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.cache.Cache;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class TieredCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static String value(char c, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++)
+            sb.append(c);
+        return sb.toString();
+    }
+
+    @Test
+    public void testTiers() throws Exception {
+        DiskStore diskStore = new DiskStore(folder.newFolder("tiered").toPath(), 1 << 20);
+        // heap fits two 1000-char strings; off-heap - one
+        TieredCache cache = new TieredCache("test", new CacheBudget(4200, 1500, 3000, 0), diskStore);
+
+        String large = value('L', 2000);
+        cache.put("large", large); // over the max. heap entry size
+        assertEquals(0, cache.getHeapBytes());
+        assertEquals(2001, cache.getDiskBytes() - 4 - 6 - 8); // does not fit off-heap either
+
+        cache.put("a", value('a', 1000));
+        cache.put("b", value('b', 1000));
+        assertTrue(cache.getHeapBytes() > 0);
+        assertEquals(0, cache.getOffHeapBytes());
+
+        // the third one pushes "a" off-heap
+        cache.get("c"); // requested before, so it is admitted
+        cache.put("c", value('c', 1000));
+        assertEquals(1001, cache.getOffHeapBytes());
+        assertEquals(4, cache.size());
+
+        // a probe is neither a hit nor a miss
+        assertTrue(cache.containsKey("large"));
+        assertTrue(cache.containsKey("a"));
+        assertFalse(cache.containsKey("d"));
+        assertEquals(0, cache.getStatistics().getHits());
+        assertEquals(1, cache.getStatistics().getMisses()); // "c" above
+
+        assertEquals(large, cache.get("large").get());
+        assertEquals(value('a', 1000), cache.get("a").get());
+        assertEquals(value('b', 1000), cache.get("b").get());
+        assertEquals(value('c', 1000), cache.get(("c")).get());
+        assertNull(cache.get("d"));
+
+        CacheStatistics stats = cache.getStatistics();
+        assertEquals(4, stats.getPuts());
+        assertEquals(4, stats.getHits());
+        assertEquals(2, stats.getMisses());
+        assertEquals(1, stats.getDiskHits());
+
+        cache.evict("a");
+        assertNull(cache.get("a"));
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, diskStore.getBytes());
+    }
+
+    @Test
+    public void testAdmissionAndValues() throws Exception {
+        DiskStore diskStore = new DiskStore(folder.newFolder("tiered").toPath(), 0); // no disk tier
+        TieredCache cache = new TieredCache("test", new CacheBudget(2100, 0, 2100, 0), diskStore);
+
+        cache.put("popular", value('p', 1000));
+        for (int i = 0; i < 5; i++)
+            assertNotNull(cache.get("popular"));
+
+        // a one-off value does not push out the popular one
+        cache.put("rare", value('r', 1000));
+        assertNotNull(cache.get("popular"));
+        assertNull(cache.get("rare"));
+        assertEquals(1, cache.getStatistics().getRejections());
+        assertEquals(1, cache.getStatistics().getEvictions());
+
+        // non-string, serializable and null values
+        HashMap<String, Double> map = new HashMap<String, Double>();
+        map.put("altered", 0.5);
+        TieredCache objects = new TieredCache("objects", new CacheBudget(1 << 16, 1 << 16, 0, 0), diskStore);
+        objects.put("map", map); // goes off-heap
+        objects.put("null", null);
+        assertEquals(map, objects.get("map").get());
+        assertNotNull(objects.get("null"));
+        assertNull(objects.get("null").get());
+        assertEquals(map, objects.get("map", HashMap.class));
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        DiskStore diskStore = new DiskStore(folder.newFolder("tiered").toPath(), 1 << 20);
+        TieredCache cache = new TieredCache("test", new CacheBudget(1 << 16, 1 << 16, 1 << 10, 1), diskStore);
+        cache.put("key", "value");
+        Thread.sleep(10);
+        assertNull(cache.get("key"));
+        assertFalse(cache.containsKey("key"));
+        assertEquals(1, cache.size()); // kept as a stale value
+        assertEquals("new", cache.get("key", () -> "new"));
+        assertEquals("new", cache.get("key").get());
+    }
+
+    @Test
+    public void testStaleWhileRevalidate() throws Exception {
+        DiskStore diskStore = new DiskStore(folder.newFolder("tiered").toPath(), 1 << 20);
+        TieredCache cache = new TieredCache("test", new CacheBudget(1 << 16, 1 << 16, 1 << 10, 50), diskStore);
+        ExecutorService refresher = Executors.newSingleThreadExecutor();
+        cache.setRefresher(refresher, 100);
+        try {
+            cache.put("key", "old");
+            Thread.sleep(60);
+            Staleness.clear();
+
+            // failing
+            assertEquals("old", cache.get("key", () -> {
+                throw new IOException("down");
+            }));
+            assertTrue(Staleness.take() >= 50);
+            assertEquals(-1, Staleness.take());
+
+            // slow; the value is put when it comes
+            CountDownLatch loaded = new CountDownLatch(1);
+            assertEquals("old", cache.get("key", () -> {
+                Thread.sleep(300);
+                loaded.countDown();
+                return "new";
+            }));
+            assertTrue(Staleness.take() >= 0);
+            assertTrue(loaded.await(5, TimeUnit.SECONDS));
+            Thread.sleep(20);
+            assertEquals("new", cache.get("key").get());
+            assertEquals(2, cache.getStatistics().getStaleHits());
+
+            // no stale value - the failure is the caller's
+            try {
+                cache.get("other", () -> {
+                    throw new IOException("down");
+                });
+                fail("no stale value");
+            } catch (Cache.ValueRetrievalException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+        } finally {
+            refresher.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSharedLoad() throws Exception {
+        DiskStore diskStore = new DiskStore(folder.newFolder("tiered").toPath(), 1 << 20);
+        TieredCache cache = new TieredCache("test", new CacheBudget(1 << 16, 1 << 16, 1 << 10, 0), diskStore);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = executor.submit(() -> cache.get("key", () -> {
+                loads.incrementAndGet();
+                loading.countDown();
+                Thread.sleep(200);
+                return "value";
+            }));
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+            // misses while the first load is in progress, and waits for it
+            Future<String> second = executor.submit(() -> cache.get("key", () -> {
+                loads.incrementAndGet();
+                return "other";
+            }));
+            assertEquals("value", first.get());
+            assertEquals("value", second.get());
+            assertEquals(1, loads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // a shared failure is each caller's
+        try {
+            cache.get("failing", () -> {
+                throw new IOException("down");
+            });
+            fail("failed");
+        } catch (Cache.ValueRetrievalException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertEquals("value", cache.get("failing", () -> "value")); // not kept
+    }
+
+    /*
+     * a key that prints the same as the other ones
+     */
+    private static class Key implements Serializable {
+        final int id;
+
+        Key(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return 1;
+        }
+
+        @Override
+        public String toString() {
+            return "key";
+        }
+    }
+
+    @Test
+    public void testDiskKeys() throws Exception {
+        DiskStore diskStore = new DiskStore(folder.newFolder("tiered").toPath(), 1 << 20);
+        TieredCache cache = new TieredCache("test", new CacheBudget(0, 0, 0, 0), diskStore); // disk only
+        cache.put(new Key(1), "one");
+        assertEquals("one", cache.get(new Key(1)).get());
+        cache.put(new Key(2), "two");
+        assertEquals("two", cache.get(new Key(2)).get());
+        assertNull(cache.get(new Key(1))); // taken over by the other key, but never mistaken for it
+
+        cache.put("string", "value");
+        assertEquals(1, cache.evictIf(key -> key.equals("string")));
+        assertNull(cache.get("string"));
+
+        diskStore.close();
+        assertFalse(Files.exists(diskStore.getDir()));
+    }
+
+    @Test
+    public void testParseSize() {
+        assertEquals(512, CacheBudget.parseSize("512"));
+        assertEquals(512, CacheBudget.parseSize("512B"));
+        assertEquals(64L << 10, CacheBudget.parseSize("64KB"));
+        assertEquals(16L << 20, CacheBudget.parseSize("16mb"));
+        assertEquals(1L << 30, CacheBudget.parseSize(" 1GB "));
+    }
+}
@@ -0,0 +1,72 @@
+package org.pathwaycommons.pcviz.cbioportal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class CBioPortalAccessorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testConcurrentCacheWrites() throws Exception {
+        CBioPortalAccessor accessor = new CBioPortalAccessor();
+        accessor.setCacheDir(folder.getRoot().getPath());
+        String[] cases = new String[2000];
+        for (int i = 0; i < cases.length; i++)
+            cases[i] = "S" + i;
+        CaseList caseList = new CaseList("brca_all", "all samples", cases);
+        GeneticProfile profile = new GeneticProfile("brca_mutations", "mutations", "", "MUTATION_EXTENDED");
+
+        // the same gene, fetched for several requests at once
+        ExecutorService executor = Executors.newFixedThreadPool(9);
+        try {
+            List<Future<?>> writes = new ArrayList<Future<?>>();
+            for (int t = 0; t < 8; t++) {
+                String[] data = new String[cases.length];
+                Arrays.fill(data, "V600E-" + t);
+                writes.add(executor.submit(() -> {
+                    for (int i = 0; i < 20; i++)
+                        accessor.cacheData(data, "BRAF", profile, caseList);
+                    return null;
+                }));
+            }
+            // and read meanwhile
+            Future<Integer> partial = executor.submit(() -> {
+                int count = 0;
+                while (!writes.stream().allMatch(Future::isDone)) {
+                    String[] data = accessor.readDataInCache("BRAF", profile, caseList);
+                    if (data != null && (data.length != cases.length || !data[0].equals(data[data.length - 1])))
+                        count++;
+                }
+                return count;
+            });
+            for (Future<?> write : writes)
+                write.get();
+            assertEquals(0, (int) partial.get());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // one writer's data, whole
+        String[] data = accessor.readDataInCache("BRAF", profile, caseList);
+        assertEquals(cases.length, data.length);
+        for (String value : data)
+            assertEquals(data[0], value);
+        try (Stream<?> files = Files.walk(folder.getRoot().toPath())) {
+            assertFalse(files.anyMatch(file -> file.toString().endsWith(".tmp")));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.pathwaycommons.pcviz.cbioportal;
+
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class LocalStudyTest {
+
+    @Test
+    public void testAlterations() throws Exception {
+        Path dir = Paths.get(getClass().getResource("/study_es_0").toURI());
+        assertTrue(LocalStudy.isStudyDir(dir));
+
+        LocalStudy study = new LocalStudy(dir, new CBioPortalOptions());
+        assertEquals("study_es_0", study.getCancerStudy().getStudyId());
+        assertEquals(2, study.getCaseLists().size());
+        assertEquals(2, study.getGeneticProfiles().size());
+        assertEquals("study_es_0_gistic", study.getGeneticProfiles().get(0).getId());
+
+        CaseList all = study.getCaseListById("study_es_0_all");
+        assertEquals(4, all.size());
+        LocalStudyAlterationProvider provider = study.getAlterationProvider(all, study.getGeneticProfiles());
+
+        AlterationPack tp53 = provider.getAlterations("TP53");
+        assertArrayEquals(new Change[]{Change.INHIBITING, Change.NO_CHANGE, Change.NO_DATA, Change.NO_CHANGE},
+            tp53.get(Alteration.COPY_NUMBER));
+        // S1 and S3 were not sequenced
+        assertArrayEquals(new Change[]{Change.NO_DATA, Change.INHIBITING, Change.NO_DATA, Change.NO_CHANGE},
+            tp53.get(Alteration.MUTATION));
+        tp53.complete(Alteration.ANY);
+        // S1 and S2 altered, out of all the samples
+        assertEquals(0.5, tp53.calcAlteredRatio(Alteration.ANY), 0.0);
+
+        // the same gene by Entrez Gene ID
+        assertEquals(Arrays.asList(tp53.get(Alteration.MUTATION)),
+            Arrays.asList(provider.getAlterations("7157").get(Alteration.MUTATION)));
+
+        // not in the MAF: not mutated where sequenced
+        AlterationPack mdm2 = provider.getAlterations("MDM2");
+        assertArrayEquals(new Change[]{Change.NO_DATA, Change.NO_CHANGE, Change.NO_DATA, Change.NO_CHANGE},
+            mdm2.get(Alteration.MUTATION));
+        mdm2.complete(Alteration.ANY);
+        assertEquals(0.25, mdm2.calcAlteredRatio(Alteration.ANY), 0.0);
+
+        // no CNA data; a missense mutation in S4
+        AlterationPack pik3ca = provider.getAlterations("PIK3CA");
+        assertNull(pik3ca.get(Alteration.COPY_NUMBER));
+        assertArrayEquals(new Change[]{Change.NO_DATA, Change.NO_CHANGE, Change.NO_DATA, Change.UNKNOWN_CHANGE},
+            pik3ca.get(Alteration.MUTATION));
+
+        // the other case list has a different order of the same samples
+        CaseList sequenced = study.getCaseListById("study_es_0_sequenced");
+        AlterationPack tp53seq = study.getAlterationProvider(sequenced, study.getGeneticProfiles()).getAlterations("TP53");
+        assertArrayEquals(new Change[]{Change.NO_CHANGE, Change.INHIBITING}, tp53seq.get(Alteration.MUTATION));
+    }
+}
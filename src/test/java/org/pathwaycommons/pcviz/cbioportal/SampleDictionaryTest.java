@@ -0,0 +1,51 @@
+package org.pathwaycommons.pcviz.cbioportal;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SampleDictionaryTest {
+
+    @Test
+    public void testSharedDictionary() {
+        SampleDictionary samples = new SampleDictionary();
+        CaseList all = new CaseList("all", "All", samples, new String[]{"S1", "S2", "S3", "S4"});
+        CaseList sequenced = new CaseList("sequenced", "Sequenced", samples, new String[]{"S4", "S2"});
+
+        // the same sample gets the same id in both lists
+        assertEquals(4, samples.size());
+        assertArrayEquals(new int[]{0, 1, 2, 3}, all.getSampleIds());
+        assertArrayEquals(new int[]{3, 1}, sequenced.getSampleIds());
+        assertArrayEquals(new String[]{"S4", "S2"}, sequenced.getCases());
+        assertEquals(-1, samples.indexOf("S5"));
+
+        assertArrayEquals(new int[]{-1, 1, -1, 0}, sequenced.getPositions());
+
+        // a sample added later by another list
+        new CaseList("other", "Other", samples, new String[]{"S5"});
+        assertEquals(5, sequenced.getPositions().length);
+        assertEquals(-1, sequenced.getPositions()[4]);
+    }
+
+    @Test
+    public void testAlign() {
+        SampleDictionary samples = new SampleDictionary();
+        CaseList caseList = new CaseList("all", "All", samples, new String[]{"S1", "S2", "S3"});
+
+        // data columns in another order, with a sample that is not in the list, and S3 missing
+        String[] data = CBioPortalAccessor.align(new String[]{"S2", "X", "S1"}, new String[]{"V600E", "R175H", "NaN"},
+            caseList);
+        assertArrayEquals(new String[]{"NaN", "V600E", CBioPortalAccessor.MISSING}, data);
+
+        CBioPortalOptions options = new CBioPortalOptions();
+        // not mutated
+        assertEquals(Change.NO_CHANGE, CBioPortalAccessor.inferChange(Alteration.MUTATION, data[0], options));
+        assertEquals(Change.UNKNOWN_CHANGE, CBioPortalAccessor.inferChange(Alteration.MUTATION, data[1], options));
+        // not profiled, for any profile
+        for (Alteration alteration : new Alteration[]{Alteration.MUTATION, Alteration.COPY_NUMBER,
+            Alteration.EXPRESSION, Alteration.METHYLATION, Alteration.PROTEIN_LEVEL})
+            assertEquals(Change.NO_DATA, CBioPortalAccessor.inferChange(alteration, data[2], options));
+
+        assertNull(CBioPortalAccessor.align(new String[]{"X"}, new String[]{"1"}, caseList));
+    }
+}
@@ -0,0 +1,88 @@
+package org.pathwaycommons.pcviz.cluster;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ClusterCacheTest {
+
+    @Test
+    public void testHashRing() {
+        List<String> nodes = Arrays.asList("http://a", "http://b", "http://c");
+        HashRing ring = new HashRing(nodes, 128);
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        Map<String, String> owners = new HashMap<String, String>();
+        for (int i = 0; i < 3000; i++) {
+            String owner = ring.getOwner("network" + i);
+            assertEquals(owner, new HashRing(nodes, 128).getOwner("network" + i)); // same on every node
+            owners.put("network" + i, owner);
+            counts.merge(owner, 1, Integer::sum);
+        }
+        for (String node : nodes)
+            assertTrue(counts.get(node) > 600); // roughly even
+
+        // without "c", only c's keys move
+        HashRing smaller = new HashRing(Arrays.asList("http://a", "http://b"), 128);
+        for (Map.Entry<String, String> e : owners.entrySet()) {
+            if (!e.getValue().equals("http://c"))
+                assertEquals(e.getValue(), smaller.getOwner(e.getKey()));
+            assertEquals(smaller.getOwner(e.getKey()), ring.getOwner(e.getKey(), Collections.singleton("http://c")));
+        }
+    }
+
+    @Test
+    public void testFetchFromPeer() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext(ClusterCache.RESULT_PATH, exchange -> {
+            byte[] body = exchange.getRequestURI().getQuery().getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        String peer = "http://localhost:" + server.getAddress().getPort();
+        String self = "http://localhost:1";
+
+        try {
+            ClusterCache cache = new ClusterCache(self + "/," + peer, self, 2000, 30);
+            assertTrue(cache.isEnabled());
+
+            String peerKey = null, selfKey = null;
+            for (int i = 0; peerKey == null || selfKey == null; i++) {
+                String key = "key" + i;
+                if (peer.equals(cache.getOwner(key)))
+                    peerKey = key;
+                else
+                    selfKey = key;
+            }
+
+            assertEquals("type=neighborhood&genes=MDM2,TP53", new String(
+                cache.fetch(peerKey, "NEIGHBORHOOD", Arrays.asList("MDM2", "TP53")), StandardCharsets.UTF_8));
+            assertNull(cache.fetch(selfKey, "NEIGHBORHOOD", Arrays.asList("MDM2", "TP53")));
+            // a request from a peer is never forwarded
+            final String key = peerKey;
+            assertNull(ClusterCache.servePeer(() -> cache.fetch(key, "NEIGHBORHOOD", Arrays.asList("TP53"))));
+
+            // the owner is down - compute locally, and do not ask it again for a while
+            server.stop(0);
+            assertNull(cache.fetch(peerKey, "NEIGHBORHOOD", Arrays.asList("TP53")));
+            assertEquals(self, cache.getOwner(peerKey));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testDisabled() {
+        ClusterCache cache = new ClusterCache("", "", 1000, 30);
+        assertFalse(cache.isEnabled());
+        assertNull(cache.fetch("key", "NEIGHBORHOOD", Arrays.asList("TP53")));
+    }
+}
@@ -0,0 +1,58 @@
+package org.pathwaycommons.pcviz.metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MetricsRegistryTest {
+
+    @Test
+    public void testHistogram() {
+        for (long micros : new long[]{0, 1, 7, 8, 9, 15, 16, 100, 1023, 1024, 123456789, 1L << 35}) {
+            int index = Histogram.index(micros);
+            assertTrue(micros + " < " + Histogram.upperBound(index), micros < Histogram.upperBound(index));
+            assertTrue(index == 0 || micros >= Histogram.upperBound(index - 1));
+            // within 12.5%
+            assertTrue(Histogram.upperBound(index) - 1 - micros <= Math.max(1, micros / 8));
+        }
+        assertEquals(Histogram.BUCKETS - 1, Histogram.index(Long.MAX_VALUE));
+
+        Histogram histogram = new Histogram();
+        for (int ms = 1; ms <= 100; ms++)
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(ms));
+        assertEquals(100, histogram.getCount());
+        assertEquals(5.05, histogram.getSumSeconds(), 1e-9);
+        long p50 = histogram.getValueAtPercentile(50);
+        assertTrue("p50: " + p50, p50 >= 50000 && p50 <= 50000 * 9 / 8);
+        long p99 = histogram.getValueAtPercentile(99);
+        assertTrue("p99: " + p99, p99 >= 99000 && p99 <= 99000 * 9 / 8);
+    }
+
+    @Test
+    public void testScrape() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        metrics.counter("pcviz_test_total", "Test \"counter\"", "kind", "a\"b").add(3);
+        metrics.counter("pcviz_test_total", "Test \"counter\"", "kind", "a\"b").increment();
+        metrics.histogram("pcviz_test_seconds", "Test latency", "endpoint", "/graph").record(3_000_000);
+        metrics.register(samples -> samples.gauge("pcviz_test_bytes", "Test size", 1.5, "tier", "heap"));
+
+        String text = metrics.scrape();
+        assertTrue(text, text.contains("# TYPE pcviz_test_total counter\npcviz_test_total{kind=\"a\\\"b\"} 4\n"));
+        assertTrue(text, text.contains("# TYPE pcviz_test_seconds histogram\n"));
+        assertTrue(text, text.contains("pcviz_test_seconds_bucket{endpoint=\"/graph\",le=\"0.002048\"} 0\n"));
+        assertTrue(text, text.contains("pcviz_test_seconds_bucket{endpoint=\"/graph\",le=\"0.004096\"} 1\n"));
+        assertTrue(text, text.contains("pcviz_test_seconds_bucket{endpoint=\"/graph\",le=\"+Inf\"} 1\n"));
+        assertTrue(text, text.contains("pcviz_test_seconds_sum{endpoint=\"/graph\"} 0.003\n"));
+        assertTrue(text, text.contains("pcviz_test_seconds_count{endpoint=\"/graph\"} 1\n"));
+        assertTrue(text, text.contains("# TYPE pcviz_test_bytes gauge\npcviz_test_bytes{tier=\"heap\"} 1.5\n"));
+
+        try {
+            metrics.histogram("pcviz_test_total", "Not a histogram");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // a counter
+        }
+    }
+}
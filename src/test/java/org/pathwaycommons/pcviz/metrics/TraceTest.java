@@ -0,0 +1,87 @@
+package org.pathwaycommons.pcviz.metrics;
+
+import org.junit.Test;
+import org.pathwaycommons.pcviz.upstream.RequestContext;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class TraceTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSpans() throws Exception {
+        Histogram histogram = new Histogram();
+        try (Trace.Span span = Trace.span("untraced", histogram)) {
+            assertNull(Trace.currentSpan());
+        }
+        assertEquals(1, histogram.getCount());
+
+        Trace trace = new Trace("GET /graph/neighborhood/TP53", "127.0.0.1");
+        RequestContext.set(new RequestContext("127.0.0.1", RequestContext.Priority.INTERACTIVE, 0, trace));
+        ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "worker"));
+        try {
+            try (Trace.Span span = Trace.span("createNetwork")) {
+                try (Trace.Span parse = Trace.span("parse", histogram)) {
+                    Thread.sleep(2);
+                }
+                // the worker's span is nested in the one that submitted the work
+                executor.submit(RequestContext.wrap(() -> {
+                    try (Trace.Span upstream = Trace.span("upstream")) {
+                        return null;
+                    }
+                })).get();
+            }
+            assertSame(trace.getRoot(), Trace.currentSpan());
+        } finally {
+            RequestContext.clear();
+            executor.shutdownNow();
+        }
+        assertNull(Trace.currentSpan());
+        assertEquals(2, histogram.getCount());
+
+        trace.finish(200);
+        Trace.setCurrentSpan(trace.getRoot());
+        Trace.span("late").close(); // after the request; ignored
+        Trace.setCurrentSpan(null);
+
+        Map<String, Object> map = trace.toMap();
+        assertEquals("GET /graph/neighborhood/TP53", map.get("request"));
+        assertEquals(200, map.get("status"));
+        List<Map<String, Object>> spans = (List<Map<String, Object>>) map.get("spans");
+        assertEquals(3, spans.size());
+        assertEquals("createNetwork", spans.get(0).get("name"));
+        assertEquals(1, spans.get(0).get("depth"));
+        assertEquals("parse", spans.get(1).get("name"));
+        assertEquals(2, spans.get(1).get("depth"));
+        assertTrue((Double) spans.get(1).get("durationMs") >= 2);
+        assertEquals("upstream", spans.get(2).get("name"));
+        assertEquals(2, spans.get(2).get("depth"));
+        assertEquals("worker", spans.get(2).get("thread"));
+    }
+
+    @Test
+    public void testTracer() throws Exception {
+        Tracer tracer = new Tracer(5, 2);
+        tracer.finish(new Trace("GET /fast", "a"), 200);
+        assertTrue(tracer.getSlowTraces().isEmpty());
+
+        for (String name : new String[]{"GET /slow1", "GET /slow2", "GET /slow3"}) {
+            Trace trace = new Trace(name, "a");
+            Thread.sleep(6);
+            tracer.finish(trace, 200);
+        }
+        assertEquals(3, tracer.getCount());
+        List<Map<String, Object>> slow = tracer.getSlowTraces();
+        assertEquals(2, slow.size());
+        assertEquals("GET /slow3", slow.get(0).get("request"));
+        assertEquals("GET /slow2", slow.get(1).get("request"));
+
+        tracer.clear();
+        assertTrue(tracer.getSlowTraces().isEmpty());
+    }
+}
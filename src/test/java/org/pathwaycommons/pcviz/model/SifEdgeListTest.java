@@ -0,0 +1,31 @@
+package org.pathwaycommons.pcviz.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SifEdgeListTest {
+
+    @Test
+    public void testParseAndBytes() throws Exception {
+        String txt = "PARTICIPANT_A\tINTERACTION_TYPE\tPARTICIPANT_B\tINTERACTION_DATA_SOURCE\tINTERACTION_PUBMED_ID\tPATHWAY_NAMES\n"
+            + "MDM2\tcontrols-state-change-of\tTP53\treactome;pid\t123;456\tp53 pathway\n"
+            + "TP53\tcontrols-expression-of\tMDM2\tpid\t\t\n"
+            + "\n"
+            + "PARTICIPANT\tPARTICIPANT_TYPE\n"
+            + "TP53\tProteinReference\n";
+
+        SifEdgeList sif = SifEdgeList.fromBytes(SifEdgeList.parse(txt).toBytes());
+        assertEquals(2, sif.size());
+        assertEquals("MDM2", sif.getSource(0));
+        assertEquals("controls-state-change-of", sif.getType(0));
+        assertEquals("TP53", sif.getTarget(0));
+        assertArrayEquals(new String[]{"reactome", "pid"}, sif.getDataSources(0));
+        assertArrayEquals(new String[]{"123", "456"}, sif.getPublications(0));
+        assertEquals("TP53", sif.getSource(1));
+        assertArrayEquals(new String[]{""}, sif.getPublications(1)); // as "".split(";")
+
+        assertEquals(0, SifEdgeList.parse(null).size());
+        assertEquals(0, SifEdgeList.fromBytes(SifEdgeList.parse("").toBytes()).size());
+    }
+}
@@ -0,0 +1,67 @@
+package org.pathwaycommons.pcviz.service;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pathwaycommons.pcviz.cache.CacheBudget;
+import org.pathwaycommons.pcviz.cache.DiskStore;
+import org.pathwaycommons.pcviz.cache.NegativeCache;
+import org.pathwaycommons.pcviz.cache.TieredCacheManager;
+import org.springframework.cache.Cache;
+import org.springframework.cache.interceptor.SimpleKey;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BioGeneServiceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /*
+     * BioGene has data for TP53 only; the requests are counted
+     */
+    static class TestBioGeneService extends BioGeneService {
+        final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+
+        TestBioGeneService(String cacheDir, NegativeCache negativeCache) {
+            super("http://biogene/", cacheDir, negativeCache);
+        }
+
+        @Override
+        String fetch(String url) throws IOException {
+            requests.add(url);
+            return url.contains("query=TP53&")
+                ? "{\"returnCode\":\"SUCCESS\",\"count\":1,\"geneInfo\":[{\"geneSymbol\":\"TP53\"}]}"
+                : "{\"returnCode\":\"NO_DATA\",\"count\":0,\"geneInfo\":[]}";
+        }
+    }
+
+    @Test
+    public void testNoDataNotCached() throws Exception {
+        TestBioGeneService service = new TestBioGeneService(folder.newFolder("cache").getPath(),
+            new NegativeCache(200, 200, 100));
+        service.init();
+        Cache cache = new TieredCacheManager(new DiskStore(folder.newFolder("tiered").toPath(), 1 << 20),
+            new CacheBudget(1 << 16, 0, 1 << 10, 0)).getCache("bioGeneCache");
+
+        // as @Cacheable(sync = true) gets the data
+        assertNull(cache.get(new SimpleKey("TP35", "human"), () -> service.getData("TP35", "human")));
+        assertNull(cache.get(new SimpleKey("TP35", "human"), () -> service.getData("TP35", "human")));
+        assertEquals(1, service.requests.size()); // remembered by the negative cache only
+        assertNull(cache.get(new SimpleKey("TP35", "human")));
+
+        Thread.sleep(300);
+        assertNull(cache.get(new SimpleKey("TP35", "human"), () -> service.getData("TP35", "human")));
+        assertEquals(2, service.requests.size()); // requested again, once forgotten
+
+        String data = cache.get(new SimpleKey("TP53", "human"), () -> service.getData("TP53", "human"));
+        assertTrue(data.contains("SUCCESS"));
+        assertEquals(data, cache.get(new SimpleKey("TP53", "human"), () -> service.getData("TP53", "human")));
+        assertEquals(3, service.requests.size());
+    }
+}
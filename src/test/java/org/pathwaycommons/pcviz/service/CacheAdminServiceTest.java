@@ -0,0 +1,51 @@
+package org.pathwaycommons.pcviz.service;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pathwaycommons.pcviz.cache.CacheBudget;
+import org.pathwaycommons.pcviz.cache.DiskStore;
+import org.pathwaycommons.pcviz.cache.TieredCacheManager;
+import org.springframework.cache.Cache;
+
+import static org.junit.Assert.*;
+
+public class CacheAdminServiceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testInvalidate() throws Exception {
+        TieredCacheManager cacheManager = new TieredCacheManager(
+            new DiskStore(folder.newFolder("tiered").toPath(), 1 << 20), new CacheBudget(1 << 16, 0, 1 << 10, 0));
+        Cache cache = cacheManager.getCache("test");
+        cache.put("brca_tcga/cna,mutation/TP53", "a");
+        cache.put("brca_tcga/cna,mutation/MDM2", "b");
+        cache.put("gbm_tcga/cna/TP53", "c");
+        cache.put("gbm_tcga/cna/TP53BP1", "d");
+
+        CacheAdminService service = new CacheAdminService(cacheManager, null, null);
+        assertEquals(4L, service.getStatistics("test").get("size"));
+
+        assertEquals(2, service.invalidate("test", null, null, "tp53"));
+        assertNull(cache.get("gbm_tcga/cna/TP53"));
+        assertNotNull(cache.get("gbm_tcga/cna/TP53BP1"));
+
+        assertEquals(1, service.invalidate("test", null, "brca_tcga/", null));
+        assertEquals(1, service.invalidate("test", "gbm_tcga/cna/TP53BP1", null, null));
+        assertEquals(0L, service.getStatistics("test").get("size"));
+
+        try {
+            service.invalidate("test", "a", "b", null);
+            fail("more than one criterion");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void testDisplayKey() {
+        assertEquals("NEIGHBORHOOD,[MDM2, TP53]", CacheAdminService.displayKey("SimpleKey [NEIGHBORHOOD,[MDM2, TP53]]"));
+        assertEquals("TP53", CacheAdminService.displayKey("TP53"));
+    }
+}
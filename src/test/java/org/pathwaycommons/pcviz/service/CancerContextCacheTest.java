@@ -0,0 +1,126 @@
+package org.pathwaycommons.pcviz.service;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pathwaycommons.pcviz.cache.CacheBudget;
+import org.pathwaycommons.pcviz.cache.DiskStore;
+import org.pathwaycommons.pcviz.cache.TieredCacheManager;
+import org.pathwaycommons.pcviz.cbioportal.*;
+import org.pathwaycommons.pcviz.model.PropertyKey;
+import org.springframework.cache.Cache;
+
+import java.io.UncheckedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+public class CancerContextCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TieredCacheManager cacheManager;
+
+    @Before
+    public void setUp() throws Exception {
+        cacheManager = new TieredCacheManager(
+            new DiskStore(folder.newFolder("tiered").toPath(), 1 << 20), new CacheBudget(1 << 16, 0, 1 << 10, 0));
+    }
+
+    /*
+     * alterations by a function of the gene symbol
+     */
+    static class TestProvider extends AlterationProviderAdaptor {
+        private final Function<String, AlterationPack> alterations;
+
+        TestProvider(Function<String, AlterationPack> alterations) {
+            this.alterations = alterations;
+            memory = new HashMap<String, AlterationPack>();
+        }
+
+        @Override
+        public AlterationPack getAlterations(Node node) {
+            return null;
+        }
+
+        @Override
+        public AlterationPack getAlterations(String id) {
+            return alterations.apply(id);
+        }
+    }
+
+    static AlterationPack mutated(String gene, Change... changes) {
+        AlterationPack pack = new AlterationPack(gene);
+        pack.put(Alteration.MUTATION, changes);
+        return pack;
+    }
+
+    CancerContextService service(AlterationProviderAdaptor provider) {
+        return new CancerContextService(null, cacheManager, null, null, null) {
+            @Override
+            AlterationProviderAdaptor getAlterationProvider(String studyId, String profiles) {
+                return provider;
+            }
+        };
+    }
+
+    @Test
+    public void testFailureNotCached() throws Exception {
+        AtomicBoolean down = new AtomicBoolean(true);
+        CancerContextService service = service(new TestProvider(gene -> {
+            if (gene.equals("NOSUCHGENE"))
+                return null;
+            if (gene.equals("TP53") && down.get())
+                throw new UncheckedIOException(new SocketTimeoutException("Read timed out"));
+            return mutated(gene, Change.INHIBITING, Change.NO_CHANGE);
+        }));
+        Cache cache = cacheManager.getCache(CancerContextService.CONTEXT_CACHE);
+
+        HashMap<String, HashMap<String, Double>> context = service.loadContext("study", "mutation", "TP53,NOSUCHGENE,MDM2");
+        assertEquals(Collections.singleton("MDM2"), context.keySet());
+        assertNull(cache.get("study/mutation/TP53"));
+        // known to have no data
+        assertEquals(Collections.emptyMap(), cache.get("study/mutation/NOSUCHGENE").get());
+
+        down.set(false);
+        context = service.loadContext("study", "mutation", "TP53,NOSUCHGENE,MDM2");
+        assertEquals(2, context.size());
+        assertEquals(0.5, context.get("TP53").get(PropertyKey.ALTERED.toString()), 0.0);
+        assertNotNull(cache.get("study/mutation/TP53"));
+    }
+
+    @Test
+    public void testCanonicalKeys() throws Exception {
+        assertEquals("cna,mutation", CancerContextService.canonicalProfiles("mutation,cna"));
+        assertEquals("cna,mutation", CancerContextService.canonicalProfiles(" CNA , Mutation "));
+        assertEquals("cna,exp,mutation", CancerContextService.canonicalProfiles("exp,mutation,cna,exp"));
+        assertEquals(Arrays.asList("TP53", "MDM2"),
+            new ArrayList<String>(CancerContextService.canonicalGenes(" tp53 ,MDM2,, Tp53")));
+
+        AtomicInteger calls = new AtomicInteger();
+        CancerContextService service = service(new TestProvider(gene -> {
+            calls.incrementAndGet();
+            return mutated(gene, Change.INHIBITING, Change.NO_CHANGE);
+        }));
+
+        assertEquals(2, service.loadContext("study", "mutation,cna", "TP53,MDM2").size());
+        assertEquals(2, calls.get());
+        // the same selection, differently written
+        assertEquals(2, service.loadContext("study", " CNA,mutation", " mdm2 , tp53 ").size());
+        assertEquals(2, service.loadContext("study", "cna, Mutation", "MDM2,TP53,mdm2").size());
+        assertEquals(2, calls.get());
+
+        Cache cache = cacheManager.getCache(CancerContextService.CONTEXT_CACHE);
+        assertNotNull(cache.get("study/cna,mutation/TP53"));
+        assertNotNull(cache.get("study/cna,mutation/MDM2"));
+    }
+}
@@ -0,0 +1,166 @@
+package org.pathwaycommons.pcviz.service;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pathwaycommons.pcviz.cache.CacheBudget;
+import org.pathwaycommons.pcviz.cache.DiskStore;
+import org.pathwaycommons.pcviz.cache.TieredCacheManager;
+import org.pathwaycommons.pcviz.cbioportal.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CancerContextMetadataTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TieredCacheManager cacheManager;
+    private TestAccessor accessor;
+    private CancerContextService service;
+
+    /*
+     * answers with the metadata set, or fails if none is
+     */
+    static class TestAccessor extends CBioPortalAccessor {
+        final AtomicInteger calls = new AtomicInteger();
+        volatile PortalMetadata portal;
+
+        @Override
+        public List<CancerStudy> getAllCancerStudies() throws IOException {
+            return fetchMetadata().getCancerStudies();
+        }
+
+        @Override
+        public PortalMetadata fetchMetadata() throws IOException {
+            calls.incrementAndGet();
+            if (portal == null)
+                throw new IOException("cBioPortal is down");
+            return portal;
+        }
+    }
+
+    static PortalMetadata metadata(String... studyIds) {
+        List<CancerStudy> studies = new ArrayList<CancerStudy>();
+        Map<String, List<CaseList>> caseLists = new HashMap<String, List<CaseList>>();
+        Map<String, List<GeneticProfile>> profiles = new HashMap<String, List<GeneticProfile>>();
+        for (String id : studyIds) {
+            studies.add(new CancerStudy(id, id, "study " + id));
+            caseLists.put(id, Collections.singletonList(
+                new CaseList(id + "_all", "all samples", new String[]{id + "-S1", id + "-S2"})));
+            profiles.put(id, Collections.singletonList(
+                new GeneticProfile(id + "_mutations", "mutations", "", "MUTATION_EXTENDED")));
+        }
+        return new PortalMetadata(studies, caseLists, profiles);
+    }
+
+    private static List<String> ids(List<CancerStudy> studies) {
+        List<String> ids = new ArrayList<String>();
+        for (CancerStudy study : studies)
+            ids.add(study.getStudyId());
+        return ids;
+    }
+
+    private Path snapshot() {
+        return folder.getRoot().toPath().resolve("cbioportal").resolve(PortalMetadata.FILENAME);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        cacheManager = new TieredCacheManager(
+            new DiskStore(folder.newFolder("tiered").toPath(), 1 << 20), new CacheBudget(1 << 16, 0, 1 << 10, 0));
+        Files.createDirectories(snapshot().getParent());
+        PortalMetadata.write(metadata("brca", "gbm").toBytes(), snapshot());
+
+        accessor = new TestAccessor();
+        service = new CancerContextService(accessor, cacheManager, folder.getRoot().getPath());
+        service.init();
+    }
+
+    @After
+    public void tearDown() {
+        service.destroy();
+    }
+
+    @Test
+    public void testSnapshotLoaded() throws Exception {
+        assertEquals(Arrays.asList("brca", "gbm"), ids(accessor.getCancerStudies()));
+        CancerStudy brca = accessor.getCancerStudyById("brca");
+        assertEquals("brca_all", accessor.getCaseLists(brca).get(0).getId());
+        assertEquals("brca_mutations", accessor.getGeneticProfiles(brca).get(0).getId());
+        // nothing asked from the portal, and the refresh is not due for a day
+        Thread.sleep(100);
+        assertEquals(0, accessor.calls.get());
+    }
+
+    @Test
+    public void testFailedRefresh() throws Exception {
+        byte[] before = Files.readAllBytes(snapshot());
+        cacheManager.getCache("cancerContextStudiesCache").put("studies", "[brca, gbm]");
+
+        service.refreshMetadata(); // the portal is down
+        accessor.portal = metadata(); // no studies
+        service.refreshMetadata();
+
+        assertEquals(2, accessor.calls.get());
+        assertEquals(Arrays.asList("brca", "gbm"), ids(accessor.getCancerStudies()));
+        assertNotNull(accessor.getCaseLists(accessor.getCancerStudyById("gbm")));
+        assertArrayEquals(before, Files.readAllBytes(snapshot()));
+        assertNotNull(cacheManager.getCache("cancerContextStudiesCache").get("studies"));
+    }
+
+    @Test
+    public void testRefresh() throws Exception {
+        cacheManager.getCache("cancerContextStudiesCache").put("studies", "[brca, gbm]");
+        accessor.portal = metadata("brca", "luad");
+        service.refreshMetadata();
+
+        assertEquals(Arrays.asList("brca", "luad"), ids(accessor.getCancerStudies()));
+        assertNull(accessor.getCancerStudyById("gbm"));
+        assertEquals("luad_all", accessor.getCaseLists(accessor.getCancerStudyById("luad")).get(0).getId());
+        assertArrayEquals(metadata("brca", "luad").toBytes(), Files.readAllBytes(snapshot()));
+        assertNull(cacheManager.getCache("cancerContextStudiesCache").get("studies"));
+        assertEquals(Arrays.asList("brca", "luad"), ids(PortalMetadata.read(snapshot()).getCancerStudies()));
+    }
+
+    @Test
+    public void testRefreshIsAtomic() throws Exception {
+        List<String> small = Arrays.asList("brca", "gbm");
+        List<String> large = Arrays.asList("acc", "blca", "luad", "prad");
+        AtomicBoolean done = new AtomicBoolean();
+        List<List<String>> seen = Collections.synchronizedList(new ArrayList<List<String>>());
+        Thread reader = new Thread(() -> {
+            while (!done.get()) {
+                try {
+                    List<String> studies = ids(accessor.getCancerStudies());
+                    if (!studies.equals(small) && !studies.equals(large))
+                        seen.add(studies);
+                } catch (RuntimeException e) { // e.g., changed while read
+                    seen.add(Collections.singletonList(e.toString()));
+                }
+            }
+        });
+        reader.start();
+        try {
+            for (int i = 0; i < 200; i++) {
+                accessor.portal = (i % 2 == 0) ? metadata("acc", "blca", "luad", "prad") : metadata("brca", "gbm");
+                service.refreshMetadata();
+            }
+        } finally {
+            done.set(true);
+            reader.join();
+        }
+        // never a half-replaced list
+        assertTrue(seen.toString(), seen.isEmpty());
+        assertEquals(small, ids(accessor.getCancerStudies()));
+    }
+}
@@ -0,0 +1,94 @@
+package org.pathwaycommons.pcviz.service;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pathwaycommons.pcviz.cache.CacheBudget;
+import org.pathwaycommons.pcviz.cache.DiskStore;
+import org.pathwaycommons.pcviz.cache.TieredCacheManager;
+import org.pathwaycommons.pcviz.cbioportal.AlterationProviderAdaptor;
+import org.pathwaycommons.pcviz.cbioportal.Change;
+import org.pathwaycommons.pcviz.model.PropertyKey;
+import org.springframework.cache.Cache;
+
+import java.io.UncheckedIOException;
+import java.net.SocketTimeoutException;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CancerContextStreamTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TieredCacheManager cacheManager;
+    private final ExecutorService executor = Executors.newFixedThreadPool(3);
+
+    @Before
+    public void setUp() throws Exception {
+        cacheManager = new TieredCacheManager(
+            new DiskStore(folder.newFolder("tiered").toPath(), 1 << 20), new CacheBudget(1 << 16, 0, 1 << 10, 0));
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testStreamContext() throws Exception {
+        Cache cache = cacheManager.getCache(CancerContextService.CONTEXT_CACHE);
+        HashMap<String, Double> cached = new HashMap<String, Double>();
+        cached.put(PropertyKey.ALTERED.toString(), 1.0);
+        cache.put("study/mutation/A", cached);
+
+        // C is fetched after E has been streamed; D fails
+        CountDownLatch streamedE = new CountDownLatch(1);
+        CancerContextCacheTest.TestProvider provider = new CancerContextCacheTest.TestProvider(gene -> {
+            if (gene.equals("C")) {
+                try {
+                    assertTrue(streamedE.await(10, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            if (gene.equals("D"))
+                throw new UncheckedIOException(new SocketTimeoutException("Read timed out"));
+            return CancerContextCacheTest.mutated(gene, Change.INHIBITING, Change.NO_CHANGE);
+        }) {
+            @Override
+            public boolean isCached(String id) {
+                return id.equals("B"); // no need to query the portal
+            }
+        };
+        CancerContextService service = new CancerContextService(null, cacheManager, null, null, null) {
+            @Override
+            AlterationProviderAdaptor getAlterationProvider(String studyId, String profiles) {
+                return provider;
+            }
+        };
+        service.setContextFetcher(executor);
+
+        Thread caller = Thread.currentThread();
+        List<String> streamed = new ArrayList<String>();
+        service.streamContext("study", "mutation", "a,B,C,D,E", (gene, data) -> {
+            assertSame(caller, Thread.currentThread());
+            streamed.add(gene);
+            if (gene.equals("E"))
+                streamedE.countDown();
+        });
+
+        // the cached one, the one at hand, then the fetched ones as they come; D is left out
+        assertEquals(Arrays.asList("A", "B", "E", "C"), streamed);
+        assertNull(cache.get("study/mutation/D"));
+        assertNotNull(cache.get("study/mutation/C"));
+        assertEquals(4, service.loadContext("study", "mutation", "A,B,C,E").size());
+    }
+}
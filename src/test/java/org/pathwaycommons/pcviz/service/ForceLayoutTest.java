@@ -0,0 +1,58 @@
+package org.pathwaycommons.pcviz.service;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ForceLayoutTest {
+
+    private static final long BUDGET = TimeUnit.MINUTES.toNanos(1);
+
+    private static double distance(ForceLayout layout, int a, int b) {
+        double dx = layout.getX()[a] - layout.getX()[b], dy = layout.getY()[a] - layout.getY()[b];
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    @Test
+    public void testLayout() {
+        // two triangles joined by an edge
+        int[] sources = {0, 1, 2, 3, 4, 5, 2};
+        int[] targets = {1, 2, 0, 4, 5, 3, 3};
+        ForceLayout layout = new ForceLayout(6, sources, targets);
+        assertTrue(layout.run(300, BUDGET));
+
+        for (int a = 0; a < 6; a++)
+            for (int b = a + 1; b < 6; b++)
+                assertTrue(distance(layout, a, b) > ForceLayout.EDGE_LENGTH / 4);
+        // neighbors are closer than non-neighbors
+        assertTrue(distance(layout, 0, 1) < distance(layout, 0, 4));
+        assertTrue(distance(layout, 3, 4) < distance(layout, 1, 5));
+    }
+
+    @Test
+    public void testDeterministic() {
+        // large enough for the parallel computation
+        int n = 1500, m = 3000;
+        Random random = new Random(1);
+        int[] sources = new int[m], targets = new int[m];
+        for (int e = 0; e < m; e++) {
+            sources[e] = random.nextInt(n);
+            targets[e] = random.nextInt(n);
+        }
+        ForceLayout a = new ForceLayout(n, sources, targets), b = new ForceLayout(n, sources, targets);
+        assertTrue(a.run(20, BUDGET));
+        assertTrue(b.run(20, BUDGET));
+        assertTrue(Arrays.equals(a.getX(), b.getX()));
+        assertTrue(Arrays.equals(a.getY(), b.getY()));
+    }
+
+    @Test
+    public void testBudget() {
+        ForceLayout layout = new ForceLayout(100, new int[0], new int[0]);
+        assertFalse(layout.run(100, -1));
+    }
+}
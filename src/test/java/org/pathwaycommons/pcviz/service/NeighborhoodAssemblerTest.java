@@ -0,0 +1,160 @@
+package org.pathwaycommons.pcviz.service;
+
+import org.junit.After;
+import org.junit.Test;
+import org.pathwaycommons.pcviz.model.SifEdgeList;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class NeighborhoodAssemblerTest {
+
+    // a small interaction network; the stub upstream neighborhood of a gene set
+    // is all the interactions of these genes (as of a graph query of limit 1)
+    private static final String[][] INTERACTIONS = {
+        {"A", "controls-state-change-of", "B"},
+        {"B", "in-complex-with", "C"},
+        {"C", "controls-expression-of", "D"},
+        {"D", "controls-state-change-of", "A"},
+        {"E", "in-complex-with", "F"},
+        {"F", "controls-state-change-of", "G"},
+        {"G", "controls-expression-of", "A"},
+        {"H", "catalysis-precedes", "B"},
+    };
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private final Map<Set<String>, SifEdgeList> store = new HashMap<Set<String>, SifEdgeList>();
+    private final AtomicInteger upstreamQueries = new AtomicInteger();
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static SifEdgeList upstream(Set<String> seeds) {
+        StringBuilder txt = new StringBuilder("PARTICIPANT_A\tINTERACTION_TYPE\tPARTICIPANT_B\tINTERACTION_DATA_SOURCE\tINTERACTION_PUBMED_ID\n");
+        for (String[] i : INTERACTIONS)
+            if (seeds.contains(i[0]) || seeds.contains(i[2]))
+                txt.append(i[0]).append('\t').append(i[1]).append('\t').append(i[2]).append("\tpc\t1;2\n");
+        return SifEdgeList.parse(txt.toString(), seeds);
+    }
+
+    private static Set<String> edges(SifEdgeList sif) {
+        Set<String> edges = new TreeSet<String>();
+        for (int i = 0; i < sif.size(); i++)
+            edges.add(sif.getSource(i) + " " + sif.getType(i) + " " + sif.getTarget(i) + " "
+                + Arrays.toString(sif.getDataSources(i)) + Arrays.toString(sif.getPublications(i)));
+        return edges;
+    }
+
+    private NeighborhoodAssembler assembler(int maxSplit) {
+        return new NeighborhoodAssembler(
+            new NeighborhoodAssembler.Store() {
+                @Override
+                public SifEdgeList get(Set<String> seeds) {
+                    synchronized (store) {
+                        return store.get(seeds);
+                    }
+                }
+
+                @Override
+                public void put(Set<String> seeds, SifEdgeList sif) {
+                    synchronized (store) {
+                        store.put(new TreeSet<String>(seeds), sif);
+                    }
+                }
+            },
+            seeds -> {
+                upstreamQueries.incrementAndGet();
+                return upstream(seeds);
+            },
+            executor, maxSplit);
+    }
+
+    private static Set<String> genes(String... genes) {
+        return new TreeSet<String>(Arrays.asList(genes));
+    }
+
+    private void assertSameAsUpstream(NeighborhoodAssembler assembler, Set<String> seeds, int expectedQueries)
+        throws Exception
+    {
+        upstreamQueries.set(0);
+        SifEdgeList sif = assembler.assemble(seeds);
+        assertEquals(edges(upstream(seeds)), edges(sif));
+        assertEquals(seeds, sif.getSeeds());
+        assertEquals(expectedQueries, upstreamQueries.get());
+    }
+
+    @Test
+    public void testSubsets() throws Exception {
+        NeighborhoodAssembler assembler = assembler(10);
+        assertSameAsUpstream(assembler, genes("A", "B", "C"), 3); // gene by gene
+        assertSameAsUpstream(assembler, genes("A", "C"), 0);
+        assertSameAsUpstream(assembler, genes("B"), 0);
+        assertSameAsUpstream(assembler, genes("A", "B", "C", "D"), 1); // only D is new
+        assertSameAsUpstream(assembler, genes("D", "A"), 0);
+    }
+
+    @Test
+    public void testLargeQuery() throws Exception {
+        NeighborhoodAssembler assembler = assembler(2);
+        assertSameAsUpstream(assembler, genes("E", "F", "G"), 1); // too many to split
+        assertSameAsUpstream(assembler, genes("E", "F", "G"), 0);
+        assertSameAsUpstream(assembler, genes("E", "F", "G", "H"), 1); // the cached set + H
+        assertSameAsUpstream(assembler, genes("E", "F"), 2); // not derivable from {E,F,G}
+        assertSameAsUpstream(assembler, genes("E", "F", "H"), 0);
+
+        // evicted from the store - queried again
+        store.remove(genes("H"));
+        assertSameAsUpstream(assembler, genes("E", "H"), 1);
+    }
+
+    @Test
+    public void testAllSubsets() throws Exception {
+        NeighborhoodAssembler assembler = assembler(3);
+        String[] all = {"A", "B", "C", "D", "E", "F", "G", "H"};
+        Random random = new Random(1);
+        for (int n = 0; n < 50; n++) {
+            Set<String> seeds = new TreeSet<String>();
+            while (seeds.size() < 1 + random.nextInt(all.length))
+                seeds.add(all[random.nextInt(all.length)]);
+            upstreamQueries.set(0);
+            assertEquals(edges(upstream(seeds)), edges(assembler.assemble(seeds)));
+        }
+        // by now, every gene's neighborhood is cached
+        for (String gene : all)
+            assertSameAsUpstream(assembler, genes(gene), 0);
+    }
+
+    @Test
+    public void testCover() {
+        NeighborhoodAssembler assembler = assembler(10);
+        assembler.add(genes("A"));
+        assembler.add(genes("A", "B"));
+        assembler.add(genes("B", "C", "D"));
+        assembler.add(genes("C", "X"));
+        assertEquals(Arrays.asList(genes("B", "C", "D"), genes("A")), assembler.cover(genes("A", "B", "C", "D")));
+        assertEquals(Arrays.asList(genes("A", "B")), assembler.cover(genes("A", "B", "C")));
+        assembler.remove(genes("A", "B"));
+        assertEquals(Arrays.asList(genes("A")), assembler.cover(genes("A", "B", "C")));
+    }
+
+    @Test
+    public void testListener() throws Exception {
+        NeighborhoodAssembler assembler = assembler(10);
+        assembler.assemble(genes("A", "B"));
+
+        List<SifEdgeList> parts = new ArrayList<SifEdgeList>();
+        SifEdgeList sif = assembler.assemble(genes("A", "B", "C", "D"), parts::add);
+        assertEquals(4, parts.size()); // A, B cached (first); C, D queried
+        Set<String> cached = new TreeSet<String>(parts.get(0).getSeeds());
+        cached.addAll(parts.get(1).getSeeds());
+        assertEquals(genes("A", "B"), cached);
+        assertEquals(edges(sif), edges(SifEdgeList.union(parts)));
+        assertEquals(edges(upstream(genes("A", "B", "C", "D"))), edges(sif));
+    }
+}
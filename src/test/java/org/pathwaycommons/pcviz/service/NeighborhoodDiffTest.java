@@ -0,0 +1,177 @@
+package org.pathwaycommons.pcviz.service;
+
+import org.junit.Test;
+import org.pathwaycommons.pcviz.model.SifEdgeList;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class NeighborhoodDiffTest {
+
+    // source, type, target, edge co-citations
+    private static final String[][] INTERACTIONS = {
+        {"A", "controls-state-change-of", "B", "5"},
+        {"B", "in-complex-with", "C", "0"},
+        {"C", "controls-expression-of", "D", "3"},
+        {"D", "controls-state-change-of", "A", "1"},
+        {"E", "in-complex-with", "F", "7"},
+        {"F", "controls-state-change-of", "G", "2"},
+        {"G", "controls-expression-of", "A", "4"},
+        {"H", "catalysis-precedes", "B", "6"},
+    };
+    // node co-citations
+    private static final Map<String, Integer> NODES = new HashMap<String, Integer>();
+    static {
+        String[] names = {"A", "B", "C", "D", "E", "F", "G", "H", "X"};
+        for (int i = 0; i < names.length; i++)
+            NODES.put(names[i], i);
+    }
+
+    /*
+     * The neighborhood of a gene: its interactions,
+     * and for C also an interaction of its neighbors (as can be in a complex).
+     */
+    private static List<String[]> neighborhood(String gene) {
+        List<String[]> edges = new ArrayList<String[]>();
+        for (String[] i : INTERACTIONS)
+            if (i[0].equals(gene) || i[2].equals(gene) || (gene.equals("C") && i[0].equals("H")))
+                edges.add(i);
+        return edges;
+    }
+
+    private static RankedEdges ranked(String gene) {
+        List<String[]> edges = neighborhood(gene);
+        StringBuilder txt = new StringBuilder("PARTICIPANT_A\tINTERACTION_TYPE\tPARTICIPANT_B\n");
+        int[] edgeCo = new int[edges.size()], srcCo = new int[edges.size()], tgtCo = new int[edges.size()];
+        for (int i = 0; i < edges.size(); i++) {
+            String[] e = edges.get(i);
+            txt.append(e[0]).append('\t').append(e[1]).append('\t').append(e[2]).append("\tpc\t1\n");
+            edgeCo[i] = Integer.parseInt(e[3]);
+            srcCo[i] = NODES.get(e[0]);
+            tgtCo[i] = NODES.get(e[2]);
+        }
+        return new RankedEdges(SifEdgeList.parse(txt.toString(), Collections.singleton(gene)), edgeCo, srcCo, tgtCo);
+    }
+
+    private static boolean selected(String[] e, int minE, int minN) {
+        return Integer.parseInt(e[3]) >= minE && NODES.get(e[0]) >= minN && NODES.get(e[2]) >= minN;
+    }
+
+    // the network as rendered from scratch: edge keys and node -> is seed
+    private static Set<String> edges(Set<String> seeds, int minE, int minN) {
+        Set<String> edges = new TreeSet<String>();
+        for (String seed : seeds)
+            for (String[] e : neighborhood(seed))
+                if (selected(e, minE, minN))
+                    edges.add(RankedEdges.edgeKey(e[0], e[1], e[2]));
+        return edges;
+    }
+
+    private static Set<String> nodes(Set<String> seeds, int minE, int minN) {
+        Set<String> nodes = new TreeSet<String>();
+        for (String edge : edges(seeds, minE, minN)) {
+            String[] e = edge.split("\t");
+            nodes.add(e[0]);
+            nodes.add(e[2]);
+        }
+        return nodes.isEmpty() ? new TreeSet<String>(seeds) : nodes;
+    }
+
+    // node -> importance, as NodeRanker works it out for the whole network
+    private static Map<String, Integer> importance(Set<String> seeds, int minE, int minN) {
+        List<String> nodes = new ArrayList<String>(nodes(seeds, minE, minN));
+        Set<String> edges = edges(seeds, minE, minN);
+        int[] sources = new int[edges.size()], targets = new int[edges.size()];
+        int i = 0;
+        for (String edge : edges) {
+            String[] e = edge.split("\t");
+            sources[i] = nodes.indexOf(e[0]);
+            targets[i++] = nodes.indexOf(e[2]);
+        }
+        boolean[] isSeed = new boolean[nodes.size()];
+        for (int v = 0; v < nodes.size(); v++)
+            isSeed[v] = seeds.contains(nodes.get(v));
+        int[] importance = new NodeRanker(nodes.size(), sources, targets, isSeed, new int[nodes.size()])
+            .getImportance();
+        Map<String, Integer> map = new TreeMap<String, Integer>();
+        for (int v = 0; v < nodes.size(); v++)
+            map.put(nodes.get(v), importance[v]);
+        return map;
+    }
+
+    private static Set<String> keys(List<NeighborhoodDiff.EdgeRef> refs) {
+        Set<String> keys = new TreeSet<String>();
+        for (NeighborhoodDiff.EdgeRef ref : refs) {
+            SifEdgeList sif = ref.edges.getSif();
+            assertTrue(keys.add(RankedEdges.edgeKey(sif.getSource(ref.edge), sif.getType(ref.edge), sif.getTarget(ref.edge))));
+        }
+        return keys;
+    }
+
+    private static <T> Set<T> minus(Set<T> a, Set<T> b) {
+        Set<T> diff = new TreeSet<T>(a);
+        diff.removeAll(b);
+        return diff;
+    }
+
+    private static void assertDiff(Set<String> oldSeeds, Set<String> newSeeds, int minE, int minN) {
+        Map<String, RankedEdges> neighborhoods = new HashMap<String, RankedEdges>();
+        for (String gene : oldSeeds)
+            neighborhoods.put(gene, ranked(gene));
+        for (String gene : newSeeds)
+            neighborhoods.put(gene, ranked(gene));
+        NeighborhoodDiff diff = new NeighborhoodDiff(oldSeeds, newSeeds, neighborhoods, minE, minN);
+
+        String msg = oldSeeds + " -> " + newSeeds + " (" + minE + ", " + minN + ")";
+        Set<String> oldEdges = edges(oldSeeds, minE, minN), newEdges = edges(newSeeds, minE, minN);
+        assertEquals(msg, minus(newEdges, oldEdges), keys(diff.addedEdges));
+        assertEquals(msg, minus(oldEdges, newEdges), keys(diff.removedEdges));
+
+        Set<String> oldNodes = nodes(oldSeeds, minE, minN), newNodes = nodes(newSeeds, minE, minN);
+        assertEquals(msg, minus(newNodes, oldNodes), diff.addedNodes);
+        assertEquals(msg, minus(oldNodes, newNodes), diff.removedNodes);
+        Set<String> updated = new TreeSet<String>();
+        for (String node : newNodes)
+            if (oldNodes.contains(node) && oldSeeds.contains(node) != newSeeds.contains(node))
+                updated.add(node);
+        assertEquals(msg, updated, diff.updatedNodes);
+
+        // the old importance, updated with that of the diff, is the new one
+        Map<String, Integer> importance = importance(oldSeeds, minE, minN);
+        importance.keySet().retainAll(newNodes);
+        assertTrue(msg, diff.importance.keySet().containsAll(diff.addedNodes));
+        importance.putAll(diff.importance);
+        assertEquals(msg, importance(newSeeds, minE, minN), importance);
+    }
+
+    private static Set<String> genes(String... genes) {
+        return new TreeSet<String>(Arrays.asList(genes));
+    }
+
+    @Test
+    public void testDiff() {
+        assertDiff(genes("A"), genes("A", "B"), 0, 0);
+        assertDiff(genes("A", "B"), genes("A"), 0, 0);
+        assertDiff(genes("A", "C"), genes("A"), 0, 0); // H-B is only in C's neighborhood
+        assertDiff(genes("X"), genes("X", "E"), 0, 0); // from no edges
+        assertDiff(genes("E", "X"), genes("X"), 0, 0); // to no edges
+        assertDiff(genes("A"), genes("A"), 0, 0);
+    }
+
+    @Test
+    public void testRandom() {
+        String[] all = NODES.keySet().toArray(new String[0]);
+        Random random = new Random(1);
+        for (int n = 0; n < 500; n++) {
+            Set<String> oldSeeds = new TreeSet<String>(), newSeeds = new TreeSet<String>();
+            while (oldSeeds.size() < 1 + random.nextInt(4))
+                oldSeeds.add(all[random.nextInt(all.length)]);
+            newSeeds.addAll(oldSeeds);
+            newSeeds.add(all[random.nextInt(all.length)]);
+            if (random.nextBoolean())
+                newSeeds.remove(all[random.nextInt(all.length)]);
+            assertDiff(oldSeeds, newSeeds, random.nextInt(4), random.nextInt(4));
+        }
+    }
+}
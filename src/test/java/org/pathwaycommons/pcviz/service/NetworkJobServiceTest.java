@@ -0,0 +1,188 @@
+package org.pathwaycommons.pcviz.service;
+
+import cpath.service.GraphType;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class NetworkJobServiceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<NetworkJobService> services = new ArrayList<NetworkJobService>();
+
+    /*
+     * creates the networks of the genes in the order they are asked for; a "BLOCK" network waits
+     * for the latch, a "FAIL" one fails as many times as set
+     */
+    static class TestPathwayCommonsService extends PathwayCommonsService {
+        final List<Set<String>> created = Collections.synchronizedList(new ArrayList<Set<String>>());
+        final Map<String, Integer> failures = new ConcurrentHashMap<String, Integer>();
+        final CountDownLatch unblock = new CountDownLatch(1);
+
+        @Override
+        public String createNetwork(GraphType type, Collection<String> genes) throws IOException {
+            if (genes.contains("BLOCK")) {
+                try {
+                    unblock.await();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+            if (failures.getOrDefault(genes.iterator().next(), 0) > 0) {
+                failures.merge(genes.iterator().next(), -1, Integer::sum);
+                throw new IOException("Pathway Commons query failed");
+            }
+            created.add(new TreeSet<String>(genes));
+            return "{}";
+        }
+
+        @Override
+        public boolean isCached(GraphType type, Collection<String> genes) {
+            return false;
+        }
+
+        @Override
+        public String registerNetwork(GraphType type, Collection<String> genes) {
+            return getNetworkKey(type, genes);
+        }
+    }
+
+    private NetworkJobService start(TestPathwayCommonsService pc, int threads, int maxQueued, long geneDelayMillis) {
+        NetworkJobService service = new NetworkJobService(pc, folder.getRoot().getPath(), threads, maxQueued,
+            geneDelayMillis);
+        service.init();
+        services.add(service);
+        return service;
+    }
+
+    @After
+    public void tearDown() {
+        for (NetworkJobService service : services)
+            service.destroy();
+    }
+
+    private static void awaitFinished(NetworkJobService.NetworkJob job) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!job.isFinished() && System.currentTimeMillis() < deadline)
+            job.await(job.getStatus(), 100);
+        assertTrue(job.isFinished());
+    }
+
+    @Test
+    public void testSameQuerySameJob() throws Exception {
+        TestPathwayCommonsService pc = new TestPathwayCommonsService();
+        NetworkJobService service = start(pc, 1, 10, 0);
+
+        NetworkJobService.NetworkJob job = service.submit(GraphType.NEIGHBORHOOD, Arrays.asList("TP53", "MDM2"));
+        assertSame(job, service.submit(GraphType.NEIGHBORHOOD, Arrays.asList(" MDM2", "TP53")));
+        awaitFinished(job);
+        assertSame(job, service.submit(GraphType.NEIGHBORHOOD, Arrays.asList("MDM2", "TP53")));
+        assertEquals(NetworkJobService.Status.DONE, job.getStatus());
+        assertSame(job, service.getJob(job.getId()));
+        assertEquals(1, pc.created.size());
+
+        assertNotSame(job, service.submit(GraphType.PATHSBETWEEN, Arrays.asList("MDM2", "TP53")));
+    }
+
+    @Test
+    public void testFailedJobRequeued() throws Exception {
+        TestPathwayCommonsService pc = new TestPathwayCommonsService();
+        pc.failures.put("TP53", 1);
+        NetworkJobService service = start(pc, 1, 10, 0);
+
+        NetworkJobService.NetworkJob job = service.submit(GraphType.NEIGHBORHOOD, Collections.singleton("TP53"));
+        awaitFinished(job);
+        assertEquals(NetworkJobService.Status.FAILED, job.getStatus());
+        assertTrue(job.getError().contains("Pathway Commons query failed"));
+
+        NetworkJobService.NetworkJob again = service.submit(GraphType.NEIGHBORHOOD, Collections.singleton("TP53"));
+        assertNotSame(job, again);
+        awaitFinished(again);
+        assertEquals(NetworkJobService.Status.DONE, again.getStatus());
+        assertNull(again.getError());
+        assertEquals(NetworkJobService.Status.DONE, again.snapshot().getStatus());
+    }
+
+    @Test
+    public void testPriority() throws Exception {
+        TestPathwayCommonsService pc = new TestPathwayCommonsService();
+        NetworkJobService service = start(pc, 1, 10, 20);
+        NetworkJobService.NetworkJob blocker = service.submit(GraphType.NEIGHBORHOOD, Collections.singleton("BLOCK"));
+        blocker.await(NetworkJobService.Status.QUEUED, 10000);
+
+        Set<String> large = new TreeSet<String>(Arrays.asList("A1", "A2", "A3", "A4", "A5"));
+        service.submit(GraphType.PATHSBETWEEN, large); // +100 ms
+        // a small job submitted soon after overtakes the large one
+        service.submit(GraphType.NEIGHBORHOOD, Collections.singleton("B")); // +20 ms
+        // but not one submitted later than the large one's delay
+        Thread.sleep(150);
+        NetworkJobService.NetworkJob last = service.submit(GraphType.NEIGHBORHOOD, Collections.singleton("C"));
+        assertEquals(3, service.getQueued());
+
+        pc.unblock.countDown();
+        awaitFinished(last);
+        assertEquals(Arrays.asList(Collections.singleton("BLOCK"), Collections.singleton("B"), large,
+            Collections.singleton("C")), new ArrayList<Set<String>>(pc.created));
+    }
+
+    @Test
+    public void testQueueLimit() throws Exception {
+        TestPathwayCommonsService pc = new TestPathwayCommonsService();
+        NetworkJobService service = start(pc, 1, 1, 0);
+        NetworkJobService.NetworkJob blocker = service.submit(GraphType.NEIGHBORHOOD, Collections.singleton("BLOCK"));
+        blocker.await(NetworkJobService.Status.QUEUED, 10000);
+
+        service.submit(GraphType.NEIGHBORHOOD, Collections.singleton("A"));
+        try {
+            service.submit(GraphType.NEIGHBORHOOD, Collections.singleton("B"));
+            fail("the queue is full");
+        } catch (IllegalStateException e) {
+        }
+        assertNull(service.getJob(pc.getNetworkKey(GraphType.NEIGHBORHOOD, Collections.singleton("B"))));
+        // but the queued one is still the same job
+        assertNotNull(service.submit(GraphType.NEIGHBORHOOD, Collections.singleton("A")));
+        pc.unblock.countDown();
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        TestPathwayCommonsService pc = new TestPathwayCommonsService();
+        NetworkJobService service = start(pc, 1, 10, 0);
+        NetworkJobService.NetworkJob blocker = service.submit(GraphType.NEIGHBORHOOD, Collections.singleton("BLOCK"));
+        blocker.await(NetworkJobService.Status.QUEUED, 10000);
+        NetworkJobService.NetworkJob queued = service.submit(GraphType.PATHSBETWEEN, Arrays.asList("TP53", "MDM2"));
+        service.destroy(); // saves the running (interrupted) and the queued jobs
+
+        List<String> lines = Files.readAllLines(Paths.get(folder.getRoot().getPath(), NetworkJobService.FILENAME));
+        assertEquals(2, lines.size());
+        assertTrue(lines.contains(queued.getId() + "\tPATHSBETWEEN\tMDM2,TP53\t" + queued.getSubmitted()));
+        assertTrue(pc.created.isEmpty());
+
+        TestPathwayCommonsService pc2 = new TestPathwayCommonsService();
+        pc2.unblock.countDown();
+        NetworkJobService resumed = start(pc2, 1, 10, 0);
+        NetworkJobService.NetworkJob job = resumed.getJob(queued.getId());
+        assertNotNull(job);
+        assertEquals(queued.getSubmitted(), job.getSubmitted());
+        awaitFinished(job);
+        awaitFinished(resumed.getJob(blocker.getId()));
+        assertEquals(2, pc2.created.size());
+
+        // nothing left to resume
+        resumed.destroy();
+        assertTrue(Files.readAllLines(Paths.get(folder.getRoot().getPath(), NetworkJobService.FILENAME)).isEmpty());
+    }
+}
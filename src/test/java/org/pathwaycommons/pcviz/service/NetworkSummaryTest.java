@@ -0,0 +1,124 @@
+package org.pathwaycommons.pcviz.service;
+
+import org.junit.Test;
+import org.pathwaycommons.pcviz.model.CytoscapeJsEdge;
+import org.pathwaycommons.pcviz.model.CytoscapeJsGraph;
+import org.pathwaycommons.pcviz.model.CytoscapeJsNode;
+import org.pathwaycommons.pcviz.model.PropertyKey;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class NetworkSummaryTest {
+
+    // S (seed) - A1..A4 (a clique), B1..B4 (a clique), L1..L5 (leaves of S only); A1 - B1
+    private static final String[] NODES = {"S", "A1", "A2", "A3", "A4", "B1", "B2", "B3", "B4",
+        "L1", "L2", "L3", "L4", "L5"};
+
+    private static CytoscapeJsGraph network() {
+        CytoscapeJsGraph graph = new CytoscapeJsGraph();
+        for (int v = 0; v < NODES.length; v++) {
+            CytoscapeJsNode node = new CytoscapeJsNode();
+            node.setProperty(PropertyKey.ID, NODES[v]);
+            node.setProperty(PropertyKey.ISSEED, v == 0);
+            node.setProperty(PropertyKey.CITED, 100 - v);
+            node.setProperty(PropertyKey.RANK, v);
+            graph.getNodes().add(node);
+        }
+        for (String c : new String[]{"A", "B"}) {
+            edge(graph, "S", c + "1");
+            for (int i = 1; i <= 4; i++)
+                for (int j = i + 1; j <= 4; j++)
+                    edge(graph, c + i, c + j);
+        }
+        edge(graph, "A1", "B1");
+        for (int i = 1; i <= 5; i++)
+            edge(graph, "S", "L" + i);
+        return graph;
+    }
+
+    private static void edge(CytoscapeJsGraph graph, String source, String target) {
+        CytoscapeJsEdge edge = new CytoscapeJsEdge();
+        edge.setProperty(PropertyKey.ID, source + "-in-complex-with-" + target);
+        edge.setProperty(PropertyKey.SOURCE, source);
+        edge.setProperty(PropertyKey.TARGET, target);
+        edge.setProperty(PropertyKey.CITED, 1);
+        graph.getEdges().add(edge);
+    }
+
+    private static int[] cluster(CytoscapeJsGraph graph) {
+        Map<Object, Integer> index = new HashMap<Object, Integer>();
+        for (int v = 0; v < graph.getNodes().size(); v++)
+            index.put(graph.getNodes().get(v).getProperty(PropertyKey.ID), v);
+        int m = graph.getEdges().size();
+        int[] sources = new int[m], targets = new int[m];
+        for (int e = 0; e < m; e++) {
+            sources[e] = index.get(graph.getEdges().get(e).getProperty(PropertyKey.SOURCE));
+            targets[e] = index.get(graph.getEdges().get(e).getProperty(PropertyKey.TARGET));
+        }
+        boolean[] seeds = new boolean[graph.getNodes().size()];
+        seeds[0] = true;
+        return NetworkSummary.cluster(seeds.length, sources, targets, seeds);
+    }
+
+    private static Set<Object> ids(List<? extends org.pathwaycommons.pcviz.model.CytoscapeJsElement> elements) {
+        Set<Object> ids = new TreeSet<Object>();
+        for (org.pathwaycommons.pcviz.model.CytoscapeJsElement element : elements)
+            ids.add(element.getProperty(PropertyKey.ID));
+        return ids;
+    }
+
+    @Test
+    public void testCluster() {
+        int[] group = cluster(network());
+        assertEquals(-1, group[0]);
+        for (int v = 2; v <= 4; v++)
+            assertEquals(group[1], group[v]);
+        for (int v = 6; v <= 8; v++)
+            assertEquals(group[5], group[v]);
+        assertNotEquals(group[1], group[5]);
+        for (int v = 10; v <= 13; v++)
+            assertEquals(group[9], group[v]); // all the other neighbors of S
+        assertEquals(3, new HashSet<Integer>(Arrays.asList(group[1], group[5], group[9])).size());
+        assertTrue(group[1] >= 0 && group[5] >= 0 && group[9] >= 0);
+    }
+
+    @Test
+    public void testView() {
+        CytoscapeJsGraph network = network();
+        int[] group = cluster(network);
+        CytoscapeJsGraph view = NetworkSummary.view(network, group, Collections.<Integer>emptySet());
+
+        assertEquals(4, view.getNodes().size());
+        for (CytoscapeJsNode node : view.getNodes()) {
+            if (node.getProperty(PropertyKey.ID).equals(NetworkSummary.META_PREFIX + group[9])) {
+                assertEquals(5, node.getProperty(PropertyKey.MEMBERS));
+                assertEquals("L1 +4", node.getProperty(PropertyKey.LABEL));
+            }
+        }
+        // S - each group, and A - B
+        assertEquals(4, view.getEdges().size());
+        for (CytoscapeJsEdge edge : view.getEdges())
+            assertEquals(true, edge.getProperty(PropertyKey.ISMETA));
+
+        // expand all the groups, one by one: the whole network
+        Set<Object> nodes = ids(view.getNodes()), edges = ids(view.getEdges());
+        Set<Integer> expanded = new TreeSet<Integer>();
+        for (int g : new int[]{group[9], group[1], group[5]}) {
+            CytoscapeJsGraph added = NetworkSummary.expand(network, group, expanded, g);
+            nodes.remove(NetworkSummary.META_PREFIX + g);
+            for (Iterator<Object> it = edges.iterator(); it.hasNext(); ) {
+                String edge = (String) it.next();
+                if (edge.startsWith(NetworkSummary.META_PREFIX + g + "-") || edge.endsWith("-" + NetworkSummary.META_PREFIX + g))
+                    it.remove();
+            }
+            nodes.addAll(ids(added.getNodes()));
+            edges.addAll(ids(added.getEdges()));
+            expanded.add(g);
+            assertEquals(ids(NetworkSummary.view(network, group, expanded).getEdges()), edges);
+        }
+        assertEquals(ids(network.getNodes()), nodes);
+        assertEquals(ids(network.getEdges()), edges);
+    }
+}
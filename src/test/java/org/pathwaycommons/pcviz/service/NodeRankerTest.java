@@ -0,0 +1,103 @@
+package org.pathwaycommons.pcviz.service;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class NodeRankerTest {
+
+    @Test
+    public void testRank() {
+        // 0 (seed) - 1 - 2 - 3 - 4 - 5, and 6 - 7 apart
+        int[] sources = {0, 1, 2, 3, 4, 6};
+        int[] targets = {1, 2, 3, 4, 5, 7};
+        boolean[] seeds = {true, false, false, false, false, false, false, false};
+        int[] cited = {1, 5, 9, 0, 3, 7, 100, 0};
+        NodeRanker ranker = new NodeRanker(8, sources, targets, seeds, cited);
+
+        assertArrayEquals(new int[]{4, 3, 2, 1, 0, 0, 0, 0}, ranker.getImportance());
+        // then by co-citations: 6 (100), 5 (7), 4 (3), 7 (0)
+        assertArrayEquals(new int[]{0, 1, 2, 3, 6, 5, 4, 7}, ranker.getRank());
+    }
+
+    @Test
+    public void testNoEdges() {
+        NodeRanker ranker = new NodeRanker(3, new int[0], new int[0], new boolean[]{true, true, false}, new int[]{0, 2, 1});
+        assertArrayEquals(new int[]{4, 4, 0}, ranker.getImportance());
+        assertArrayEquals(new int[]{1, 0, 2}, ranker.getRank());
+    }
+
+    @Test
+    public void testLarge() {
+        // large enough for the frontier to be expanded in parallel
+        int n = 50000, m = 200000;
+        Random random = new Random(1);
+        int[] sources = new int[m], targets = new int[m];
+        for (int e = 0; e < m; e++) {
+            sources[e] = random.nextInt(n);
+            targets[e] = random.nextInt(n);
+        }
+        boolean[] seeds = new boolean[n];
+        for (int i = 0; i < 3000; i++)
+            seeds[random.nextInt(n)] = true;
+        int[] cited = new int[n];
+        for (int v = 0; v < n; v++)
+            cited[v] = random.nextInt(1000);
+
+        NodeRanker ranker = new NodeRanker(n, sources, targets, seeds, cited);
+        assertArrayEquals(importance(n, sources, targets, seeds), ranker.getImportance());
+
+        // ranks are a permutation, in the (importance desc., cited desc.) order
+        int[] byRank = new int[n];
+        Arrays.fill(byRank, -1);
+        for (int v = 0; v < n; v++) {
+            assertEquals(-1, byRank[ranker.getRank()[v]]);
+            byRank[ranker.getRank()[v]] = v;
+        }
+        for (int r = 1; r < n; r++) {
+            int a = byRank[r - 1], b = byRank[r];
+            int[] imp = ranker.getImportance();
+            assertTrue(imp[a] > imp[b] || (imp[a] == imp[b] && cited[a] >= cited[b]));
+        }
+    }
+
+    // plain breadth-first search
+    private static int[] importance(int n, int[] sources, int[] targets, boolean[] seeds) {
+        List<List<Integer>> adjacency = new ArrayList<List<Integer>>();
+        for (int v = 0; v < n; v++)
+            adjacency.add(new ArrayList<Integer>());
+        for (int e = 0; e < sources.length; e++) {
+            adjacency.get(sources[e]).add(targets[e]);
+            adjacency.get(targets[e]).add(sources[e]);
+        }
+        int[] depth = new int[n];
+        Arrays.fill(depth, -1);
+        Queue<Integer> queue = new ArrayDeque<Integer>();
+        for (int v = 0; v < n; v++)
+            if (seeds[v]) {
+                depth[v] = 0;
+                queue.add(v);
+            }
+        while (!queue.isEmpty()) {
+            int v = queue.poll();
+            for (int w : adjacency.get(v)) {
+                if (depth[w] < 0) {
+                    depth[w] = depth[v] + 1;
+                    if (depth[w] < NodeRanker.MAX_IMPORTANCE)
+                        queue.add(w);
+                }
+            }
+        }
+        int[] importance = new int[n];
+        for (int v = 0; v < n; v++)
+            importance[v] = (depth[v] < 0) ? 0 : Math.max(0, NodeRanker.MAX_IMPORTANCE - depth[v]);
+        return importance;
+    }
+}
@@ -0,0 +1,375 @@
+package org.pathwaycommons.pcviz.service;
+
+import cpath.service.GraphType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pathwaycommons.pcviz.cache.CacheBudget;
+import org.pathwaycommons.pcviz.cache.DiskStore;
+import org.pathwaycommons.pcviz.cache.NegativeCache;
+import org.pathwaycommons.pcviz.cache.TieredCacheManager;
+import org.pathwaycommons.pcviz.cluster.ClusterCache;
+import org.pathwaycommons.pcviz.model.CytoscapeJsEdge;
+import org.pathwaycommons.pcviz.model.CytoscapeJsElement;
+import org.pathwaycommons.pcviz.model.CytoscapeJsGraph;
+import org.pathwaycommons.pcviz.model.CytoscapeJsGraphDelta;
+import org.pathwaycommons.pcviz.model.CytoscapeJsNode;
+import org.pathwaycommons.pcviz.model.GeneValidation;
+import org.pathwaycommons.pcviz.model.PropertyKey;
+import org.springframework.cache.CacheManager;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class PathwayCommonsServiceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TieredCacheManager cacheManager;
+
+    private final List<PathwayCommonsService> services = new ArrayList<PathwayCommonsService>();
+
+    // source, type, target
+    static final String[][] EDGES = {
+        {"TP53", "controls-expression-of", "MDM2"},
+        {"MDM2", "controls-state-change-of", "TP53"},
+        {"TP53", "in-complex-with", "EP300"},
+        {"EP300", "controls-state-change-of", "CREBBP"},
+        {"CREBBP", "in-complex-with", "EP300"},
+        {"ATM", "controls-state-change-of", "TP53"},
+        {"ATM", "controls-state-change-of", "CHEK2"},
+        {"CHEK2", "controls-state-change-of", "CDC25A"},
+        {"CDK2", "controls-state-change-of", "CDC25A"},
+        {"MDM2", "controls-state-change-of", "MDM4"}
+    };
+
+    /*
+     * answers the graph queries from EDGES (the edges of the query genes) and counts them;
+     * or fails, while down
+     */
+    static class TestPathwayCommonsService extends PathwayCommonsService {
+        final List<Set<String>> queries = Collections.synchronizedList(new ArrayList<Set<String>>());
+        volatile boolean down;
+
+        TestPathwayCommonsService(CacheManager cacheManager, NegativeCache negativeCache, String cacheDir) {
+            super(new TestGeneNameService(), new TestCocitationManager(), cacheManager, negativeCache, cacheDir);
+        }
+
+        @Override
+        String queryUpstream(GraphType type, Collection<String> genes) throws IOException {
+            queries.add(new TreeSet<String>(genes));
+            if (down)
+                throw new IOException("Pathway Commons is down");
+            StringBuilder txt = new StringBuilder("PARTICIPANT_A\tINTERACTION_TYPE\tPARTICIPANT_B\n");
+            for (String[] edge : EDGES) {
+                if (genes.contains(edge[0]) || genes.contains(edge[2]))
+                    txt.append(edge[0]).append('\t').append(edge[1]).append('\t').append(edge[2]).append('\n');
+            }
+            return txt.toString();
+        }
+    }
+
+    /*
+     * all the names are valid; P53 is a synonym of TP53
+     */
+    static class TestGeneNameService extends GeneNameService {
+        @Override
+        public GeneValidation validate(String name) {
+            GeneValidation validation = new GeneValidation();
+            validation.setQuery(name);
+            validation.getMatches().add(name);
+            return validation;
+        }
+
+        @Override
+        public String getUniprotId(String symbol) {
+            return (symbol.equals("TP53") || symbol.equals("P53")) ? "P04637" : null;
+        }
+    }
+
+    /*
+     * the genes are co-cited with those they share an edge with, as often as the lengths of their names
+     */
+    static class TestCocitationManager extends CocitationManager {
+        @Override
+        public Map<String, Integer> getCocitations(String symbol) {
+            Map<String, Integer> map = new HashMap<String, Integer>();
+            for (String[] edge : EDGES) {
+                if (edge[0].equals(symbol))
+                    map.put(edge[2], edge[2].length());
+                else if (edge[2].equals(symbol))
+                    map.put(edge[0], edge[0].length());
+            }
+            return map;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        cacheManager = new TieredCacheManager(
+            new DiskStore(folder.newFolder("tiered").toPath(), 1 << 20), new CacheBudget(1 << 16, 0, 1 << 10, 0));
+    }
+
+    @After
+    public void tearDown() {
+        for (PathwayCommonsService service : services)
+            service.destroy();
+    }
+
+    TestPathwayCommonsService start(NegativeCache negativeCache) throws IOException {
+        return start(negativeCache, cacheManager, folder.getRoot().getPath());
+    }
+
+    TestPathwayCommonsService start(NegativeCache negativeCache, CacheManager cacheManager, String cacheDir)
+        throws IOException {
+        TestPathwayCommonsService service = new TestPathwayCommonsService(cacheManager, negativeCache, cacheDir);
+        service.init();
+        services.add(service);
+        return service;
+    }
+
+    @Test
+    public void testSynonymsShareKey() throws Exception {
+        PathwayCommonsService service = start(new NegativeCache(60000, 60000, 100));
+        String key = service.getNetworkKey(GraphType.NEIGHBORHOOD, Arrays.asList("TP53", "MDM2"));
+        assertEquals(key, service.getNetworkKey(GraphType.NEIGHBORHOOD, Arrays.asList("MDM2 ", "P53")));
+        assertNotEquals(key, service.getNetworkKey(GraphType.PATHSBETWEEN, Arrays.asList("TP53", "MDM2")));
+        assertNotEquals(key, service.getNetworkKey(GraphType.NEIGHBORHOOD, Arrays.asList("TP53", "MDM4")));
+    }
+
+    /*
+     * A network of a failed query is not made (the controller answers 503), so nothing is cached
+     * in place of the real one; the query is not repeated until its error entry in the negative cache expires.
+     */
+    @Test
+    public void testFailedQueryNotCached() throws Exception {
+        TestPathwayCommonsService service = start(new NegativeCache(60000, 200, 100));
+        List<String> genes = Arrays.asList("TP53", "CDC25A");
+        String key = service.getNetworkKey(GraphType.PATHSBETWEEN, genes);
+
+        service.down = true;
+        try {
+            service.createNetwork(GraphType.PATHSBETWEEN, genes, 0, 0, 0);
+            fail("no network without the graph query result");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains(key));
+        }
+        assertFalse(service.isCached(GraphType.PATHSBETWEEN, genes));
+        assertFalse(Files.exists(service.getSifFile(key)));
+
+        service.down = false;
+        try {
+            service.createNetwork(GraphType.PATHSBETWEEN, genes, 0, 0, 0);
+            fail("the failed query is not repeated right away");
+        } catch (IOException e) {
+            assertEquals(1, service.queries.size());
+        }
+
+        Thread.sleep(300);
+        service.createNetwork(GraphType.PATHSBETWEEN, genes, 0, 0, 0);
+        assertEquals(2, service.queries.size());
+        assertTrue(service.isCached(GraphType.PATHSBETWEEN, genes));
+        assertTrue(Files.exists(service.getSifFile(key)));
+    }
+
+    /*
+     * A network of no data (the seeds alone) is not kept in the caches (see hasNoData, the unless condition
+     * of the network caches), so the query runs again once its no-data entry in the negative cache expires;
+     * the same for a neighborhood assembled of the genes' own.
+     */
+    @Test
+    public void testNoDataNotCached() throws Exception {
+        TestPathwayCommonsService service = start(new NegativeCache(200, 60000, 100));
+        List<String> gene = Collections.singletonList("TP35");
+        List<String> genes = Arrays.asList("TP35", "MDM3");
+
+        service.createNetwork(GraphType.NEIGHBORHOOD, gene);
+        assertTrue(service.hasNoData(GraphType.NEIGHBORHOOD, gene));
+        assertFalse(service.isCached(GraphType.NEIGHBORHOOD, gene));
+        service.createNetwork(GraphType.NEIGHBORHOOD, genes);
+        assertTrue(service.hasNoData(GraphType.NEIGHBORHOOD, genes));
+        assertFalse(service.isCached(GraphType.NEIGHBORHOOD, genes));
+        assertEquals(2, service.queries.size()); // TP35, then MDM3
+
+        service.createNetwork(GraphType.NEIGHBORHOOD, gene);
+        service.createNetwork(GraphType.NEIGHBORHOOD, genes);
+        assertEquals(2, service.queries.size());
+
+        Thread.sleep(300);
+        assertFalse(service.hasNoData(GraphType.NEIGHBORHOOD, gene));
+        service.createNetwork(GraphType.NEIGHBORHOOD, gene);
+        assertEquals(3, service.queries.size());
+        assertTrue(service.hasNoData(GraphType.NEIGHBORHOOD, gene));
+        assertFalse(service.hasNoData(GraphType.NEIGHBORHOOD, Collections.singletonList("TP53")));
+    }
+
+    private static Map<Object, Object> importance(CytoscapeJsGraph network) {
+        Map<Object, Object> importance = new TreeMap<Object, Object>();
+        for (CytoscapeJsNode node : network.getNodes())
+            importance.put(node.getProperty(PropertyKey.ID), node.getProperty(PropertyKey.IMPORTANCE));
+        return importance;
+    }
+
+    /*
+     * The displayed network's importance, updated with the delta's, is that of the new network
+     * (the client re-ranks the nodes by it).
+     */
+    private static void assertDelta(PathwayCommonsService service, Set<String> oldGenes, Set<String> newGenes,
+                                    int minEdgeCitations, int minNodeCitations) throws IOException {
+        String key = service.registerNetwork(GraphType.NEIGHBORHOOD, oldGenes);
+        Set<String> add = new TreeSet<String>(newGenes), remove = new TreeSet<String>(oldGenes);
+        add.removeAll(oldGenes);
+        remove.removeAll(newGenes);
+        CytoscapeJsGraphDelta delta = service.getNetworkDelta(key, add, remove, minEdgeCitations, minNodeCitations);
+        assertEquals(new ArrayList<String>(newGenes), delta.getGenes());
+
+        Map<Object, Object> importance = importance(
+            service.getNetwork(GraphType.NEIGHBORHOOD, oldGenes, minEdgeCitations, minNodeCitations));
+        importance.keySet().removeAll(delta.getRemoveNodes());
+        for (CytoscapeJsNode node : delta.getAdd().getNodes()) {
+            assertNotNull(node.getProperty(PropertyKey.IMPORTANCE));
+            importance.put(node.getProperty(PropertyKey.ID), node.getProperty(PropertyKey.IMPORTANCE));
+        }
+        for (CytoscapeJsNode node : delta.getUpdate().getNodes()) {
+            if (node.getProperty(PropertyKey.IMPORTANCE) != null)
+                importance.put(node.getProperty(PropertyKey.ID), node.getProperty(PropertyKey.IMPORTANCE));
+        }
+        assertEquals(oldGenes + " -> " + newGenes, importance(
+            service.getNetwork(GraphType.NEIGHBORHOOD, newGenes, minEdgeCitations, minNodeCitations)), importance);
+    }
+
+    private static Set<String> genes(String... genes) {
+        return new TreeSet<String>(Arrays.asList(genes));
+    }
+
+    @Test
+    public void testDeltaImportance() throws Exception {
+        PathwayCommonsService service = start(new NegativeCache(60000, 60000, 100));
+        assertDelta(service, genes("TP53"), genes("TP53", "CHEK2"), 0, 0);
+        assertDelta(service, genes("TP53", "CHEK2"), genes("CHEK2"), 0, 0);
+        assertDelta(service, genes("TP53", "CHEK2"), genes("CDK2", "CHEK2"), 0, 0);
+        assertDelta(service, genes("EP300"), genes("EP300", "MDM4"), 5, 0);
+        assertDelta(service, genes("MDM4"), genes("CDK2"), 0, 4);
+
+        // the importance of the nodes far from the change is left as it is
+        String key = service.registerNetwork(GraphType.NEIGHBORHOOD, genes("TP53"));
+        CytoscapeJsGraphDelta delta = service.getNetworkDelta(key, genes("CDK2"), genes(), 0, 0);
+        Set<Object> updated = new HashSet<Object>();
+        for (CytoscapeJsNode node : delta.getUpdate().getNodes())
+            updated.add(node.getProperty(PropertyKey.ID));
+        assertFalse(updated.contains("MDM2"));
+        assertFalse(updated.contains("EP300"));
+    }
+
+    /*
+     * Every way to get a network gets the raw results this node does not own from their owner,
+     * and does not keep them on disk.
+     */
+    @Test
+    public void testClusterFetch() throws Exception {
+        TestPathwayCommonsService owner = start(new NegativeCache(60000, 60000, 100), new TieredCacheManager(
+            new DiskStore(folder.newFolder("owner-tiered").toPath(), 1 << 20), new CacheBudget(1 << 16, 0, 1 << 10, 0)),
+            folder.newFolder("owner").getPath());
+        TestPathwayCommonsService service = start(new NegativeCache(60000, 60000, 100));
+        List<String> fetched = Collections.synchronizedList(new ArrayList<String>());
+        service.setClusterCache(new ClusterCache("", "", 1000, 30) {
+            @Override
+            public byte[] fetch(String key, String type, Collection<String> genes) {
+                fetched.add(key);
+                try {
+                    return ClusterCache.servePeer(() -> owner.getRawResult(GraphType.valueOf(type), genes));
+                } catch (IOException e) {
+                    return null;
+                }
+            }
+        });
+
+        service.createNetwork(GraphType.NEIGHBORHOOD, genes("TP53"));
+        service.createNetwork(GraphType.PATHSBETWEEN, genes("TP53", "CDC25A"), 0, 0, 0);
+        service.createNetworkSummary(GraphType.NEIGHBORHOOD, genes("EP300"), 0, 0, Collections.<Integer>emptySet());
+        service.streamNetwork(GraphType.NEIGHBORHOOD, genes("MDM2"), 0, 0, json -> {});
+        service.getNetworkDelta(service.registerNetwork(GraphType.NEIGHBORHOOD, genes("TP53")),
+            genes("ATM"), genes(), 0, 0);
+
+        assertTrue(service.queries.isEmpty());
+        // TP53's neighborhood for the delta is in the cache already
+        assertEquals(5, owner.queries.size());
+        assertEquals(5, fetched.size());
+        assertTrue(fetched.contains(service.getNetworkKey(GraphType.NEIGHBORHOOD, genes("ATM"))));
+        for (String key : fetched)
+            assertFalse(Files.exists(service.getSifFile(key)));
+    }
+
+    private static List<Object> ids(List<? extends CytoscapeJsElement> elements) {
+        List<Object> ids = new ArrayList<Object>();
+        for (CytoscapeJsElement element : elements)
+            ids.add(element.getProperty(PropertyKey.ID));
+        return ids;
+    }
+
+    private static List<CytoscapeJsGraphDelta> stream(PathwayCommonsService service, GraphType type,
+                                                      Set<String> genes) throws IOException {
+        List<CytoscapeJsGraphDelta> chunks = new ArrayList<CytoscapeJsGraphDelta>();
+        service.streamDeltas(type, genes, 0, 0, chunks::add);
+
+        // all together, the same network
+        CytoscapeJsGraph network = service.getNetwork(type, genes, 0, 0);
+        Set<Object> nodes = new HashSet<Object>(), edges = new HashSet<Object>();
+        for (CytoscapeJsGraphDelta chunk : chunks) {
+            nodes.addAll(ids(chunk.getAdd().getNodes()));
+            for (Object edge : ids(chunk.getAdd().getEdges()))
+                assertTrue(edges.add(edge)); // once
+        }
+        CytoscapeJsGraphDelta last = chunks.get(chunks.size() - 1);
+        nodes.removeAll(last.getRemoveNodes());
+        assertEquals(new HashSet<Object>(ids(network.getNodes())), nodes);
+        assertEquals(new HashSet<Object>(ids(network.getEdges())), edges);
+        assertEquals(new HashSet<Object>(ids(network.getNodes())), new HashSet<Object>(ids(last.getUpdate().getNodes())));
+        assertEquals(service.getNetworkKey(type, genes), last.getKey());
+        assertEquals(new ArrayList<String>(genes), last.getGenes());
+        return chunks;
+    }
+
+    @Test
+    public void testStream() throws Exception {
+        PathwayCommonsService service = start(new NegativeCache(60000, 60000, 100));
+
+        // one result: the genes' edges first, the best-cited of each gene in turn
+        List<CytoscapeJsGraphDelta> chunks = stream(service, GraphType.PATHSBETWEEN, genes("CHEK2", "TP53"));
+        assertEquals(2, chunks.size());
+        CytoscapeJsGraph first = chunks.get(0).getAdd();
+        assertEquals(Arrays.asList("CHEK2", "TP53"), ids(first.getNodes()).subList(0, 2));
+        assertEquals(Arrays.asList(
+                "CHEK2-controls-state-change-of-CDC25A", "TP53-in-complex-with-EP300",
+                "ATM-controls-state-change-of-CHEK2", "TP53-controls-expression-of-MDM2",
+                "MDM2-controls-state-change-of-TP53", "ATM-controls-state-change-of-TP53"),
+            ids(first.getEdges()));
+        for (CytoscapeJsEdge edge : first.getEdges()) {
+            assertTrue(ids(first.getNodes()).contains(edge.getProperty(PropertyKey.SOURCE)));
+            assertTrue(ids(first.getNodes()).contains(edge.getProperty(PropertyKey.TARGET)));
+        }
+
+        // a neighborhood assembled of the genes' ones: the cached part first, with the genes; then the queried one
+        service.getNetwork(GraphType.NEIGHBORHOOD, genes("CDK2"), 0, 0);
+        chunks = stream(service, GraphType.NEIGHBORHOOD, genes("CDK2", "MDM4"));
+        assertEquals(3, chunks.size());
+        assertEquals(Arrays.asList("CDK2", "MDM4", "CDC25A"), ids(chunks.get(0).getAdd().getNodes()));
+        assertEquals(Arrays.asList("CDK2-controls-state-change-of-CDC25A"), ids(chunks.get(0).getAdd().getEdges()));
+        assertEquals(Arrays.asList("MDM2"), ids(chunks.get(1).getAdd().getNodes()));
+        assertEquals(Arrays.asList("MDM2-controls-state-change-of-MDM4"), ids(chunks.get(1).getAdd().getEdges()));
+        assertTrue(chunks.get(2).getAdd().getNodes().isEmpty());
+        assertTrue(chunks.get(2).getRemoveNodes().isEmpty());
+
+        // no edges: the genes, then the genes to remove
+        chunks = stream(service, GraphType.PATHSBETWEEN, genes("NOSUCH1", "NOSUCH2"));
+        assertEquals(2, chunks.size());
+        assertEquals(Arrays.asList("NOSUCH1", "NOSUCH2"), ids(chunks.get(0).getAdd().getNodes()));
+        assertTrue(chunks.get(1).getRemoveNodes().isEmpty()); // shown as disconnected nodes
+    }
+}
@@ -0,0 +1,71 @@
+package org.pathwaycommons.pcviz.service;
+
+import cpath.service.GraphType;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class QueryLogServiceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReplay() throws Exception {
+        String dir = folder.getRoot().getPath();
+        QueryLogService queryLog = new QueryLogService(null, null, null, dir, 2, 0);
+        queryLog.init();
+        for (int i = 0; i < 3; i++)
+            queryLog.recordContext("brca_tcga", "mutation,CNA", " tp53,MDM2");
+        queryLog.recordContext("brca_tcga", "cna,mutation", "MDM2,TP53");
+        for (int i = 0; i < 2; i++)
+            queryLog.recordNetwork(GraphType.NEIGHBORHOOD, Arrays.asList("TP53", "BRCA1"));
+        queryLog.recordBioGene("9606", "TP53");
+        queryLog.destroy(); // saves the log
+
+        // the next start replays the top 2 queries, the most popular first
+        List<String> replayed = Collections.synchronizedList(new ArrayList<String>());
+        CancerContextService cancerContextService = new CancerContextService(null, null, null, null, null) {
+            @Override
+            public HashMap<String, HashMap<String, Double>> loadContext(String studyId, String profiles, String genes) {
+                replayed.add("context " + studyId + " " + profiles + " " + genes);
+                return new HashMap<String, HashMap<String, Double>>();
+            }
+        };
+        PathwayCommonsService pathwayCommonsService = new PathwayCommonsService() {
+            @Override
+            public String createNetwork(GraphType type, Collection<String> genes) throws IOException {
+                replayed.add("graph " + type + " " + genes);
+                throw new IOException("Pathway Commons is down");
+            }
+        };
+        BioGeneService bioGeneService = new BioGeneService() {
+            @Override
+            public String getData(String gene, String organism) {
+                replayed.add("biogene " + organism + " " + gene);
+                return "{}";
+            }
+        };
+
+        queryLog = new QueryLogService(pathwayCommonsService, cancerContextService, bioGeneService, dir, 2, 0);
+        queryLog.init();
+        assertEquals(3, queryLog.getTopQueries(10).size());
+        queryLog.warmUp();
+        CacheAdminService.WarmJob job = queryLog.getWarmJob();
+        for (int i = 0; i < 100 && job.isRunning(); i++)
+            Thread.sleep(50);
+        queryLog.destroy();
+
+        assertFalse(job.isRunning());
+        assertEquals(2, job.getTotal());
+        assertEquals(2, job.getDone());
+        assertEquals(1, job.getFailed());
+        assertEquals(Arrays.asList("context brca_tcga cna,mutation MDM2,TP53", "graph NEIGHBORHOOD [BRCA1, TP53]"),
+            replayed);
+    }
+}
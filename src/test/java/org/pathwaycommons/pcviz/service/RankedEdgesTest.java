@@ -0,0 +1,29 @@
+package org.pathwaycommons.pcviz.service;
+
+import org.junit.Test;
+import org.pathwaycommons.pcviz.model.SifEdgeList;
+
+import static org.junit.Assert.*;
+
+public class RankedEdgesTest {
+
+    @Test
+    public void testSelect() {
+        StringBuilder txt = new StringBuilder("PARTICIPANT_A\tINTERACTION_TYPE\tPARTICIPANT_B\n");
+        for (int i = 0; i < 6; i++)
+            txt.append("G").append(i).append("\tin-complex-with\tG").append(i + 1).append("\n");
+        SifEdgeList sif = SifEdgeList.parse(txt.toString());
+
+        int[] edgeCo = {3, 10, 0, 10, 5, 1};
+        int[] srcCo = {50, 50, 50, 2, 50, 50};
+        int[] targetCo = {50, 50, 50, 50, 50, 50};
+        RankedEdges edges = new RankedEdges(sif, edgeCo, srcCo, targetCo);
+
+        assertArrayEquals(new int[]{1, 3, 4, 0, 5, 2}, edges.select(0, 0, 0)); // ties keep the original order
+        assertArrayEquals(new int[]{1, 3}, edges.select(0, 0, 2));
+        assertArrayEquals(new int[]{1, 4, 0}, edges.select(3, 10, 0));
+        assertArrayEquals(new int[]{1, 4}, edges.select(0, 10, 2));
+        assertArrayEquals(new int[0], edges.select(11, 0, 0));
+        assertEquals("G3", sif.getSource(edges.edgeAt(1)));
+    }
+}
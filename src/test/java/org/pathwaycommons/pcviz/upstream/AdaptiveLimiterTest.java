@@ -0,0 +1,74 @@
+package org.pathwaycommons.pcviz.upstream;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveLimiterTest {
+
+    @Test
+    public void testReject() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(3, 1, 10);
+        for (int i = 0; i < 3; i++)
+            assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        limiter.release(-1);
+        assertTrue(limiter.tryAcquire());
+        assertEquals(1L, limiter.getStatistics().get("rejected"));
+    }
+
+    @Test
+    public void testAdapt() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(20, 2, 200);
+        long now = System.nanoTime();
+
+        // busy and steady: the limit grows
+        for (int window = 0; window < 20; window++)
+            now = window(limiter, now, 10);
+        int grown = limiter.getLimit();
+        assertTrue(grown > 40);
+        assertTrue(grown <= 200);
+
+        // the upstream gets 10x slower: the limit drops to a fraction
+        for (int window = 0; window < 10; window++)
+            now = window(limiter, now, 100);
+        int shrunk = limiter.getLimit();
+        assertTrue(shrunk < grown / 4);
+        assertTrue(shrunk >= 2);
+
+        // and recovers when it is fast again
+        for (int window = 0; window < 20; window++)
+            now = window(limiter, now, 10);
+        assertTrue(limiter.getLimit() > shrunk);
+    }
+
+    @Test
+    public void testIdle() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(20, 2, 200);
+        long now = System.nanoTime();
+        // a few requests at a time do not raise the limit
+        for (int window = 0; window < 20; window++) {
+            for (int i = 0; i < AdaptiveLimiter.MIN_SAMPLES; i++) {
+                assertTrue(limiter.tryAcquire());
+                now += TimeUnit.MILLISECONDS.toNanos(10);
+                limiter.release(TimeUnit.MILLISECONDS.toNanos(10), now);
+            }
+            now += AdaptiveLimiter.WINDOW_NANOS;
+        }
+        assertEquals(20, limiter.getLimit());
+    }
+
+    /*
+     * a window with all the permits taken, each request taking the time (ms); returns the time after
+     */
+    private static long window(AdaptiveLimiter limiter, long now, long millis) {
+        int n = 0;
+        while (limiter.tryAcquire())
+            n++;
+        for (int i = 0; i < n; i++)
+            limiter.release(TimeUnit.MILLISECONDS.toNanos(millis), now + AdaptiveLimiter.WINDOW_NANOS);
+        return now + AdaptiveLimiter.WINDOW_NANOS;
+    }
+}
@@ -0,0 +1,44 @@
+package org.pathwaycommons.pcviz.upstream;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import static org.junit.Assert.*;
+
+public class RequestContextInterceptorTest {
+
+    @Test
+    public void testClient() {
+        RequestContextInterceptor interceptor = new RequestContextInterceptor();
+        interceptor.setTrustedProxies("");
+        // no proxy trusted: the header is anyone's to set
+        assertEquals("10.0.0.1", interceptor.client(request("10.0.0.1", "1.2.3.4")));
+        assertEquals("10.0.0.1", interceptor.client(request("10.0.0.1", null)));
+
+        interceptor.setTrustedProxies("10.0.0.1, 10.0.0.2");
+        assertEquals("10.0.0.3", interceptor.client(request("10.0.0.3", "1.2.3.4")));
+        assertEquals("10.0.0.1", interceptor.client(request("10.0.0.1", null)));
+        assertEquals("1.2.3.4", interceptor.client(request("10.0.0.1", "1.2.3.4")));
+        // the client's own (spoofed) entries come before the one the proxy appended
+        assertEquals("1.2.3.4", interceptor.client(request("10.0.0.1", "5.6.7.8, 1.2.3.4")));
+        assertEquals("1.2.3.4", interceptor.client(request("10.0.0.1", "5.6.7.8, 1.2.3.4, 10.0.0.2")));
+        assertEquals("10.0.0.2", interceptor.client(request("10.0.0.1", "10.0.0.2")));
+    }
+
+    @Test
+    public void testCreate() {
+        RequestContextInterceptor interceptor = new RequestContextInterceptor();
+        interceptor.setTrustedProxies("");
+        RequestContext context = interceptor.create(request("10.0.0.1", "1.2.3.4"));
+        assertEquals("10.0.0.1", context.getClient());
+        assertEquals(RequestContext.Priority.INTERACTIVE, context.getPriority());
+    }
+
+    private static MockHttpServletRequest request(String remoteAddr, String forwardedFor) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/graph/neighborhood/0/TP53");
+        request.setRemoteAddr(remoteAddr);
+        if (forwardedFor != null)
+            request.addHeader("X-Forwarded-For", forwardedFor);
+        return request;
+    }
+}
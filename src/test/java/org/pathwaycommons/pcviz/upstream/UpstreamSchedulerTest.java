@@ -0,0 +1,145 @@
+package org.pathwaycommons.pcviz.upstream;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class UpstreamSchedulerTest {
+
+    @Test
+    public void testTurns() throws Exception {
+        UpstreamScheduler scheduler = new UpstreamScheduler(1, 1, 1);
+        CountDownLatch hold = block(scheduler);
+
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        List<Thread> threads = new ArrayList<Thread>();
+        // a bulk call, then a client's three calls and another client's one
+        threads.add(enqueue(scheduler, new RequestContext("warm", RequestContext.Priority.BULK, 0), "W", order));
+        for (String call : new String[]{"A1", "A2", "A3"})
+            threads.add(enqueue(scheduler, new RequestContext("a", RequestContext.Priority.INTERACTIVE, 0), call, order));
+        threads.add(enqueue(scheduler, new RequestContext("b", RequestContext.Priority.INTERACTIVE, 0), "B1", order));
+
+        hold.countDown();
+        for (Thread thread : threads)
+            thread.join(5000);
+        assertEquals("[A1, B1, A2, A3, W]", order.toString());
+        assertEquals(0, scheduler.getStatistics().get(UpstreamScheduler.PATHWAY_COMMONS).get("active"));
+    }
+
+    @Test
+    public void testDeadline() throws Exception {
+        UpstreamScheduler scheduler = new UpstreamScheduler(1, 1, 1);
+        RequestContext.set(new RequestContext("a", RequestContext.Priority.INTERACTIVE, System.currentTimeMillis() - 1));
+        try {
+            scheduler.call(UpstreamScheduler.PATHWAY_COMMONS, () -> "called");
+            fail("expired");
+        } catch (DeadlineExceededException e) {
+        } finally {
+            RequestContext.clear();
+        }
+
+        CountDownLatch hold = block(scheduler);
+        RequestContext.set(new RequestContext("a", RequestContext.Priority.INTERACTIVE, System.currentTimeMillis() + 100));
+        try {
+            scheduler.call(UpstreamScheduler.PATHWAY_COMMONS, () -> "called");
+            fail("expired while waiting");
+        } catch (DeadlineExceededException e) {
+        } finally {
+            RequestContext.clear();
+            hold.countDown();
+        }
+        assertEquals(2L, scheduler.getStatistics().get(UpstreamScheduler.PATHWAY_COMMONS).get("dropped"));
+
+        // the other upstreams are not affected
+        assertEquals("called", scheduler.call(UpstreamScheduler.BIOGENE, () -> "called"));
+    }
+
+    @Test
+    public void testBreaker() throws Exception {
+        UpstreamScheduler scheduler = new UpstreamScheduler(1, 1, 1, 2, 0);
+        for (int i = 0; i < 2; i++) {
+            try {
+                scheduler.call(UpstreamScheduler.BIOGENE, () -> {
+                    throw new IOException("down");
+                });
+                fail("failed");
+            } catch (IOException e) {
+                assertFalse(e instanceof UpstreamUnavailableException);
+            }
+        }
+        assertFalse(scheduler.isAvailable(UpstreamScheduler.BIOGENE));
+        assertTrue(scheduler.isAvailable(UpstreamScheduler.CBIOPORTAL));
+
+        // open for 0 s: the next call is a probe, which closes it
+        assertEquals("up", scheduler.call(UpstreamScheduler.BIOGENE, () -> "up"));
+        assertTrue(scheduler.isAvailable(UpstreamScheduler.BIOGENE));
+        assertEquals(1L, scheduler.getStatistics().get(UpstreamScheduler.BIOGENE).get("breakerOpened"));
+
+        scheduler = new UpstreamScheduler(1, 1, 1, 1, 60);
+        try {
+            scheduler.call(UpstreamScheduler.BIOGENE, () -> {
+                throw new IOException("down");
+            });
+        } catch (IOException e) {
+        }
+        try {
+            scheduler.call(UpstreamScheduler.BIOGENE, () -> "up");
+            fail("open");
+        } catch (UpstreamUnavailableException e) {
+        }
+        assertEquals(1L, scheduler.getStatistics().get(UpstreamScheduler.BIOGENE).get("breakerRejected"));
+    }
+
+    /*
+     * takes the only Pathway Commons permit until the latch is released
+     */
+    private static CountDownLatch block(UpstreamScheduler scheduler) throws InterruptedException {
+        CountDownLatch hold = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            try {
+                scheduler.call(UpstreamScheduler.PATHWAY_COMMONS, () -> {
+                    started.countDown();
+                    return hold.await(5, TimeUnit.SECONDS);
+                });
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+        started.await();
+        return hold;
+    }
+
+    /*
+     * starts a call and waits until it is queued
+     */
+    private static Thread enqueue(UpstreamScheduler scheduler, RequestContext context, String name, List<String> order)
+        throws InterruptedException {
+        int waiting = waiting(scheduler);
+        Thread thread = new Thread(() -> {
+            RequestContext.set(context);
+            try {
+                scheduler.call(UpstreamScheduler.PATHWAY_COMMONS, () -> order.add(name));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+        while (waiting(scheduler) == waiting)
+            Thread.sleep(1);
+        return thread;
+    }
+
+    private static int waiting(UpstreamScheduler scheduler) {
+        return (Integer) scheduler.getStatistics().get(UpstreamScheduler.PATHWAY_COMMONS).get("waitingInteractive")
+            + (Integer) scheduler.getStatistics().get(UpstreamScheduler.PATHWAY_COMMONS).get("waitingBulk");
+    }
+}